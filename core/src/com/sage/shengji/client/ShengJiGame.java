@@ -7,6 +7,7 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.Timer;
 import com.badlogic.gdx.utils.viewport.Viewport;
 import com.dosse.upnp.UPnP;
@@ -18,14 +19,20 @@ import com.sage.shengji.client.screens.*;
 import com.sage.shengji.server.Server;
 import com.sage.shengji.utils.renderable.RenderableCardEntity;
 
-import java.io.IOException;
-
 public class ShengJiGame extends Game {
     private static final Color BACKGROUND_COLOR = new Color(0, 0.2f, 0.11f, 1);
+    private static final int REJOIN_ATTEMPTS = 5;
+    private static final float REJOIN_RETRY_DELAY = 2f; // In seconds
     private static Texture backgroundTexture;
 
     private ClientGameState gameState;
     private ClientConnection clientConnection;
+    private int tableId;
+    private String playerName;
+    private Long sessionToken = null; // Handed out by the table when we're seated, to take the seat back with
+    // Render thread only. The rejoin in progress, or 0 if there isn't one; lastRejoin numbers them.
+    private int rejoin = 0;
+    private int lastRejoin = 0;
     private Server server;
     private boolean successfullyOpenedServerPort = false;
 
@@ -58,6 +65,7 @@ public class ShengJiGame extends Game {
     }
 
     public void showStartScreen() {
+        rejoin = 0; // Whatever we were trying to get back to has been left
         RenderableCardEntity.disposeAllEntities();
 
         setScreen(startScreen);
@@ -92,15 +100,99 @@ public class ShengJiGame extends Game {
     }
 
     public void joinGame(String serverIP, int port, String name, boolean connectedAsHost) {
+        joinGame(serverIP, port, Server.DEFAULT_TABLE_ID, name, connectedAsHost);
+    }
+
+    public void joinGame(String serverIP, int port, int tableId, String name, boolean connectedAsHost) {
+        this.tableId = tableId;
+        this.playerName = name;
+        this.sessionToken = null;
+        rejoin = 0;
+        gameState.timeline.clear();
         clientConnection = new ClientConnection(serverIP, port, name, connectedAsHost, this);
         clientConnection.start();
         ClientPacket namePacket = new ClientPacket(ClientCode.NAME);
         namePacket.data.put("name", name);
-        try {
-            clientConnection.sendPacket(namePacket);
-        } catch(IOException e) {
-            e.printStackTrace();
+        clientConnection.sendPacket(new ClientPacket(ClientCode.JOIN_TABLE)
+                .put("table", tableId)
+                .put("delta", true));
+        clientConnection.sendPacket(namePacket);
+    }
+
+    // Opens a new connection to the table we were seated at, and asks for our seat back with our session token. The
+    // table answers with a snapshot of the round, or turns us away if the seat is gone. If the server can't be reached
+    // it's tried again a few times, and if it never can be, onGiveUp is run. This returns straight away, since the
+    // connecting happens off the render thread. Returns false if there's no seat to ask for.
+    public boolean rejoinGame(Runnable onGiveUp) {
+        if(clientConnection == null || sessionToken == null) {
+            return false;
         }
+        if(!isRejoining()) {
+            rejoinGame(++lastRejoin, clientConnection.serverIP, clientConnection.port, clientConnection.connectedAsHost,
+                    onGiveUp, REJOIN_ATTEMPTS);
+        }
+        return true;
+    }
+
+    // Whether a rejoin is still trying to reach the server. Until it does, clientConnection is the lost connection.
+    public boolean isRejoining() {
+        return rejoin != 0;
+    }
+
+    // Connecting blocks until the server answers or the attempt times out, so each attempt is made on its own thread
+    // and only its outcome comes back to the render thread. rejoin identifies the attempts of one rejoin, so those of a
+    // rejoin which has since been given up on are dropped.
+    private void rejoinGame(int rejoin, String serverIP, int port, boolean connectedAsHost, Runnable onGiveUp,
+                            int attemptsLeft) {
+        this.rejoin = rejoin;
+        new Thread(() -> {
+            ClientConnection connection;
+            try {
+                connection = new ClientConnection(serverIP, port, playerName, connectedAsHost, this);
+            } catch(GdxRuntimeException e) {
+                connection = null;
+            }
+            final ClientConnection connected = connection;
+            Gdx.app.postRunnable(() -> rejoinAttemptFinished(rejoin, connected, serverIP, port, connectedAsHost,
+                    onGiveUp, attemptsLeft));
+        }, "Rejoin").start();
+    }
+
+    private void rejoinAttemptFinished(int rejoin, ClientConnection connection, String serverIP, int port,
+                                       boolean connectedAsHost, Runnable onGiveUp, int attemptsLeft) {
+        if(rejoin != this.rejoin) {
+            if(connection != null) {
+                connection.quit();
+            }
+            return;
+        }
+        if(connection == null) {
+            if(attemptsLeft <= 1) {
+                this.rejoin = 0;
+                onGiveUp.run();
+                return;
+            }
+            Timer.schedule(new Timer.Task() {
+                @Override
+                public void run() {
+                    if(rejoin == ShengJiGame.this.rejoin) {
+                        rejoinGame(rejoin, serverIP, port, connectedAsHost, onGiveUp, attemptsLeft - 1);
+                    }
+                }
+            }, REJOIN_RETRY_DELAY);
+            return;
+        }
+        this.rejoin = 0;
+        clientConnection = connection;
+        clientConnection.start();
+        // If this can't be sent, the connection is reported as lost
+        clientConnection.sendPacket(new ClientPacket(ClientCode.RECONNECT)
+                .put("table", tableId)
+                .put("session", sessionToken));
+    }
+
+    public void setSessionToken(Long sessionToken) {
+        this.sessionToken = sessionToken;
     }
 
     public void startGameServer(int port) {
@@ -11,15 +11,19 @@ import com.sage.shengji.server.network.ServerCode;
 import com.sage.shengji.server.network.ServerPacket;
 import com.sage.shengji.utils.card.*;
 import com.sage.shengji.utils.renderable.RenderableCardGroup;
+import com.sage.shengji.utils.shengji.GroupedPlay;
+import com.sage.shengji.utils.shengji.PlayLegalityResult;
+import com.sage.shengji.utils.shengji.PlayRules;
 import com.sage.shengji.utils.shengji.ShengJiCard;
 import com.sage.shengji.utils.renderable.RenderableCardList;
 import com.sage.shengji.utils.renderable.RenderableHand;
 import com.sage.shengji.utils.shengji.ShengJiGameState;
+import com.sage.shengji.utils.shengji.TrumpContext;
 import com.sage.shengji.utils.shengji.Team;
 
-import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 public class ClientGameState extends ShengJiGameState {
@@ -45,6 +49,7 @@ public class ClientGameState extends ShengJiGameState {
     private Updater updater = new Updater();
     private final ShengJiGame game;
     public final Actions actions = new Actions();
+    public final EventTimeline timeline = new EventTimeline();
 
     public final ArrayList<RenderablePlayer> players = new ArrayList<>();
 
@@ -69,7 +74,14 @@ public class ClientGameState extends ShengJiGameState {
 
     public final RenderableCardGroup<RenderableShengJiCard> trumpCardGroup = new RenderableCardGroup<>();
 
+    // The player the server is waiting on, and when it will act for them if they don't, from System.currentTimeMillis().
+    // deadlinePlayer is null if there's no deadline.
+    public RenderablePlayer deadlinePlayer = null;
+    public long deadlineAt = 0;
+
     public ServerCode lastServerCode;
+    // Set when a GAME_STATE_SNAPSHOT has replaced the round, until the game screen has caught up with it
+    public boolean resynced = false;
     public String message = "";
     public String errorMessage = "";
 
@@ -91,6 +103,8 @@ public class ClientGameState extends ShengJiGameState {
 
         thisPlayerHand.clear();
         thisPlayerCurrentCall.clear();
+        lastAttemptedKitty.clear();
+        deadlinePlayer = null;
 
         collectedPointCards.clear();
         numCollectedPoints = 0;
@@ -102,27 +116,35 @@ public class ClientGameState extends ShengJiGameState {
         setTrump(null, null);
     }
 
+    // Applies every packet which has arrived, so the model is always as up to date as it can be. Screens don't follow
+    // the model directly, but play back the events the packets leave in timeline, which they pace themselves; a screen
+    // change waits in the timeline with the packet that caused it. Returns whether anything changed.
     public boolean update(ClientConnection client) {
         if(client == null) {
             return false;
         }
 
-        // It's important to only update at most a single packet. If more than one packet is updated and
-        // some packet changes the screen, it won't give the new screen a chance to update with the latest packet.
-        // The new screen won't have any idea what state it should be in. Updating from gameState in show()
-        // doesn't work because gameState may change after show() is called.
-        // POSSIBLE SOLUTION: New screen should update from gameState on its first render.
         try {
-            Optional<ServerPacket> p = client.getPacket();
-            return (p.isPresent()) && applyUpdate(p.get());
+            // Pings are answered by the connection itself and never get here, so every packet is an update
+            return client.drainPackets(this::applyUpdate) > 0;
         } catch(LostConnectionToServerException e) {
             updater.lostConnectionToServer();
             return true;
         }
     }
 
-    private boolean applyUpdate(ServerPacket updatePacket) {
-        return updater.update(updatePacket.networkCode, updatePacket.data);
+    private void applyUpdate(ServerPacket updatePacket) {
+        updater.update(updatePacket.networkCode, updatePacket.data);
+    }
+
+    // Judges a play from this player's hand by what this client knows of the trick. The server still has the final say,
+    // so this can only save a round trip for a play the server would turn down anyway.
+    public PlayLegalityResult judgePlay(Collection<? extends ShengJiCard> play) {
+        TrumpContext trump = getTrumpContext();
+        GroupedPlay basePlay = (basePlayer != null && !basePlayer.getPlay().isEmpty())
+                ? GroupedPlay.of(basePlayer.getPlay(), trump)
+                : null;
+        return PlayRules.judge(GroupedPlay.of(play, trump), basePlay, CardCounts.of(thisPlayerHand));
     }
 
     private Optional<RenderablePlayer> getPlayerByNum(Integer playerNum) {
@@ -134,8 +156,27 @@ public class ClientGameState extends ShengJiGameState {
     private class Updater {
         private Map<Serializable, Serializable> data = null;
         private final CardList<RenderableShengJiCard> pointCardsInTrick = new CardList<>();
+        private boolean snapshotRequested = false; // Until the snapshot arrives
+        private Runnable screenChange = null; // Made when the screen reaches the packet being applied
 
         private boolean update(ServerCode serverCode, Map<Serializable, Serializable> data) {
+            // A deadline only starts a countdown, and doesn't change what the player is being asked to do
+            if(serverCode == ServerCode.DEADLINE) {
+                deadline(data);
+                return false;
+            }
+            // Nor does the round being held for a player who dropped
+            if(serverCode == ServerCode.ROUND_PAUSED) {
+                roundPaused(data);
+                timeline.add(null, message, null);
+                return false;
+            }
+            if(serverCode == ServerCode.ROUND_RESUMED) {
+                roundResumed();
+                timeline.add(null, message, null);
+                return false;
+            }
+
             if(serverCode != ServerCode.PING) {
                 lastServerCode = serverCode;
             }
@@ -250,6 +291,13 @@ public class ClientGameState extends ShengJiGameState {
                     waitForHand(); break;
                 case ROUND_END:
                     roundEnd(); break;
+
+                    // Snapshot:
+                case GAME_STATE_SNAPSHOT:
+                    gameStateSnapshot(); break;
+                }
+                if(serverCode != ServerCode.PING) {
+                    timeline.add(lastServerCode, message, screenChange);
                 }
             } catch(ClassCastException | NullPointerException | InvalidServerPacketException | InvalidCardException e) {
                 Gdx.app.log("Updater.update()",
@@ -258,30 +306,65 @@ public class ClientGameState extends ShengJiGameState {
                                 + e.getMessage());
                 e.printStackTrace();
                 errorMessage = e.getClass() + ": " + e.getMessage();
-                // TODO: When encountering an error here, request the full game state from the server
+                // This client no longer knows what the round looks like, so it asks the server for all of it
+                if(!snapshotRequested) {
+                    snapshotRequested = actions.requestSnapshot();
+                }
+            } finally {
+                screenChange = null;
             }
             return serverCode != ServerCode.PING; // PING does not constitute an update as of now
         }
 
+        private void changeScreen(Runnable change) {
+            screenChange = change;
+        }
+
         // --- GENERAL CODES ---
         // ping() is just here in case anything needs to be done on ping (and to keep the switch pattern)
         private void ping() {
         }
 
+        private void deadline(Map<Serializable, Serializable> data) {
+            if(data.get("player") instanceof Integer && data.get("millis") instanceof Integer) {
+                deadlinePlayer = getPlayerByNum((Integer)data.get("player")).orElse(null);
+                deadlineAt = System.currentTimeMillis() + (Integer)data.get("millis");
+            }
+        }
+
+        private void roundPaused(Map<Serializable, Serializable> data) {
+            if(data.get("player") instanceof Integer && data.get("millis") instanceof Integer) {
+                // Every deadline is stopped until the round resumes, when they're sent again
+                deadlinePlayer = null;
+                String name = getPlayerByNum((Integer)data.get("player"))
+                        .map(RenderablePlayer::getColoredName)
+                        .orElse("A player");
+                message = name + " lost their connection. Waiting up to " + ((Integer)data.get("millis") / 1000)
+                        + " seconds for them to come back...";
+            }
+        }
+
+        private void roundResumed() {
+            message = "Everyone is back, the round goes on";
+        }
+
         private void connectionAccepted() {
             message = "Joined successfully!";
+            if(data.get("session") instanceof Long) {
+                game.setSessionToken((Long)data.get("session"));
+            }
         }
 
         private void connectionDenied() {
             errorMessage = "[YELLOW]Error joining game: connection denied. Maybe the game is full or has already started?";
-            game.showStartScreen();
+            changeScreen(game::showStartScreen);
         }
 
         private void playerDisconnected() {
             cleanNoPlayersReset();
             errorMessage = "[YELLOW]A player has disconnected!";
             message = "";
-            game.showLobbyScreen();
+            changeScreen(game::showLobbyScreen);
         }
 
         private void couldNotStartGame() {
@@ -333,7 +416,7 @@ public class ClientGameState extends ShengJiGameState {
         private void fatalRoundError() {
             errorMessage = "[RED]Server encountered a fatal round error! This is very bad!";
             cleanNoPlayersReset();
-            game.showLobbyScreen();
+            changeScreen(game::showLobbyScreen);
         }
 
         // --- CALLING CODES ---
@@ -609,12 +692,29 @@ public class ClientGameState extends ShengJiGameState {
         }
 
         private void successfulKitty() {
+            // If this player ran out of time, the server chose the kitty instead
+            var kittyCardNums = (List<Integer>)data.get("kitty");
+            if(kittyCardNums != null) {
+                var attemptedCardNums = lastAttemptedKitty.toCardNumList();
+                var sortedKittyCardNums = new ArrayList<>(kittyCardNums);
+                attemptedCardNums.sort(null);
+                sortedKittyCardNums.sort(null);
+                if(!attemptedCardNums.equals(sortedKittyCardNums)) {
+                    thisPlayerHand.addAll(lastAttemptedKitty);
+                    thisPlayerHand.removeAllByValue(CardList.fromCardNumList(
+                            kittyCardNums,
+                            cardNum -> new RenderableShengJiCard(cardNum, ClientGameState.this)));
+                }
+            }
+            lastAttemptedKitty.clear();
+            deadlinePlayer = null;
             message = "Server received kitty successfully";
         }
 
         // --- FRIEND CARDS CODES ---
         private void waitForFriendCards() {
             var newFriendCardNums = (List<Integer>)data.get("cardnums");
+            deadlinePlayer = null;
 
             if(!friendCards.toCardNumList().equals(newFriendCardNums)) {
                 friendCards.clear();
@@ -716,7 +816,13 @@ public class ClientGameState extends ShengJiGameState {
                                     + data.get("player")
                                     + " sent by server for leadingPlayer"));
             List<Integer> invalidatedFriendCardNums = (List<Integer>)data.get("invalidatedfriendcards");
-            Map<Integer, Team> teamsMap = (Map<Integer, Team>)data.get("teamsmap");
+            if(player == deadlinePlayer) {
+                deadlinePlayer = null;
+            }
+            // A delta sync server only sends the teams which changed since the last TURN_OVER
+            Map<Integer, Team> teamsMap = (Map<Integer, Team>)(data.containsKey("teamsdelta")
+                    ? data.get("teamsdelta")
+                    : data.get("teamsmap"));
 
             for(var playerNum : teamsMap.keySet()) {
                 RenderablePlayer p = getPlayerByNum(playerNum)
@@ -755,10 +861,12 @@ public class ClientGameState extends ShengJiGameState {
                 player.getPlay().clear();
                 player.getPlay().addAll(play);
             } else {
-                // If thisPlayer.getPlay() does not match what the server sent, resync the plays
+                // If thisPlayer.getPlay() does not match what the server sent, resync the plays. This happens when the
+                // server played for this player because they ran out of time.
                 if(!play.toCardNumList().stream().allMatch(c -> thisPlayer.getPlay().toCardNumList().indexOf(c) > -1)) {
                     thisPlayerHand.addAll(thisPlayer.getPlay());
                     thisPlayer.clearPlay();
+                    thisPlayerHand.removeAllByValue(play);
                     thisPlayer.getPlay().addAll(play);
                 }
                 pointCardsInTrick.addAll(thisPlayer.getPlay().stream()
@@ -783,6 +891,8 @@ public class ClientGameState extends ShengJiGameState {
         }
 
         private void trickEnd() {
+            // The next trick may have started by the time the view is done with this one
+            players.forEach(RenderablePlayer::keepEndedTrick);
             RenderablePlayer trickWinner = getPlayerByNum((Integer)data.get("winner"))
                     .orElseThrow(() -> new InvalidServerPacketException(
                             "trickEnd() - No player found with player num "
@@ -838,7 +948,7 @@ public class ClientGameState extends ShengJiGameState {
             players.clear();
             players.addAll(tempPlayerList);
 
-            game.showGameScreen();
+            changeScreen(game::showGameScreen);
         }
 
         private void waitForHand() {
@@ -850,6 +960,7 @@ public class ClientGameState extends ShengJiGameState {
         }
 
         private void roundEnd() {
+            deadlinePlayer = null;
             Team winningTeam = (Team)data.get("winningteam");
             List<Integer> winningPlayerNums = (List<Integer>)data.get("winningplayers");
             CardList<RenderableShengJiCard> kittyCards = CardList.fromCardNumList(
@@ -896,10 +1007,194 @@ public class ClientGameState extends ShengJiGameState {
                     .collect(Collectors.joining("\n"));
         }
 
+        // --- SNAPSHOT ---
+        // Replaces everything this client knows of the round with the server's snapshot of it. The whole snapshot is
+        // read before anything is changed, so a snapshot which can't be read leaves the old state alone.
+        private void gameStateSnapshot() {
+            var playersMap = (Map<Integer, String>)data.get("players");
+            var callRankMap = (Map<Integer, Rank>)data.get("rank");
+            var teamsMap = (Map<Integer, Team>)data.get("teamsmap");
+            var pointCardsMap = (Map<Integer, List<Integer>>)data.get("pointcardsmap");
+            var playsMap = (Map<Integer, List<Integer>>)data.get("plays");
+            var passedPlayerNums = (List<Integer>)data.get("passedplayers");
+            int clientPlayerNum = (Integer)data.get("you");
+            int hostPlayerNum = (Integer)data.get("host");
+            int[] playerOrder = (int[])data.get("playerorder");
+            ServerCode prompt;
+            try {
+                prompt = ServerCode.valueOf((String)data.get("prompt"));
+            } catch(IllegalArgumentException e) {
+                throw new InvalidServerPacketException("gameStateSnapshot() - Unknown prompt " + data.get("prompt"));
+            }
+
+            ArrayList<RenderablePlayer> newPlayers = new ArrayList<>(playerOrder.length);
+            for(int playerNum : playerOrder) {
+                String name = playersMap.get(playerNum);
+                if(name == null) {
+                    throw new InvalidServerPacketException("gameStateSnapshot() - No name sent for player num "
+                            + playerNum);
+                }
+                RenderablePlayer newPlayer = new RenderablePlayer(playerNum, name);
+                newPlayer.setHost(playerNum == hostPlayerNum);
+                newPlayer.setIsClientPlayer(playerNum == clientPlayerNum);
+                newPlayer.setCallRank(callRankMap.getOrDefault(playerNum, Rank.TWO));
+                Team team = teamsMap.getOrDefault(playerNum, Team.NO_TEAM);
+                newPlayer.setTeam(team);
+                if(team != Team.NO_TEAM) {
+                    newPlayer.setNameColor(getTeamNameColor(team));
+                } else if(passedPlayerNums.contains(playerNum)) {
+                    newPlayer.setNameColor(noCallPlayerNameColor);
+                }
+                if(pointCardsMap.containsKey(playerNum)) {
+                    newPlayer.getPointCards().addAll(toRenderableCards(pointCardsMap.get(playerNum)));
+                }
+                if(playsMap.containsKey(playerNum)) {
+                    newPlayer.getPlay().addAll(toRenderableCards(playsMap.get(playerNum)));
+                }
+                newPlayers.add(newPlayer);
+            }
+            RenderablePlayer newThisPlayer = findSnapshotPlayer(newPlayers, clientPlayerNum);
+            RenderablePlayer newHostPlayer = findSnapshotPlayer(newPlayers, hostPlayerNum);
+            RenderablePlayer newTurnPlayer = findSnapshotPlayer(newPlayers, (Integer)data.get("turnplayer"));
+            RenderablePlayer newLeadingPlayer = findSnapshotPlayer(newPlayers, (Integer)data.get("leadingplayer"));
+            RenderablePlayer newBasePlayer = findSnapshotPlayer(newPlayers, (Integer)data.get("baseplayer"));
+            RenderablePlayer newDeadlinePlayer = findSnapshotPlayer(newPlayers, (Integer)data.get("deadlineplayer"));
+
+            CardList<RenderableShengJiCard> newHand = toRenderableCards((List<Integer>)data.get("hand"));
+            CardList<RenderableShengJiCard> newKitty = data.containsKey("kittycards")
+                    ? toRenderableCards((List<Integer>)data.get("kittycards"))
+                    : new CardList<>();
+            CardList<RenderableShengJiCard> newFriendCards = toRenderableCards((List<Integer>)data.get("friendcards"));
+            CardList<RenderableShengJiCard> newCollectedPointCards =
+                    toRenderableCards((List<Integer>)data.get("collectedpointcards"));
+            int newNumPointsNeeded = (Integer)data.get("numpointsneeded");
+            int newKittySize = (Integer)data.get("kittysize");
+            int numFriendCards = (Integer)data.get("numfriendcards");
+
+            // The leading call is shown as the calling player's play, which for this player comes out of their hand
+            RenderablePlayer callPlayer = findSnapshotPlayer(newPlayers, (Integer)data.get("callplayer"));
+            CardList<RenderableShengJiCard> call = new CardList<>();
+            if(callPlayer != null) {
+                int callCardNum = (Integer)data.get("callcardnum");
+                int callOrder = (Integer)data.get("callorder");
+                if(callPlayer == newThisPlayer) {
+                    newHand.stream().filter(c -> c.getCardNum() == callCardNum).limit(callOrder).forEach(call::add);
+                    newHand.removeAll(call);
+                } else {
+                    for(int i = 0; i < callOrder; i++) {
+                        call.add(new RenderableShengJiCard(callCardNum, ClientGameState.this));
+                    }
+                }
+                callPlayer.getPlay().addAll(call);
+                callPlayer.setNameColor(Color.GREEN);
+            }
+
+            // Nothing has been changed up to here
+            cleanNoPlayersReset();
+            pointCardsInTrick.clear();
+            players.clear();
+            players.addAll(newPlayers);
+            thisPlayer = newThisPlayer;
+            hostPlayer = newHostPlayer;
+            turnPlayer = newTurnPlayer;
+            leadingPlayer = newLeadingPlayer;
+            basePlayer = newBasePlayer;
+
+            thisPlayerHand.addAll(newHand);
+            if(callPlayer == thisPlayer) {
+                thisPlayerCurrentCall.addAll(call);
+            }
+            numPointsNeeded = newNumPointsNeeded;
+            kittySize = newKittySize;
+            setTrump((Rank)data.get("trumprank"), (Suit)data.get("trumpsuit"));
+
+            kitty.addAll(newKitty);
+            kitty.stream().filter(c -> !c.isJoker()).reduce((a, b) -> b).ifPresent(c -> {
+                c.entity.setFaceBorderThicknessRelativeToWidth(0.036f);
+                c.entity.setFaceBorderColor(effectiveKittyCardBorderColor);
+                c.entity.setFaceBackgroundColor(effectiveKittyCardBackgroundColor);
+            });
+
+            friendCards.addAll(newFriendCards);
+            if(prompt == ServerCode.SEND_FRIEND_CARDS && friendCards.isEmpty()) {
+                for(int i = 0; i < numFriendCards; i++) {
+                    friendCards.add(new RenderableShengJiCard(Rank.ACE, Suit.fromCardNum(i % 4), ClientGameState.this));
+                }
+            }
+            collectedPointCards.addAll(newCollectedPointCards);
+            numCollectedPoints = collectedPointCards.stream().mapToInt(ShengJiCard::getPoints).sum();
+
+            if(turnPlayer != null) {
+                turnPlayer.setPlayerNumColorString(turnPlayerNameColor);
+                players.forEach(p -> p.getPlay().stream()
+                        .filter(ShengJiCard::isPointCard)
+                        .forEach(pointCardsInTrick::add));
+            }
+            if(basePlayer != null) {
+                basePlayer.getPlay().forEach(c -> c.entity.setFaceBackgroundColor(basePlayColor));
+            }
+            if(leadingPlayer != null) {
+                leadingPlayer.getPlay().forEach(c -> c.entity.setFaceBackgroundColor(winningPlayColor));
+            }
+
+            deadlinePlayer = newDeadlinePlayer;
+            if(deadlinePlayer != null) {
+                deadlineAt = System.currentTimeMillis() + (Integer)data.get("deadlinemillis");
+            }
+
+            message = "Caught up with the round";
+            lastServerCode = prompt;
+            snapshotRequested = false;
+            resynced = true;
+            timeline.clear(); // Whatever was still to be shown is of the state the snapshot replaced
+            changeScreen(game::showGameScreen);
+        }
+
+        // null if playerNum is null
+        private RenderablePlayer findSnapshotPlayer(List<RenderablePlayer> snapshotPlayers, Integer playerNum) {
+            if(playerNum == null) {
+                return null;
+            }
+            return snapshotPlayers.stream()
+                    .filter(p -> p.getPlayerNum() == playerNum)
+                    .findFirst()
+                    .orElseThrow(() -> new InvalidServerPacketException(
+                            "gameStateSnapshot() - No player found with player num " + playerNum
+                                    + " sent by server in snapshot"));
+        }
+
+        private CardList<RenderableShengJiCard> toRenderableCards(List<Integer> cardNums) {
+            return CardList.fromCardNumList(cardNums,
+                    cardNum -> new RenderableShengJiCard(cardNum, ClientGameState.this));
+        }
+
+        // Mid-round the table holds our seat for a while, so we try to take it back before giving up on the round
         private void lostConnectionToServer() {
+            if(game.isRejoining()) {
+                return; // The lost connection keeps saying so until the rejoin replaces it
+            }
+            if(isInRound() && game.rejoinGame(this::gaveUpOnServer)) {
+                message = "The connection to the host has been lost. Reconnecting...";
+                timeline.add(null, message, null);
+                return;
+            }
+            gaveUpOnServer();
+        }
+
+        // Nothing still to be shown matters once there's no server
+        private void gaveUpOnServer() {
             message = "The connection to the host has been lost.";
+            timeline.clear();
             game.showStartScreen();
         }
+
+        private boolean isInRound() {
+            return lastServerCode != null
+                    && lastServerCode != ServerCode.CONNECTION_ACCEPTED
+                    && lastServerCode != ServerCode.CONNECTION_DENIED
+                    && lastServerCode != ServerCode.WAIT_FOR_PLAYERS
+                    && lastServerCode != ServerCode.ROUND_END;
+        }
     }
 
     private static Color getTeamNameColor(Team team) {
@@ -932,9 +1227,9 @@ public class ClientGameState extends ShengJiGameState {
         }
     }
 
+    @Override
     public void setTrump(Rank rank, Suit suit) {
-        trumpRank = rank;
-        trumpSuit = suit;
+        super.setTrump(rank, suit);
         trumpCardGroup.clear();
         if(trumpRank != null && trumpSuit != null) {
             if(trumpSuit == Suit.JOKER) {
@@ -962,6 +1257,43 @@ public class ClientGameState extends ShengJiGameState {
             return client != null;
         }
 
+        // Asks the server for a snapshot of the round. Returns whether the request was sent.
+        public boolean requestSnapshot() {
+            if(!establishClient()) {
+                return false;
+            }
+
+            CompletableFuture<Void> sent = client.sendCode(ClientCode.REQUEST_SNAPSHOT);
+            if(sendFailed(sent)) {
+                return false;
+            }
+            // If the request is queued but never makes it out, the next bad packet should be able to ask again
+            sent.exceptionally(e -> {
+                Gdx.app.postRunnable(() -> updater.snapshotRequested = false);
+                return null;
+            });
+            return true;
+        }
+
+        // Sends are queued for the connection's writer thread, so all that's known here is whether the packet could be
+        // queued. One which is queued but can't be written takes the connection down with it, which update() reports.
+        private boolean sendFailed(CompletableFuture<Void> sent) {
+            if(sent.isCompletedExceptionally()) {
+                errorMessage = "[YELLOW]There was an error while trying to contact the server. Did you lose connection?[]";
+                return true;
+            }
+            return false;
+        }
+
+        // Tells the server we're leaving on purpose, so the round doesn't wait for us to reconnect
+        public void leaveTable() {
+            if(!establishClient()) {
+                return;
+            }
+
+            client.sendCode(ClientCode.LEAVE_TABLE); // If this fails we're leaving anyway
+        }
+
         public void sendCall() {
             if(!establishClient()) {
                 return;
@@ -991,15 +1323,12 @@ public class ClientGameState extends ShengJiGameState {
                 }
             }
 
-            try {
-                client.sendPacket(new ClientPacket(ClientCode.CALL)
-                        .put("card", selectedCards.get(0).getCardNum())
-                        .put("order", callOrder));
+            if(!sendFailed(client.sendPacket(new ClientPacket(ClientCode.CALL)
+                    .put("card", selectedCards.get(0).getCardNum())
+                    .put("order", callOrder)))) {
                 thisPlayer.getPlay().addAll(selectedCards);
                 thisPlayerHand.removeAll(selectedCards);
                 selectedCards.forEach(c -> c.setSelected(false).setHighlighted(false));
-            } catch(IOException e) {
-                errorMessage = "[Yellow]There was an error while trying to contact the server. Did you lose connection?[]";
             }
         }
 
@@ -1008,11 +1337,7 @@ public class ClientGameState extends ShengJiGameState {
                 return;
             }
 
-            try {
-                client.sendCode(ClientCode.NO_CALL);
-            } catch(IOException e) {
-                errorMessage = "[Yellow]There was an error while trying to contact the server. Did you lose connection?[]";
-            }
+            sendFailed(client.sendCode(ClientCode.NO_CALL));
         }
 
         public void sendKittyCall() {
@@ -1020,11 +1345,7 @@ public class ClientGameState extends ShengJiGameState {
                 return;
             }
 
-            try {
-                client.sendCode(ClientCode.KITTY_CALL);
-            } catch(IOException e) {
-                errorMessage = "[Yellow]There was an error while trying to contact the server. Did you lose connection?[]";
-            }
+            sendFailed(client.sendCode(ClientCode.KITTY_CALL));
         }
 
         public void sendNoKittyCall() {
@@ -1032,11 +1353,7 @@ public class ClientGameState extends ShengJiGameState {
                 return;
             }
 
-            try {
-                client.sendCode(ClientCode.NO_KITTY_CALL);
-            } catch(IOException e) {
-                errorMessage = "[Yellow]There was an error while trying to contact the server. Did you lose connection?[]";
-            }
+            sendFailed(client.sendCode(ClientCode.NO_KITTY_CALL));
         }
 
         public void sendKitty() {
@@ -1057,12 +1374,10 @@ public class ClientGameState extends ShengJiGameState {
                 return;
             }
 
-            try {
-                client.sendPacket(new ClientPacket(ClientCode.KITTY).put("kitty", selectedCards.toCardNumList()));
+            if(!sendFailed(client.sendPacket(new ClientPacket(ClientCode.KITTY)
+                    .put("kitty", selectedCards.toCardNumList())))) {
                 lastAttemptedKitty.addAll(selectedCards);
                 thisPlayerHand.removeAll(selectedCards);
-            } catch(IOException e) {
-                errorMessage = "[YELLOW]There was an error while trying to contact the server. Did you lose connection?";
             }
         }
 
@@ -1071,11 +1386,8 @@ public class ClientGameState extends ShengJiGameState {
                 return;
             }
 
-            try {
-                client.sendPacket(new ClientPacket(ClientCode.FRIEND_CARDS).put("friendcards", friendCards.toCardNumList()));
-            } catch(IOException e) {
-                errorMessage = "[YELLOW]There was an error while trying to contact the server. Did you lose connection?[]";
-            }
+            sendFailed(client.sendPacket(new ClientPacket(ClientCode.FRIEND_CARDS)
+                    .put("friendcards", friendCards.toCardNumList())));
         }
 
         public void sendPlay() {
@@ -1101,15 +1413,21 @@ public class ClientGameState extends ShengJiGameState {
             if(selectedCards.size() == 0) {
                 return;
             }
-            try {
-                client.sendPacket(new ClientPacket(ClientCode.PLAY).put("play", selectedCards.toCardNumList()));
+
+            // An illegal play is turned down here, before the cards leave the hand
+            PlayLegalityResult legality = judgePlay(selectedCards);
+            if(!legality.isValid) {
+                errorMessage = "[YELLOW]Invalid play - " + legality.message + "[]";
+                return;
+            }
+
+            if(!sendFailed(client.sendPacket(new ClientPacket(ClientCode.PLAY)
+                    .put("play", selectedCards.toCardNumList())))) {
                 thisPlayerHand.addAll(thisPlayer.getPlay());
                 thisPlayer.getPlay().clear();
                 thisPlayer.getPlay().addAll(selectedCards);
                 thisPlayerHand.removeAll(selectedCards);
                 selectedCards.forEach(c -> c.setSelected(false).setHighlighted(false));
-            } catch(IOException e) {
-                errorMessage = "[YELLOW]There was an error while trying to contact the server. Did you lose connection?[]";
             }
         }
     }
@@ -0,0 +1,72 @@
+package com.sage.shengji.client.game;
+
+import com.sage.shengji.server.network.ServerCode;
+
+import java.util.ArrayDeque;
+
+// The view's side of the client. ClientGameState applies every packet to the model as soon as it arrives and records a
+// VisualEvent for it here, and a screen plays the events back at its own pace: each event can be held on screen for a
+// while before the next one is shown, so a burst of packets still reads one step at a time while the model is already
+// up to date. A screen change rides along with the event which caused it, so it only happens once everything before it
+// has been seen.
+public class EventTimeline {
+    // With more than this many events waiting, holds are shortened so the view doesn't fall ever further behind
+    private static final int MAX_BACKLOG = 4;
+
+    private final ArrayDeque<VisualEvent> pending = new ArrayDeque<>();
+    private VisualEvent current = null;
+    private float holdLeft = 0; // In seconds
+
+    void add(ServerCode code, String message, Runnable screenChange) {
+        pending.add(new VisualEvent(code, message, screenChange));
+    }
+
+    // Returns the next event to show once the current one has been held long enough, or null if it's still being held
+    // or there's nothing new. Any screen change the event carries has been made by the time it's returned.
+    public VisualEvent next(float delta) {
+        holdLeft -= delta;
+        if(holdLeft > 0 || pending.isEmpty()) {
+            return null;
+        }
+        holdLeft = 0;
+        current = pending.poll();
+        if(current.screenChange != null) {
+            current.screenChange.run();
+        }
+        return current;
+    }
+
+    // Keeps the event just returned by next() on screen for the given number of seconds
+    public void hold(float seconds) {
+        holdLeft = (pending.size() > MAX_BACKLOG) ? seconds * MAX_BACKLOG / pending.size() : seconds;
+    }
+
+    public void skipHold() {
+        holdLeft = 0;
+    }
+
+    // The event last returned by next(), which is what's on screen now, or null if there hasn't been one
+    public VisualEvent getCurrent() {
+        return current;
+    }
+
+    // Drops every event not yet shown, for when what they show no longer applies
+    public void clear() {
+        pending.clear();
+        holdLeft = 0;
+    }
+
+    public static class VisualEvent {
+        // The code which the screen should show what it's being asked to do for, or null if the event only changes the
+        // message
+        public final ServerCode code;
+        public final String message;
+        private final Runnable screenChange;
+
+        private VisualEvent(ServerCode code, String message, Runnable screenChange) {
+            this.code = code;
+            this.message = message;
+            this.screenChange = screenChange;
+        }
+    }
+}
@@ -37,6 +37,11 @@ public class RenderablePlayer implements Renderable {
     private final RenderableCardGroup<RenderableShengJiCard> pointCards = new RenderableCardGroup<>();
     private final RenderableCardGroup<RenderableShengJiCard> play = new RenderableCardGroup<>();
 
+    // The play this player made in the last trick to end. It's drawn instead of play while the screen is still showing
+    // that trick, which it may be after the model has moved on to the next.
+    private final RenderableCardGroup<RenderableShengJiCard> endedTrickPlay = new RenderableCardGroup<>();
+    private boolean showingEndedTrick = false;
+
     private Vector2 pos = new Vector2();
     private float heightProportion = 0.11f;
     private float expandedHeightProportion = 0.22f;
@@ -61,6 +66,7 @@ public class RenderablePlayer implements Renderable {
                 pos.x, pos.y + (nameFont.getXHeight() * 2),
                 0, Align.center, false);
 
+        RenderableCardGroup<RenderableShengJiCard> play = getShownPlay();
         float playTargetHeight = viewport.getWorldHeight() * ((isExpanded) ? expandedHeightProportion : heightProportion);
         float playTargetY = pos.y - playTargetHeight;
         float playTargetWidth = ((play.prefDivisionProportion * 3) * playTargetHeight * RenderableCardEntity.WIDTH_TO_HEIGHT_RATIO);
@@ -95,7 +101,7 @@ public class RenderablePlayer implements Renderable {
     }
 
     public void update(float delta) {
-        play.update(delta);
+        getShownPlay().update(delta);
         pointCards.update(delta);
     }
 
@@ -197,6 +203,21 @@ public class RenderablePlayer implements Renderable {
     public void clearCards() {
         pointCards.clear();
         play.clear();
+        endedTrickPlay.clear();
+    }
+
+    public void keepEndedTrick() {
+        endedTrickPlay.clear();
+        endedTrickPlay.addAll(play);
+    }
+
+    public void setShowingEndedTrick(boolean showingEndedTrick) {
+        this.showingEndedTrick = showingEndedTrick;
+    }
+
+    // What's drawn as this player's play
+    public RenderableCardGroup<RenderableShengJiCard> getShownPlay() {
+        return showingEndedTrick ? endedTrickPlay : play;
     }
 
     public boolean isHost() {
@@ -16,4 +16,10 @@ public enum ClientCode implements NetworkCode {
     PLAYER_RANK_CHANGE,
     RESET_PLAYER_RANK,
     SHUFFLE_PLAYERS,
+    JOIN_TABLE,
+    ADD_BOT,
+    REMOVE_BOT,
+    REQUEST_SNAPSHOT,
+    RECONNECT,
+    LEAVE_TABLE,
 }
@@ -6,14 +6,25 @@ import com.badlogic.gdx.net.Socket;
 import com.badlogic.gdx.net.SocketHints;
 import com.badlogic.gdx.utils.SerializationException;
 import com.sage.shengji.client.ShengJiGame;
+import com.sage.shengji.server.network.ServerCode;
 import com.sage.shengji.server.network.ServerPacket;
+import com.sage.shengji.utils.network.NetworkStats;
 
 import java.io.*;
-import java.util.Optional;
-import java.util.Queue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class ClientConnection extends Thread {
+    // Packets waiting for the writer thread. If it falls this far behind the server has stopped reading from us, and
+    // sending more would only grow the backlog, so a send past this is turned down instead.
+    public static final int SEND_QUEUE_CAPACITY = 256;
+    // Packets received but not yet taken by the render thread. A full ring makes the reader wait for room, which leaves
+    // the rest in the socket's buffer for the server to wait on, rather than dropping any.
+    public static final int RECEIVE_RING_CAPACITY = 1024;
+
     public final int port;
     public final String serverIP;
     public final boolean connectedAsHost;
@@ -24,9 +35,15 @@ public class ClientConnection extends Thread {
     private final DataOutputStream output;
     private final DataInputStream input;
 
-    private final Queue<ServerPacket> packetQueue = new LinkedBlockingQueue<>();
+    private final PacketRing packetRing = new PacketRing(RECEIVE_RING_CAPACITY);
+    private final BlockingQueue<PendingSend> sendQueue = new ArrayBlockingQueue<>(SEND_QUEUE_CAPACITY);
+    private final Thread writer = new Thread(this::writePackets, "ClientConnection writer");
+    private final NetworkStats networkStats = new NetworkStats();
 
     private volatile boolean quit = false;
+    private volatile boolean writerStopped = false; // Set before the writer's last look at sendQueue
+    // Set by the reader thread once it has handed over the last packet it will ever receive
+    private volatile boolean connectionLost = false;
 
     public ClientConnection(String serverIP, int port, String playerName, boolean connectedAsHost, ShengJiGame game) {
         this.port = port;
@@ -42,9 +59,16 @@ public class ClientConnection extends Thread {
         input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
 
         setDaemon(true);
+        writer.setDaemon(true);
         Runtime.getRuntime().addShutdownHook(new Thread(socket::dispose));
     }
 
+    @Override
+    public synchronized void start() {
+        writer.start();
+        super.start();
+    }
+
     @Override
     public void run() {
         while(!quit) {
@@ -52,54 +76,131 @@ public class ClientConnection extends Thread {
             try {
                 int packetSize = input.readInt();
                 packet = ServerPacket.fromBytes(input.readNBytes(packetSize));
-                packetQueue.add(packet);
+                networkStats.recordPacketIn(packetSize);
+                if(packet.networkCode == ServerCode.PING) {
+                    pingReceived(packet);
+                } else if(!packetRing.put(packet, () -> !quit)) {
+                    break;
+                }
             } catch(IOException e) {
-                quit();
-                packetQueue.add(new LostConnectionToServerQueueItem());
                 break;
             } catch(SerializationException | IllegalArgumentException | OutOfMemoryError e) {
                 e.printStackTrace();
             }
         }
+        quit();
+        connectionLost = true;
     }
 
+    // Closes the connection once the packets already queued have been sent, so a goodbye sent just before quitting
+    // still reaches the server. The socket is closed by the writer thread, so this never blocks.
     public void quit() {
         quit = true;
-        socket.dispose();
+        writer.interrupt();
     }
 
-    public void sendPacket(ClientPacket packet) throws IOException {
-        byte[] packetBytes = packet.toBytes();
-        output.writeInt(packetBytes.length);
-        output.write(packetBytes);
-        output.flush();
+    // Pings are answered by the reader thread, so the server's measurement doesn't include waiting for a frame to render
+    private void pingReceived(ServerPacket packet) {
+        if(packet.data.get("echo") instanceof Long) {
+            networkStats.recordRtt(System.nanoTime() - (Long)packet.data.get("echo"));
+        }
+        if(packet.data.get("t") instanceof Long) {
+            // Our own timestamp rides along, so the server's echo gives us a measurement too
+            sendPacket(ClientPacket.pingPacket(System.nanoTime()).put("echo", packet.data.get("t")));
+        }
     }
 
-    public void sendCode(ClientCode code) throws IOException {
-        sendPacket(new ClientPacket(code));
+    // Queues the packet for the writer thread and returns straight away; nothing here touches the socket, so this is
+    // safe to call from the render thread. The returned future completes once the packet has been written, or
+    // completes exceptionally with a LostConnectionToServerException if it never will be. A caller which doesn't need
+    // to know can ignore it, since a connection which fails while writing is also reported as lost by drainPackets().
+    public CompletableFuture<Void> sendPacket(ClientPacket packet) {
+        PendingSend send = new PendingSend(packet);
+        if(quit) {
+            send.future.completeExceptionally(new LostConnectionToServerException("Connection is closed"));
+        } else if(!sendQueue.offer(send)) {
+            send.future.completeExceptionally(new LostConnectionToServerException("Send queue is full"));
+        } else if(writerStopped) {
+            // The writer may have stopped between the check of quit and the offer, after its last look at the queue
+            failUnsentPackets();
+        }
+        return send.future;
     }
 
-    public Optional<ServerPacket> getPacket() throws LostConnectionToServerException {
-        synchronized(packetQueue) {
-            ServerPacket item = packetQueue.poll();
-            if(item instanceof LostConnectionToServerQueueItem) {
-                throw new LostConnectionToServerException();
-            } else {
-                return Optional.ofNullable(item);
-            }
-        }
+    public CompletableFuture<Void> sendCode(ClientCode code) {
+        return sendPacket(new ClientPacket(code));
     }
 
-    public boolean pingServer() {
+    // The writer thread. Whatever has been queued by the time it wakes up is written together and flushed once.
+    private void writePackets() {
+        ArrayList<PendingSend> batch = new ArrayList<>();
         try {
-            sendPacket(ClientPacket.pingPacket());
-            return true;
+            while(!quit || !sendQueue.isEmpty()) {
+                try {
+                    batch.add(sendQueue.take());
+                } catch(InterruptedException e) {
+                    continue; // quit() wakes us up so the loop condition is checked again
+                }
+                sendQueue.drainTo(batch);
+                for(PendingSend send : batch) {
+                    byte[] packetBytes = send.packet.toBytes();
+                    output.writeInt(packetBytes.length);
+                    output.write(packetBytes);
+                    networkStats.recordPacketOut(packetBytes.length);
+                }
+                output.flush();
+                batch.forEach(send -> send.future.complete(null));
+                batch.clear();
+            }
         } catch(IOException e) {
-            return false;
+            // Closing the socket makes the reader thread fail too, and it's the one which reports the lost connection
+            quit = true;
+            LostConnectionToServerException lost = new LostConnectionToServerException(e);
+            batch.forEach(send -> send.future.completeExceptionally(lost));
+        } finally {
+            socket.dispose();
+            writerStopped = true;
+            failUnsentPackets();
         }
     }
 
-    private class LostConnectionToServerQueueItem extends ServerPacket {
+    // Anything left in sendQueue once the writer has stopped will never be sent. Both the writer and a sender which
+    // finds it stopped call this, so whichever of them comes last sees every packet that was queued.
+    private void failUnsentPackets() {
+        PendingSend send;
+        while((send = sendQueue.poll()) != null) {
+            send.future.completeExceptionally(new LostConnectionToServerException("Connection is closed"));
+        }
+    }
+
+    // Render thread only. Hands handler every packet received since the last call, oldest first, and returns how many
+    // there were. Once the connection is gone and every packet it received has been handed over, this throws
+    // LostConnectionToServerException instead.
+    public int drainPackets(Consumer<ServerPacket> handler) throws LostConnectionToServerException {
+        // Read before the ring, so that if it's set, everything the reader handed over is seen by the drain too
+        boolean lost = connectionLost;
+        int numDrained = packetRing.drain(handler);
+        if(lost && numDrained == 0) {
+            throw new LostConnectionToServerException();
+        }
+        return numDrained;
+    }
 
+    // Returns whether the ping could be queued
+    public boolean pingServer() {
+        return !sendPacket(ClientPacket.pingPacket(System.nanoTime())).isCompletedExceptionally();
+    }
+
+    public NetworkStats getNetworkStats() {
+        return networkStats;
+    }
+
+    private static class PendingSend {
+        private final ClientPacket packet;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingSend(ClientPacket packet) {
+            this.packet = packet;
+        }
     }
 }
@@ -2,6 +2,7 @@ package com.sage.shengji.client.network;
 
 import com.badlogic.gdx.utils.SerializationException;
 import com.sage.shengji.utils.network.Packet;
+import com.sage.shengji.utils.network.PacketCodec;
 
 import java.io.Serializable;
 
@@ -19,7 +20,11 @@ public class ClientPacket extends Packet<ClientCode> {
         return this;
     }
 
+    // Understands both PacketCodec frames and Java serialized packets
     public static ClientPacket fromBytes(byte[] bytes) throws SerializationException {
+        if(PacketCodec.isBinaryFrame(bytes)) {
+            return PacketCodec.decode(bytes, ClientCode.values(), new ClientPacket());
+        }
         try {
             return (ClientPacket)Packet.fromBytes(bytes);
         } catch(ClassCastException e) {
@@ -30,4 +35,9 @@ public class ClientPacket extends Packet<ClientCode> {
     public static ClientPacket pingPacket() {
         return new ClientPacket(ClientCode.PING);
     }
+
+    // A ping the server answers by echoing "t" back, so the client can measure the round trip
+    public static ClientPacket pingPacket(long timestampNanos) {
+        return pingPacket().put("t", timestampNanos);
+    }
 }
@@ -0,0 +1,82 @@
+package com.sage.shengji.client.network;
+
+import com.sage.shengji.server.network.ServerPacket;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+// A fixed size ring of packets handed from exactly one producer thread (the connection's reader) to exactly one
+// consumer thread (the render thread), without locks. tail is only written by the producer and head only by the
+// consumer, each published with lazySet once its slots are filled or emptied, and each side keeps a cached copy of the
+// other's index so it only reads the volatile one when the cached copy says it has run out. Polling an empty ring is a
+// single volatile read.
+class PacketRing {
+    private final ServerPacket[] slots;
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(0); // Next slot the consumer takes
+    private final AtomicLong tail = new AtomicLong(0); // Next slot the producer fills
+    private long cachedHead = 0; // Producer's copy of head
+    private long cachedTail = 0; // Consumer's copy of tail
+
+    // capacity is rounded up to a power of two
+    PacketRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        slots = new ServerPacket[size];
+        mask = size - 1;
+    }
+
+    // Producer only. Returns false without adding the packet if the ring is full.
+    boolean offer(ServerPacket packet) {
+        long t = tail.get();
+        if(t - cachedHead >= slots.length) {
+            cachedHead = head.get();
+            if(t - cachedHead >= slots.length) {
+                return false;
+            }
+        }
+        slots[(int)(t & mask)] = packet;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    // Producer only. Waits for the consumer to make room, for as long as keepWaiting says to. Returns whether the
+    // packet was added.
+    boolean put(ServerPacket packet, BooleanSupplier keepWaiting) {
+        while(!offer(packet)) {
+            if(!keepWaiting.getAsBoolean()) {
+                return false;
+            }
+            LockSupport.parkNanos(1_000_000);
+        }
+        return true;
+    }
+
+    // Consumer only. Hands every packet in the ring at the time of the call to handler, oldest first, and frees their
+    // slots all at once afterwards. Returns how many packets were handled.
+    int drain(Consumer<ServerPacket> handler) {
+        long h = head.get();
+        if(h == cachedTail) {
+            cachedTail = tail.get();
+            if(h == cachedTail) {
+                return 0;
+            }
+        }
+        long start = h;
+        long end = cachedTail;
+        try {
+            for(; h < end; h++) {
+                int idx = (int)(h & mask);
+                ServerPacket packet = slots[idx];
+                slots[idx] = null;
+                handler.accept(packet);
+            }
+        } finally {
+            // A packet whose handler threw still counts as taken, so it isn't handed over again
+            head.lazySet(Math.min(h + 1, end));
+        }
+        return (int)(end - start);
+    }
+}
@@ -18,6 +18,7 @@ import com.sage.shengji.server.Server;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.io.InputStreamReader;
 import java.net.URL;
 
@@ -164,7 +165,7 @@ public class CreateGameScreen implements Screen, InputProcessor {
                 try {
                     game.startGameServer(port);
                     game.joinGame("127.0.0.1", port, name, true);
-                } catch(GdxRuntimeException e) {
+                } catch(GdxRuntimeException | UncheckedIOException e) {
                     errorLabel.setText("[RED]Error: " + e.getMessage() + "\nMaybe try a different port?");
                     game.closeGameServer();
                     return;
@@ -19,6 +19,7 @@ import com.badlogic.gdx.utils.viewport.ExtendViewport;
 import com.badlogic.gdx.utils.viewport.Viewport;
 import com.sage.shengji.client.ShengJiGame;
 import com.sage.shengji.client.game.ClientGameState;
+import com.sage.shengji.client.game.EventTimeline;
 import com.sage.shengji.client.game.RenderablePlayer;
 import com.sage.shengji.client.game.RenderableShengJiCard;
 import com.sage.shengji.client.network.ClientConnection;
@@ -60,13 +61,14 @@ public class GameScreen implements Screen, InputProcessor {
     private BitmapFont friendCardsFont;
     private BitmapFont kittyFont;
     private BitmapFont playerNameFont;
+    private BitmapFont networkStatsFont;
 
     private boolean quitConfirmationFlag = false;
     private Timer quitConfirmationTimer = new Timer();
     private float quitConfirmationDelay = 3f;
 
-    private float updateDelay = 0;
-    private float delayCounter = 0;
+    // The message of the event on screen, which may be behind the model's
+    private String shownMessage = "";
 
     private float handHeightProportion = 1f / 7f;
     private float expandedHandHeightProportion = 1f / 5f;
@@ -88,6 +90,8 @@ public class GameScreen implements Screen, InputProcessor {
 
     private boolean mouseControl = true;
 
+    private boolean renderNetworkStats = false;
+
     public GameScreen(ShengJiGame game) {
         this.game = game;
         this.gameState = game.getGameState();
@@ -157,6 +161,12 @@ public class GameScreen implements Screen, InputProcessor {
         playerNameFont = fontGenerator.generateFont(playerNameFontParameter);
         playerNameFont.getData().markupEnabled = true;
         RenderablePlayer.setNameFont(playerNameFont);
+
+        var networkStatsFontParameter = new FreeTypeFontGenerator.FreeTypeFontParameter();
+        networkStatsFontParameter.size = (int)(textSize * 0.4f);
+        networkStatsFontParameter.color = Color.LIGHT_GRAY;
+        networkStatsFontParameter.incremental = true;
+        networkStatsFont = fontGenerator.generateFont(networkStatsFontParameter);
     }
 
     private void uiSetup() {
@@ -189,7 +199,10 @@ public class GameScreen implements Screen, InputProcessor {
     public void show() {
         client = game.getClientConnection();
         inputProcessorsSetup();
-        updateUiFromGameState();
+        // We're shown by the event on screen, or are coming back to it
+        if(gameState.timeline.getCurrent() != null) {
+            showEvent(gameState.timeline.getCurrent());
+        }
 
         gameState.thisPlayerHand.prefDivisionProportion = 0.4f;
         gameState.thisPlayerHand.leftPaddingProportion = 0.15f;
@@ -231,10 +244,13 @@ public class GameScreen implements Screen, InputProcessor {
                 gameState.thisPlayerHand.pos.y + (viewport.getWorldHeight() * handHeightProportion) + errorFont.getLineHeight(),
 //                viewport.getWorldHeight() * playersCenterYProportion - errorFont.getCapHeight(),
                 0, Align.center, false);
-        messageFont.draw(batch, gameState.message,
+        messageFont.draw(batch, shownMessage,
                 viewport.getWorldWidth() * playersCenterXProportion,
                 viewport.getWorldHeight() - errorFont.getCapHeight(),
                 0, Align.center, false);
+        if(gameState.deadlinePlayer != null) {
+            renderDeadline();
+        }
 
         if(renderFriendCardsForChoosing) {
             renderFriendCardsForChoosing();
@@ -262,6 +278,9 @@ public class GameScreen implements Screen, InputProcessor {
                 viewport.getWorldWidth() / 2,
                 viewport.getWorldHeight() - quitConfirmationFont.getCapHeight(),
                 0, Align.center, false);
+        if(renderNetworkStats) {
+            renderNetworkStats();
+        }
         batch.end();
 
         if(!actionButton.isDisabled()) {
@@ -283,6 +302,36 @@ public class GameScreen implements Screen, InputProcessor {
         uiStage.draw();
     }
 
+    // Counts down locally from the last DEADLINE the server sent
+    private void renderDeadline() {
+        long secondsLeft = Math.max((gameState.deadlineAt - System.currentTimeMillis() + 999) / 1000, 0);
+        String time = (secondsLeft <= 10 ? "[RED]" : "") + secondsLeft + "s[]";
+        String text = (gameState.deadlinePlayer == gameState.thisPlayer)
+                ? "You have " + time + " left"
+                : "P" + gameState.deadlinePlayer.getPlayerNum() + ": " + gameState.deadlinePlayer.getColoredName()
+                + " has " + time + " left";
+        messageFont.draw(batch, text,
+                viewport.getWorldWidth() * playersCenterXProportion,
+                viewport.getWorldHeight() - errorFont.getCapHeight() - messageFont.getLineHeight(),
+                0, Align.center, false);
+    }
+
+    // Toggled with F3. The round trip is measured by the connection's reader thread, so a high RTT with a slow turn
+    // points at the network, while a low RTT with a slow turn points at the server.
+    private void renderNetworkStats() {
+        var stats = client.getNetworkStats();
+        String text = (stats.hasRtt()
+                ? String.format("RTT %.0f ms (min %.0f, jitter %.0f)",
+                stats.getSmoothedRttNanos() / 1e6, stats.getMinRttNanos() / 1e6, stats.getJitterNanos() / 1e6)
+                : "RTT -")
+                + String.format("\nIn: %d packets, %.1f KB\nOut: %d packets, %.1f KB",
+                stats.getPacketsIn(), stats.getBytesIn() / 1024f,
+                stats.getPacketsOut(), stats.getBytesOut() / 1024f);
+        networkStatsFont.draw(batch, text,
+                networkStatsFont.getLineHeight() / 2,
+                viewport.getWorldHeight() - networkStatsFont.getLineHeight() / 2);
+    }
+
     private void renderTrumpCard() {
         gameState.trumpCardGroup.cardHeight = gameState.thisPlayerHand.cardHeight;
         gameState.trumpCardGroup.regionWidth = gameState.thisPlayerHand.pos.x;
@@ -419,7 +468,7 @@ public class GameScreen implements Screen, InputProcessor {
 
             gameState.players.stream()
                     .filter(Objects::nonNull)
-                    .filter(p -> p.getPlay().stream().anyMatch(c -> c.entity.displayRectContainsPoint(mousePos))
+                    .filter(p -> p.getShownPlay().stream().anyMatch(c -> c.entity.displayRectContainsPoint(mousePos))
                             || p.getPointCards().stream().anyMatch(c -> c.entity.displayRectContainsPoint(mousePos)))
                     .findFirst().ifPresent(p -> p.setExpanded(true));
 
@@ -434,10 +483,14 @@ public class GameScreen implements Screen, InputProcessor {
     }
 
     private void update(float delta) {
-        delayCounter += delta;
-        if(delayCounter >= updateDelay && gameState.update(client)) {
-            updateUiFromGameState();
-            delayCounter = 0;
+        client = game.getClientConnection(); // Replaced if we reconnect mid-round
+        gameState.update(client);
+
+        // Events which aren't held are all shown this frame. An event which changes the screen is shown by the new one.
+        EventTimeline.VisualEvent event;
+        while(game.getScreen() == this && (event = gameState.timeline.next(delta)) != null) {
+            showEvent(event);
+            delta = 0;
         }
 
         handleInputs();
@@ -564,17 +617,35 @@ public class GameScreen implements Screen, InputProcessor {
         return (float)dp;
     }
 
-    private void updateUiFromGameState() {
-        updateUiFromServerCode(gameState.lastServerCode);
+    private void showEvent(EventTimeline.VisualEvent event) {
+        shownMessage = event.message;
+        if(event.code == null) {
+            return;
+        }
+        // A snapshot can land in any phase of the round, so nothing drawn for the old state is kept
+        if(gameState.resynced) {
+            gameState.resynced = false;
+            renderPlayers = true;
+            renderCallKitty = !gameState.kitty.isEmpty();
+            renderRoundEndKitty = false;
+            renderFriendCardsForChoosing = false;
+            gameState.thisPlayerHand.snapCards();
+            gameState.kitty.snapCards();
+        }
+        boolean showingEndedTrick = event.code == ServerCode.TRICK_END;
+        gameState.players.forEach(p -> p.setShowingEndedTrick(showingEndedTrick));
+        gameState.timeline.hold(updateUiFromServerCode(event.code));
     }
 
-    private void updateUiFromServerCode(ServerCode code) {
+    // Returns how many seconds the screen should stay on code before moving on to the next event
+    private float updateUiFromServerCode(ServerCode code) {
         boolean disableNoCallButton = false;
         boolean disableActionButton = false;
+        float hold = 0;
 
         switch(code) {
         case ROUND_START:
-            updateDelay = 0;
+            hold = 0;
             // --- FALL THROUGH ---
         case KITTY_EXHAUSTED_REDEAL:
             renderPlayers = true;
@@ -607,13 +678,13 @@ public class GameScreen implements Screen, InputProcessor {
 
         case WAIT_FOR_KITTY_CALL_WINNER:
         case WAIT_FOR_CALL_WINNER:
-            updateDelay = 2;
+            hold = 2;
             disableActionButton = true;
             disableNoCallButton = true;
             break;
 
         case SUCCESSFUL_PLAY:
-            updateDelay = 0.5f;
+            hold = 0.5f;
             disableActionButton = true;
             break;
 
@@ -670,7 +741,8 @@ public class GameScreen implements Screen, InputProcessor {
             break;
 
         case TRICK_END:
-            updateDelay = 1;
+            // The last trick of the round stays up a while before the round's results replace it
+            hold = gameState.thisPlayerHand.isEmpty() ? 5f : 1f;
             break;
 
         case ROUND_END:
@@ -682,9 +754,6 @@ public class GameScreen implements Screen, InputProcessor {
 
         case TURN_OVER:
             disableActionButton = true;
-            if(gameState.thisPlayerHand.isEmpty()) {
-                updateDelay = 5f;
-            }
             break;
 
         case WAIT_FOR_HAND:
@@ -694,7 +763,7 @@ public class GameScreen implements Screen, InputProcessor {
         case WAIT_FOR_NEW_PLAY:
             disableActionButton = true;
         default:
-            updateDelay = 0;
+            hold = 0;
         }
 
         if(disableNoCallButton) {
@@ -705,6 +774,7 @@ public class GameScreen implements Screen, InputProcessor {
             disableButton(actionButton);
             actionButton.setText("");
         }
+        return hold;
     }
 
     private static void enableButton(TextButton button, ButtonAction action) {
@@ -778,6 +848,7 @@ public class GameScreen implements Screen, InputProcessor {
                     }
                 }, quitConfirmationDelay);
             } else {
+                gameState.actions.leaveTable();
                 client.quit();
                 game.closeGameServer();
                 gameState.message = "You left the game";
@@ -825,6 +896,10 @@ public class GameScreen implements Screen, InputProcessor {
         case Input.Keys.D:
             RenderableCardGroup.setDebug(!RenderableCardGroup.isInDebugMode());
             break;
+
+        case Input.Keys.F3:
+            renderNetworkStats = !renderNetworkStats;
+            break;
         }
 
         return false;
@@ -843,7 +918,7 @@ public class GameScreen implements Screen, InputProcessor {
             actionButton.toggle();
             // --- FALL THROUGH ---
         case Input.Keys.SPACE:
-            updateDelay = 0;
+            gameState.timeline.skipHold();
             break;
         }
         return false;
@@ -23,8 +23,8 @@ import com.sage.shengji.client.network.ClientCode;
 import com.sage.shengji.client.network.ClientConnection;
 import com.sage.shengji.client.network.ClientPacket;
 
-import java.io.IOException;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 
 public class LobbyScreen implements Screen, InputProcessor {
     private static int MAX_NAME_CHARS = 24;
@@ -117,13 +117,9 @@ public class LobbyScreen implements Screen, InputProcessor {
         startGameButton.addListener(new ChangeListener() {
             @Override
             public void changed(ChangeEvent event, Actor actor) {
-                try {
-                    client.sendPacket(new ClientPacket(ClientCode.START_GAME));
-                } catch(IOException e) {
-                    messageLabel.setText("[YELLOW]Error connecting to server. Maybe you lost connection?");
-                    return;
+                if(!sendFailed(client.sendPacket(new ClientPacket(ClientCode.START_GAME)))) {
+                    messageLabel.setText("");
                 }
-                messageLabel.setText("");
             }
         });
 
@@ -217,7 +213,13 @@ public class LobbyScreen implements Screen, InputProcessor {
 
     @Override
     public void render(float delta) {
-        if(gameState.update(client)) {
+        boolean updated = gameState.update(client);
+        // The lobby has nothing to pace, so it goes straight through the events until one takes us to another screen
+        gameState.timeline.skipHold();
+        while(game.getScreen() == this && gameState.timeline.next(0) != null) {
+            gameState.timeline.skipHold();
+        }
+        if(updated && game.getScreen() == this) {
             updateUiFromGameState();
         }
         stage.act(delta);
@@ -336,6 +338,27 @@ public class LobbyScreen implements Screen, InputProcessor {
             }
         });
 
+        if(gameState.thisPlayer != null && gameState.thisPlayer.isHost()) {
+            var addBotButton = new TextButton("Add bot", textButtonStyle);
+            addBotButton.addListener(new ClickListener(Input.Buttons.LEFT) {
+                @Override
+                public void clicked(InputEvent event, float x, float y) {
+                    requestBotChange(ClientCode.ADD_BOT);
+                }
+            });
+            var removeBotButton = new TextButton("Remove bot", textButtonStyle);
+            removeBotButton.addListener(new ClickListener(Input.Buttons.LEFT) {
+                @Override
+                public void clicked(InputEvent event, float x, float y) {
+                    requestBotChange(ClientCode.REMOVE_BOT);
+                }
+            });
+
+            playersListTable.row().padTop(viewport.getWorldHeight() * 0.02f);
+            playersListTable.add(addBotButton).colspan(2).align(Align.left);
+            playersListTable.add(removeBotButton).padLeft(groupSpacing);
+        }
+
         playersListTable.invalidate();
 
         if(gameState.thisPlayer != null && gameState.thisPlayer.isHost()) {
@@ -367,30 +390,33 @@ public class LobbyScreen implements Screen, InputProcessor {
         ClientPacket newPointsPacket = new ClientPacket(ClientCode.PLAYER_RANK_CHANGE);
         newPointsPacket.data.put("player", playerNum);
         newPointsPacket.data.put("rankchange", pointsChange);
-        try {
-            client.sendPacket(newPointsPacket);
-        } catch(IOException e) {
-            messageLabel.setText("[YELLOW]Error connecting to server. Maybe you lost connection?");
-        }
+        sendFailed(client.sendPacket(newPointsPacket));
     }
 
     private void requestPlayerRankChangeReset(int playerNum) {
-        try {
-            ClientPacket resetPointsPacket = new ClientPacket(ClientCode.RESET_PLAYER_RANK);
-            resetPointsPacket.data.put("player", playerNum);
-            client.sendPacket(resetPointsPacket);
-        } catch(IOException e) {
-            messageLabel.setText("[YELLOW]Error connecting to server. Maybe you lost connection?");
-        }
+        ClientPacket resetPointsPacket = new ClientPacket(ClientCode.RESET_PLAYER_RANK);
+        resetPointsPacket.data.put("player", playerNum);
+        sendFailed(client.sendPacket(resetPointsPacket));
     }
 
     private void requestPlayerShuffle() {
-        try {
-            ClientPacket shufflePlayersPacket = new ClientPacket(ClientCode.SHUFFLE_PLAYERS);
-            client.sendPacket(shufflePlayersPacket);
-        } catch(IOException e) {
+        ClientPacket shufflePlayersPacket = new ClientPacket(ClientCode.SHUFFLE_PLAYERS);
+        sendFailed(client.sendPacket(shufflePlayersPacket));
+    }
+
+    // code is ADD_BOT or REMOVE_BOT
+    private void requestBotChange(ClientCode code) {
+        sendFailed(client.sendPacket(new ClientPacket(code)));
+    }
+
+    // Sends only get queued here, so this is just whether the packet could be queued. A packet which is queued but
+    // can't be written takes the connection down with it, and that's reported like any other lost connection.
+    private boolean sendFailed(CompletableFuture<Void> sent) {
+        if(sent.isCompletedExceptionally()) {
             messageLabel.setText("[YELLOW]Error connecting to server. Maybe you lost connection?");
+            return true;
         }
+        return false;
     }
 
     @Override
@@ -0,0 +1,60 @@
+package com.sage.shengji.server;
+
+import com.sage.shengji.utils.log.Log;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+// Runs tasks one at a time, in submission order, on a shared executor. Each table is one of these, so everything a table
+// does happens on a single logical thread without the table owning a thread of its own. A table with nothing to do
+// holds no thread at all.
+class SerialExecutor implements Executor {
+    // After this many tasks in a row, a busy table gives its thread back so other tables get a turn
+    private static final int MAX_TASKS_PER_TURN = 64;
+
+    private final Executor executor;
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private boolean scheduled = false;
+
+    SerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public synchronized void execute(Runnable task) {
+        tasks.add(task);
+        if(!scheduled) {
+            scheduled = true;
+            try {
+                executor.execute(this::runTasks);
+            } catch(RejectedExecutionException e) {
+                // The server is shutting down, so there's nothing left to run the task on
+                tasks.clear();
+                scheduled = false;
+            }
+        }
+    }
+
+    private void runTasks() {
+        for(int i = 0; ; i++) {
+            Runnable task;
+            synchronized(this) {
+                if(tasks.isEmpty()) {
+                    scheduled = false;
+                    return;
+                } else if(i == MAX_TASKS_PER_TURN) {
+                    executor.execute(this::runTasks);
+                    return;
+                }
+                task = tasks.poll();
+            }
+            try {
+                task.run();
+            } catch(RuntimeException e) {
+                Log.error("SerialExecutor", "Task threw", e);
+            }
+        }
+    }
+}
@@ -1,43 +1,108 @@
 package com.sage.shengji.server;
 
-import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.Net;
-import com.badlogic.gdx.net.NetJavaServerSocketImpl;
-import com.badlogic.gdx.net.ServerSocketHints;
-import com.badlogic.gdx.utils.GdxRuntimeException;
 import com.badlogic.gdx.utils.SerializationException;
 import com.sage.shengji.client.network.ClientCode;
-import com.sage.shengji.server.game.*;
-import com.sage.shengji.server.network.MultiplePlayersDisconnectedException;
+import com.sage.shengji.server.game.DeadlineConfig;
+import com.sage.shengji.server.game.Player;
+import com.sage.shengji.server.metrics.MetricsHttpServer;
+import com.sage.shengji.server.network.NioTransport;
+import com.sage.shengji.server.network.OutboundQueueConfig;
+import com.sage.shengji.server.network.PlayerConnection;
 import com.sage.shengji.server.network.PlayerDisconnectedException;
 import com.sage.shengji.server.network.ServerCode;
 import com.sage.shengji.server.network.ServerPacket;
 
-import java.util.Timer;
-import java.util.TimerTask;
+import java.io.UncheckedIOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 public class Server extends Thread {
-    private static final long PRUNE_PERIOD = 1000; // In seconds
+    private static final long PRUNE_PERIOD = 1000; // In milliseconds
+    private static final long PING_PERIOD = 2000; // In milliseconds
     public static final int MAX_PLAYER_NAME_LENGTH = 16;
+    public static final int DEFAULT_TABLE_ID = 0;
 
     public final int port;
 
-    private final ServerGameState gameState = new ServerGameState();
+    private final List<Table> tables;
 
-    private volatile boolean startRoundFlag = false; // This flag is set by the player communication thread
-    private final Object startRoundObj = new Object();
+    // Players who have connected but haven't been routed to a table yet
+    private final Set<Player> unseatedPlayers = Collections.synchronizedSet(new HashSet<>());
 
-    private Player host = null;
-    private NetJavaServerSocketImpl serverSocket;
+    // Every table runs its tasks and timers on this shared pool, so adding tables doesn't add threads
+    private final ScheduledExecutorService scheduler;
+
+    // Every bot on every table searches on this pool. One core is left for the tables and the transport, so bots thinking
+    // never delays the game itself.
+    private final ForkJoinPool botPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+
+    private final NioTransport transport;
+    private final Object metricsHttpServerLock = new Object();
+    private MetricsHttpServer metricsHttpServer = null;
 
     private volatile boolean closed = false;
 
     public Server(int port) {
+        this(port, 1);
+    }
+
+    public Server(int port, int numTables) throws UncheckedIOException {
+        this(port, numTables, NioTransport.DEFAULT_NUM_EVENT_LOOPS);
+    }
+
+    public Server(int port, int numTables, int numEventLoops) throws UncheckedIOException {
+        this(port, numTables, numEventLoops, new OutboundQueueConfig());
+    }
+
+    public Server(int port, int numTables, int numEventLoops, OutboundQueueConfig outboundQueueConfig)
+            throws UncheckedIOException {
+        this(port, numTables, numEventLoops, outboundQueueConfig, new DeadlineConfig());
+    }
+
+    // Throws an UncheckedIOException if the port couldn't be bound
+    public Server(int port, int numTables, int numEventLoops, OutboundQueueConfig outboundQueueConfig,
+                  DeadlineConfig deadlines) throws UncheckedIOException {
+        super("Server");
         this.port = port;
 
-        ServerSocketHints hints = new ServerSocketHints();
-        hints.acceptTimeout = 0;
-        serverSocket = new NetJavaServerSocketImpl(Net.Protocol.TCP, port, hints);
+        if(numTables < 1) {
+            throw new IllegalArgumentException("A server must host at least one table");
+        }
+
+        scheduler = Executors.newScheduledThreadPool(
+                Math.max(1, Math.min(numTables, Runtime.getRuntime().availableProcessors())),
+                new ThreadFactory() {
+                    private final AtomicInteger threadNum = new AtomicInteger(0);
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Table worker " + threadNum.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+
+        List<Table> tables = new ArrayList<>(numTables);
+        for(int i = 0; i < numTables; i++) {
+            tables.add(new Table(i, scheduler, deadlines, botPool));
+        }
+        this.tables = Collections.unmodifiableList(tables);
+        tables.forEach(table -> table.getMetrics().registerMBeans());
+
+        try {
+            transport = new NioTransport(port, numEventLoops, outboundQueueConfig, this::acceptConnection);
+        } catch(UncheckedIOException e) {
+            scheduler.shutdownNow();
+            botPool.shutdownNow();
+            tables.forEach(table -> table.getMetrics().unregisterMBeans());
+            throw e;
+        }
 
         setDaemon(true);
         Runtime.getRuntime().addShutdownHook(new Thread(this::close));
@@ -45,221 +110,146 @@ public class Server extends Thread {
 
     @Override
     public void run() {
-        Thread connectionAcceptorThread = new Thread(connectionAcceptor);
-        connectionAcceptorThread.start();
-
-        Timer pruneDisconnectedPlayersTimer = new Timer();
-        pruneDisconnectedPlayersTimer.scheduleAtFixedRate(pruneDisconnectedPlayersTask, PRUNE_PERIOD, PRUNE_PERIOD);
-
-        while(!closed) {
-            if(startRoundFlag) {
-                if(closed) {
-                    break;
-                } else {
-                    playRound();
-                }
-            }
-            try {
-                synchronized(startRoundObj) {
-                    startRoundObj.wait();
-                }
-            } catch(InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        scheduler.scheduleAtFixedRate(this::pruneDisconnectedPlayers, PRUNE_PERIOD, PRUNE_PERIOD, TimeUnit.MILLISECONDS);
+        scheduler.scheduleAtFixedRate(this::pingPlayers, PING_PERIOD, PING_PERIOD, TimeUnit.MILLISECONDS);
 
-        try {
-            serverSocket.dispose();
-        } catch(GdxRuntimeException e) {
-            Gdx.app.log("Server.run()", "Encountered GdxRuntimeException when trying to dispose of socket");
+        // This thread becomes the transport's accepting event loop until the server is closed
+        if(!closed) {
+            transport.run();
         }
-        pruneDisconnectedPlayersTimer.cancel();
-    }
 
-    private void playRound() {
-        try {
-            RoundRunner.playRound(gameState);
-        } catch(PlayerDisconnectedException | MultiplePlayersDisconnectedException e) {
-            gameState.removeDisconnectedPlayers();
-            try {
-                gameState.getPlayers().sendPacketToAll(new ServerPacket(ServerCode.PLAYER_DISCONNECTED));
-            } catch(MultiplePlayersDisconnectedException e1) {
-                gameState.removeDisconnectedPlayers();
-            }
-        } catch(RoundStartFailedException e) {
-            host.sendPacket(new ServerPacket(ServerCode.COULD_NOT_START_GAME));
-        } catch(FatalRoundException e) {
-            gameState.getPlayers().sendCodeToAll(ServerCode.FATAL_ROUND_ERROR);
-        } finally {
-            sendPlayersToAllUntilNoDisconnections();
-            startRoundFlag = false;
-        }
+        scheduler.shutdownNow();
+        botPool.shutdownNow();
     }
 
-    private void sendPlayersToAllUntilNoDisconnections() {
-        while(true) {
-            try {
-                gameState.getPlayers().sendPlayersToAll();
-            } catch(MultiplePlayersDisconnectedException e1) {
-                if(gameState.removeDisconnectedPlayers()) {
-                    continue;
-                }
-            }
-            break;
+    // Runs on the accepting event loop, before any packets are read from the connection
+    private void acceptConnection(PlayerConnection connection) {
+        if(closed) {
+            connection.close();
+            return;
         }
+        setRoutingPacketHandlersForPlayer(new Player(-1, connection));
     }
 
-    private void setInitialPacketHandlersForPlayer(Player player) {
-        player.setInitialPacketHandlerForCode(ClientCode.NAME, packet -> {
-            if(packet.data.get("name") instanceof String && !gameState.isRoundRunning()) {
-                String sentName = (String)packet.data.get("name");
-                player.setName(sentName.substring(0, Math.min(sentName.length(), MAX_PLAYER_NAME_LENGTH)));
-                sendPlayersToAllUntilNoDisconnections();
-            } else {
-                player.sendPacket(new ServerPacket(ServerCode.UNSUCCESSFUL_NAME_CHANGE));
-            }
-            return false; // This packet does not need to be put into the player's packetQueue
-        });
-
-        player.setInitialPacketHandlerForCode(ClientCode.START_GAME, packet -> {
-            if(player == host && !startRoundFlag) {
-                startRoundFlag = true; // This simply requests the round runner thread to start; it does not force the round to start
-                synchronized(startRoundObj) {
-                    startRoundObj.notify();
-                }
-            } else {
-                player.sendPacket(new ServerPacket(ServerCode.COULD_NOT_START_GAME));
-            }
-            return false; // This packet does not need to be put into the player's packetQueue
+    // A new connection is routed to a table at handshake by its first JOIN_TABLE packet. Older clients don't send
+    // JOIN_TABLE and open with NAME instead, so they are seated at the default table. A client whose connection dropped
+    // mid-round opens with RECONNECT instead, presenting the session token it was given, to take its old seat back.
+    private void setRoutingPacketHandlersForPlayer(Player player) {
+        unseatedPlayers.add(player);
+
+        player.setInitialPacketHandlerForCode(ClientCode.JOIN_TABLE, packet -> {
+            int tableId = (packet.data.get("table") instanceof Integer)
+                    ? (Integer)packet.data.get("table")
+                    : DEFAULT_TABLE_ID;
+            player.setDeltaSync(Boolean.TRUE.equals(packet.data.get("delta")));
+            routePlayerToTable(player, tableId);
+            return false;
         });
 
-        player.setInitialPacketHandlerForCode(ClientCode.PLAYER_RANK_CHANGE, packet -> {
-            if(packet.data.get("player") instanceof Integer
-                    && packet.data.get("rankchange") instanceof Integer
-                    && player == host) {
-                gameState.getPlayers().getByPlayerNum((Integer)packet.data.get("player")).ifPresent(p -> {
-                    p.incrementCallRankOffset((Integer)packet.data.get("rankchange"));
-                    ServerPacket newPlayerRankPacket = new ServerPacket(ServerCode.NEW_PLAYER_RANK)
-                            .put("player", p.getPlayerNum())
-                            .put("rank", p.getCallRank());
-                    sendPacketToAllAndHandleDisconnections(newPlayerRankPacket);
-                });
-            }
+        player.setInitialPacketHandlerForCode(ClientCode.RECONNECT, packet -> {
+            int tableId = (packet.data.get("table") instanceof Integer)
+                    ? (Integer)packet.data.get("table")
+                    : DEFAULT_TABLE_ID;
+            long sessionToken = (packet.data.get("session") instanceof Long) ? (Long)packet.data.get("session") : 0;
+            routePlayerToTable(player, tableId, table -> table.reconnectPlayer(player, sessionToken));
             return false;
         });
 
-        player.setInitialPacketHandlerForCode(ClientCode.RESET_PLAYER_RANK, packet -> {
-            if(packet.data.get("player") instanceof Integer && player == host) {
-                gameState.getPlayers().getByPlayerNum((Integer)packet.data.get("player")).ifPresent(p -> {
-                    p.setCallRankOffset(0);
-                    ServerPacket newPlayerRankPacket = new ServerPacket(ServerCode.NEW_PLAYER_RANK)
-                            .put("player", p.getPlayerNum())
-                            .put("rank", p.getCallRank());
-                    sendPacketToAllAndHandleDisconnections(newPlayerRankPacket);
-                });
+        player.setInitialPacketHandlerForCode(ClientCode.NAME, packet -> {
+            if(routePlayerToTable(player, DEFAULT_TABLE_ID)) {
+                // The table has installed its own handlers, so the NAME packet is handed to them
+                return player.redispatchPacket(packet);
             }
             return false;
         });
+    }
 
-        player.setInitialPacketHandlerForCode(ClientCode.SHUFFLE_PLAYERS, packet -> {
-            if(player == host) {
-                try {
-                    var oldPlayerOrder = gameState.getPlayers();
-                    final int maxAttempts = 20;
-                    int i = 0;
-                    if(oldPlayerOrder.size() <= 1) {
-                        return false;
-                    }
+    private boolean routePlayerToTable(Player player, int tableId) {
+        return routePlayerToTable(player, tableId, table -> table.addPlayer(player));
+    }
 
-                    do {
-                        gameState.shufflePlayers();
-                    } while(oldPlayerOrder.equals(gameState.getPlayers()) && i++ < maxAttempts);
-                } catch(RoundIsRunningException e) {
-                    return false;
-                }
-                gameState.squashPlayerNums();
-                sendPlayersToAllUntilNoDisconnections();
+    private boolean routePlayerToTable(Player player, int tableId, Consumer<Table> route) {
+        unseatedPlayers.remove(player);
+        player.resetInitialPacketHandlers();
+
+        Optional<Table> table = getTable(tableId);
+        if(table.isEmpty()) {
+            try {
+                player.sendPacket(new ServerPacket(ServerCode.CONNECTION_DENIED));
+            } catch(SerializationException | PlayerDisconnectedException e) {
+                // The player is being turned away anyway
             }
+            player.dropConnection();
             return false;
-        });
+        }
+        route.accept(table.get());
+        return true;
+    }
 
-        player.setInitialPacketHandlerForCode(ClientCode.PING, packet -> false);
+    public Optional<Table> getTable(int tableId) {
+        return (tableId >= 0 && tableId < tables.size()) ? Optional.of(tables.get(tableId)) : Optional.empty();
     }
 
-    private void sendPacketToAllAndHandleDisconnections(ServerPacket packet) {
-        try {
-            gameState.getPlayers().sendPacketToAll(packet);
-        } catch(MultiplePlayersDisconnectedException e) {
-            gameState.removeDisconnectedPlayers();
-            sendPlayersToAllUntilNoDisconnections();
-        }
+    public List<Table> getTables() {
+        return tables;
     }
-    
-    public void close() {
-        try {
-            // We drop every player connection which should (?) make RoundRunner.playRound() throw a PlayerDisconnectedException.
-            // When the main server loop repeats, it will query the value of closed and will exit.
-            closed = true;
-            gameState.getPlayers().forEach(Player::dropConnection);
 
-            // We need to notify startRoundObj in case the server is currently waiting for the round to start
-            synchronized(startRoundObj) {
-                startRoundObj.notify();
-            }
-        } finally {
-            try { // No matter what, serverSocket should be disposed
-                serverSocket.dispose();
-            } catch(GdxRuntimeException e) {
-                Gdx.app.log("Server.close()", "Encountered GdxRuntimeException when trying to dispose of socket");
+    // Serves getMetricsReport() at http://localhost:<port>/metrics until the server is closed. Throws an
+    // UncheckedIOException if the port couldn't be bound.
+    public void startMetricsEndpoint(int port) throws UncheckedIOException {
+        synchronized(metricsHttpServerLock) {
+            if(metricsHttpServer != null || closed) {
+                return;
             }
+            metricsHttpServer = new MetricsHttpServer(port, this::getMetricsReport);
+            metricsHttpServer.start();
         }
     }
 
-    Runnable connectionAcceptor = new Runnable() {
-        @Override
-        public void run() {
-            while(!closed) {
-                Player newPlayer;
-                try {
-                    newPlayer = new Player(gameState.getPlayers().size(), serverSocket.accept(null));
-
-                    // If round is started, we can immediately end the connection
-                    if(gameState.isRoundRunning() || gameState.getPlayers().size() == ServerGameState.MAX_PLAYERS) {
-                        newPlayer.sendPacket(new ServerPacket(ServerCode.CONNECTION_DENIED));
-                    }
-                } catch(GdxRuntimeException | SerializationException | PlayerDisconnectedException e) {
-                    continue;
-                }
+    // Phase latencies for every table, followed by each seated player's network statistics
+    public String getMetricsReport() {
+        StringBuilder sb = new StringBuilder();
+        tables.forEach(table -> table.getMetrics().appendReport(sb));
+        tables.forEach(table -> table.getPlayerNetworkStats().forEach((playerNum, stats) -> sb
+                .append("table=").append(table.tableId)
+                .append(" player=").append(playerNum)
+                .append(" rtt_us=").append(stats.getSmoothedRttNanos() / 1000)
+                .append(" jitter_us=").append(stats.getJitterNanos() / 1000)
+                .append(" packets_in=").append(stats.getPacketsIn())
+                .append(" packets_out=").append(stats.getPacketsOut())
+                .append(" bytes_in=").append(stats.getBytesIn())
+                .append(" bytes_out=").append(stats.getBytesOut())
+                .append('\n')));
+        return sb.toString();
+    }
 
-                if(host == null) {
-                    host = newPlayer;
-                    host.setHost(true);
-                }
-                newPlayer.setPlayerNum(gameState.getPlayers().size());
-                setInitialPacketHandlersForPlayer(newPlayer);
-                try {
-                    gameState.addPlayer(newPlayer);
-                    newPlayer.sendPacket(new ServerPacket(ServerCode.CONNECTION_ACCEPTED));
-                } catch(RoundIsRunningException e) {
-                    // If gameState.addPlayer throws a RoundIsRunningException, the new player will not be added
-                    newPlayer.sendPacket(new ServerPacket(ServerCode.CONNECTION_DENIED));
-                } catch(SerializationException | PlayerDisconnectedException e) {
-                    // If a PlayerDisconnectedException is encountered here, the call to
-                    // sendPlayersToAllUntilNoDisconnections will remove newPlayer from the player list
+    public void close() {
+        try {
+            closed = true;
+            synchronized(metricsHttpServerLock) {
+                if(metricsHttpServer != null) {
+                    metricsHttpServer.stop();
+                    metricsHttpServer = null;
                 }
-                sendPlayersToAllUntilNoDisconnections();
             }
-        }
-    };
-
-    private TimerTask pruneDisconnectedPlayersTask = new TimerTask() {
-        @Override
-        public void run() {
-            if(!gameState.isRoundRunning()) {
-                if(gameState.removeDisconnectedPlayers()) {
-                    sendPlayersToAllUntilNoDisconnections();
-                }
+            tables.forEach(table -> table.getMetrics().unregisterMBeans());
+            tables.forEach(Table::close);
+            synchronized(unseatedPlayers) {
+                unseatedPlayers.forEach(Player::dropConnection);
+                unseatedPlayers.clear();
             }
+        } finally {
+            // No matter what, the transport should be closed
+            transport.close();
         }
-    };
+    }
+
+    private void pruneDisconnectedPlayers() {
+        tables.forEach(Table::pruneDisconnectedPlayers);
+        unseatedPlayers.removeIf(player -> !player.socketIsConnected());
+    }
+
+    private void pingPlayers() {
+        tables.forEach(Table::pingPlayers);
+    }
 }
@@ -0,0 +1,588 @@
+package com.sage.shengji.server;
+
+import com.badlogic.gdx.utils.SerializationException;
+import com.sage.shengji.client.network.ClientCode;
+import com.sage.shengji.client.network.ClientPacket;
+import com.sage.shengji.server.bot.Bot;
+import com.sage.shengji.server.game.*;
+import com.sage.shengji.server.metrics.TableMetrics;
+import com.sage.shengji.server.metrics.TimedPhase;
+import com.sage.shengji.server.network.MultiplePlayersDisconnectedException;
+import com.sage.shengji.server.network.PlayerDisconnectedException;
+import com.sage.shengji.server.network.ServerCode;
+import com.sage.shengji.server.network.ServerPacket;
+import com.sage.shengji.utils.log.Log;
+import com.sage.shengji.utils.network.NetworkStats;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A Table is a single isolated game hosted by a Server. Each table owns its own ServerGameState, host, and round.
+//
+// A table is an actor: every packet, disconnect and timer that concerns it is posted to its SerialExecutor, which runs
+// them one at a time on the server's shared scheduler. Table state is therefore only ever touched by one task at a
+// time, and any number of tables can share a handful of threads.
+//
+// Every player is handed a session token when they're seated. If a player's connection drops mid-round their seat is
+// held for the reconnect grace of the table's DeadlineConfig, and the round is paused: its deadline is stopped, and
+// packets and timers which would advance it are kept until it resumes. A new connection presenting the token within
+// the grace takes the seat back and is sent a snapshot of the round. If the grace runs out the round is abandoned.
+public class Table {
+    private static final SecureRandom sessionTokens = new SecureRandom();
+
+    public final int tableId;
+
+    private final ServerGameState gameState = new ServerGameState();
+    private final ScheduledExecutorService scheduler;
+    private final SerialExecutor executor;
+    private final TableMetrics metrics;
+    private final DeadlineConfig deadlines;
+    private final ForkJoinPool botPool;
+
+    // Only touched on executor
+    private RoundRunner round = null;
+    private Player host = null;
+
+    // Players whose connection dropped mid-round, and when it dropped, from System.nanoTime(). While there are any, the
+    // round is paused and everything which would advance it waits in pausedRoundTasks.
+    private final Map<Player, Long> awayPlayers = new LinkedHashMap<>();
+    private final List<Runnable> pausedRoundTasks = new ArrayList<>();
+    private boolean roundWasPaused = false;
+
+    private volatile boolean closed = false;
+    private volatile Map<Integer, NetworkStats> playerNetworkStats = Collections.emptyMap();
+
+    Table(int tableId, ScheduledExecutorService scheduler, DeadlineConfig deadlines, ForkJoinPool botPool) {
+        this.tableId = tableId;
+        this.scheduler = scheduler;
+        this.executor = new SerialExecutor(scheduler);
+        this.metrics = new TableMetrics(tableId);
+        this.deadlines = deadlines;
+        this.botPool = botPool;
+    }
+
+    // Runs task on this table's executor
+    public void execute(Runnable task) {
+        long queuedAt = System.nanoTime();
+        executor.execute(() -> {
+            long startedAt = System.nanoTime();
+            metrics.record(TimedPhase.TABLE_QUEUE_WAIT, startedAt - queuedAt);
+            try {
+                task.run();
+            } finally {
+                metrics.recordSince(TimedPhase.TABLE_TASK, startedAt);
+            }
+        });
+    }
+
+    // Runs task on this table's executor after the given delay
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return scheduler.schedule(() -> execute(task), delay, unit);
+    }
+
+    // Like schedule(), but the task is dropped if the round that scheduled it is no longer running
+    private ScheduledFuture<?> scheduleForRound(Runnable task, long delay, TimeUnit unit) {
+        RoundRunner scheduledBy = round;
+        return schedule(() -> {
+            if(round != null && round == scheduledBy) {
+                runRoundTaskUnlessPaused(task);
+            }
+        }, delay, unit);
+    }
+
+    // Seats newPlayer at this table. If the table can't take the player, they are sent CONNECTION_DENIED and their
+    // connection is dropped. The player's packet handlers are installed immediately, but seating happens on the table's
+    // executor, so packets the player sends from now on are handled after they have been seated (or turned away).
+    void addPlayer(Player newPlayer) {
+        setInitialPacketHandlersForPlayer(newPlayer);
+        execute(() -> seatPlayer(newPlayer));
+    }
+
+    private void seatPlayer(Player newPlayer) {
+        if(closed || gameState.isRoundRunning() || gameState.getPlayers().size() >= ServerGameState.MAX_PLAYERS) {
+            denyConnection(newPlayer);
+            return;
+        }
+
+        newPlayer.setPlayerNum(gameState.getPlayers().size());
+        newPlayer.setName((newPlayer.isBot() ? "Bot " : "Player ") + newPlayer.getPlayerNum());
+        try {
+            gameState.addPlayer(newPlayer);
+        } catch(RoundIsRunningException e) {
+            // If gameState.addPlayer throws a RoundIsRunningException, the new player will not be added
+            denyConnection(newPlayer);
+            return;
+        }
+        newPlayer.setOnDisconnect(() -> execute(() -> playerDisconnected(newPlayer)));
+        newPlayer.setMetrics(metrics);
+        newPlayer.setSessionToken(sessionTokens.nextLong());
+
+        if((host == null || !gameState.getPlayers().contains(host)) && !newPlayer.isBot()) {
+            host = newPlayer;
+            host.setHost(true);
+        }
+
+        try {
+            newPlayer.sendPacket(new ServerPacket(ServerCode.CONNECTION_ACCEPTED)
+                    .put("table", tableId)
+                    .put("session", newPlayer.getSessionToken()));
+        } catch(SerializationException | PlayerDisconnectedException e) {
+            // If a PlayerDisconnectedException is encountered here, the call to
+            // sendPlayersToAllUntilNoDisconnections will remove newPlayer from the player list
+        }
+        sendPlayersToAllUntilNoDisconnections();
+    }
+
+    // Seats a bot in a new seat. Bots are only added between rounds, and only while there's room.
+    private void addBot() {
+        if(closed || gameState.isRoundRunning() || gameState.getPlayers().size() >= ServerGameState.MAX_PLAYERS) {
+            return;
+        }
+        Bot bot = new Bot(botPool, Bot.DEFAULT_DECISION_MILLIS);
+        Player botPlayer = new Player(-1, bot.getConnection());
+        setInitialPacketHandlersForPlayer(botPlayer);
+        seatPlayer(botPlayer);
+    }
+
+    // Unseats the bot in the last seat held by a bot, if any
+    private void removeBot() {
+        if(gameState.isRoundRunning()) {
+            return;
+        }
+        var players = gameState.getPlayers();
+        for(int i = players.size() - 1; i >= 0; i--) {
+            Player bot = players.get(i);
+            if(bot.isBot()) {
+                bot.resetOnDisconnect();
+                bot.dropConnection();
+                gameState.removeDisconnectedPlayers();
+                sendPlayersToAllUntilNoDisconnections();
+                return;
+            }
+        }
+    }
+
+    // Bots only play alongside people, so once the last person has left the bots leave too
+    private void dropBotsIfNoHumans() {
+        var players = gameState.getPlayers();
+        if(!players.isEmpty() && players.stream().allMatch(Player::isBot)) {
+            players.forEach(Player::dropConnection);
+        }
+    }
+
+    // Gives reconnecting the seat of the player whose session token it presented, if that seat is being held for them,
+    // and sends them a snapshot of the round. Otherwise reconnecting is turned away like any other connection.
+    void reconnectPlayer(Player reconnecting, long sessionToken) {
+        execute(() -> {
+            Player seated = (round == null || closed)
+                    ? null
+                    : gameState.getPlayers().stream()
+                            .filter(p -> p.isSeatHeld() && p.getSessionToken() == sessionToken)
+                            .findAny()
+                            .orElse(null);
+            if(seated == null) {
+                denyConnection(reconnecting);
+                return;
+            }
+
+            // The seat may not have been given up yet if the old connection only went quiet, in which case it's closed
+            seated.takeConnectionOf(reconnecting);
+            Long droppedAt = awayPlayers.remove(seated);
+            if(droppedAt != null) {
+                metrics.recordSince(TimedPhase.RECONNECT, droppedAt);
+            }
+            Log.info("Table " + tableId, "Player " + seated.getPlayerNum() + " reconnected");
+            sendPacketIfConnected(seated, round.snapshotFor(seated));
+            if(droppedAt != null && awayPlayers.isEmpty()) {
+                resumeRound();
+            }
+        });
+    }
+
+    private void denyConnection(Player player) {
+        player.resetInitialPacketHandlers();
+        player.setPacketListener(null);
+        try {
+            player.sendPacket(new ServerPacket(ServerCode.CONNECTION_DENIED));
+        } catch(SerializationException | PlayerDisconnectedException e) {
+            // The player is being turned away anyway
+        }
+        player.dropConnection();
+    }
+
+    private void startRound() {
+        round = new RoundRunner(gameState, metrics, deadlines, this::scheduleForRound);
+        roundWasPaused = false;
+        if(deadlines.reconnectMillis > 0) {
+            gameState.getPlayers().forEach(p -> p.setSeatHeld(!p.isBot()));
+        }
+        try {
+            round.start();
+        } catch(RoundStartFailedException e) {
+            round.finish();
+            sendPacketIfConnected(host, new ServerPacket(ServerCode.COULD_NOT_START_GAME));
+            endRound();
+            return;
+        } catch(RuntimeException e) {
+            abortRound(e);
+            return;
+        }
+        if(round.isOver()) {
+            endRound();
+        }
+    }
+
+    private void handleRoundPacket(Player player, ClientPacket packet) {
+        if(round != null) {
+            runRoundTaskUnlessPaused(() -> round.handlePacket(player, packet));
+        }
+    }
+
+    // Runs task as runRoundTask() does, unless the round is paused, in which case it's run once the round resumes
+    private void runRoundTaskUnlessPaused(Runnable task) {
+        if(awayPlayers.isEmpty()) {
+            runRoundTask(task);
+        } else {
+            pausedRoundTasks.add(task);
+        }
+    }
+
+    // Runs task, which advances the round, and then ends the round if it's over
+    private void runRoundTask(Runnable task) {
+        try {
+            task.run();
+        } catch(RuntimeException e) {
+            abortRound(e);
+            return;
+        }
+        if(round.isOver()) {
+            endRound();
+        }
+    }
+
+    private void playerDisconnected(Player player) {
+        if(round != null && gameState.getPlayers().contains(player)) {
+            if(closed || !player.isSeatHeld()) {
+                abortRound(new PlayerDisconnectedException(player));
+            } else if(player.isAway() && !awayPlayers.containsKey(player)) {
+                pauseRoundFor(player);
+            }
+        } else if(gameState.removeDisconnectedPlayers()) {
+            sendPlayersToAllUntilNoDisconnections();
+        }
+        if(!player.isBot()) {
+            dropBotsIfNoHumans();
+        }
+    }
+
+    // Holds the round for player, whose connection has dropped, until they reconnect or their grace runs out
+    private void pauseRoundFor(Player player) {
+        final long droppedAt = System.nanoTime();
+        if(awayPlayers.isEmpty()) {
+            round.pause();
+        }
+        awayPlayers.put(player, droppedAt);
+        roundWasPaused = true;
+        Log.info("Table " + tableId, "Player " + player.getPlayerNum() + " dropped, holding their seat for "
+                + deadlines.reconnectMillis + "ms");
+        sendPacketToAllDuringRound(new ServerPacket(ServerCode.ROUND_PAUSED)
+                .put("player", player.getPlayerNum())
+                .put("millis", (int)Math.min(deadlines.reconnectMillis, Integer.MAX_VALUE)));
+
+        schedule(() -> {
+            Long stillAwaySince = awayPlayers.get(player);
+            if(stillAwaySince != null && stillAwaySince == droppedAt) {
+                Log.info("Table " + tableId, "Player " + player.getPlayerNum() + " didn't reconnect in time");
+                metrics.recordRoundLostToDisconnect();
+                roundWasPaused = false;
+                abortRound(new PlayerDisconnectedException(player));
+                dropBotsIfNoHumans();
+            }
+        }, deadlines.reconnectMillis, TimeUnit.MILLISECONDS);
+    }
+
+    // Called once every player who dropped is back. Whatever came in while the round was paused is handled in order.
+    private void resumeRound() {
+        sendPacketToAllDuringRound(new ServerPacket(ServerCode.ROUND_RESUMED));
+        runRoundTask(round::resume);
+        List<Runnable> tasks = new ArrayList<>(pausedRoundTasks);
+        pausedRoundTasks.clear();
+        for(Runnable task : tasks) {
+            if(round == null) {
+                break;
+            }
+            runRoundTaskUnlessPaused(task);
+        }
+    }
+
+    // Seats are only held during a round, so from here on a dropped player is removed like any other
+    private void releaseSeats() {
+        awayPlayers.clear();
+        pausedRoundTasks.clear();
+        gameState.getPlayers().forEach(p -> p.setSeatHeld(false));
+    }
+
+    private void abortRound(RuntimeException cause) {
+        round.finish();
+        releaseSeats();
+        roundWasPaused = false;
+        if(cause instanceof PlayerDisconnectedException || cause instanceof MultiplePlayersDisconnectedException) {
+            gameState.removeDisconnectedPlayers();
+            try {
+                gameState.getPlayers().sendPacketToAll(new ServerPacket(ServerCode.PLAYER_DISCONNECTED));
+            } catch(MultiplePlayersDisconnectedException e) {
+                gameState.removeDisconnectedPlayers();
+            }
+        } else if(cause instanceof FatalRoundException) {
+            sendCodeToAllAndHandleDisconnections(ServerCode.FATAL_ROUND_ERROR);
+        } else {
+            Log.error("Table " + tableId, "Round aborted, last dealt from seed " + gameState.getDealSeed(), cause);
+            sendCodeToAllAndHandleDisconnections(ServerCode.FATAL_ROUND_ERROR);
+        }
+        endRound();
+    }
+
+    private void endRound() {
+        round = null;
+        releaseSeats();
+        if(roundWasPaused) {
+            metrics.recordRoundSaved();
+            roundWasPaused = false;
+        }
+        sendPlayersToAllUntilNoDisconnections();
+    }
+
+    private void sendPacketIfConnected(Player player, ServerPacket packet) {
+        try {
+            if(player != null) {
+                player.sendPacket(packet);
+            }
+        } catch(SerializationException | PlayerDisconnectedException e) {
+            // A disconnected player is pruned by their disconnect action
+        }
+    }
+
+    // A client which has lost track of the round is sent all of it. Between rounds there's only the player list.
+    private void sendSnapshot(Player player) {
+        if(round != null && !round.isOver() && gameState.getPlayers().contains(player)) {
+            sendPacketIfConnected(player, round.snapshotFor(player));
+        } else {
+            sendPlayersToAllUntilNoDisconnections();
+        }
+    }
+
+    // Nobody can be removed mid-round, so a failed send is left to the player's disconnect action
+    private void sendPacketToAllDuringRound(ServerPacket packet) {
+        try {
+            gameState.getPlayers().sendPacketToAll(packet);
+        } catch(MultiplePlayersDisconnectedException e) {
+            // Dealt with by each player's disconnect action
+        }
+    }
+
+    private void sendPlayersToAllUntilNoDisconnections() {
+        while(true) {
+            try {
+                gameState.getPlayers().sendPlayersToAll();
+            } catch(MultiplePlayersDisconnectedException e1) {
+                if(gameState.removeDisconnectedPlayers()) {
+                    continue;
+                }
+            }
+            break;
+        }
+    }
+
+    // The handlers run on the player's connection thread, so they only post work to the table
+    private void setInitialPacketHandlersForPlayer(Player player) {
+        player.setInitialPacketHandlerForCode(ClientCode.NAME, packet -> {
+            execute(() -> {
+                if(packet.data.get("name") instanceof String && !gameState.isRoundRunning()) {
+                    String sentName = (String)packet.data.get("name");
+                    player.setName(sentName.substring(0, Math.min(sentName.length(), Server.MAX_PLAYER_NAME_LENGTH)));
+                    sendPlayersToAllUntilNoDisconnections();
+                } else {
+                    sendPacketIfConnected(player, new ServerPacket(ServerCode.UNSUCCESSFUL_NAME_CHANGE));
+                }
+            });
+            return false; // This packet does not need to be passed on to the round
+        });
+
+        player.setInitialPacketHandlerForCode(ClientCode.START_GAME, packet -> {
+            execute(() -> {
+                if(player == host && round == null && !closed) {
+                    startRound();
+                } else {
+                    sendPacketIfConnected(player, new ServerPacket(ServerCode.COULD_NOT_START_GAME));
+                }
+            });
+            return false;
+        });
+
+        player.setInitialPacketHandlerForCode(ClientCode.PLAYER_RANK_CHANGE, packet -> {
+            execute(() -> {
+                if(packet.data.get("player") instanceof Integer
+                        && packet.data.get("rankchange") instanceof Integer
+                        && player == host) {
+                    gameState.getPlayers().getByPlayerNum((Integer)packet.data.get("player")).ifPresent(p -> {
+                        p.incrementCallRankOffset((Integer)packet.data.get("rankchange"));
+                        ServerPacket newPlayerRankPacket = new ServerPacket(ServerCode.NEW_PLAYER_RANK)
+                                .put("player", p.getPlayerNum())
+                                .put("rank", p.getCallRank());
+                        sendPacketToAllAndHandleDisconnections(newPlayerRankPacket);
+                    });
+                }
+            });
+            return false;
+        });
+
+        player.setInitialPacketHandlerForCode(ClientCode.RESET_PLAYER_RANK, packet -> {
+            execute(() -> {
+                if(packet.data.get("player") instanceof Integer && player == host) {
+                    gameState.getPlayers().getByPlayerNum((Integer)packet.data.get("player")).ifPresent(p -> {
+                        p.setCallRankOffset(0);
+                        ServerPacket newPlayerRankPacket = new ServerPacket(ServerCode.NEW_PLAYER_RANK)
+                                .put("player", p.getPlayerNum())
+                                .put("rank", p.getCallRank());
+                        sendPacketToAllAndHandleDisconnections(newPlayerRankPacket);
+                    });
+                }
+            });
+            return false;
+        });
+
+        player.setInitialPacketHandlerForCode(ClientCode.SHUFFLE_PLAYERS, packet -> {
+            execute(() -> {
+                if(player == host) {
+                    try {
+                        var oldPlayerOrder = gameState.getPlayers();
+                        final int maxAttempts = 20;
+                        int i = 0;
+                        if(oldPlayerOrder.size() <= 1) {
+                            return;
+                        }
+
+                        do {
+                            gameState.shufflePlayers();
+                        } while(oldPlayerOrder.equals(gameState.getPlayers()) && i++ < maxAttempts);
+                    } catch(RoundIsRunningException e) {
+                        return;
+                    }
+                    gameState.squashPlayerNums();
+                    sendPlayersToAllUntilNoDisconnections();
+                }
+            });
+            return false;
+        });
+
+        player.setInitialPacketHandlerForCode(ClientCode.ADD_BOT, packet -> {
+            execute(() -> {
+                if(player == host) {
+                    addBot();
+                }
+            });
+            return false;
+        });
+
+        player.setInitialPacketHandlerForCode(ClientCode.REMOVE_BOT, packet -> {
+            execute(() -> {
+                if(player == host) {
+                    removeBot();
+                }
+            });
+            return false;
+        });
+
+        player.setInitialPacketHandlerForCode(ClientCode.REQUEST_SNAPSHOT, packet -> {
+            execute(() -> sendSnapshot(player));
+            return false;
+        });
+
+        // A player leaving on purpose gives up their seat at once, rather than having the round wait for them
+        player.setInitialPacketHandlerForCode(ClientCode.LEAVE_TABLE, packet -> {
+            player.setSeatHeld(false);
+            player.dropConnection();
+            return false;
+        });
+
+        // A player is already seated, so any further JOIN_TABLE or RECONNECT is ignored
+        player.setInitialPacketHandlerForCode(ClientCode.JOIN_TABLE, packet -> false);
+        player.setInitialPacketHandlerForCode(ClientCode.RECONNECT, packet -> false);
+
+        // Everything else is for the round
+        player.setPacketListener(packet -> execute(() -> handleRoundPacket(player, packet)));
+    }
+
+    private void sendPacketToAllAndHandleDisconnections(ServerPacket packet) {
+        try {
+            gameState.getPlayers().sendPacketToAll(packet);
+        } catch(MultiplePlayersDisconnectedException e) {
+            gameState.removeDisconnectedPlayers();
+            sendPlayersToAllUntilNoDisconnections();
+        }
+    }
+
+    private void sendCodeToAllAndHandleDisconnections(ServerCode code) {
+        sendPacketToAllAndHandleDisconnections(new ServerPacket(code));
+    }
+
+    // Called periodically by the Server's shared scheduler
+    void pruneDisconnectedPlayers() {
+        execute(() -> {
+            if(!gameState.isRoundRunning() && gameState.removeDisconnectedPlayers()) {
+                sendPlayersToAllUntilNoDisconnections();
+                dropBotsIfNoHumans();
+            }
+        });
+    }
+
+    // Called periodically by the Server's shared scheduler. Each client echoes its ping, which updates that player's
+    // NetworkStats.
+    void pingPlayers() {
+        execute(() -> {
+            var stats = new TreeMap<Integer, NetworkStats>();
+            gameState.getPlayers().forEach(player -> {
+                stats.put(player.getPlayerNum(), player.getNetworkStats());
+                try {
+                    player.ping();
+                } catch(SerializationException | PlayerDisconnectedException e) {
+                    // A disconnected player is pruned by their disconnect action
+                }
+            });
+            playerNetworkStats = Collections.unmodifiableMap(stats);
+        });
+    }
+
+    // Network statistics for each seated player, by player number. The set of players is refreshed every ping, and
+    // each player's statistics are live.
+    public Map<Integer, NetworkStats> getPlayerNetworkStats() {
+        return playerNetworkStats;
+    }
+
+    public TableMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getNumPlayers() {
+        return gameState.getPlayers().size();
+    }
+
+    public boolean isRoundRunning() {
+        return gameState.isRoundRunning();
+    }
+
+    public void close() {
+        // Dropping every connection aborts any running round through the players' disconnect actions
+        closed = true;
+        gameState.getPlayers().forEach(Player::dropConnection);
+    }
+}
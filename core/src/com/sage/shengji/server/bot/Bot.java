@@ -0,0 +1,714 @@
+package com.sage.shengji.server.bot;
+
+import com.sage.shengji.client.network.ClientCode;
+import com.sage.shengji.client.network.ClientPacket;
+import com.sage.shengji.server.network.BotConnection;
+import com.sage.shengji.server.network.PlayerConnectionClosedException;
+import com.sage.shengji.server.network.ServerCode;
+import com.sage.shengji.server.network.ServerPacket;
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.card.Suit;
+import com.sage.shengji.utils.log.Log;
+import com.sage.shengji.utils.shengji.GroupedPlay;
+import com.sage.shengji.utils.shengji.LegalPlayGenerator;
+import com.sage.shengji.utils.shengji.TrumpContext;
+
+import java.io.Serializable;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// A bot seated at a table. The bot only knows what the server tells it, which is the same packets a client gets, and
+// answers with the same packets a client sends, so the table treats it like any other player.
+//
+// Calls are made from how much of the hand would be trump. The kitty, the friend cards and every play are chosen by
+// determinized search (see BotSearch) over a handful of candidates, which runs on the server's shared bot pool with a
+// fixed time budget per decision. Packets arrive on the table's executor and are only used to update what the bot
+// knows, so the table is never held up by a bot thinking.
+//
+// A bot made for self-play has no pool and decides on the thread it's sent packets on, so every seat at a simulated
+// table can be played from one thread. It searches the kitty and friend cards with a fixed number of samples, if any,
+// and plays with the search's rollout policy (see Simulation), so a seeded bot always decides the same way.
+public class Bot {
+    public static final long DEFAULT_DECISION_MILLIS = 300;
+
+    private static final int NUM_CARD_NUMS = 54;
+
+    // The most plays the search chooses between, and how many responses are looked at to choose them
+    private static final int MAX_PLAY_CANDIDATES = 32;
+    private static final int MAX_RESPONSES_VISITED = 20000;
+
+    // Packets every player is sent many times a round which the bot has no use for. They're dropped by the connection,
+    // so they don't cost a trip through the lock.
+    private static final Set<ServerCode> IGNORED_CODES = EnumSet.of(ServerCode.WAIT_FOR_NO_CALL_PLAYER,
+            ServerCode.TRICK_START, ServerCode.WAIT_FOR_TURN_PLAYER, ServerCode.SUCCESSFUL_PLAY, ServerCode.TRICK_END,
+            ServerCode.DEADLINE);
+
+    private final BotConnection connection;
+    private final ForkJoinPool pool; // null for a bot made for self-play
+    private final long decisionNanos;
+    private final int samplesPerDecision; // Only used without a pool
+    private final boolean callsLastKittyCard; // Only ever set for self-play
+    private final SplittableRandom random;
+
+    // Everything below is only touched while holding the lock on this. A search runs on the pool without the lock, so
+    // its sampler only reads copies taken before it starts.
+
+    private int playerNum = -1;
+    private final Map<Integer, Rank> callRanks = new HashMap<>();
+
+    // The round
+    private int[] seatPlayerNums = new int[0];
+    private int mySeat = -1;
+    private CardCounts hand = new CardCounts();
+    private int numDecks = 1;
+    private int kittySize = 0;
+    private int callerSeat = -1;
+    private TrumpContext trump = null;
+    private CardCounts kitty = null; // Only known if this bot is the caller
+
+    // Calling
+    private boolean passedCall = false;
+    private boolean callUnanswered = false; // Only one call is sent at a time, so a late answer can't be mistaken
+    private int leadingCallOrder = 0;
+    private Suit kittyCallSuit = null;
+    private int numKittyCardsPulled = 0;
+
+    // From the first trick on. Only a bot with a pool searches its plays, so only it keeps track of the cards it hasn't
+    // seen and the suits each seat is out of.
+    private Simulation round = null;
+    private CardCounts unseen = null;
+    private boolean[][] voids = null;
+
+    // Identifies the decision the server is waiting on, or 0 if it isn't waiting on one. A decision which finishes
+    // after the server has moved on (say, because time ran out) is thrown away.
+    private int pendingDecision = 0;
+    private int lastDecision = 0;
+
+    public Bot(ForkJoinPool pool, long decisionMillis) {
+        this.connection = new BotConnection(new PacketReceiver());
+        this.pool = pool;
+        this.decisionNanos = TimeUnit.MILLISECONDS.toNanos(decisionMillis);
+        this.samplesPerDecision = 0;
+        this.callsLastKittyCard = false;
+        this.random = new SplittableRandom();
+    }
+
+    // A bot for self-play, which decides on the thread it's sent packets on. It searches samplesPerDecision samples for
+    // its kitty and friend cards, and with none just takes the first candidate. If callsLastKittyCard is set, it always
+    // calls on the last card pulled from the kitty, so a table of such bots never redeals. Its connection takes packets
+    // (see BotConnection), so nothing is encoded between it and the table.
+    public Bot(long seed, int samplesPerDecision, boolean callsLastKittyCard) {
+        this.connection = new BotConnection(new PacketReceiver(), true);
+        this.pool = null;
+        this.decisionNanos = 0;
+        this.samplesPerDecision = samplesPerDecision;
+        this.callsLastKittyCard = callsLastKittyCard;
+        this.random = new SplittableRandom(seed);
+    }
+
+    public BotConnection getConnection() {
+        return connection;
+    }
+
+    private class PacketReceiver implements BotConnection.Receiver {
+        @Override
+        public void packetReceived(ServerPacket packet) {
+            Bot.this.packetReceived(packet);
+        }
+
+        @Override
+        public boolean wants(ServerCode code) {
+            return !IGNORED_CODES.contains(code);
+        }
+    }
+
+    private synchronized void packetReceived(ServerPacket packet) {
+        if(packet.networkCode == null) {
+            return;
+        }
+        try {
+            handlePacket(packet);
+        } catch(ClassCastException | NullPointerException | IllegalArgumentException | IllegalStateException e) {
+            Log.error("Bot " + playerNum, "Could not handle " + packet.networkCode, e);
+        }
+    }
+
+    private void handlePacket(ServerPacket packet) {
+        Map<Serializable, Serializable> data = packet.data;
+        switch(packet.networkCode) {
+        case WAIT_FOR_PLAYERS:
+            playerNum = (Integer)data.get("you");
+            callRanks.clear();
+            callRanks.putAll(read(data, "rank"));
+            break;
+        case NEW_PLAYER_RANK:
+            callRanks.put((Integer)data.get("player"), (Rank)data.get("rank"));
+            break;
+
+        case ROUND_START:
+            seatPlayerNums = (int[])data.get("playerorder");
+            mySeat = seatOf(playerNum);
+            roundOver();
+            break;
+        case WAIT_FOR_HAND:
+            hand = countsOf(read(data, "hand"));
+            numDecks = Math.max(seatPlayerNums.length / 2, 1);
+            kittySize = numDecks * NUM_CARD_NUMS - seatPlayerNums.length * hand.size();
+            callerSeat = -1;
+            trump = null;
+            kitty = null;
+            passedCall = false;
+            callUnanswered = false;
+            leadingCallOrder = 0;
+            kittyCallSuit = null;
+            numKittyCardsPulled = 0;
+            break;
+
+        case MAKE_CALL:
+            makeCall();
+            break;
+        case WAIT_FOR_NEW_LEADING_CALL:
+            leadingCallOrder = (Integer)data.get("order");
+            if((Integer)data.get("playernum") != playerNum && !passedCall && !callUnanswered) {
+                makeCall();
+            }
+            break;
+        case SUCCESSFUL_CALL:
+            callUnanswered = false;
+            break;
+        case UNSUCCESSFUL_CALL:
+            // Someone else's call got in first. The bot may still be able to call over it, and if it doesn't it must
+            // pass, or the server will wait on it.
+            callUnanswered = false;
+            makeCall();
+            break;
+        case INVALID_CALL:
+            callUnanswered = false;
+            passCall();
+            break;
+        case WAIT_FOR_KITTY_CARD:
+            int kittyCardNum = (Integer)data.get("cardnum");
+            numKittyCardsPulled++;
+            if(!Card.isJoker(kittyCardNum)) {
+                kittyCallSuit = Suit.fromCardNum(kittyCardNum);
+            }
+            break;
+        case MAKE_KITTY_CALL:
+            makeKittyCall();
+            break;
+        case UNSUCCESSFUL_KITTY_CALL:
+        case INVALID_KITTY_CALL:
+            send(new ClientPacket(ClientCode.NO_KITTY_CALL));
+            break;
+        case WAIT_FOR_CALL_WINNER:
+            int callCardNum = (Integer)data.get("callcardnum");
+            callerEstablished((Integer)data.get("playernum"),
+                    Card.getRankFromCardNum(callCardNum),
+                    Suit.fromCardNum(callCardNum));
+            break;
+        case WAIT_FOR_KITTY_CALL_WINNER:
+            callerEstablished((Integer)data.get("playernum"), (Rank)data.get("trumprank"), (Suit)data.get("trumpsuit"));
+            break;
+
+        case WAIT_FOR_KITTY:
+            Bot.<List<Integer>>read(data, "kitty").forEach(hand::add);
+            break;
+        case SEND_KITTY:
+        case INVALID_KITTY:
+            chooseKitty();
+            break;
+        case SUCCESSFUL_KITTY:
+            pendingDecision = 0;
+            List<Integer> kittyCardNums = read(data, "kitty");
+            kitty = countsOf(kittyCardNums);
+            kittyCardNums.forEach(hand::remove);
+            break;
+        case SEND_FRIEND_CARDS:
+            chooseFriendCards((Integer)data.get("numfriendcards"));
+            break;
+        case WAIT_FOR_FRIEND_CARDS:
+            pendingDecision = 0;
+            startPlaying(countsOf(read(data, "cardnums")));
+            break;
+
+        case MAKE_PLAY:
+            choosePlay();
+            break;
+        case INVALID_PLAY:
+            // This shouldn't happen, but the round can't go on without a play
+            Log.error("Bot " + playerNum, "Play was invalid: " + data.get("message"));
+            sendPlay(firstLegalPlay());
+            break;
+        case TURN_OVER:
+            playMade(seatOf((Integer)data.get("player")), countsOf(read(data, "play")));
+            break;
+
+        case ROUND_END:
+        case FATAL_ROUND_ERROR:
+        case PLAYER_DISCONNECTED:
+            roundOver();
+            break;
+        default:
+            break;
+        }
+    }
+
+    private void roundOver() {
+        round = null;
+        unseen = null;
+        voids = null;
+        pendingDecision = 0;
+    }
+
+    private int seatOf(int playerNum) {
+        for(int seat = 0; seat < seatPlayerNums.length; seat++) {
+            if(seatPlayerNums[seat] == playerNum) {
+                return seat;
+            }
+        }
+        throw new IllegalStateException("No seat for player " + playerNum);
+    }
+
+    private void send(ClientPacket packet) {
+        try {
+            connection.sendPacket(packet);
+        } catch(PlayerConnectionClosedException e) {
+            // The bot has been removed from the table
+        }
+    }
+
+    // --- CALLING ---
+
+    private Rank getCallRank() {
+        return callRanks.getOrDefault(playerNum, Rank.TWO);
+    }
+
+    // Calls if CallPolicy says to, and otherwise passes
+    private void makeCall() {
+        int callCardNum = CallPolicy.chooseCall(hand, getCallRank(), leadingCallOrder);
+        if(callCardNum != -1) {
+            callUnanswered = true;
+            send(new ClientPacket(ClientCode.CALL)
+                    .put("card", callCardNum)
+                    .put("order", hand.get(callCardNum)));
+        } else {
+            passCall();
+        }
+    }
+
+    private void passCall() {
+        passedCall = true;
+        send(new ClientPacket(ClientCode.NO_CALL));
+    }
+
+    // Calls on the kitty card if CallPolicy says to, or if it's the last one and this bot always calls on that
+    private void makeKittyCall() {
+        boolean forcedCall = callsLastKittyCard && numKittyCardsPulled >= kittySize;
+        if(kittyCallSuit != null
+                && (forcedCall || CallPolicy.wantsKittyCall(hand, getCallRank(), kittyCallSuit))) {
+            send(new ClientPacket(ClientCode.KITTY_CALL));
+        } else {
+            send(new ClientPacket(ClientCode.NO_KITTY_CALL));
+        }
+    }
+
+    private void callerEstablished(int callerPlayerNum, Rank trumpRank, Suit trumpSuit) {
+        callerSeat = seatOf(callerPlayerNum);
+        trump = TrumpContext.of(trumpRank, trumpSuit);
+    }
+
+    // --- SEARCHED DECISIONS ---
+
+    // Runs the search on the pool, and sends what it chose unless the server has moved on by then. The time budget
+    // starts now, so time spent waiting for the pool comes out of it. Without a pool, the search runs and its choice is
+    // sent before this returns.
+    private <T> void decide(List<T> candidates, BotSearch.Sampler sampler, Consumer<T> sender) {
+        if(pool == null) {
+            int best = BotSearch.search(candidates.size(), sampler, samplesPerDecision, random.split());
+            sender.accept(candidates.get(best));
+            return;
+        }
+        final int decision = ++lastDecision;
+        pendingDecision = decision;
+        final SplittableRandom searchRandom = random.split();
+        final long deadline = System.nanoTime() + decisionNanos;
+        pool.execute(() -> {
+            int best;
+            try {
+                best = BotSearch.search(candidates.size(), sampler, pool, deadline, searchRandom);
+            } catch(RuntimeException e) {
+                Log.error("Bot " + playerNum, "Search failed", e);
+                best = 0;
+            }
+            synchronized(this) {
+                if(pendingDecision == decision) {
+                    pendingDecision = 0;
+                    sender.accept(candidates.get(best));
+                }
+            }
+        });
+    }
+
+    // Every card the bot hasn't seen, given the cards it holds and knows about
+    private CardCounts unseenCards(CardCounts... seen) {
+        CardCounts unseen = new CardCounts();
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            int count = numDecks;
+            for(CardCounts counts : seen) {
+                count -= counts.get(cardNum);
+            }
+            for(int i = 0; i < count; i++) {
+                unseen.add(cardNum);
+            }
+        }
+        return unseen;
+    }
+
+    // A simulation of the round from the first trick, in which the bot in mySeat is the caller and has chosen newKitty.
+    // The other hands are dealt at random.
+    private static Simulation simulateAsCaller(TrumpContext trump, int numPlayers, int mySeat, CardCounts fullHand,
+                                               CardCounts newKitty, CardCounts friendCards, CardCounts[] otherHands) {
+        Simulation simulation = new Simulation(trump, numPlayers, mySeat, friendCards);
+        for(int seat = 0; seat < numPlayers; seat++) {
+            simulation.hands[seat] = (seat == mySeat) ? without(fullHand, newKitty) : new CardCounts(otherHands[seat]);
+            simulation.handSizes[seat] = simulation.hands[seat].size();
+        }
+        simulation.kittyPoints = pointsOf(newKitty, trump);
+        return simulation;
+    }
+
+    private void chooseKitty() {
+        final CardCounts fullHand = new CardCounts(hand);
+        final TrumpContext trump = this.trump;
+        final int numPlayers = seatPlayerNums.length;
+        final int mySeat = this.mySeat;
+        final int numFriendCards = Math.max(numPlayers / 2 - 1, 0);
+        final int handSize = fullHand.size() - kittySize;
+        final CardCounts unseen = unseenCards(fullHand);
+        final int[] sizes = otherHandSizes(handSize);
+        final boolean[][] noVoids = new boolean[numPlayers][Suit.values().length];
+
+        List<CardCounts> candidates = kittyCandidates(fullHand, kittySize, trump);
+        List<CardCounts> friendCardsForCandidates = new ArrayList<>();
+        for(CardCounts candidate : candidates) {
+            friendCardsForCandidates.add(friendCardCandidates(without(fullHand, candidate), numFriendCards).get(0));
+        }
+        decide(candidates, (random, scores) -> {
+            CardCounts[] otherHands = Deal.deal(unseen, sizes, 0, noVoids, trump, random);
+            for(int i = 0; i < candidates.size(); i++) {
+                Simulation simulation = simulateAsCaller(trump, numPlayers, mySeat, fullHand, candidates.get(i),
+                        friendCardsForCandidates.get(i), otherHands);
+                simulation.playOut(random);
+                scores[i] += simulation.getScore(mySeat);
+            }
+        }, newKitty -> send(new ClientPacket(ClientCode.KITTY).put("kitty", toCardNumList(newKitty))));
+    }
+
+    // A few sensible kitties: the least valuable cards, the lowest cards whatever their points (which buries points,
+    // but keeps the higher cards to win tricks with), and the least valuable cards after throwing away every card of a
+    // short suit, which lets the caller trump that suit
+    private static List<CardCounts> kittyCandidates(CardCounts fullHand, int kittySize, TrumpContext trump) {
+        List<Integer> cardNumsByValue = new ArrayList<>();
+        for(int cardNum : trump.getCardNumsByHierarchy()) {
+            cardNumsByValue.add(cardNum);
+        }
+        cardNumsByValue.sort(Comparator.<Integer, Boolean>comparing(trump::isTrump)
+                .thenComparing(trump::getHierarchicalValue));
+        List<Integer> lowestCardNums = new ArrayList<>(cardNumsByValue);
+        cardNumsByValue.sort(Comparator.<Integer, Boolean>comparing(trump::isTrump)
+                .thenComparing(trump::getPoints)
+                .thenComparing(trump::getHierarchicalValue));
+
+        List<CardCounts> candidates = new ArrayList<>();
+        candidates.add(fillKitty(new CardCounts(), fullHand, kittySize, cardNumsByValue));
+        CardCounts lowestKitty = fillKitty(new CardCounts(), fullHand, kittySize, lowestCardNums);
+        if(!candidates.contains(lowestKitty)) {
+            candidates.add(lowestKitty);
+        }
+        for(Suit suit : Suit.values()) {
+            if(suit == trump.trumpSuit || suit == Suit.JOKER) {
+                continue;
+            }
+            int numInSuit = GroupedPlay.countEffectiveSuit(fullHand, suit, trump);
+            if(numInSuit == 0 || numInSuit > kittySize) {
+                continue;
+            }
+            CardCounts voidingKitty = new CardCounts();
+            for(int cardNum : trump.getCardNumsInEffectiveSuit(suit)) {
+                for(int i = 0; i < fullHand.get(cardNum); i++) {
+                    voidingKitty.add(cardNum);
+                }
+            }
+            CardCounts candidate = fillKitty(voidingKitty, fullHand, kittySize, cardNumsByValue);
+            if(!candidates.contains(candidate)) {
+                candidates.add(candidate);
+            }
+        }
+        return candidates;
+    }
+
+    private static CardCounts fillKitty(CardCounts kitty, CardCounts fullHand, int kittySize, List<Integer> cardNums) {
+        for(int cardNum : cardNums) {
+            while(kitty.size() < kittySize && kitty.get(cardNum) < fullHand.get(cardNum)) {
+                kitty.add(cardNum);
+            }
+        }
+        return kitty;
+    }
+
+    private void chooseFriendCards(int numFriendCards) {
+        final CardCounts myHand = new CardCounts(hand);
+        final TrumpContext trump = this.trump;
+        final int numPlayers = seatPlayerNums.length;
+        final int mySeat = this.mySeat;
+        final CardCounts knownKitty = (kitty == null) ? new CardCounts() : new CardCounts(kitty);
+        final CardCounts unseen = unseenCards(myHand, knownKitty);
+        final int[] sizes = otherHandSizes(myHand.size());
+        final boolean[][] noVoids = new boolean[numPlayers][Suit.values().length];
+
+        List<CardCounts> candidates = friendCardCandidates(myHand, numFriendCards);
+        decide(candidates, (random, scores) -> {
+            CardCounts[] otherHands = Deal.deal(unseen, sizes, 0, noVoids, trump, random);
+            CardCounts fullHand = new CardCounts(myHand);
+            for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+                for(int i = 0; i < knownKitty.get(cardNum); i++) {
+                    fullHand.add(cardNum);
+                }
+            }
+            for(int i = 0; i < candidates.size(); i++) {
+                Simulation simulation = simulateAsCaller(trump, numPlayers, mySeat, fullHand, knownKitty,
+                        candidates.get(i), otherHands);
+                simulation.playOut(random);
+                scores[i] += simulation.getScore(mySeat);
+            }
+        }, friendCards -> send(new ClientPacket(ClientCode.FRIEND_CARDS)
+                .put("friendcards", toCardNumList(friendCards))));
+    }
+
+    // Every choice of numFriendCards from the highest card of each suit other than trump, leaving out copies the caller
+    // holds. The suits the caller holds fewest of come first.
+    private List<CardCounts> friendCardCandidates(CardCounts myHand, int numFriendCards) {
+        List<Integer> topCardNums = new ArrayList<>();
+        for(Suit suit : Suit.values()) {
+            int[] suitCardNums = trump.getCardNumsInEffectiveSuit(suit);
+            if(suit != Suit.JOKER && suit != trump.trumpSuit && suitCardNums.length > 0) {
+                topCardNums.add(suitCardNums[suitCardNums.length - 1]);
+            }
+        }
+        topCardNums.sort(Comparator.comparing(
+                cardNum -> GroupedPlay.countEffectiveSuit(myHand, trump.getEffectiveSuit(cardNum), trump)));
+
+        List<CardCounts> candidates = new ArrayList<>();
+        addFriendCardCandidates(topCardNums, 0, new CardCounts(), numFriendCards, myHand, candidates);
+        if(candidates.isEmpty()) {
+            CardCounts fallback = new CardCounts();
+            for(int i = 0; i < numFriendCards; i++) {
+                fallback.add(topCardNums.get(i % topCardNums.size()));
+            }
+            candidates.add(fallback);
+        }
+        return candidates;
+    }
+
+    private void addFriendCardCandidates(List<Integer> topCardNums, int idx, CardCounts chosen, int numFriendCards,
+                                         CardCounts myHand, List<CardCounts> candidates) {
+        if(chosen.size() == numFriendCards) {
+            candidates.add(new CardCounts(chosen));
+            return;
+        } else if(idx == topCardNums.size()) {
+            return;
+        }
+        int cardNum = topCardNums.get(idx);
+        int available = numDecks - myHand.get(cardNum);
+        addFriendCardCandidates(topCardNums, idx + 1, chosen, numFriendCards, myHand, candidates);
+        int taken = 0;
+        while(taken < available && chosen.size() < numFriendCards) {
+            chosen.add(cardNum);
+            taken++;
+            addFriendCardCandidates(topCardNums, idx + 1, chosen, numFriendCards, myHand, candidates);
+        }
+        for(int i = 0; i < taken; i++) {
+            chosen.remove(cardNum);
+        }
+    }
+
+    // --- PLAYING ---
+
+    private void startPlaying(CardCounts friendCards) {
+        round = new Simulation(trump, seatPlayerNums.length, callerSeat, friendCards);
+        for(int seat = 0; seat < seatPlayerNums.length; seat++) {
+            round.handSizes[seat] = hand.size();
+        }
+        round.hands[mySeat] = hand;
+        if(kitty != null) {
+            round.kittyPoints = pointsOf(kitty, trump);
+        }
+        if(pool != null) {
+            unseen = (kitty == null) ? unseenCards(hand) : unseenCards(hand, kitty);
+            voids = new boolean[seatPlayerNums.length][Suit.values().length];
+        }
+    }
+
+    private void playMade(int seat, CardCounts play) {
+        if(seat == mySeat) {
+            pendingDecision = 0;
+        }
+        if(round == null) {
+            return;
+        }
+        if(round.turnSeat != seat) {
+            Log.error("Bot " + playerNum, "Expected seat " + round.turnSeat + " to play, but seat " + seat + " did");
+            round.turnSeat = seat;
+        }
+
+        if(seat != mySeat && pool != null) {
+            GroupedPlay basePlay = round.basePlay;
+            if(basePlay != null
+                    && GroupedPlay.countEffectiveSuit(play, basePlay.getEffectiveSuit(), trump) < basePlay.size()) {
+                voids[seat][basePlay.getEffectiveSuit().ordinal()] = true;
+            }
+            for(int cardNum = play.nextCardNum(0); cardNum != -1; cardNum = play.nextCardNum(cardNum + 1)) {
+                for(int i = 0; i < play.get(cardNum); i++) {
+                    unseen.remove(cardNum);
+                }
+            }
+        }
+        round.play(play);
+    }
+
+    private void choosePlay() {
+        if(round == null) {
+            return;
+        } else if(pool == null) {
+            sendPlay(round.choosePlay(random));
+            return;
+        }
+        final Simulation known = round.copy();
+        final TrumpContext trump = this.trump;
+        final int mySeat = this.mySeat;
+        final CardCounts unseen = new CardCounts(this.unseen);
+        final boolean[][] voids = new boolean[this.voids.length][];
+        for(int seat = 0; seat < voids.length; seat++) {
+            voids[seat] = this.voids[seat].clone();
+        }
+        final int unknownKittySize = (kitty == null) ? kittySize : 0;
+
+        List<CardCounts> candidates = playCandidates();
+        decide(candidates, (random, scores) -> {
+            Simulation guess = known.copy();
+            int[] sizes = new int[guess.numPlayers];
+            for(int seat = 0; seat < sizes.length; seat++) {
+                sizes[seat] = (seat == mySeat) ? 0 : guess.handSizes[seat];
+            }
+            CardCounts[] dealt = Deal.deal(unseen, sizes, unknownKittySize, voids, trump, random);
+            for(int seat = 0; seat < sizes.length; seat++) {
+                if(seat != mySeat) {
+                    guess.hands[seat] = (dealt[seat] == null) ? new CardCounts() : dealt[seat];
+                }
+            }
+            if(unknownKittySize > 0) {
+                guess.kittyPoints = pointsOf(dealt[sizes.length], trump);
+            }
+
+            for(int i = 0; i < candidates.size(); i++) {
+                Simulation simulation = guess.copy();
+                simulation.play(candidates.get(i));
+                simulation.playOut(random);
+                scores[i] += simulation.getScore(mySeat);
+            }
+        }, this::sendPlay);
+    }
+
+    // The legal plays, or a random selection of them if there are too many
+    private List<CardCounts> playCandidates() {
+        LegalPlayGenerator generator = round.generator;
+        if(round.basePlay == null) {
+            List<CardCounts> plays = generator.basePlays(hand);
+            if(plays.size() > MAX_PLAY_CANDIDATES) {
+                Collections.shuffle(plays, new Random(random.nextLong()));
+                plays = new ArrayList<>(plays.subList(0, MAX_PLAY_CANDIDATES));
+            }
+            return plays;
+        }
+
+        List<CardCounts> sample = new ArrayList<>();
+        int[] numVisited = {0};
+        generator.forEachResponse(hand, round.basePlay, play -> {
+            numVisited[0]++;
+            if(sample.size() < MAX_PLAY_CANDIDATES) {
+                sample.add(play);
+            } else {
+                int replace = random.nextInt(numVisited[0]);
+                if(replace < MAX_PLAY_CANDIDATES) {
+                    sample.set(replace, play);
+                }
+            }
+            return numVisited[0] < MAX_RESPONSES_VISITED;
+        });
+        return sample;
+    }
+
+    private CardCounts firstLegalPlay() {
+        if(round == null) {
+            return new CardCounts();
+        } else if(round.basePlay == null) {
+            return round.generator.basePlays(hand, 1).get(0);
+        } else {
+            return round.generator.responses(hand, round.basePlay).get(0);
+        }
+    }
+
+    private void sendPlay(CardCounts play) {
+        send(new ClientPacket(ClientCode.PLAY).put("play", toCardNumList(play)));
+    }
+
+    // --- HELPERS ---
+
+    private int[] otherHandSizes(int handSize) {
+        int[] sizes = new int[seatPlayerNums.length];
+        Arrays.fill(sizes, handSize);
+        sizes[mySeat] = 0;
+        return sizes;
+    }
+
+    // A list or map from a packet's data, which can't be cast to its element types without an unchecked cast. The
+    // server always sends card numbers as List<Integer> and ranks as Map<Integer, Rank>.
+    @SuppressWarnings("unchecked")
+    private static <T> T read(Map<Serializable, Serializable> data, String key) {
+        return (T)data.get(key);
+    }
+
+    private static CardCounts countsOf(List<Integer> cardNums) {
+        CardCounts counts = new CardCounts();
+        cardNums.forEach(counts::add);
+        return counts;
+    }
+
+    private static CardCounts without(CardCounts cards, CardCounts removed) {
+        CardCounts remaining = new CardCounts(cards);
+        remaining.removeAll(removed);
+        return remaining;
+    }
+
+    private static int pointsOf(CardCounts cards, TrumpContext trump) {
+        int points = 0;
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            points += cards.get(cardNum) * trump.getPoints(cardNum);
+        }
+        return points;
+    }
+
+    private static ArrayList<Integer> toCardNumList(CardCounts cards) {
+        ArrayList<Integer> cardNums = new ArrayList<>(cards.size());
+        for(int cardNum = cards.nextCardNum(0); cardNum != -1; cardNum = cards.nextCardNum(cardNum + 1)) {
+            for(int i = 0; i < cards.get(cardNum); i++) {
+                cardNums.add(cardNum);
+            }
+        }
+        return cardNums;
+    }
+}
@@ -0,0 +1,107 @@
+package com.sage.shengji.server.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Determinized Monte Carlo search. Each sample is one guess at the cards the bot can't see, consistent with what it
+// knows, and scores every candidate against that same guess, so candidates are compared on equal footing. Samples are
+// taken in parallel on a shared ForkJoinPool until the time budget runs out, and the candidate with the best total wins.
+// Self-play takes a fixed number of samples on its own thread instead, so its rounds don't depend on timing.
+//
+// The pool is shared by every bot on the server, and a decision's workers can be queued behind other decisions'
+// workers, which sample until their own deadlines. The deadline is set when the decision is asked for, so that wait
+// comes out of the budget: a busy pool means fewer samples per decision, and the decision can only run over by as long
+// as the decisions ahead of it have left, plus the one sample which is always taken.
+final class BotSearch {
+    private BotSearch() {
+    }
+
+    interface Sampler {
+        // Adds the score of each candidate against one random guess at the unseen cards to scores
+        void sample(SplittableRandom random, long[] scores);
+    }
+
+    // Returns the index of the best of numCandidates candidates, sampling until deadline (a System.nanoTime() value)
+    static int search(int numCandidates, Sampler sampler, ForkJoinPool pool, long deadline, SplittableRandom random) {
+        if(numCandidates <= 1) {
+            return 0;
+        }
+
+        List<Worker> workers = new ArrayList<>();
+        for(int i = 0; i < pool.getParallelism(); i++) {
+            workers.add(new Worker(numCandidates, sampler, deadline, random.split(), i == 0));
+        }
+        if(ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(workers);
+        } else {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(workers);
+                }
+            });
+        }
+
+        long[] scores = new long[numCandidates];
+        for(Worker worker : workers) {
+            for(int i = 0; i < numCandidates; i++) {
+                scores[i] += worker.scores[i];
+            }
+        }
+        return best(scores);
+    }
+
+    // Returns the index of the best of numCandidates candidates after exactly numSamples samples, taken on the calling
+    // thread. The same random gives the same answer. With no samples, that's the first candidate.
+    static int search(int numCandidates, Sampler sampler, int numSamples, SplittableRandom random) {
+        if(numCandidates <= 1) {
+            return 0;
+        }
+
+        long[] scores = new long[numCandidates];
+        for(int i = 0; i < numSamples; i++) {
+            sampler.sample(random, scores);
+        }
+        return best(scores);
+    }
+
+    private static int best(long[] scores) {
+        int best = 0;
+        for(int i = 1; i < scores.length; i++) {
+            if(scores[i] > scores[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static class Worker extends RecursiveAction {
+        private final Sampler sampler;
+        private final long deadline;
+        private final SplittableRandom random;
+        private final boolean mustSample;
+        final long[] scores;
+
+        Worker(int numCandidates, Sampler sampler, long deadline, SplittableRandom random, boolean mustSample) {
+            this.sampler = sampler;
+            this.deadline = deadline;
+            this.random = random;
+            this.mustSample = mustSample;
+            this.scores = new long[numCandidates];
+        }
+
+        @Override
+        protected void compute() {
+            if(mustSample) {
+                sampler.sample(random, scores);
+            }
+            while(System.nanoTime() < deadline) {
+                sampler.sample(random, scores);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.sage.shengji.server.bot;
+
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.card.Suit;
+import com.sage.shengji.utils.shengji.TrumpContext;
+
+// How a bot decides whether to call. A call fixes trump for the whole round but is made before anything is known about
+// the other hands, so it's judged only by how much of the bot's own hand would be trump.
+public final class CallPolicy {
+    private static final int NUM_CARD_NUMS = 54;
+
+    // The share of its hand that would be trump for a bot to call, or to call on a card from the kitty
+    private static final double CALL_TRUMP_SHARE = 0.4;
+    private static final double KITTY_CALL_TRUMP_SHARE = 0.3;
+
+    private CallPolicy() {
+    }
+
+    // The call rank card of the suit which would give the most trump, if that's enough trump and the hand has more
+    // copies of it than leadingOrder. The call is made with every copy held. Returns -1 to pass.
+    public static int chooseCall(CardCounts hand, Rank callRank, int leadingOrder) {
+        int bestCardNum = -1;
+        double bestShare = 0;
+        for(Suit suit : Suit.values()) {
+            if(suit == Suit.JOKER) {
+                continue;
+            }
+            int cardNum = Card.getCardNumFromRankAndSuit(callRank, suit);
+            if(hand.get(cardNum) <= leadingOrder) {
+                continue;
+            }
+            double share = trumpShare(hand, callRank, suit);
+            if(share > bestShare) {
+                bestCardNum = cardNum;
+                bestShare = share;
+            }
+        }
+        return (bestShare >= CALL_TRUMP_SHARE) ? bestCardNum : -1;
+    }
+
+    // Whether to call on a card of suit pulled from the kitty
+    public static boolean wantsKittyCall(CardCounts hand, Rank callRank, Suit suit) {
+        return trumpShare(hand, callRank, suit) >= KITTY_CALL_TRUMP_SHARE;
+    }
+
+    // The share of hand which would be trump if callRank and suit were trump
+    private static double trumpShare(CardCounts hand, Rank callRank, Suit suit) {
+        TrumpContext trump = TrumpContext.of(callRank, suit);
+        int numTrump = 0;
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            if(trump.isTrump(cardNum)) {
+                numTrump += hand.get(cardNum);
+            }
+        }
+        return (hand.size() == 0) ? 0 : (double)numTrump / hand.size();
+    }
+}
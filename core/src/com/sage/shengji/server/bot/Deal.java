@@ -0,0 +1,93 @@
+package com.sage.shengji.server.bot;
+
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.Suit;
+import com.sage.shengji.utils.shengji.TrumpContext;
+
+import java.util.SplittableRandom;
+
+// A random deal of the cards a bot hasn't seen, which is one guess at the hidden state of the round. Cards are dealt one
+// at a time to a hand chosen in proportion to its remaining room, skipping hands known to be out of the card's suit, so
+// the guess fits what the bot has seen whenever that's possible.
+final class Deal {
+    private static final int NUM_CARD_NUMS = 54;
+
+    private Deal() {
+    }
+
+    // Deals unseen into hands of the given sizes, and whatever is left over into a kitty of kittySize. A size of 0 leaves
+    // that hand null. voids[seat][suit ordinal] is whether that seat is known to be out of the suit. Returns the hands,
+    // followed by the kitty.
+    static CardCounts[] deal(CardCounts unseen, int[] sizes, int kittySize, boolean[][] voids, TrumpContext trump,
+                             SplittableRandom random) {
+        int[] cards = new int[unseen.size()];
+        int numCards = 0;
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            for(int i = 0; i < unseen.get(cardNum); i++) {
+                cards[numCards++] = cardNum;
+            }
+        }
+        for(int i = numCards - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = cards[i];
+            cards[i] = cards[j];
+            cards[j] = swap;
+        }
+
+        int numHands = sizes.length;
+        CardCounts[] dealt = new CardCounts[numHands + 1];
+        int[] room = new int[numHands + 1];
+        for(int seat = 0; seat < numHands; seat++) {
+            if(sizes[seat] > 0) {
+                dealt[seat] = new CardCounts();
+                room[seat] = sizes[seat];
+            }
+        }
+        dealt[numHands] = new CardCounts();
+        room[numHands] = kittySize;
+
+        for(int i = 0; i < numCards; i++) {
+            int cardNum = cards[i];
+            Suit suit = trump.getEffectiveSuit(cardNum);
+            int to = chooseHand(room, seat -> seat == numHands || suit == null || !voids[seat][suit.ordinal()],
+                    random);
+            if(to == -1) {
+                // No hand which can take the card fits what's been seen, so the guess has to be a little wrong
+                to = chooseHand(room, seat -> true, random);
+            }
+            if(to == -1) {
+                break;
+            }
+            dealt[to].add(cardNum);
+            room[to]--;
+        }
+        return dealt;
+    }
+
+    private interface SeatFilter {
+        boolean allows(int seat);
+    }
+
+    // A random hand the filter allows, in proportion to its room, or -1 if there's none
+    private static int chooseHand(int[] room, SeatFilter filter, SplittableRandom random) {
+        int totalRoom = 0;
+        for(int seat = 0; seat < room.length; seat++) {
+            if(room[seat] > 0 && filter.allows(seat)) {
+                totalRoom += room[seat];
+            }
+        }
+        if(totalRoom == 0) {
+            return -1;
+        }
+        int pick = random.nextInt(totalRoom);
+        for(int seat = 0; seat < room.length; seat++) {
+            if(room[seat] > 0 && filter.allows(seat)) {
+                pick -= room[seat];
+                if(pick < 0) {
+                    return seat;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,328 @@
+package com.sage.shengji.server.bot;
+
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.shengji.GroupedPlay;
+import com.sage.shengji.utils.shengji.LegalPlayGenerator;
+import com.sage.shengji.utils.shengji.Team;
+import com.sage.shengji.utils.shengji.TrumpContext;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+// A round from the first trick on, which can be played forward. Seats are indexes into the round's player order.
+//
+// A bot keeps one of these built from what it has seen, in which only its own hand is known. The search copies it, deals
+// the cards the bot hasn't seen into the other hands, and plays the copy out to the end of the round with a quick policy.
+//
+// Teams and points follow the server's rules: a player other than the caller who plays a friend card becomes a keeper
+// and loses the points they have won, and once every friend card has been played everyone else is a collector. The
+// kitty's points always go to the collectors, multiplied by one more than the size of the play which won the last trick.
+final class Simulation {
+    // A response to a play of many cards can have a huge number of legal responses, so the policy picks from the first few
+    private static final int MAX_RESPONSES_CONSIDERED = 24;
+
+    final TrumpContext trump;
+    final LegalPlayGenerator generator;
+    final int numPlayers;
+    final int callerSeat;
+
+    // null for a hand which isn't known
+    final CardCounts[] hands;
+    final int[] handSizes;
+    final Team[] teams;
+    final CardCounts friendCards;
+
+    // Points won by players who aren't on a team yet. Those points are lost if the player becomes a keeper.
+    final int[] pointsWon;
+    int collectedPoints = 0;
+    int kittyPoints = 0;
+
+    // The current trick
+    int startingSeat;
+    int turnSeat;
+    int leadingSeat = -1;
+    int leadingValue = 0;
+    int leadingPlaySize = 0;
+    GroupedPlay basePlay = null;
+    int pointsInTrick = 0;
+
+    // The size of the play which won the last trick
+    int lastWinningPlaySize = 0;
+
+    Simulation(TrumpContext trump, int numPlayers, int callerSeat, CardCounts friendCards) {
+        this.trump = trump;
+        this.generator = new LegalPlayGenerator(trump);
+        this.numPlayers = numPlayers;
+        this.callerSeat = callerSeat;
+        this.hands = new CardCounts[numPlayers];
+        this.handSizes = new int[numPlayers];
+        this.teams = new Team[numPlayers];
+        this.friendCards = new CardCounts(friendCards);
+        this.pointsWon = new int[numPlayers];
+
+        Arrays.fill(teams, friendCards.isEmpty() ? Team.COLLECTORS : Team.NO_TEAM);
+        teams[callerSeat] = Team.KEEPERS;
+        startingSeat = turnSeat = callerSeat;
+    }
+
+    private Simulation(Simulation other) {
+        trump = other.trump;
+        generator = other.generator;
+        numPlayers = other.numPlayers;
+        callerSeat = other.callerSeat;
+        hands = new CardCounts[numPlayers];
+        for(int seat = 0; seat < numPlayers; seat++) {
+            hands[seat] = (other.hands[seat] == null) ? null : new CardCounts(other.hands[seat]);
+        }
+        handSizes = other.handSizes.clone();
+        teams = other.teams.clone();
+        friendCards = new CardCounts(other.friendCards);
+        pointsWon = other.pointsWon.clone();
+        collectedPoints = other.collectedPoints;
+        kittyPoints = other.kittyPoints;
+        startingSeat = other.startingSeat;
+        turnSeat = other.turnSeat;
+        leadingSeat = other.leadingSeat;
+        leadingValue = other.leadingValue;
+        leadingPlaySize = other.leadingPlaySize;
+        basePlay = other.basePlay;
+        pointsInTrick = other.pointsInTrick;
+        lastWinningPlaySize = other.lastWinningPlaySize;
+    }
+
+    Simulation copy() {
+        return new Simulation(this);
+    }
+
+    boolean isOver() {
+        return basePlay == null && handSizes[turnSeat] == 0;
+    }
+
+    // Plays play from the turn seat's hand and moves the turn on, ending the trick if everyone has played
+    void play(CardCounts play) {
+        GroupedPlay groupedPlay = GroupedPlay.of(play, trump);
+        int seat = turnSeat;
+        int points = 0;
+        for(int group = 0; group < groupedPlay.getNumGroups(); group++) {
+            points += groupedPlay.getGroupSize(group) * trump.getPoints(groupedPlay.getGroupCardNum(group));
+        }
+        if(hands[seat] != null) {
+            hands[seat].removeAll(play);
+        }
+        handSizes[seat] -= play.size();
+        pointsInTrick += points;
+
+        if(basePlay == null) {
+            basePlay = groupedPlay;
+            setLeading(seat, groupedPlay.getHierarchicalValue(null), play.size());
+        } else {
+            int value = groupedPlay.getHierarchicalValue(basePlay);
+            if(value > leadingValue) {
+                setLeading(seat, value, play.size());
+            }
+        }
+        if(seat != callerSeat && !friendCards.isEmpty()) {
+            updateTeams(seat, groupedPlay);
+        }
+
+        turnSeat = (seat + 1) % numPlayers;
+        if(turnSeat == startingSeat) {
+            endTrick();
+        }
+    }
+
+    private void setLeading(int seat, int value, int playSize) {
+        leadingSeat = seat;
+        leadingValue = value;
+        leadingPlaySize = playSize;
+    }
+
+    private void updateTeams(int seat, GroupedPlay play) {
+        boolean playedFriendCard = false;
+        for(int group = 0; group < play.getNumGroups(); group++) {
+            int cardNum = play.getGroupCardNum(group);
+            for(int i = 0; i < play.getGroupSize(group) && friendCards.remove(cardNum); i++) {
+                playedFriendCard = true;
+            }
+        }
+        if(!playedFriendCard) {
+            return;
+        }
+
+        teams[seat] = Team.KEEPERS;
+        pointsWon[seat] = 0;
+        if(friendCards.isEmpty()) {
+            for(int s = 0; s < numPlayers; s++) {
+                if(teams[s] == Team.NO_TEAM) {
+                    teams[s] = Team.COLLECTORS;
+                    collectedPoints += pointsWon[s];
+                    pointsWon[s] = 0;
+                }
+            }
+        }
+    }
+
+    private void endTrick() {
+        if(teams[leadingSeat] == Team.COLLECTORS) {
+            collectedPoints += pointsInTrick;
+        } else if(teams[leadingSeat] == Team.NO_TEAM) {
+            pointsWon[leadingSeat] += pointsInTrick;
+        }
+        lastWinningPlaySize = leadingPlaySize;
+        startingSeat = turnSeat = leadingSeat;
+        leadingSeat = -1;
+        basePlay = null;
+        pointsInTrick = 0;
+    }
+
+    // The collectors' points if the round ended now
+    int getCollectorPoints() {
+        int points = collectedPoints + kittyPoints * (lastWinningPlaySize + 1);
+        for(int seat = 0; seat < numPlayers; seat++) {
+            if(teams[seat] != Team.KEEPERS) {
+                points += pointsWon[seat];
+            }
+        }
+        return points;
+    }
+
+    // How well the round went for seat: the collectors' points, counted against seat if it ended up a keeper
+    int getScore(int seat) {
+        return (teams[seat] == Team.KEEPERS) ? -getCollectorPoints() : getCollectorPoints();
+    }
+
+    // Plays out the rest of the round. Every hand must be known.
+    void playOut(SplittableRandom random) {
+        while(!isOver()) {
+            play(choosePlay(random));
+        }
+    }
+
+    // --- ROLLOUT POLICY ---
+    // Quick and a little random, but not hopeless: players lead their longest run or pair, or else high cards of a
+    // suit, win tricks cheaply when they can, give points to a winning teammate, and otherwise throw away their
+    // least valuable cards.
+
+    CardCounts choosePlay(SplittableRandom random) {
+        return (basePlay == null) ? chooseLead(hands[turnSeat], random) : chooseResponse(hands[turnSeat], random);
+    }
+
+    // Usually leads the longest run or group of identical cards in hand. Otherwise leads every copy of a card, usually
+    // the highest card in the effective suit of a random card, preferring cards which aren't trump.
+    private CardCounts chooseLead(CardCounts hand, SplittableRandom random) {
+        CardCounts structuredLead = longestRun(hand);
+        if(structuredLead != null && random.nextInt(3) != 0) {
+            return structuredLead;
+        }
+
+        int[] byHierarchy = trump.getCardNumsByHierarchy();
+        int numHeld = 0;
+        int numHeldNonTrump = 0;
+        for(int cardNum : byHierarchy) {
+            if(hand.get(cardNum) > 0) {
+                numHeld++;
+                if(!trump.isTrump(cardNum)) {
+                    numHeldNonTrump++;
+                }
+            }
+        }
+
+        boolean avoidTrump = numHeldNonTrump > 0 && random.nextInt(4) != 0;
+        int pick = random.nextInt(avoidTrump ? numHeldNonTrump : numHeld);
+        int picked = -1;
+        for(int cardNum : byHierarchy) {
+            if(hand.get(cardNum) > 0 && !(avoidTrump && trump.isTrump(cardNum)) && pick-- == 0) {
+                picked = cardNum;
+                break;
+            }
+        }
+        if(random.nextInt(3) != 0) {
+            int[] suitCardNums = trump.getCardNumsInEffectiveSuit(trump.getEffectiveSuit(picked));
+            for(int i = suitCardNums.length - 1; i >= 0; i--) {
+                if(hand.get(suitCardNums[i]) > 0) {
+                    picked = suitCardNums[i];
+                    break;
+                }
+            }
+        }
+
+        CardCounts play = new CardCounts();
+        for(int i = 0; i < hand.get(picked); i++) {
+            play.add(picked);
+        }
+        return play;
+    }
+
+    // The run or group of identical cards in hand with the most cards, taking every copy of each card in it. Ties go to
+    // the higher one. null if hand has no two identical cards.
+    private CardCounts longestRun(CardCounts hand) {
+        CardCounts longest = null;
+        for(int cardNum : trump.getCardNumsByHierarchy()) {
+            if(hand.get(cardNum) < 2) {
+                continue;
+            }
+            CardCounts run = new CardCounts();
+            for(int next = cardNum; next != -1; next = nextRunCardNum(hand, next)) {
+                for(int i = 0; i < hand.get(next); i++) {
+                    run.add(next);
+                }
+            }
+            if(longest == null || run.size() >= longest.size()) {
+                longest = run;
+            }
+        }
+        return longest;
+    }
+
+    // A card in hand which could follow cardNum in a run, the same way LegalPlayGenerator builds runs, or -1
+    private int nextRunCardNum(CardCounts hand, int cardNum) {
+        int nextHierarchicalValue = trump.getHierarchicalValue(cardNum) + 1;
+        for(int next : trump.getCardNumsInEffectiveSuit(trump.getEffectiveSuit(cardNum))) {
+            if(trump.getHierarchicalValue(next) == nextHierarchicalValue && hand.get(next) >= 2) {
+                return next;
+            }
+        }
+        return -1;
+    }
+
+    private CardCounts chooseResponse(CardCounts hand, SplittableRandom random) {
+        CardCounts[] responses = new CardCounts[MAX_RESPONSES_CONSIDERED];
+        int[] numResponses = {0};
+        generator.forEachResponse(hand, basePlay, play -> {
+            responses[numResponses[0]++] = play;
+            return numResponses[0] < MAX_RESPONSES_CONSIDERED;
+        });
+
+        boolean teammateLeading = teams[leadingSeat] != Team.NO_TEAM && teams[leadingSeat] == teams[turnSeat];
+        boolean tryToWin = !teammateLeading && (pointsInTrick > 0 || random.nextInt(3) == 0);
+        CardCounts best = null;
+        long bestKey = Long.MAX_VALUE;
+        for(int i = 0; i < numResponses[0]; i++) {
+            CardCounts response = responses[i];
+            int points = 0;
+            int cost = 0;
+            for(int cardNum = response.nextCardNum(0); cardNum != -1; cardNum = response.nextCardNum(cardNum + 1)) {
+                int count = response.get(cardNum);
+                points += count * trump.getPoints(cardNum);
+                cost += count * trump.getHierarchicalValue(cardNum);
+            }
+
+            // Smaller keys are better. Once a winning response is found, only a cheaper one can beat it, so it's only
+            // worked out whether a response wins if it could be chosen.
+            long key;
+            if(teammateLeading) {
+                key = -points * 1024L + cost;
+            } else if(tryToWin && Integer.MIN_VALUE + cost < bestKey
+                    && GroupedPlay.of(response, trump).getHierarchicalValue(basePlay) > leadingValue) {
+                key = Integer.MIN_VALUE + cost;
+            } else {
+                key = points * 1024L + cost;
+            }
+            if(key < bestKey) {
+                best = response;
+                bestKey = key;
+            }
+        }
+        return best;
+    }
+}
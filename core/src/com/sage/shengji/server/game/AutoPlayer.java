@@ -0,0 +1,99 @@
+package com.sage.shengji.server.game;
+
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.CardList;
+import com.sage.shengji.utils.card.Suit;
+import com.sage.shengji.utils.shengji.GroupedPlay;
+import com.sage.shengji.utils.shengji.LegalPlayGenerator;
+import com.sage.shengji.utils.shengji.ShengJiCard;
+import com.sage.shengji.utils.shengji.TrumpContext;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+// Chooses for a player who ran out of time. The choices are always legal but make no attempt to be good: they just give
+// away as little as they can, so a player who is away costs their team less.
+final class AutoPlayer {
+    // A hand out of the base suit can have a very large number of legal responses, so only this many are considered
+    private static final int MAX_RESPONSES_CONSIDERED = 2000;
+
+    private AutoPlayer() {
+    }
+
+    // The turn player's play. Leading, this is their lowest single card. Following, it's the legal response with the
+    // fewest points and then the lowest cards.
+    static CardList<ShengJiCard> choosePlay(ServerGameState gameState) {
+        TrumpContext trump = gameState.getTrumpContext();
+        CardCounts hand = gameState.turnPlayer.hand.getCounts();
+        LegalPlayGenerator generator = new LegalPlayGenerator(trump);
+        if(gameState.basePlay == null) {
+            List<CardCounts> singles = generator.basePlays(hand, 1);
+            if(singles.isEmpty()) {
+                throw new FatalRoundException("THIS IS BAD: in choosePlay(), the turn player has no cards");
+            }
+            return gameState.turnPlayer.hand.heldInstancesOf(singles.get(0));
+        }
+
+        GroupedPlay basePlay = gameState.basePlay.getGroupedPlay();
+        CardCounts[] best = {null};
+        int[] bestCost = {Integer.MAX_VALUE};
+        int[] numConsidered = {0};
+        generator.forEachResponse(hand, basePlay, play -> {
+            int cost = 0;
+            for(int cardNum : trump.getCardNumsByHierarchy()) {
+                cost += play.get(cardNum) * (trump.getPoints(cardNum) * 64 + trump.getHierarchicalValue(cardNum));
+            }
+            if(cost < bestCost[0]) {
+                best[0] = play;
+                bestCost[0] = cost;
+            }
+            return ++numConsidered[0] < MAX_RESPONSES_CONSIDERED;
+        });
+        if(best[0] == null) {
+            throw new FatalRoundException("THIS IS BAD: in choosePlay(), the turn player has no legal play");
+        }
+        return gameState.turnPlayer.hand.heldInstancesOf(best[0]);
+    }
+
+    // kittySize cards from the caller's hand, preferring cards which aren't trump or worth points, and then low cards
+    static CardList<ShengJiCard> chooseKitty(ServerGameState gameState, int kittySize) {
+        TrumpContext trump = gameState.getTrumpContext();
+        CardCounts hand = gameState.caller.hand.getCounts();
+        CardCounts kitty = new CardCounts();
+        List<Integer> cardNums = IntStream.of(trump.getCardNumsByHierarchy())
+                .boxed()
+                .sorted(Comparator.<Integer, Boolean>comparing(trump::isTrump)
+                        .thenComparing(trump::getPoints)
+                        .thenComparing(trump::getHierarchicalValue))
+                .collect(Collectors.toList());
+        for(int cardNum : cardNums) {
+            for(int i = 0; i < hand.get(cardNum) && kitty.size() < kittySize; i++) {
+                kitty.add(cardNum);
+            }
+        }
+        return gameState.caller.hand.heldInstancesOf(kitty);
+    }
+
+    // The highest card of each suit other than trump, starting with the ones the caller holds the fewest of
+    static CardList<ShengJiCard> chooseFriendCards(ServerGameState gameState) {
+        TrumpContext trump = gameState.getTrumpContext();
+        CardCounts hand = gameState.caller.hand.getCounts();
+        List<Integer> candidates = new ArrayList<>();
+        for(Suit suit : Suit.values()) {
+            int[] suitCardNums = trump.getCardNumsInEffectiveSuit(suit);
+            if(suit != Suit.JOKER && suit != trump.trumpSuit && suitCardNums.length > 0) {
+                candidates.add(suitCardNums[suitCardNums.length - 1]);
+            }
+        }
+        candidates.sort(Comparator.comparing(hand::get));
+
+        List<Integer> friendCardNums = new ArrayList<>();
+        for(int i = 0; i < gameState.numFriendCards; i++) {
+            friendCardNums.add(candidates.get(i % candidates.size()));
+        }
+        return gameState.cardTable.fromCardNumList(friendCardNums);
+    }
+}
@@ -0,0 +1,37 @@
+package com.sage.shengji.server.game;
+
+// How long a round waits on a player before acting for them. A deadline of 0 means the round waits forever.
+//
+// reconnectMillis is how long a player whose connection dropped mid-round keeps their seat, during which the round is
+// paused for them to reconnect. A reconnect grace of 0 means their seat isn't kept, and the round is abandoned at once.
+public class DeadlineConfig {
+    public static final long DEFAULT_TURN_MILLIS = 60_000;
+    public static final long DEFAULT_KITTY_MILLIS = 120_000;
+    public static final long DEFAULT_FRIEND_CARDS_MILLIS = 60_000;
+    public static final long DEFAULT_RECONNECT_MILLIS = 90_000;
+
+    public static final DeadlineConfig NONE = new DeadlineConfig(0, 0, 0);
+
+    public final long turnMillis;
+    public final long kittyMillis;
+    public final long friendCardsMillis;
+    public final long reconnectMillis;
+
+    public DeadlineConfig() {
+        this(DEFAULT_TURN_MILLIS, DEFAULT_KITTY_MILLIS, DEFAULT_FRIEND_CARDS_MILLIS);
+    }
+
+    public DeadlineConfig(long turnMillis, long kittyMillis, long friendCardsMillis) {
+        this(turnMillis, kittyMillis, friendCardsMillis, DEFAULT_RECONNECT_MILLIS);
+    }
+
+    public DeadlineConfig(long turnMillis, long kittyMillis, long friendCardsMillis, long reconnectMillis) {
+        if(turnMillis < 0 || kittyMillis < 0 || friendCardsMillis < 0 || reconnectMillis < 0) {
+            throw new IllegalArgumentException("Deadlines can't be negative");
+        }
+        this.turnMillis = turnMillis;
+        this.kittyMillis = kittyMillis;
+        this.friendCardsMillis = friendCardsMillis;
+        this.reconnectMillis = reconnectMillis;
+    }
+}
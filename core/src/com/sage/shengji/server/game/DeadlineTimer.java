@@ -0,0 +1,119 @@
+package com.sage.shengji.server.game;
+
+import com.sage.shengji.server.network.ServerCode;
+import com.sage.shengji.server.network.ServerPacket;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// The deadline of whoever the round is currently waiting on. There is at most one at a time, and starting a new one
+// replaces the old. A pending deadline is only a task on the shared scheduler, so waiting costs nothing. Since a task
+// can't always be cancelled before it starts, each one checks that its deadline is still the current one.
+class DeadlineTimer {
+    // Clients are reminded of the time left once it falls to this, which also corrects any drift in their countdown
+    static final long WARNING_MILLIS = 10_000;
+
+    private final ServerGameState gameState;
+    private final RoundScheduler scheduler;
+
+    private int generation = 0;
+    private ScheduledFuture<?> expiry = null;
+    private ScheduledFuture<?> warning = null;
+
+    // Of the pending deadline, if there is one. expiresAt is from System.nanoTime().
+    private Player player = null;
+    private long expiresAt = 0;
+    private Runnable onExpiry = null;
+
+    // Of the deadline which was pending when the timer was paused, if there was one
+    private Player pausedPlayer = null;
+    private long pausedMillisLeft = 0;
+    private Runnable pausedOnExpiry = null;
+
+    DeadlineTimer(ServerGameState gameState, RoundScheduler scheduler) {
+        this.gameState = gameState;
+        this.scheduler = scheduler;
+    }
+
+    // Runs onExpiry if player hasn't been dealt with in millis. Does nothing if millis is 0.
+    void start(Player player, long millis, Runnable onExpiry) {
+        cancel();
+        if(millis <= 0) {
+            return;
+        }
+
+        final int startedGeneration = generation;
+        final long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        this.player = player;
+        this.expiresAt = expiresAt;
+        this.onExpiry = onExpiry;
+        sendDeadline(player, millis);
+        expiry = scheduler.schedule(() -> {
+            if(generation == startedGeneration) {
+                cancel();
+                onExpiry.run();
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+        if(millis > WARNING_MILLIS) {
+            warning = scheduler.schedule(() -> {
+                if(generation == startedGeneration) {
+                    long millisLeft = TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime());
+                    sendDeadline(player, Math.max(millisLeft, 0));
+                }
+            }, millis - WARNING_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void cancel() {
+        generation++;
+        player = null;
+        onExpiry = null;
+        pausedPlayer = null;
+        pausedOnExpiry = null;
+        if(expiry != null) {
+            expiry.cancel(false);
+            expiry = null;
+        }
+        if(warning != null) {
+            warning.cancel(false);
+            warning = null;
+        }
+    }
+
+    // Stops the pending deadline, keeping the time it had left. Does nothing if there's none.
+    void pause() {
+        if(player == null) {
+            return;
+        }
+        Player player = this.player;
+        long millisLeft = getMillisLeft();
+        Runnable onExpiry = this.onExpiry;
+        cancel();
+        pausedPlayer = player;
+        pausedMillisLeft = millisLeft;
+        pausedOnExpiry = onExpiry;
+    }
+
+    // Starts the paused deadline again with the time it had left, which is sent to everyone again
+    void resume() {
+        if(pausedPlayer == null) {
+            return;
+        }
+        start(pausedPlayer, Math.max(pausedMillisLeft, 1), pausedOnExpiry);
+    }
+
+    // The player the pending deadline is for, or null if there's none
+    Player getPlayer() {
+        return player;
+    }
+
+    long getMillisLeft() {
+        return (player == null) ? 0 : Math.max(TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()), 0);
+    }
+
+    private void sendDeadline(Player player, long millisLeft) {
+        gameState.players.sendPacketToAll(new ServerPacket(ServerCode.DEADLINE)
+                .put("player", player.getPlayerNum())
+                .put("millis", (int)Math.min(millisLeft, Integer.MAX_VALUE)));
+    }
+}
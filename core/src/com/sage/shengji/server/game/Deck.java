@@ -1,42 +1,91 @@
 package com.sage.shengji.server.game;
 
+import com.sage.shengji.utils.card.Card;
 import com.sage.shengji.utils.card.CardList;
 import com.sage.shengji.utils.shengji.ShengJiCard;
-import com.sage.shengji.utils.shengji.ShengJiGameState;
+import com.sage.shengji.utils.shengji.ShengJiCardTable;
 
-import java.util.Collections;
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
 
-public class Deck extends CardList<ShengJiCard> {
-    private static Random r = new Random();
+// The cards of a round, dealt from a seed. The same seed, number of decks and player order always give the same kitty
+// and the same hands, so any round can be dealt again from the seed it was dealt with.
+//
+// Cards are drawn by a Fisher-Yates shuffle run only as far as it's needed: each draw swaps a random undrawn card to the
+// end of the undrawn part and shrinks it, so drawing k cards costs O(k) and nothing is ever shuffled twice.
+public class Deck {
+    private final ShengJiCard[] cards;
+    private final SplittableRandom random;
+    private int numUndrawn; // cards[0, numUndrawn) haven't been drawn yet
+    private int numKittyRedraws = 0;
 
-    public Deck(int numFullDecks, boolean jokers, ShengJiGameState gameState) {
+    // Deck i is made of copy i of each card in cards, so cards must hold at least numFullDecks copies
+    public Deck(int numFullDecks, boolean jokers, ShengJiCardTable cards, long seed) {
+        int cardsPerDeck = jokers ? 54 : 52;
+        this.cards = new ShengJiCard[numFullDecks * cardsPerDeck];
         for(int i = 0; i < numFullDecks; i++) {
-            for(int j = 0; j < 52; j++) {
-                add(new ShengJiCard(j, gameState));
+            for(int j = 0; j < cardsPerDeck; j++) {
+                this.cards[numUndrawn++] = cards.get(j, i);
             }
-            if(jokers) {
-                add(new ShengJiCard(52, gameState));
-                add(new ShengJiCard(53, gameState));
+        }
+        this.random = new SplittableRandom(seed);
+    }
+
+    public int size() {
+        return numUndrawn;
+    }
+
+    public ShengJiCard draw() {
+        int idx = random.nextInt(numUndrawn);
+        ShengJiCard drawn = cards[idx];
+        cards[idx] = cards[--numUndrawn];
+        cards[numUndrawn] = drawn;
+        return drawn;
+    }
+
+    // A kitty can't be made entirely of jokers, so one which is is put back and drawn again. Putting it back only has
+    // to grow the undrawn part again, since the kitty is the cards just past its end.
+    public CardList<ShengJiCard> drawKitty(int kittySize) {
+        CardList<ShengJiCard> kitty = new CardList<>();
+        kitty.ensureCapacity(kittySize);
+        while(true) {
+            for(int i = 0; i < kittySize; i++) {
+                kitty.add(draw());
+            }
+            if(!kitty.stream().allMatch(Card::isJoker)) {
+                return kitty;
             }
+            kitty.clear();
+            numUndrawn += kittySize;
+            numKittyRedraws++;
         }
     }
 
-    public void shuffle() {
-        Collections.shuffle(this);
+    public int getNumKittyRedraws() {
+        return numKittyRedraws;
     }
 
-    // Does not deal randomly. Call shuffle() before dealing if random dealing is desired
+    // Deals every undrawn card, one to each player in turn
     public void dealToPlayers(PlayerList players) {
-        for(int i = 0; i < size(); i++) {
-            players.get(i % players.size()).hand.add(this.get(i));
+        List<CardList<ShengJiCard>> hands = dealHands(players.size());
+        for(int i = 0; i < players.size(); i++) {
+            players.get(i).hand.addAll(hands.get(i));
         }
-        clear();
     }
 
-    public ShengJiCard pullRandom() {
-        ShengJiCard pulled = get(r.nextInt(size()));
-        remove(pulled);
-        return pulled;
+    // Deals every undrawn card into numHands hands, one to each in turn
+    public List<CardList<ShengJiCard>> dealHands(int numHands) {
+        int handSize = (numUndrawn + numHands - 1) / numHands;
+        List<CardList<ShengJiCard>> hands = new ArrayList<>(numHands);
+        for(int i = 0; i < numHands; i++) {
+            CardList<ShengJiCard> hand = new CardList<>();
+            hand.ensureCapacity(handSize);
+            hands.add(hand);
+        }
+        for(int i = 0; numUndrawn > 0; i++) {
+            hands.get(i % numHands).add(draw());
+        }
+        return hands;
     }
 }
@@ -1,82 +1,135 @@
 package com.sage.shengji.server.game;
 
-import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.net.Socket;
 import com.badlogic.gdx.utils.SerializationException;
 import com.sage.shengji.client.network.ClientCode;
 import com.sage.shengji.client.network.ClientPacket;
+import com.sage.shengji.server.metrics.TableMetrics;
+import com.sage.shengji.server.metrics.TimedPhase;
+import com.sage.shengji.server.network.ConnectionMetrics;
+import com.sage.shengji.server.network.OutboundFrame;
+import com.sage.shengji.server.network.PlayerConnection;
+import com.sage.shengji.server.network.PlayerConnectionClosedException;
 import com.sage.shengji.server.network.PlayerDisconnectedException;
 import com.sage.shengji.server.network.ServerCode;
 import com.sage.shengji.server.network.ServerPacket;
 import com.sage.shengji.utils.card.CardList;
 import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.log.Log;
+import com.sage.shengji.utils.network.NetworkStats;
+import com.sage.shengji.utils.network.WireFormat;
 import com.sage.shengji.utils.shengji.ShengJiCard;
+import com.sage.shengji.utils.shengji.ShengJiHand;
 import com.sage.shengji.utils.shengji.Team;
 
-import java.io.*;
 import java.util.Arrays;
 import java.util.Map;
-import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.TimeUnit;
 
 public class Player {
-    private int playerNum;
-    private String name;
-    private boolean isHost = false;
+    // These and team are read by every turn of a round, so they're volatile rather than guarded by the player's lock
+    private volatile int playerNum;
+    private volatile String name;
+    private volatile boolean isHost = false;
 
-    public final CardList<ShengJiCard> hand = new CardList<>();
+    public final ShengJiHand hand = new ShengJiHand();
     public final CardList<ShengJiCard> pointCards = new CardList<>();
     public Play play = null;
 
     private Rank callRank = Rank.TWO;
     private int callRankOffset = 0;
-    private Team team = Team.NO_TEAM;
+    private volatile Team team = Team.NO_TEAM;
 
-    private final Socket socket;
-    private final DataOutputStream output;
-    private final DataInputStream input;
-    private final BlockingQueue<ClientPacket> packetQueue = new LinkedBlockingQueue<>();
-    private volatile boolean isWaitingForPacket = false;
+    private volatile PlayerConnection connection;
+    private final NetworkStats networkStats = new NetworkStats();
+    private volatile TableMetrics metrics = null;
+    private volatile PacketListener packetListener = null;
+
+    // Older clients only understand Java serialized packets, so we answer in whatever format the client last spoke
+    private volatile WireFormat wireFormat = WireFormat.JAVA_SERIALIZATION;
+
+    // Whether the client asked for TURN_OVER and TRICK_END to only carry what changed
+    private volatile boolean deltaSync = false;
 
-    private final Thread packetQueueFillerThread;
     private final Map<ClientCode, PacketHandler> initialPacketHandlers = new ConcurrentHashMap<>();
     private OnDisconnectAction onDisconnectAction;
+    private boolean connectionDropped = false;
+
+    // Handed to the client when they're seated, so a new connection can prove it's theirs
+    private volatile long sessionToken = 0;
 
-    public Player(int playerNum, Socket socket) {
-        this.socket = socket;
+    // Whether this player keeps their seat when their connection drops. While they're away anything sent to them is
+    // dropped rather than failing, since they're sent a snapshot of the round when they come back.
+    private volatile boolean seatHeld = false;
+
+    public Player(int playerNum, PlayerConnection connection) {
+        this.connection = connection;
         this.playerNum = playerNum;
         this.name = "Player " + playerNum;
 
-        output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-        input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        // A bot is as new as the server, so it can be sent the compact format and only what changed from the start
+        if(connection.isBot()) {
+            wireFormat = WireFormat.BINARY;
+            deltaSync = true;
+        }
+
+        listenTo(connection);
+    }
 
-        packetQueueFillerThread = new Thread(() -> {
-            while(socketIsConnected()) {
+    private void listenTo(PlayerConnection connection) {
+        connection.setListener(new PlayerConnection.Listener() {
+            // Frames are delivered on the connection's event loop thread
+            @Override
+            public void frameReceived(byte[] frame) {
+                networkStats.recordPacketIn(frame.length);
                 try {
-                    int packetSize = input.readInt();
-                    ClientPacket packet = ClientPacket.fromBytes(input.readNBytes(packetSize));
-                    if(initialPacketHandler(packet)) {
-                        try {
-                            packetQueue.add(packet);
-                        } catch(Exception e) {
-                            e.printStackTrace();
-                        }
+                    wireFormat = WireFormat.of(frame);
+                    packetReceived(ClientPacket.fromBytes(frame));
+                } catch(SerializationException | IllegalArgumentException e) {
+                    Log.error("Player " + getPlayerNum(), "Could not read packet", e);
+                }
+            }
+
+            @Override
+            public void packetReceived(ClientPacket packet) {
+                if(packet.networkCode == ClientCode.PING) {
+                    pingReceived(packet);
+                } else if(initialPacketHandler(packet)) {
+                    PacketListener l = packetListener;
+                    if(l != null) {
+                        l.packetReceived(packet);
                     }
-                } catch(IOException e) {
-                    Gdx.app.log("packQueueFillerThread for player " + playerNum + ": \"" + name + "\"",
-                            "Encountered IOException, dropping connection");
-                    dropConnection();
+                }
+            }
+
+            // A connection this player has since been moved off of closes without dropping anything
+            @Override
+            public void disconnected() {
+                if(connection != Player.this.connection) {
                     return;
-                } catch(SerializationException | IllegalArgumentException | OutOfMemoryError e) {
-                    e.printStackTrace();
                 }
+                Log.info("Player " + getPlayerNum() + ": \"" + getName() + "\"", "Connection closed, dropping connection");
+                dropConnection();
             }
         });
-        packetQueueFillerThread.setDaemon(true);
-        packetQueueFillerThread.start();
+    }
+
+    // Pings are answered here, on the event loop, so that a busy table doesn't inflate the measured round trip
+    private void pingReceived(final ClientPacket packet) {
+        if(packet.data.get("echo") instanceof Long) {
+            networkStats.recordRtt(System.nanoTime() - (Long)packet.data.get("echo"));
+        }
+        if(packet.data.get("t") instanceof Long) {
+            try {
+                sendPacket(ServerPacket.pongPacket((Long)packet.data.get("t")));
+            } catch(SerializationException | PlayerDisconnectedException e) {
+                // A disconnected player is pruned by their disconnect action
+            }
+        }
+    }
+
+    // Sends a timestamped ping, which the client echoes back
+    public void ping() throws PlayerDisconnectedException {
+        sendPacket(ServerPacket.pingPacket(System.nanoTime()));
     }
 
     private synchronized boolean initialPacketHandler(final ClientPacket packet) {
@@ -89,7 +142,13 @@ public class Player {
         return true;
     }
 
-    // PacketHandler code will be run by packetQueueFillerThread
+    // Runs packet through the current initial packet handlers again. This is used when a handler replaces the handlers
+    // and the new handlers should see the packet which triggered the replacement.
+    public boolean redispatchPacket(final ClientPacket packet) {
+        return initialPacketHandler(packet);
+    }
+
+    // PacketHandler code will be run by the connection's event loop thread
     public synchronized void setInitialPacketHandlerForCode(ClientCode code, PacketHandler handler) {
         initialPacketHandlers.put(code, handler);
     }
@@ -98,124 +157,170 @@ public class Player {
         initialPacketHandlers.clear();
     }
 
-    synchronized void setOnDisconnect(OnDisconnectAction action) {
+    // Packets which no initial packet handler consumed are passed to listener, on the connection's event loop thread.
+    // Without a listener they are dropped.
+    public void setPacketListener(PacketListener listener) {
+        packetListener = listener;
+    }
+
+    public synchronized void setOnDisconnect(OnDisconnectAction action) {
         onDisconnectAction = action;
     }
 
-    synchronized void resetOnDisconnect() {
+    public synchronized void resetOnDisconnect() {
         onDisconnectAction = null;
     }
 
     synchronized void resetForNewRound() {
         hand.clear();
         pointCards.clear();
+        team = Team.NO_TEAM;
     }
 
     public void sendPacket(final ServerPacket packet) throws SerializationException, PlayerDisconnectedException {
-        synchronized(output) {
-            if(!socketIsConnected()) {
-                throw new PlayerDisconnectedException(this);
-            }
-            try {
-                byte[] packetBytes = packet.toBytes();
-                output.writeInt(packetBytes.length);
-                output.write(packetBytes);
-                output.flush();
-            } catch(IOException e) {
-                dropConnection();
-                throw new PlayerDisconnectedException(this);
+        if(!socketIsConnected()) {
+            if(seatHeld) {
+                return;
             }
+            throw new PlayerDisconnectedException(this);
+        }
+        long startedAt = System.nanoTime();
+        if(connection.takesPackets()) {
+            sendUnencoded(packet);
+        } else {
+            sendFrame(new OutboundFrame(packet.toBytes(wireFormat), packet.getSupersedeKey()));
+        }
+        TableMetrics metrics = this.metrics;
+        if(metrics != null) {
+            metrics.recordSince(TimedPhase.SEND_PACKET, startedAt);
         }
     }
 
-    public void sendCode(ServerCode code) throws SerializationException, PlayerDisconnectedException {
-        sendPacket(new ServerPacket(code));
+    // frame must have been encoded in this player's wire format
+    void sendFrame(final OutboundFrame frame) throws PlayerDisconnectedException {
+        try {
+            connection.sendFrame(frame);
+            networkStats.recordPacketOut(frame.size() - Integer.BYTES);
+        } catch(PlayerConnectionClosedException e) {
+            connectionClosed();
+        }
     }
 
-    public Optional<ClientPacket> getPacket() throws InterruptedException, PlayerDisconnectedException {
-        synchronized(packetQueue) {
-            ClientPacket ret = packetQueue.poll();
-            if(ret instanceof PlayerDisconnectedItem) {
-                throw new PlayerDisconnectedException(this);
-            } else if(ret instanceof InterruptItem) {
-                throw new InterruptedException();
-            } else {
-                return Optional.ofNullable(ret);
-            }
+    // Only for a connection which takes packets. The packet may be shared with other players, so it mustn't be changed
+    // once it's sent.
+    void sendUnencoded(final ServerPacket packet) throws PlayerDisconnectedException {
+        try {
+            connection.sendPacket(packet);
+        } catch(PlayerConnectionClosedException e) {
+            connectionClosed();
         }
     }
 
-    public ClientPacket waitForPacket() throws InterruptedException, PlayerDisconnectedException {
-        synchronized(packetQueue) {
-            try {
-                isWaitingForPacket = true;
-                ClientPacket ret = packetQueue.take();
-                if(ret instanceof PlayerDisconnectedItem) {
-                    throw new PlayerDisconnectedException(this);
-                } else if(ret instanceof InterruptItem) {
-                    throw new InterruptedException();
-                } else {
-                    return ret;
-                }
-            } finally {
-                isWaitingForPacket = false;
-            }
-        }
+    boolean takesPackets() {
+        return connection.takesPackets();
     }
 
-    public Optional<ClientPacket> waitForPacket(long timeout, TimeUnit unit)
-            throws InterruptedException, PlayerDisconnectedException {
-        synchronized(packetQueue) {
-            try {
-                isWaitingForPacket = true;
-                if(timeout <= 0) {
-                    return Optional.of(waitForPacket());
-                } else {
-                    ClientPacket ret = packetQueue.poll(timeout, unit);
-                    if(ret instanceof PlayerDisconnectedItem) {
-                        throw new PlayerDisconnectedException(this);
-                    } else if(ret instanceof InterruptItem) {
-                        throw new InterruptedException();
-                    } else {
-                        return Optional.ofNullable(ret);
-                    }
-                }
-            } finally {
-                isWaitingForPacket = false;
-            }
+    private void connectionClosed() throws PlayerDisconnectedException {
+        dropConnection();
+        if(!seatHeld) {
+            throw new PlayerDisconnectedException(this);
         }
     }
 
-    public boolean isWaitingForPacket() {
-        return isWaitingForPacket;
+    public void sendCode(ServerCode code) throws SerializationException, PlayerDisconnectedException {
+        sendPacket(new ServerPacket(code));
     }
 
-    public synchronized int getPlayerNum() {
+    public WireFormat getWireFormat() {
+        return wireFormat;
+    }
+
+    public boolean usesDeltaSync() {
+        return deltaSync;
+    }
+
+    public void setDeltaSync(boolean deltaSync) {
+        this.deltaSync = deltaSync;
+    }
+
+    public NetworkStats getNetworkStats() {
+        return networkStats;
+    }
+
+    // The table this player is seated at, whose metrics their sends are recorded in
+    public void setMetrics(TableMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public ConnectionMetrics getConnectionMetrics() {
+        return connection.getMetrics();
+    }
+
+    public int getPlayerNum() {
         return playerNum;
     }
 
-    public synchronized void setPlayerNum(int playerNum) {
+    public void setPlayerNum(int playerNum) {
         this.playerNum = playerNum;
     }
 
-    public synchronized String getName() {
+    public String getName() {
         return name;
     }
 
-    public synchronized void setName(String name) {
+    public void setName(String name) {
         this.name = name;
     }
 
-    public synchronized boolean isHost() {
+    public boolean isHost() {
         return isHost;
     }
 
-    public synchronized void setHost(boolean host) {
+    public void setHost(boolean host) {
         this.isHost = host;
     }
 
-    public synchronized boolean socketIsConnected() {
-        return socket.isConnected();
+    public boolean isBot() {
+        return connection.isBot();
+    }
+
+    public boolean socketIsConnected() {
+        return connection.isConnected();
+    }
+
+    public long getSessionToken() {
+        return sessionToken;
+    }
+
+    public void setSessionToken(long sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    public boolean isSeatHeld() {
+        return seatHeld;
+    }
+
+    public void setSeatHeld(boolean seatHeld) {
+        this.seatHeld = seatHeld;
+    }
+
+    // Whether this player's connection has dropped but their seat is being kept for them
+    public boolean isAway() {
+        return seatHeld && !socketIsConnected();
+    }
+
+    // Moves the connection of reconnected, who has just presented this player's session token, over to this player.
+    // Whatever connection this player had is closed without running the disconnect action, since they haven't left.
+    public void takeConnectionOf(Player reconnected) {
+        PlayerConnection oldConnection;
+        synchronized(this) {
+            oldConnection = connection;
+            connection = reconnected.connection;
+            wireFormat = reconnected.wireFormat;
+            connectionDropped = false;
+        }
+        listenTo(connection);
+        oldConnection.close();
     }
 
     public synchronized Rank getCallRank() {
@@ -240,7 +345,7 @@ public class Player {
         if(amount < 0) {
             amount = 13 + (amount % 13);
         }
-        setCallRank(Rank.values()[(currRankIdx + amount) % 136]);
+        setCallRank(Rank.values()[(currRankIdx + amount) % 13]);
     }
 
     public synchronized void setCallRankOffset(int callRankOffset) {
@@ -255,51 +360,35 @@ public class Player {
         return callRankOffset;
     }
 
-    public synchronized Team getTeam() {
+    public Team getTeam() {
         return team;
     }
 
-    public synchronized void setTeam(Team team) {
+    public void setTeam(Team team) {
         this.team = team;
     }
 
-    public synchronized void interruptPacketWaiting() {
-        packetQueue.add(new InterruptItem());
-    }
-
-    public synchronized void interruptIfWaitingForPacket() {
-        if(isWaitingForPacket()) interruptPacketWaiting();
-    }
-
     public synchronized void dropConnection() {
+        if(connectionDropped) {
+            return;
+        }
+        connectionDropped = true;
+
         if(onDisconnectAction != null) {
             onDisconnectAction.action();
         }
-        packetQueue.add(new PlayerDisconnectedItem());
-        socket.dispose();
-    }
-
-    public synchronized void clearPacketQueue() {
-        packetQueue.clear();
-    }
-
-    private abstract class PoisonQueueItem extends ClientPacket {
-
-    }
-
-    private class PlayerDisconnectedItem extends PoisonQueueItem {
-
-    }
-
-    private class InterruptItem extends PoisonQueueItem {
-
+        connection.close();
     }
 
     public interface PacketHandler {
-        // Returns whether or not the packet should be propagated to the packetQueue
+        // Returns whether or not the packet should be propagated to the packet listener
         boolean handle(final ClientPacket packet);
     }
 
+    public interface PacketListener {
+        void packetReceived(final ClientPacket packet);
+    }
+
     public interface OnDisconnectAction {
         void action();
     }
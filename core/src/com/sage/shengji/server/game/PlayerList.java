@@ -2,12 +2,16 @@ package com.sage.shengji.server.game;
 
 import com.badlogic.gdx.utils.SerializationException;
 import com.sage.shengji.server.network.MultiplePlayersDisconnectedException;
+import com.sage.shengji.server.network.OutboundFrame;
 import com.sage.shengji.server.network.PlayerDisconnectedException;
 import com.sage.shengji.server.network.ServerCode;
 import com.sage.shengji.server.network.ServerPacket;
 import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.log.Log;
+import com.sage.shengji.utils.network.WireFormat;
 
 import java.util.*;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -21,17 +25,48 @@ public class PlayerList extends ArrayList<Player> {
     }
 
     public void sendPacketToAll(ServerPacket packet) throws MultiplePlayersDisconnectedException {
+        sendPacketToAll(p -> packet);
+    }
+
+    // Sends each player the packet chosen for them by packetForPlayer. Each distinct packet is encoded at most once per
+    // wire format, and every recipient of it queues the same frame. Queueing never blocks, so each player's connection
+    // writes its copy in parallel with the others. Players whose connections take packets are handed the packet itself,
+    // and it's never encoded for them.
+    public void sendPacketToAll(Function<Player, ServerPacket> packetForPlayer)
+            throws MultiplePlayersDisconnectedException {
         PlayerList disconnectedPlayers = null;
+        Map<ServerPacket, EnumMap<WireFormat, OutboundFrame>> frames = null;
         for(Player p : this) {
+            if(p.isAway()) {
+                continue; // They're sent a snapshot when they reconnect
+            }
             try {
-                p.sendPacket(packet);
+                if(!p.socketIsConnected()) {
+                    throw new PlayerDisconnectedException(p);
+                }
+                ServerPacket packet = packetForPlayer.apply(p);
+                if(p.takesPackets()) {
+                    p.sendUnencoded(packet);
+                    continue;
+                }
+                if(frames == null) {
+                    frames = new IdentityHashMap<>();
+                }
+                WireFormat format = p.getWireFormat();
+                var packetFrames = frames.computeIfAbsent(packet, k -> new EnumMap<>(WireFormat.class));
+                OutboundFrame frame = packetFrames.get(format);
+                if(frame == null) {
+                    frame = new OutboundFrame(packet.toBytes(format), packet.getSupersedeKey());
+                    packetFrames.put(format, frame);
+                }
+                p.sendFrame(frame);
             } catch(PlayerDisconnectedException e) {
                 if(disconnectedPlayers == null) {
                     disconnectedPlayers = new PlayerList();
                 }
                 disconnectedPlayers.add(p);
             } catch(SerializationException e) {
-                e.printStackTrace();
+                Log.error("PlayerList", "Could not encode packet for player " + p.getPlayerNum(), e);
             }
         }
         if(disconnectedPlayers != null) {
@@ -58,11 +93,9 @@ public class PlayerList extends ArrayList<Player> {
             return;
         }
 
-        HashMap<Integer, String> playersMap =
-                stream().collect(Collectors.toMap(Player::getPlayerNum, Player::getName, (a, b) -> b, HashMap::new));
-        HashMap<Integer, Rank> callRankMap =
-                stream().collect(Collectors.toMap(Player::getPlayerNum, Player::getCallRank, (a, b) -> b, HashMap::new));
-        Integer hostNum = stream().filter(Player::isHost).findAny().orElse(this.get(0)).getPlayerNum();
+        HashMap<Integer, String> playersMap = getPlayersMap();
+        HashMap<Integer, Rank> callRankMap = getCallRankMap();
+        Integer hostNum = getHostNum();
 
         // Pretty much copy/pasted code from sendPacketToAll()
         PlayerList disconnectedPlayers = null;
@@ -80,7 +113,7 @@ public class PlayerList extends ArrayList<Player> {
                 }
                 disconnectedPlayers.add(p);
             } catch(SerializationException e) {
-                e.printStackTrace();
+                Log.error("PlayerList", "Could not encode packet for player " + p.getPlayerNum(), e);
             }
         }
         if(disconnectedPlayers != null) {
@@ -88,6 +121,34 @@ public class PlayerList extends ArrayList<Player> {
         }
     }
 
+    // Adds what WAIT_FOR_PLAYERS would tell you to packet. The list must not be empty.
+    public ServerPacket putPlayers(ServerPacket packet, Player you) {
+        return packet.put("players", getPlayersMap())
+                .put("rank", getCallRankMap())
+                .put("host", getHostNum())
+                .put("you", you.getPlayerNum());
+    }
+
+    private HashMap<Integer, String> getPlayersMap() {
+        return stream().collect(Collectors.toMap(Player::getPlayerNum, Player::getName, (a, b) -> b, HashMap::new));
+    }
+
+    private HashMap<Integer, Rank> getCallRankMap() {
+        return stream().collect(Collectors.toMap(Player::getPlayerNum, Player::getCallRank, (a, b) -> b, HashMap::new));
+    }
+
+    private Integer getHostNum() {
+        return stream().filter(Player::isHost).findAny().orElse(this.get(0)).getPlayerNum();
+    }
+
+    // The latest queue-to-socket latency of each player's connection
+    public Map<Integer, Long> getSendLatenciesNanos() {
+        return stream().collect(Collectors.toMap(Player::getPlayerNum,
+                p -> p.getConnectionMetrics().getLastSendLatencyNanos(),
+                (a, b) -> b,
+                HashMap::new));
+    }
+
     public Optional<Player> getByPlayerNum(int playerNum) {
         for(Player p : this) {
             if(p.getPlayerNum() == playerNum) {
@@ -2,92 +2,221 @@ package com.sage.shengji.server.game;
 
 import com.sage.shengji.client.network.ClientCode;
 import com.sage.shengji.client.network.ClientPacket;
-import com.sage.shengji.server.network.MultiplePlayersDisconnectedException;
-import com.sage.shengji.server.network.PlayerDisconnectedException;
+import com.sage.shengji.server.metrics.TableMetrics;
+import com.sage.shengji.server.metrics.TimedPhase;
 import com.sage.shengji.server.network.ServerCode;
 import com.sage.shengji.server.network.ServerPacket;
 import com.sage.shengji.utils.card.Card;
 import com.sage.shengji.utils.card.CardList;
 import com.sage.shengji.utils.card.InvalidCardException;
 import com.sage.shengji.utils.card.Suit;
+import com.sage.shengji.utils.log.Log;
 import com.sage.shengji.utils.shengji.ShengJiCard;
 import com.sage.shengji.utils.shengji.Team;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import static com.sage.shengji.server.network.ServerCode.*;
 
+// A round is a state machine driven by the packets players send. Nothing here blocks or owns a thread: the table feeds
+// each packet to handlePacket() on its own serial executor, and the round advances through its phases in response.
+// Methods throw PlayerDisconnectedException or MultiplePlayersDisconnectedException if a send fails, and
+// FatalRoundException if the round can't continue; either way the table then aborts the round.
+//
+// The kitty, friend cards and each turn have a deadline, after which the round chooses for the player. Deadlines run
+// through the table's RoundScheduler, so they're handled one at a time with packets too.
 public class RoundRunner {
-    static void throwExceptionIfPlayerDisconnectDetected(ServerGameState gameState) {
-        var disconnectedPlayers = gameState.players.stream()
-                .filter(p -> !p.socketIsConnected()).collect(Collectors
-                        .toCollection(PlayerList::new));
-        if(!disconnectedPlayers.isEmpty()) {
-            gameState.players.forEach(Player::clearPacketQueue);
-            throw new MultiplePlayersDisconnectedException(disconnectedPlayers);
+    private enum Phase {
+        NOT_STARTED,
+        CALLING,
+        KITTY_CALLING,
+        KITTY,
+        FRIEND_CARDS,
+        PLAYING,
+        OVER,
+    }
+
+    private final ServerGameState gameState;
+    private final TableMetrics metrics;
+    private final DeadlineConfig deadlines;
+    private final DeadlineTimer deadline;
+    private Phase phase = Phase.NOT_STARTED;
+    private long phaseStartedAt = 0; // When the phase currently being timed started, from System.nanoTime()
+
+    // Calling and kitty calling state. Players who have passed stop taking part in the current calling phase.
+    private final Set<Player> passedPlayers = new HashSet<>();
+    private Player leadingCallPlayer = null;
+    private ShengJiCard leadingCallCard = null;
+    private int leadingCallOrder = 0;
+    private int kittyPullIdx = 0;
+
+    private TrickRunner trick = null;
+
+    public RoundRunner(ServerGameState gameState, TableMetrics metrics, DeadlineConfig deadlines,
+                       RoundScheduler scheduler) {
+        this.gameState = gameState;
+        this.metrics = metrics;
+        this.deadlines = deadlines;
+        this.deadline = new DeadlineTimer(gameState, scheduler);
+    }
+
+    public void start() throws RoundStartFailedException {
+        if(phase != Phase.NOT_STARTED) {
+            throw new IllegalStateException("A round can only be started once");
+        }
+        if(gameState.players.size() < 2
+                || gameState.players.stream().anyMatch(p -> Objects.isNull(p) || !p.socketIsConnected())) {
+            phase = Phase.OVER;
+            throw new RoundStartFailedException();
         }
+        gameState.setRoundRunning(true);
+
+        gameState.players.sendPlayersToAll();
+        gameState.players.sendPacketToAll(new ServerPacket(ServerCode.ROUND_START)
+                .put("playerorder", gameState.players.stream().mapToInt(Player::getPlayerNum).toArray()));
+
+        gameState.roundsPlayed++;
+        deal();
     }
 
-    // This method will ALWAYS call gameState.setRoundRunning(false); before exiting
-    public static void playRound(ServerGameState gameState) throws RoundStartFailedException, FatalRoundException {
-        try {
-            gameState.setRoundRunning(true);
+    public void handlePacket(Player player, ClientPacket packet) {
+        if(packet.networkCode == null || !gameState.players.contains(player)) {
+            return;
+        }
 
-            if(gameState.players.size() < 2
-                    || gameState.players.stream().anyMatch(p -> Objects.isNull(p) || !p.socketIsConnected())) {
-                throw new RoundStartFailedException();
-            }
+        switch(phase) {
+        case CALLING:
+            handleCallingPacket(player, packet);
+            break;
+        case KITTY_CALLING:
+            handleKittyCallingPacket(player, packet);
+            break;
+        case KITTY:
+            handleKittyPacket(player, packet);
+            break;
+        case FRIEND_CARDS:
+            handleFriendCardsPacket(player, packet);
+            break;
+        case PLAYING:
+            trick.handlePacket(player, packet);
+            break;
+        default:
+            break;
+        }
+    }
+
+    public boolean isOver() {
+        return phase == Phase.OVER;
+    }
 
-            gameState.players.forEach(p -> p.setOnDisconnect(() -> {
-                gameState.players.forEach(Player::interruptPacketWaiting);
-            }));
-
-            gameState.players.sendPlayersToAll();
-            gameState.players.sendPacketToAll(new ServerPacket(ServerCode.ROUND_START)
-                    .put("playerorder", gameState.players.stream().mapToInt(Player::getPlayerNum).toArray()));
-
-            gameState.roundsPlayed++;
-            do {
-                resetGameStateForNewRound(gameState);
-                sendHands(gameState);
-                establishCaller(gameState);
-                // establishCaller() should set gameState.caller to some player.
-                // If it leaves gameState.caller as null, it means no one wanted to call.
-                // In that case, a redeal is necessary.
-            } while(gameState.caller == null);
-
-            gameState.caller.setTeam(Team.KEEPERS);
-            if(gameState.numFriendCards == 0) {
-                gameState.players.stream()
-                        .filter(p -> p.getTeam() == Team.NO_TEAM)
-                        .forEach(p -> p.setTeam(Team.COLLECTORS));
+    // Ends the round, whether or not it finished normally. This must be called once the table is done with the round.
+    public void finish() {
+        deadline.cancel();
+        phase = Phase.OVER;
+        gameState.setRoundRunning(false);
+    }
+
+    // Stops the pending deadline while the table holds the round for a player who dropped. The table doesn't feed the
+    // round anything until it resumes it.
+    public void pause() {
+        deadline.pause();
+    }
+
+    public void resume() {
+        deadline.resume();
+    }
+
+    // Everything player needs to pick the round up from where it is, in a single GAME_STATE_SNAPSHOT. The snapshot only
+    // holds what player is allowed to see: their own hand, the kitty cards turned over while kitty calling, the cards
+    // on the table, and what everyone has been told about calls, teams and points. Other hands, and the kitty once it
+    // has been taken up, are left out.
+    public ServerPacket snapshotFor(Player player) {
+        ServerPacket snapshot = gameState.players.putPlayers(new ServerPacket(GAME_STATE_SNAPSHOT), player)
+                .put("playerorder", gameState.players.stream().mapToInt(Player::getPlayerNum).toArray())
+                .put("prompt", promptFor(player).name())
+                .put("hand", player.hand.toCardNumList())
+                .put("numpointsneeded", gameState.numPointsNeeded)
+                .put("kittysize", gameState.kitty.size())
+                .put("numfriendcards", gameState.numFriendCards)
+                .put("friendcards", gameState.friendCards.toCardNumList())
+                .put("collectedpointcards", gameState.collectedPointCards.toCardNumList());
+        // Trump is left over from the last round until someone has called
+        if(gameState.caller != null) {
+            snapshot.put("caller", gameState.caller.getPlayerNum())
+                    .put("trumprank", gameState.trumpRank)
+                    .put("trumpsuit", gameState.trumpSuit);
+        }
+
+        HashMap<Integer, Team> teamsMap = new HashMap<>();
+        HashMap<Integer, ArrayList<Integer>> pointCardsMap = new HashMap<>();
+        HashMap<Integer, ArrayList<Integer>> playsMap = new HashMap<>();
+        for(Player p : gameState.players) {
+            teamsMap.put(p.getPlayerNum(), p.getTeam());
+            pointCardsMap.put(p.getPlayerNum(), p.pointCards.toCardNumList());
+            if(phase == Phase.PLAYING && p.play != null) {
+                playsMap.put(p.getPlayerNum(), p.play.toCardNumList());
+            }
+        }
+        snapshot.put("teamsmap", teamsMap).put("pointcardsmap", pointCardsMap).put("plays", playsMap);
+
+        snapshot.put("passedplayers", passedPlayers.stream()
+                .map(Player::getPlayerNum)
+                .collect(Collectors.toCollection(ArrayList::new)));
+        if(phase == Phase.CALLING && leadingCallPlayer != null) {
+            snapshot.put("callplayer", leadingCallPlayer.getPlayerNum())
+                    .put("callcardnum", leadingCallCard.getCardNum())
+                    .put("callorder", leadingCallOrder);
+        }
+        if(phase == Phase.KITTY_CALLING) {
+            snapshot.put("kittycards", gameState.kitty.stream()
+                    .limit(kittyPullIdx + 1)
+                    .map(ShengJiCard::getCardNum)
+                    .collect(Collectors.toCollection(ArrayList::new)));
+        }
+        if(phase == Phase.PLAYING) {
+            snapshot.put("turnplayer", gameState.turnPlayer.getPlayerNum());
+            if(gameState.basePlay != null) {
+                snapshot.put("baseplayer", gameState.startingPlayer.getPlayerNum())
+                        .put("leadingplayer", gameState.leadingPlayer.getPlayerNum());
             }
+        }
+        Player deadlinePlayer = deadline.getPlayer();
+        if(deadlinePlayer != null) {
+            snapshot.put("deadlineplayer", deadlinePlayer.getPlayerNum())
+                    .put("deadlinemillis", (int)Math.min(deadline.getMillisLeft(), Integer.MAX_VALUE));
+        }
+        return snapshot;
+    }
 
-            gameState.players.sendCodeToAll(WAITING_ON_CALLER);
-            sendKittyToCaller(gameState);
-            getKittyFromCaller(gameState);
-            getFriendCardsFromCaller(gameState);
-            sendFriendCardsToPlayers(gameState);
-
-            gameState.turnPlayer = gameState.caller;
-            do {
-                TrickRunner.playTrick(gameState);
-            } while(gameState.players.stream().allMatch(p -> p.hand.size() > 0));
-
-            gameState.players.sendPacketToAll(updateRanksAndGetRoundEndPacket(gameState));
-        } finally {
-            gameState.setRoundRunning(false);
-            gameState.players.forEach(Player::clearPacketQueue);
-            gameState.players.forEach(Player::resetOnDisconnect);
+    // The code player would last have been sent about what they're being asked to do
+    private ServerCode promptFor(Player player) {
+        switch(phase) {
+        case CALLING:
+            return passedPlayers.contains(player) ? NO_CALL : MAKE_CALL;
+        case KITTY_CALLING:
+            return passedPlayers.contains(player) ? NO_KITTY_CALL : MAKE_KITTY_CALL;
+        case KITTY:
+            return (player == gameState.caller) ? SEND_KITTY : WAITING_ON_CALLER;
+        case FRIEND_CARDS:
+            return (player == gameState.caller) ? SEND_FRIEND_CARDS : WAITING_ON_CALLER;
+        case PLAYING:
+            return (player == gameState.turnPlayer && player.play == null) ? MAKE_PLAY : WAIT_FOR_TURN_PLAYER;
+        default:
+            return WAIT_FOR_HAND;
         }
     }
 
-    private static void resetGameStateForNewRound(ServerGameState gameState) {
-        gameState.numDecks = Math.max(gameState.players.size() / 2, 1);
+    private void deal() {
+        long startedAt = System.nanoTime();
+        resetGameStateForNewRound();
+        sendHands();
+        metrics.recordSince(TimedPhase.DEAL, startedAt);
+        startCalling();
+    }
+
+    private void resetGameStateForNewRound() {
+        gameState.numDecks = ServerGameState.numDecksFor(gameState.players.size());
         gameState.numPointsNeeded = 40 * gameState.numDecks;
         gameState.numFriendCards = Math.max(((gameState.players.size() / 2) - 1), 0);
 
@@ -101,131 +230,285 @@ public class RoundRunner {
         gameState.caller = null;
         gameState.basePlay = null;
         gameState.pointCardsInTrick.clear();
+        gameState.lastSentTeams.clear();
         gameState.players.forEach(Player::resetForNewRound);
 
-        Deck deck = new Deck(gameState.numDecks, true, gameState);
-        deck.shuffle();
-        gameState.kitty.clear();
-        gameState.kitty.addAll(extractKittyFromDeck(deck, gameState));
-        deck.dealToPlayers(gameState.players);
+        long seed = gameState.nextDealSeed();
+        // Every deal is logged, redeals included, so any of them can be dealt again with ServerGameState.replayDeal()
+        Log.info("Table " + metrics.tableId, "Dealing from seed " + seed + " to players "
+                + Arrays.toString(gameState.players.stream().mapToInt(Player::getPlayerNum).toArray()));
+        gameState.deal(seed);
     }
 
-    private static CardList<ShengJiCard> extractKittyFromDeck(Deck deck, ServerGameState gameState) {
-        int kittySize = deck.size() % gameState.players.size();
-        if(kittySize == 0) {
-            kittySize = gameState.players.size();
+    private void sendHands() {
+        gameState.players.forEach(p ->
+                p.sendPacket(new ServerPacket(WAIT_FOR_HAND)
+                        .put("hand", p.hand.toCardNumList())
+                        .put("numpointsneeded", gameState.numPointsNeeded)));
+    }
+
+    private void startCalling() {
+        phase = Phase.CALLING;
+        phaseStartedAt = System.nanoTime();
+        passedPlayers.clear();
+        leadingCallPlayer = null;
+        leadingCallCard = null;
+        leadingCallOrder = 0;
+        gameState.players.sendPacketToAll(new ServerPacket(MAKE_CALL));
+    }
+
+    private void handleCallingPacket(Player p, ClientPacket callPacket) {
+        if(passedPlayers.contains(p)) {
+            return;
         }
 
-        CardList<ShengJiCard> kitty = new CardList<>();
-        while(true) {
-            for(int i = 0; i < kittySize; i++) {
-                kitty.add(deck.pullRandom());
+        if(callPacket.networkCode == ClientCode.NO_CALL) {
+            // A player cannot take back their call if their call is currently leading
+            if(leadingCallPlayer != p) {
+                p.sendCode(NO_CALL);
+                gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_NO_CALL_PLAYER)
+                        .put("player", p.getPlayerNum()));
+                passedPlayers.add(p);
+            }
+        } else if(callPacket.networkCode == ClientCode.CALL) {
+            ShengJiCard callCard;
+            int callOrder;
+            try {
+                callCard = gameState.cardTable.get(Objects.requireNonNull((Integer)callPacket.get("card")));
+                callOrder = (Integer)callPacket.get("order");
+            } catch(ClassCastException | NullPointerException | InvalidCardException e) {
+                p.sendCode(INVALID_CALL);
+                return;
             }
 
-            // If a kitty consists entirely of jokers, it needs to be redrawn
-            if(kitty.stream().allMatch(Card::isJoker)) {
-                deck.addAll(kitty);
-                kitty.clear();
+            if(!gameState.isLegalCall(p, callCard, callOrder)) {
+                p.sendCode(INVALID_CALL);
+            } else if(callOrder <= leadingCallOrder) {
+                p.sendCode(UNSUCCESSFUL_CALL);
             } else {
-                break;
+                leadingCallCard = callCard;
+                leadingCallOrder = callOrder;
+                leadingCallPlayer = p;
+                p.sendPacket(new ServerPacket(SUCCESSFUL_CALL)
+                        .put("cardnum", callCard.getCardNum())
+                        .put("order", callOrder));
+                gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_NEW_LEADING_CALL)
+                        .put("playernum", p.getPlayerNum())
+                        .put("cardnum", leadingCallCard.getCardNum())
+                        .put("order", leadingCallOrder));
             }
+        } else {
+            return;
+        }
+
+        int numPlayers = gameState.players.size();
+        if(passedPlayers.size() == numPlayers - 1 && leadingCallPlayer != null) {
+            // Everyone else has passed, so the leading call wins
+            gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_CALL_WINNER)
+                    .put("playernum", leadingCallPlayer.getPlayerNum())
+                    .put("callcardnum", leadingCallCard.getCardNum())
+                    .put("callorder", leadingCallOrder));
+            gameState.caller = leadingCallPlayer;
+            gameState.setTrump(leadingCallCard.getRank(), leadingCallCard.getSuit());
+            callerEstablished();
+        } else if(passedPlayers.size() == numPlayers) {
+            gameState.players.sendPacketToAll(new ServerPacket(NO_ONE_CALLED));
+            startKittyCalling(0);
         }
-        return kitty;
     }
 
-    private static void sendHands(ServerGameState gameState) {
-        gameState.players.forEach(p ->
-                p.sendPacket(new ServerPacket(WAIT_FOR_HAND)
-                        .put("hand", p.hand.toCardNumList())
-                        .put("numpointsneeded", gameState.numPointsNeeded)));
+    // Each kitty calling phase pulls a new card from the kitty and sends it to all players. If no one chooses to call on
+    // that card, a new card is pulled. If all cards in the kitty are pulled, the hands are redealt.
+    private void startKittyCalling(int kittyPullIdx) {
+        if(kittyPullIdx >= gameState.kitty.size()) {
+            gameState.caller = null;
+            gameState.players.sendCodeToAll(KITTY_EXHAUSTED_REDEAL);
+            deal();
+            return;
+        }
+
+        phase = Phase.KITTY_CALLING;
+        this.kittyPullIdx = kittyPullIdx;
+        passedPlayers.clear();
+
+        ShengJiCard kittyCard = gameState.kitty.get(kittyPullIdx);
+        gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_KITTY_CARD).put("cardnum", kittyCard.getCardNum()));
+        gameState.players.sendCodeToAll(MAKE_KITTY_CALL);
     }
 
-    private static void sendKittyToCaller(ServerGameState gameState) {
-        Player caller = gameState.caller;
-        if(caller == null) {
-            throw new FatalRoundException("THIS IS BAD: in sendKittyToCaller(), gameState.caller == null");
+    private void handleKittyCallingPacket(Player p, ClientPacket callPacket) {
+        if(passedPlayers.contains(p)) {
+            return;
+        }
+
+        if(callPacket.networkCode == ClientCode.NO_KITTY_CALL) {
+            p.sendCode(NO_KITTY_CALL);
+            gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_NO_CALL_PLAYER)
+                    .put("player", p.getPlayerNum()));
+            passedPlayers.add(p);
+            if(passedPlayers.size() == gameState.players.size()) {
+                startKittyCalling(kittyPullIdx + 1);
+            }
+        } else if(callPacket.networkCode == ClientCode.KITTY_CALL) {
+            if(gameState.kitty.stream().limit(kittyPullIdx + 1).allMatch(Card::isJoker)) {
+                p.sendPacket(new ServerPacket(UNSUCCESSFUL_KITTY_CALL)
+                        .put("message", "No valid card has been pulled from kitty"));
+                return;
+            }
+
+            // The first person to call the kitty card wins
+            p.sendCode(SUCCESSFUL_KITTY_CALL);
+            var effectiveKittyCard = gameState.kitty.stream()
+                    .limit(kittyPullIdx + 1)
+                    .filter(c -> !c.isJoker())
+                    .reduce((a, b) -> b);
+            gameState.setTrump(p.getCallRank(),
+                    effectiveKittyCard.isPresent() ? effectiveKittyCard.get().getSuit() : Suit.JOKER);
+            gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_KITTY_CALL_WINNER)
+                    .put("playernum", p.getPlayerNum())
+                    .put("trumprank", gameState.trumpRank)
+                    .put("trumpsuit", gameState.trumpSuit));
+            gameState.caller = p;
+            callerEstablished();
         }
+    }
+
+    private void callerEstablished() {
+        metrics.recordSince(TimedPhase.CALLING, phaseStartedAt);
+        passedPlayers.clear();
 
+        gameState.caller.setTeam(Team.KEEPERS);
+        if(gameState.numFriendCards == 0) {
+            gameState.players.stream()
+                    .filter(p -> p.getTeam() == Team.NO_TEAM)
+                    .forEach(p -> p.setTeam(Team.COLLECTORS));
+        }
+
+        gameState.players.sendCodeToAll(WAITING_ON_CALLER);
+        Player caller = gameState.caller;
         caller.sendPacket(new ServerPacket(WAIT_FOR_KITTY).put("kitty", gameState.kitty.toCardNumList()));
         caller.hand.addAll(gameState.kitty);
+
+        phase = Phase.KITTY;
+        phaseStartedAt = System.nanoTime();
+        caller.sendCode(SEND_KITTY);
+        deadline.start(caller, deadlines.kittyMillis, this::kittyTimedOut);
     }
 
-    private static void getKittyFromCaller(ServerGameState gameState) {
+    private void handleKittyPacket(Player p, ClientPacket kittyPacket) {
         Player caller = gameState.caller;
         if(caller == null) {
-            throw new FatalRoundException("THIS IS BAD: in getKittyFromCaller(), gameState.caller == null");
+            throw new FatalRoundException("THIS IS BAD: in handleKittyPacket(), gameState.caller == null");
+        }
+        if(p != caller || kittyPacket.networkCode != ClientCode.KITTY) {
+            return;
         }
 
-        // This could probably be refactored
-        caller.sendCode(SEND_KITTY);
-        while(true) {
-            try {
-                ClientPacket kittyPacket = caller.waitForPacket();
-                if(kittyPacket.networkCode != ClientCode.KITTY) {
-                    continue;
-                }
-                List<Integer> newKittyCardNums = (List<Integer>)Objects.requireNonNull(kittyPacket.get("kitty"));
-                CardList<ShengJiCard> newKitty =
-                        CardList.fromCardNumList(newKittyCardNums, cardNum -> new ShengJiCard(cardNum, gameState));
-                if(gameState.isLegalKitty(caller, newKitty)) {
-                    gameState.kitty.clear();
-                    gameState.kitty.addAll(newKitty);
-                    caller.hand.removeAllByValue(newKitty);
-                    caller.sendCode(SUCCESSFUL_KITTY);
-                    return;
-                } else {
-                    caller.sendCode(INVALID_KITTY);
-                }
-            } catch(InterruptedException e) {
-                throwExceptionIfPlayerDisconnectDetected(gameState);
-            } catch(NullPointerException | ClassCastException | InvalidCardException e) {
+        try {
+            List<Integer> newKittyCardNums = (List<Integer>)Objects.requireNonNull(kittyPacket.get("kitty"));
+            // null if the caller doesn't hold those cards
+            CardList<ShengJiCard> newKitty = caller.hand.heldInstancesOf(
+                    gameState.cardTable.fromCardNumList(newKittyCardNums));
+            if(newKitty != null) {
+                kittyEstablished(newKitty);
+            } else {
                 caller.sendCode(INVALID_KITTY);
             }
+        } catch(NullPointerException | ClassCastException | InvalidCardException e) {
+            caller.sendCode(INVALID_KITTY);
         }
     }
 
-    private static void getFriendCardsFromCaller(ServerGameState gameState) {
+    private void kittyTimedOut() {
+        kittyEstablished(AutoPlayer.chooseKitty(gameState, gameState.kitty.size()));
+    }
+
+    // The caller is sent back the kitty, since it may not be the one they chose
+    private void kittyEstablished(CardList<ShengJiCard> newKitty) {
+        deadline.cancel();
         Player caller = gameState.caller;
-        if(caller == null) {
-            throw new FatalRoundException("THIS IS BAD: in getFriendCardsFromCaller(), gameState.caller == null");
-        }
+        gameState.kitty.clear();
+        gameState.kitty.addAll(newKitty);
+        caller.hand.removeAll(newKitty);
+        metrics.recordSince(TimedPhase.KITTY, phaseStartedAt);
+        caller.sendPacket(new ServerPacket(SUCCESSFUL_KITTY).put("kitty", newKitty.toCardNumList()));
+        startFriendCards();
+    }
 
+    private void startFriendCards() {
         if(gameState.numFriendCards == 0) {
+            friendCardsEstablished();
             return;
         }
 
-        caller.sendPacket(new ServerPacket(SEND_FRIEND_CARDS).put("numfriendcards", gameState.numFriendCards));
-        while(true) {
-            try {
-                ClientPacket friendCardsPacket = caller.waitForPacket();
-                if(friendCardsPacket.networkCode != ClientCode.FRIEND_CARDS) {
-                    continue;
-                }
-                List<Integer> friendCardNums = (List<Integer>)friendCardsPacket.get("friendcards");
-                CardList<ShengJiCard> friendCards =
-                        CardList.fromCardNumList(friendCardNums, cardNum -> new ShengJiCard(cardNum, gameState));
-                if(gameState.areLegalFriendCards(friendCards)) {
-                    gameState.friendCards.clear();
-                    gameState.friendCards.addAll(friendCards);
-                    caller.sendCode(SUCCESSFUL_FRIEND_CARDS);
-                    return;
-                } else {
-                    caller.sendCode(INVALID_FRIEND_CARDS);
-                }
-            } catch(InterruptedException e) {
-                throwExceptionIfPlayerDisconnectDetected(gameState);
-            } catch(ClassCastException | InvalidCardException e) {
+        phase = Phase.FRIEND_CARDS;
+        phaseStartedAt = System.nanoTime();
+        gameState.caller.sendPacket(new ServerPacket(SEND_FRIEND_CARDS)
+                .put("numfriendcards", gameState.numFriendCards));
+        deadline.start(gameState.caller, deadlines.friendCardsMillis, this::friendCardsTimedOut);
+    }
+
+    private void handleFriendCardsPacket(Player p, ClientPacket friendCardsPacket) {
+        Player caller = gameState.caller;
+        if(caller == null) {
+            throw new FatalRoundException("THIS IS BAD: in handleFriendCardsPacket(), gameState.caller == null");
+        }
+        if(p != caller || friendCardsPacket.networkCode != ClientCode.FRIEND_CARDS) {
+            return;
+        }
+
+        try {
+            List<Integer> friendCardNums =
+                    (List<Integer>)Objects.requireNonNull(friendCardsPacket.get("friendcards"));
+            CardList<ShengJiCard> friendCards = gameState.cardTable.fromCardNumList(friendCardNums);
+            if(gameState.areLegalFriendCards(friendCards)) {
+                setFriendCards(friendCards);
+            } else {
                 caller.sendCode(INVALID_FRIEND_CARDS);
             }
+        } catch(NullPointerException | ClassCastException | InvalidCardException e) {
+            caller.sendCode(INVALID_FRIEND_CARDS);
         }
     }
 
-    private static void sendFriendCardsToPlayers(ServerGameState gameState) {
+    private void friendCardsTimedOut() {
+        setFriendCards(AutoPlayer.chooseFriendCards(gameState));
+    }
+
+    private void setFriendCards(CardList<ShengJiCard> friendCards) {
+        deadline.cancel();
+        gameState.friendCards.clear();
+        gameState.friendCards.addAll(friendCards);
+        metrics.recordSince(TimedPhase.FRIEND_CARDS, phaseStartedAt);
+        gameState.caller.sendCode(SUCCESSFUL_FRIEND_CARDS);
+        friendCardsEstablished();
+    }
+
+    private void friendCardsEstablished() {
         gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_FRIEND_CARDS)
                 .put("cardnums", gameState.friendCards.toCardNumList()));
+
+        phase = Phase.PLAYING;
+        gameState.turnPlayer = gameState.caller;
+        startTrick();
+    }
+
+    private void startTrick() {
+        trick = new TrickRunner(gameState, metrics, deadline, deadlines.turnMillis, this::trickEnded);
+        trick.start();
+    }
+
+    private void trickEnded() {
+        if(gameState.players.stream().allMatch(p -> p.hand.size() > 0)) {
+            startTrick();
+        } else {
+            trick = null;
+            gameState.players.sendPacketToAll(updateRanksAndGetRoundEndPacket());
+            finish();
+        }
     }
 
-    private static ServerPacket updateRanksAndGetRoundEndPacket(ServerGameState gameState) {
+    private ServerPacket updateRanksAndGetRoundEndPacket() {
         if(gameState.leadingPlayer == null || gameState.leadingPlayer.play == null) {
             throw new FatalRoundException("THIS IS BAD: updateRanksAndGetRoundEndPacket(), gameState.leadingPlayer == null || gameState.leadingPlayer.play == null");
         }
@@ -259,297 +542,4 @@ public class RoundRunner {
                 .put("totalcollectedpoints", totalCollectedPoints)
                 .put("rankincrease", rankIncrease);
     }
-
-    // The code for establishCaller and establishKittyCaller have essentially the exact same structure, but with the
-    // minor differences, I don't think it's worth it to try to reduce code duplication here
-    private static void establishCaller(ServerGameState gameState) {
-        // GAAAHHHHHHH THIS IS TERRIBLE REEEEEEEEEEEEEEEEEEEEEEE
-        // Basically, what playRound() sets as onDisconnectAction for each player breaks calling code.
-        // It's supposed to interrupt the packet waiting of every player if anybody disconnects.
-        // In this code, however, that causes packet waiting to be interrupted before playerDisconnected is set,
-        // which means the catch block for InterruptedException doesn't think a player is disconnected,
-        // and it goes back to waiting.
-        // At the end of this method, every player's onDisconnectAction is once again set to interrupt the
-        // packet waiting of all players.
-        gameState.players.forEach(Player::resetOnDisconnect);
-
-        final Object threadExitNotifierObject = new Object();
-        AtomicBoolean playerDisconnected = new AtomicBoolean(false);
-        AtomicInteger numFinishedThreads = new AtomicInteger(0);
-        int numPlayers = gameState.players.size();
-
-        final Object callLock = new Object();
-        AtomicReference<Player> leadingPlayer = new AtomicReference<>(null);
-        AtomicReference<ShengJiCard> leadingCallCard = new AtomicReference<>(null);
-        AtomicInteger leadingCallOrder = new AtomicInteger(0);
-
-        // Assigning threads:
-        Thread[] threads = new Thread[numPlayers];
-        for(int i = 0; i < numPlayers; i++) {
-            Player p = gameState.players.get(i);
-            threads[i] = new Thread(() -> {
-                while(true) {
-                    try {
-                        ClientPacket callPacket = p.waitForPacket();
-                        if(callPacket.networkCode == ClientCode.NO_CALL) {
-                            if(leadingPlayer.get() != p) {
-                                // A player cannot take back their call if their call is currently leading
-                                p.sendCode(NO_CALL);
-                                synchronized(threadExitNotifierObject) {
-                                    gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_NO_CALL_PLAYER)
-                                            .put("player", p.getPlayerNum()));
-                                    numFinishedThreads.incrementAndGet();
-                                    threadExitNotifierObject.notify();
-                                }
-                                return;
-                            } else {
-                                continue;
-                            }
-                        } else if(callPacket.networkCode != ClientCode.CALL) {
-                            continue;
-                        }
-
-                        ShengJiCard callCard = new ShengJiCard(Objects.requireNonNull((Integer)callPacket.get("card")), gameState);
-                        int callOrder = (Integer)callPacket.get("order");
-                        synchronized(callLock) {
-                            if(!gameState.isLegalCall(p, callCard, callOrder)) {
-                                p.sendCode(INVALID_CALL);
-                            } else if(callOrder <= leadingCallOrder.get()) {
-                                p.sendCode(UNSUCCESSFUL_CALL);
-                            } else {
-                                leadingCallCard.set(callCard);
-                                leadingCallOrder.set(callOrder);
-                                leadingPlayer.set(p);
-                                p.sendPacket(new ServerPacket(SUCCESSFUL_CALL)
-                                        .put("cardnum", callCard.getCardNum())
-                                        .put("order", callOrder));
-
-                                gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_NEW_LEADING_CALL)
-                                        .put("playernum", p.getPlayerNum())
-                                        .put("cardnum", leadingCallCard.get().getCardNum())
-                                        .put("order", leadingCallOrder.get()));
-                                synchronized(threadExitNotifierObject) {
-                                    // We must notify the main thread so that it checks to see if p is the only player
-                                    // who hasn't send a NO_CALL packet.
-                                    threadExitNotifierObject.notify();
-                                }
-                            }
-                        }
-                    } catch(InterruptedException e) {
-                        synchronized(threadExitNotifierObject) {
-                            if(playerDisconnected.get()
-                                    || (numFinishedThreads.get() == numPlayers - 1 && leadingPlayer.get() == p)) {
-                                numFinishedThreads.incrementAndGet();
-                                threadExitNotifierObject.notify();
-                            }
-                        }
-                        return;
-                    } catch(ClassCastException | NullPointerException e) {
-                        p.sendCode(INVALID_CALL);
-                    } catch(PlayerDisconnectedException e) {
-                        synchronized(threadExitNotifierObject) {
-                            playerDisconnected.set(true);
-                            numFinishedThreads.incrementAndGet();
-                            threadExitNotifierObject.notify();
-                        }
-                        return;
-                    }
-                }
-            });
-        }
-
-        // Starting threads:
-        gameState.players.sendPacketToAll(new ServerPacket(MAKE_CALL));
-        for(Thread t : threads) {
-            t.start();
-        }
-
-        // Waiting for threads to finish (and interrupting them when appropriate):
-        boolean alreadyInterrupted = false;
-        while(true) {
-            synchronized(threadExitNotifierObject) {
-                if(playerDisconnected.get() && !alreadyInterrupted) {
-                    gameState.players.forEach(Player::interruptPacketWaiting);
-                    alreadyInterrupted = true;
-                } else if(numFinishedThreads.get() == numPlayers - 1 && leadingPlayer.get() != null) {
-                    leadingPlayer.get().interruptPacketWaiting();
-                }
-
-                if(numFinishedThreads.get() == numPlayers) {
-                    break;
-                }
-
-                try {
-                    threadExitNotifierObject.wait();
-                } catch(InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // Clear any interrupts left in the packet queues
-        gameState.players.forEach(Player::clearPacketQueue);
-
-        // Bail to lobby if a player disconnected
-        if(playerDisconnected.get()) {
-            throw new MultiplePlayersDisconnectedException((PlayerList)gameState.players.stream()
-                    .filter(p -> !p.socketIsConnected())
-                    .collect(Collectors.toCollection(PlayerList::new)));
-        }
-
-        // Send call winner to all players (or, if no one called, draw a card from the kitty and start the calling process again)
-        if(leadingPlayer.get() != null) {
-            gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_CALL_WINNER)
-                    .put("playernum", leadingPlayer.get().getPlayerNum())
-                    .put("callcardnum", leadingCallCard.get().getCardNum())
-                    .put("callorder", leadingCallOrder.get()));
-            gameState.caller = leadingPlayer.get();
-            gameState.trumpRank = leadingCallCard.get().getRank();
-            gameState.trumpSuit = leadingCallCard.get().getSuit();
-        } else {
-            gameState.players.sendPacketToAll(new ServerPacket(NO_ONE_CALLED));
-            establishKittyCaller(gameState, 0);
-        }
-
-        gameState.players.forEach(p -> p.setOnDisconnect(() -> {
-            gameState.players.forEach(Player::interruptPacketWaiting);
-        }));
-    }
-
-    // THIS METHOD IS RECURSIVE, DEAR GOD I'M SO SORRY
-    // Each iteration of the method pulls a new card from the kitty and sends it to all players.
-    // If no one chooses to call on that card, a new card is pulled.
-    // If all cards in the kitty are pulled, it sets gameState.caller to null which will trigger a redeal.
-    private static void establishKittyCaller(ServerGameState gameState, final int kittyPullIdx) {
-        if(kittyPullIdx >= gameState.kitty.size()) {
-            gameState.caller = null;
-            gameState.players.sendCodeToAll(KITTY_EXHAUSTED_REDEAL);
-            return;
-        }
-
-        ShengJiCard kittyCard = gameState.kitty.get(kittyPullIdx);
-        gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_KITTY_CARD).put("cardnum", kittyCard.getCardNum()));
-
-        final Object threadExitNotifierObject = new Object();
-        AtomicBoolean playerDisconnected = new AtomicBoolean(false);
-        AtomicInteger numFinishedThreads = new AtomicInteger(0);
-        int numPlayers = gameState.players.size();
-
-        final Object callLock = new Object();
-        AtomicReference<Player> winningPlayer = new AtomicReference<>(null);
-
-        // Assigning threads:
-        Thread[] threads = new Thread[numPlayers];
-        for(int i = 0; i < numPlayers; i++) {
-            Player p = gameState.players.get(i);
-            threads[i] = new Thread(() -> {
-                while(true) {
-                    try {
-                        ClientPacket callPacket = p.waitForPacket();
-                        if(callPacket.networkCode == ClientCode.NO_KITTY_CALL) {
-                            p.sendCode(NO_KITTY_CALL);
-                            synchronized(threadExitNotifierObject) {
-                                gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_NO_CALL_PLAYER)
-                                        .put("player", p.getPlayerNum()));
-                                numFinishedThreads.incrementAndGet();
-                                threadExitNotifierObject.notify();
-                            }
-                            return;
-                        } else if(callPacket.networkCode != ClientCode.KITTY_CALL) {
-                            continue;
-                        }
-
-                        synchronized(callLock) {
-                            if(winningPlayer.get() != null) {
-                                p.sendPacket(new ServerPacket(UNSUCCESSFUL_KITTY_CALL)
-                                        .put("message", "Someone already called (are you lagging?)"));
-                            } else if(gameState.kitty.stream().limit(kittyPullIdx + 1).allMatch(Card::isJoker)) {
-                                p.sendPacket(new ServerPacket(UNSUCCESSFUL_KITTY_CALL)
-                                        .put("message", "No valid card has been pulled from kitty"));
-                            } else {
-                                p.sendCode(SUCCESSFUL_KITTY_CALL);
-                                winningPlayer.set(p);
-
-                                // The first person to make a call the kitty card wins, so we can return here
-                                synchronized(threadExitNotifierObject) {
-                                    numFinishedThreads.incrementAndGet();
-                                    threadExitNotifierObject.notify();
-                                }
-                                return;
-                            }
-                        }
-                    } catch(InterruptedException e) {
-                        if(playerDisconnected.get() || winningPlayer.get() != null) {
-                            synchronized(threadExitNotifierObject) {
-                                numFinishedThreads.incrementAndGet();
-                                threadExitNotifierObject.notify();
-                            }
-                            return;
-                        }
-                    } catch(ClassCastException | NullPointerException e) {
-                        p.sendCode(INVALID_KITTY_CALL);
-                    } catch(PlayerDisconnectedException e) {
-                        synchronized(threadExitNotifierObject) {
-                            playerDisconnected.set(true);
-                            numFinishedThreads.incrementAndGet();
-                            threadExitNotifierObject.notify();
-                        }
-                        return;
-                    }
-                }
-            });
-        }
-
-        // Starting threads:
-        gameState.players.sendCodeToAll(MAKE_KITTY_CALL);
-        for(Thread t : threads) {
-            t.start();
-        }
-
-        // Waiting for threads to finish (and interrupting them when appropriate):
-        boolean alreadyInterrupted = false;
-        while(true) {
-            synchronized(threadExitNotifierObject) {
-                if((playerDisconnected.get() || winningPlayer.get() != null) && !alreadyInterrupted) {
-                    gameState.players.forEach(Player::interruptPacketWaiting);
-                    alreadyInterrupted = true;
-                }
-                if(numFinishedThreads.get() == numPlayers) {
-                    break;
-                }
-
-                try {
-                    threadExitNotifierObject.wait();
-                } catch(InterruptedException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // Clear any interrupts left in the packet queues
-        gameState.players.forEach(Player::clearPacketQueue);
-
-        // Bail to lobby if a player disconnected
-        if(playerDisconnected.get()) {
-            throw new MultiplePlayersDisconnectedException((PlayerList)gameState.players.stream()
-                    .filter(p -> !p.socketIsConnected())
-                    .collect(Collectors.toCollection(PlayerList::new)));
-        }
-
-        if(winningPlayer.get() != null) {
-            var effectiveKittyCard = gameState.kitty.stream()
-                    .limit(kittyPullIdx + 1)
-                    .filter(c -> !c.isJoker())
-                    .reduce((a, b) -> b);
-            gameState.trumpRank = winningPlayer.get().getCallRank();
-            gameState.trumpSuit = effectiveKittyCard.isPresent() ? effectiveKittyCard.get().getSuit() : Suit.JOKER;
-            gameState.players.sendPacketToAll(new ServerPacket(WAIT_FOR_KITTY_CALL_WINNER)
-                    .put("playernum", winningPlayer.get().getPlayerNum())
-                    .put("trumprank", gameState.trumpRank)
-                    .put("trumpsuit", gameState.trumpSuit));
-            gameState.caller = winningPlayer.get();
-        } else {
-            establishKittyCaller(gameState, kittyPullIdx + 1);
-        }
-    }
 }
@@ -0,0 +1,10 @@
+package com.sage.shengji.server.game;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Runs a task for a round after a delay, in the same way the round's packets are handled: one at a time with everything
+// else at the table, and not at all if the round has ended by then.
+public interface RoundScheduler {
+    ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit);
+}
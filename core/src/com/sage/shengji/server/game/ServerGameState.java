@@ -2,12 +2,20 @@ package com.sage.shengji.server.game;
 
 import com.sage.shengji.utils.card.CardList;
 import com.sage.shengji.utils.shengji.ShengJiCard;
+import com.sage.shengji.utils.shengji.ShengJiCardTable;
 import com.sage.shengji.utils.shengji.ShengJiGameState;
+import com.sage.shengji.utils.shengji.Team;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
 
 public class ServerGameState extends ShengJiGameState {
     public static final int MAX_PLAYERS = 8;
+    static final int MAX_DECKS = MAX_PLAYERS / 2;
 
     private boolean roundRunning = false;
 
@@ -21,6 +29,9 @@ public class ServerGameState extends ShengJiGameState {
     int numPointsNeeded = 0;
     int numFriendCards = 0;
 
+    // Every card dealt or read from a packet is one of these shared instances
+    final ShengJiCardTable cardTable = new ShengJiCardTable(this, MAX_DECKS);
+
     final CardList<ShengJiCard> kitty = new CardList<>();
     final CardList<ShengJiCard> friendCards = new CardList<>();
     final CardList<ShengJiCard> collectedPointCards = new CardList<>();
@@ -32,8 +43,32 @@ public class ServerGameState extends ShengJiGameState {
     final CardList<ShengJiCard> pointCardsInTrick = new CardList<>();
     Play basePlay = null;
 
+    // The teams as of the last TURN_OVER, which delta sync clients are sent changes against. Every delta sync client
+    // receives the same broadcasts over an ordered connection, so one baseline serves them all.
+    final Map<Integer, Team> lastSentTeams = new HashMap<>();
+
     int tricksPlayed = 0;
     int roundsPlayed = 0;
+    int kittyRedraws = 0; // Kitties drawn again because they were all jokers, over every round
+
+    // Every deal gets its own seed from this generator. dealSeed is the seed of the latest deal, which Deck turns back
+    // into exactly the same kitty and hands for the same player order.
+    private final SplittableRandom dealSeeds;
+    long dealSeed = 0;
+    private Long replaySeed = null; // Set by replayDeal() for the next deal only
+
+    public ServerGameState() {
+        this(new SplittableRandom());
+    }
+
+    // Tables made with the same seed deal the same sequence of rounds
+    public ServerGameState(long seed) {
+        this(new SplittableRandom(seed));
+    }
+
+    private ServerGameState(SplittableRandom dealSeeds) {
+        this.dealSeeds = dealSeeds;
+    }
 
     public synchronized void addPlayer(Player p) throws RoundIsRunningException {
         if(roundRunning) {
@@ -87,15 +122,83 @@ public class ServerGameState extends ShengJiGameState {
         return roundRunning;
     }
 
-    boolean isLegalCall(Player p, ShengJiCard call, int order) {
-        return p.hand.stream().filter(c -> c.getCardNum() == call.getCardNum()).count() >= order
-                && call.getRank() == p.getCallRank();
+    synchronized long nextDealSeed() {
+        if(replaySeed != null) {
+            long seed = replaySeed;
+            replaySeed = null;
+            return seed;
+        }
+        return dealSeeds.nextLong();
     }
 
-    boolean isLegalKitty(Player p, CardList<ShengJiCard> newKitty) {
-        return newKitty.stream()
-                .distinct()
-                .allMatch(c -> Collections.frequency(p.hand.toCardNumList(), c.getCardNum()) >= Collections.frequency(newKitty.toCardNumList(), c.getCardNum()));
+    // Seats the players in playerOrder (player nums, first seat first) and has the next round dealt from seed, so it
+    // gets exactly the kitty and hands of the round which was dealt from that seed in that order. Throws an
+    // IllegalArgumentException if playerOrder isn't an ordering of the seated players.
+    public synchronized void replayDeal(long seed, int[] playerOrder) throws RoundIsRunningException {
+        if(roundRunning) {
+            throw new RoundIsRunningException();
+        }
+        if(playerOrder.length != players.size()) {
+            throw new IllegalArgumentException("The order must have every seated player in it");
+        }
+        PlayerList reordered = new PlayerList();
+        for(int playerNum : playerOrder) {
+            Player player = players.stream()
+                    .filter(p -> p.getPlayerNum() == playerNum)
+                    .findFirst()
+                    .orElseThrow(() -> new IllegalArgumentException("No player " + playerNum + " is seated"));
+            if(reordered.contains(player)) {
+                throw new IllegalArgumentException("Player " + playerNum + " is in the order twice");
+            }
+            reordered.add(player);
+        }
+        players.clear();
+        players.addAll(reordered);
+        replaySeed = seed;
+    }
+
+    // Deals the round from seed to the players in their current order: the kitty first, then every hand. numDecks must
+    // already be set and the hands must be empty.
+    void deal(long seed) {
+        dealSeed = seed;
+        Deck deck = new Deck(numDecks, true, cardTable, seed);
+        kitty.clear();
+        kitty.addAll(deck.drawKitty(kittySizeFor(deck.size(), players.size())));
+        kittyRedraws += deck.getNumKittyRedraws();
+        deck.dealToPlayers(players);
+    }
+
+    // The cards a round dealt from seed to numPlayers players got, as card nums: the kitty first, then the hand of each
+    // seat in order. This is the same deal deal() makes, without needing a table to make it at.
+    public static List<List<Integer>> redeal(long seed, int numPlayers) {
+        Deck deck = new Deck(numDecksFor(numPlayers), true, new ServerGameState().cardTable, seed);
+        List<List<Integer>> cards = new ArrayList<>();
+        cards.add(deck.drawKitty(kittySizeFor(deck.size(), numPlayers)).toCardNumList());
+        deck.dealHands(numPlayers).forEach(hand -> cards.add(hand.toCardNumList()));
+        return cards;
+    }
+
+    static int numDecksFor(int numPlayers) {
+        return Math.max(numPlayers / 2, 1);
+    }
+
+    // What's left over once every player has as many cards as the others, or one card per player if that leaves none
+    private static int kittySizeFor(int deckSize, int numPlayers) {
+        int kittySize = deckSize % numPlayers;
+        return (kittySize == 0) ? numPlayers : kittySize;
+    }
+
+    public synchronized long getDealSeed() {
+        return dealSeed;
+    }
+
+    public synchronized int getKittyRedraws() {
+        return kittyRedraws;
+    }
+
+    boolean isLegalCall(Player p, ShengJiCard call, int order) {
+        return p.hand.count(call.getCardNum()) >= order
+                && call.getRank() == p.getCallRank();
     }
 
     boolean areLegalFriendCards(CardList<ShengJiCard> friendCards) {
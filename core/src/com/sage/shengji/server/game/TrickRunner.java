@@ -1,13 +1,15 @@
 package com.sage.shengji.server.game;
 
-import com.badlogic.gdx.Gdx;
 import com.sage.shengji.client.network.ClientCode;
 import com.sage.shengji.client.network.ClientPacket;
-import com.sage.shengji.server.network.MultiplePlayersDisconnectedException;
-import com.sage.shengji.server.network.PlayerDisconnectedException;
+import com.sage.shengji.server.metrics.TableMetrics;
+import com.sage.shengji.server.metrics.TimedPhase;
 import com.sage.shengji.server.network.ServerCode;
 import com.sage.shengji.server.network.ServerPacket;
 import com.sage.shengji.utils.card.CardList;
+import com.sage.shengji.utils.card.InvalidCardException;
+import com.sage.shengji.utils.log.Log;
+import com.sage.shengji.utils.shengji.PlayLegalityResult;
 import com.sage.shengji.utils.shengji.ShengJiCard;
 import com.sage.shengji.utils.shengji.Team;
 
@@ -16,19 +18,83 @@ import java.util.List;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
+// Plays out a single trick. Like RoundRunner, this only reacts to packets: start() asks the first player for a play,
+// and each valid PLAY passed to handlePacket() moves the turn on until every player has played. A player who runs out
+// of time has a play made for them. Once the trick is over, onTrickEnded is run.
 class TrickRunner {
-    static void playTrick(ServerGameState gameState) {
+    private final ServerGameState gameState;
+    private final TableMetrics metrics;
+    private final DeadlineTimer deadline;
+    private final long turnMillis;
+    private final Runnable onTrickEnded;
+
+    // From System.nanoTime()
+    private long trickStartedAt = 0;
+    private long turnStartedAt = 0;
+
+    TrickRunner(ServerGameState gameState, TableMetrics metrics, DeadlineTimer deadline, long turnMillis,
+                Runnable onTrickEnded) {
+        this.gameState = gameState;
+        this.metrics = metrics;
+        this.deadline = deadline;
+        this.turnMillis = turnMillis;
+        this.onTrickEnded = onTrickEnded;
+    }
+
+    void start() {
+        trickStartedAt = System.nanoTime();
         resetGameStateForNewTrick(gameState);
         gameState.players.sendCodeToAll(ServerCode.TRICK_START);
+        startTurn();
+    }
+
+    void handlePacket(Player player, ClientPacket packet) {
+        if(player != gameState.turnPlayer || packet.networkCode != ClientCode.PLAY) {
+            return;
+        }
+
+        long validationStartedAt = System.nanoTime();
+        Play play = getValidPlay(packet);
+        metrics.recordSince(TimedPhase.VALIDATE_PLAY, validationStartedAt);
+        if(play != null) {
+            playMade(play);
+        }
+    }
+
+    private void turnTimedOut() {
+        Play play = new Play(AutoPlayer.choosePlay(gameState), gameState);
+        if(!play.isLegal()) {
+            throw new FatalRoundException("THIS IS BAD: in turnTimedOut(), the chosen play is illegal");
+        }
+        playMade(play);
+    }
+
+    private void playMade(Play play) {
+        deadline.cancel();
+        metrics.recordSince(TimedPhase.TURN, turnStartedAt);
 
-        do {
-            sendTurnPlayer(gameState);
-            setTurnPlayerPlay(gameState, getValidPlayFromTurnPlayer(gameState));
-            sendTurnEndPacket(gameState, setTeamsAndInvalidateFriendCardsFromLastPlay(gameState));
-            gameState.turnPlayer = getNextPlayer(gameState, gameState.turnPlayer);
-        } while(gameState.turnPlayer != gameState.startingPlayer);
+        setTurnPlayerPlay(gameState, play);
+        long broadcastStartedAt = System.nanoTime();
+        sendTurnEndPacket(gameState, setTeamsAndInvalidateFriendCardsFromLastPlay(gameState));
+        metrics.recordSince(TimedPhase.BROADCAST_TURN_OVER, broadcastStartedAt);
+        gameState.turnPlayer = getNextPlayer(gameState, gameState.turnPlayer);
+        if(gameState.turnPlayer != gameState.startingPlayer) {
+            startTurn();
+            return;
+        }
 
+        endTrick();
+        onTrickEnded.run();
+    }
 
+    private void startTurn() {
+        sendTurnPlayer(gameState);
+        gameState.turnPlayer.sendPacket(new ServerPacket(ServerCode.MAKE_PLAY));
+        turnStartedAt = System.nanoTime();
+        deadline.start(gameState.turnPlayer, turnMillis, this::turnTimedOut);
+    }
+
+    private void endTrick() {
         if(gameState.leadingPlayer.getTeam() == Team.COLLECTORS) {
             gameState.collectedPointCards.addAll(gameState.pointCardsInTrick);
         } else if(gameState.leadingPlayer.getTeam() == Team.NO_TEAM) {
@@ -38,7 +104,50 @@ class TrickRunner {
         ServerPacket trickEndPacket = new ServerPacket(ServerCode.TRICK_END)
                 .put("winner", gameState.leadingPlayer.getPlayerNum())
                 .put("pointcards", gameState.leadingPlayer.pointCards.toCardNumList());
-        gameState.players.sendPacketToAll(trickEndPacket);
+        ServerPacket trickEndDeltaPacket = new ServerPacket(ServerCode.TRICK_END)
+                .put("winner", gameState.leadingPlayer.getPlayerNum())
+                .put("pointcardsdelta", gameState.pointCardsInTrick.toCardNumList());
+        gameState.players.sendPacketToAll(p -> p.usesDeltaSync() ? trickEndDeltaPacket : trickEndPacket);
+        metrics.recordSince(TimedPhase.TRICK, trickStartedAt);
+    }
+
+    // Returns null and tells the turn player why if their packet doesn't hold a valid play
+    private Play getValidPlay(ClientPacket packet) {
+        Play play;
+        try {
+            List<Integer> playCardNums = Objects.requireNonNull((List<Integer>)packet.get("play"));
+            CardList<ShengJiCard> playCards = gameState.cardTable.fromCardNumList(playCardNums);
+            CardList<ShengJiCard> heldCards = gameState.turnPlayer.hand.heldInstancesOf(playCards);
+            // A play the player can't make from their hand is still judged, so they're told why it's illegal
+            play = new Play((heldCards != null) ? heldCards : playCards, gameState);
+        } catch(NullPointerException e) {
+            gameState.turnPlayer.sendPacket(new ServerPacket(ServerCode.INVALID_PLAY)
+                    .put("message", "Server encountered NullPointerException (THIS IS BAD)"));
+            Log.error("TrickRunner", "Could not read play", e);
+            return null;
+        } catch(ClassCastException e) {
+            gameState.turnPlayer.sendPacket(new ServerPacket(ServerCode.INVALID_PLAY)
+                    .put("message", "Server encountered ClassCastException (THIS IS BAD)"));
+            Log.error("TrickRunner", "Could not read play", e);
+            return null;
+        } catch(InvalidCardException e) {
+            gameState.turnPlayer.sendPacket(new ServerPacket(ServerCode.INVALID_PLAY)
+                    .put("message", "Play contains an invalid card"));
+            return null;
+        }
+
+        PlayLegalityResult validityResult = play.getPlayLegalityResult();
+        if(validityResult.isValid) {
+            var successfulPlayServerPacket = new ServerPacket(ServerCode.SUCCESSFUL_PLAY)
+                    .put("message", validityResult.message);
+            gameState.turnPlayer.sendPacket(successfulPlayServerPacket);
+            return play;
+        } else {
+            var invalidPlayServerPacket = new ServerPacket(ServerCode.INVALID_PLAY)
+                    .put("message", validityResult.message);
+            gameState.turnPlayer.sendPacket(invalidPlayServerPacket);
+            return null;
+        }
     }
 
     private static void resetGameStateForNewTrick(ServerGameState gameState) {
@@ -47,7 +156,7 @@ class TrickRunner {
         } else if(gameState.turnPlayer == null) {
             // gameState.turnPlayer shouldn't be null, but just in case
             gameState.turnPlayer = gameState.caller;
-            Gdx.app.debug("playTrick()", "WARNING: gameState.turnPlayer == null. This shouldn't have " +
+            Log.debug("TrickRunner", "WARNING: gameState.turnPlayer == null. This shouldn't have " +
                     "happened. Continuing with gameState.turnPlayer = gameState.caller.");
         }
         gameState.startingPlayer = gameState.turnPlayer;
@@ -64,19 +173,41 @@ class TrickRunner {
         return (nextIdx == gameState.players.size()) ? gameState.players.get(0) : gameState.players.get(nextIdx);
     }
 
+    // Delta sync clients get only the teams which changed since the last TURN_OVER. The point cards captured by the play
+    // are implied by "play" itself, and the invalidated friend cards are already just this turn's.
     private static void sendTurnEndPacket(ServerGameState gameState, CardList<ShengJiCard> invalidatedFriendCards) {
-        ServerPacket turnOverPacket = new ServerPacket(ServerCode.TURN_OVER)
+        HashMap<Integer, Team> teamsMap = new HashMap<>();
+        HashMap<Integer, Team> teamsDelta = new HashMap<>();
+        for(Player p : gameState.players) {
+            int playerNum = p.getPlayerNum();
+            Team team = p.getTeam();
+            teamsMap.put(playerNum, team);
+            if(gameState.lastSentTeams.put(playerNum, team) != team) {
+                teamsDelta.put(playerNum, team);
+            }
+        }
+
+        ServerPacket turnOverDeltaPacket = new ServerPacket(ServerCode.TURN_OVER)
+                .put("player", gameState.turnPlayer.getPlayerNum())
+                .put("play", gameState.turnPlayer.play.toCardNumList())
+                .put("leadingplayer", gameState.leadingPlayer.getPlayerNum())
+                .put("invalidatedfriendcards", invalidatedFriendCards.toCardNumList())
+                .put("teamsdelta", teamsDelta);
+
+        // The full packet is only built if some client still needs it
+        ServerPacket turnOverPacket = gameState.players.stream().allMatch(Player::usesDeltaSync)
+                ? turnOverDeltaPacket
+                : new ServerPacket(ServerCode.TURN_OVER)
                 .put("player", gameState.turnPlayer.getPlayerNum())
                 .put("play", gameState.turnPlayer.play.toCardNumList())
                 .put("leadingplayer", gameState.leadingPlayer.getPlayerNum())
                 .put("invalidatedfriendcards", invalidatedFriendCards.toCardNumList())
-                .put("teamsmap", gameState.players.stream()
-                        .collect(Collectors.toMap(Player::getPlayerNum, Player::getTeam, (a, b) -> b, HashMap::new)))
+                .put("teamsmap", teamsMap)
                 .put("pointcardsmap", gameState.players.stream()
                         .collect(Collectors.toMap(Player::getPlayerNum, p -> p.pointCards.toCardNumList(), (a, b) -> b, HashMap::new)))
                 .put("collectedpointcards", gameState.collectedPointCards.toCardNumList());
 
-        gameState.players.sendPacketToAll(turnOverPacket);
+        gameState.players.sendPacketToAll(p -> p.usesDeltaSync() ? turnOverDeltaPacket : turnOverPacket);
     }
 
     private static void sendTurnPlayer(ServerGameState gameState) {
@@ -87,10 +218,12 @@ class TrickRunner {
 
     private static void setTurnPlayerPlay(ServerGameState gameState, Play play) {
         gameState.turnPlayer.play = play;
-        gameState.turnPlayer.hand.removeAllByValue(play);
-        gameState.pointCardsInTrick.addAll(play.stream()
-                .filter(ShengJiCard::isPointCard)
-                .collect(Collectors.toCollection(CardList::new)));
+        gameState.turnPlayer.hand.removeAll(play);
+        for(ShengJiCard c : play) {
+            if(c.isPointCard()) {
+                gameState.pointCardsInTrick.add(c);
+            }
+        }
         if(gameState.basePlay == null) {
             gameState.basePlay = play;
             gameState.leadingPlayer = gameState.turnPlayer;
@@ -122,46 +255,4 @@ class TrickRunner {
 
         return invalidatedFriendCards;
     }
-
-    private static Play getValidPlayFromTurnPlayer(ServerGameState gameState) {
-        Play play;
-        gameState.turnPlayer.sendPacket(new ServerPacket(ServerCode.MAKE_PLAY));
-        while(true) {
-            try {
-                ClientPacket packet = gameState.turnPlayer.waitForPacket();
-                if(packet.networkCode != ClientCode.PLAY) {
-                    continue;
-                }
-                List<Integer> playCardNums = Objects.requireNonNull((List<Integer>)packet.get("play"));
-                CardList<ShengJiCard> playCards =
-                                CardList.fromCardNumList(playCardNums, cardNum -> new ShengJiCard(cardNum, gameState));
-                play = new Play(playCards, gameState);
-            } catch(InterruptedException e) {
-                RoundRunner.throwExceptionIfPlayerDisconnectDetected(gameState);
-                continue;
-            } catch(NullPointerException e) {
-                gameState.turnPlayer.sendPacket(new ServerPacket(ServerCode.INVALID_PLAY)
-                        .put("message", "Server encountered NullPointerException (THIS IS BAD)"));
-                e.printStackTrace();
-                continue;
-            } catch(ClassCastException e) {
-                gameState.turnPlayer.sendPacket(new ServerPacket(ServerCode.INVALID_PLAY)
-                        .put("message", "Server encountered ClassCastException (THIS IS BAD)"));
-                e.printStackTrace();
-                continue;
-            }
-
-            PlayLegalityResult validityResult = play.getPlayLegalityResult();
-            if(validityResult.isValid) {
-                var successfulPlayServerPacket = new ServerPacket(ServerCode.SUCCESSFUL_PLAY)
-                        .put("message", validityResult.message);
-                gameState.turnPlayer.sendPacket(successfulPlayServerPacket);
-                return play;
-            } else {
-                var invalidPlayServerPacket = new ServerPacket(ServerCode.INVALID_PLAY)
-                        .put("message", validityResult.message);
-                gameState.turnPlayer.sendPacket(invalidPlayServerPacket);
-            }
-        }
-    }
 }
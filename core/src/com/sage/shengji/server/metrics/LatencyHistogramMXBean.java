@@ -0,0 +1,15 @@
+package com.sage.shengji.server.metrics;
+
+public interface LatencyHistogramMXBean {
+    long getCount();
+
+    long getP50Micros();
+
+    long getP99Micros();
+
+    long getMaxMicros();
+
+    long getMeanMicros();
+
+    void reset();
+}
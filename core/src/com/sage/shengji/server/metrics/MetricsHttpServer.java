@@ -0,0 +1,58 @@
+package com.sage.shengji.server.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Supplier;
+
+// Serves a plain text metrics report at http://localhost:<port>/metrics. It only listens on the loopback interface, so
+// the report is visible to someone on the server's machine (or through an SSH tunnel) but not to players.
+public class MetricsHttpServer {
+    private final HttpServer httpServer;
+    private final Supplier<String> report;
+
+    // Throws an UncheckedIOException if the port couldn't be bound
+    public MetricsHttpServer(int port, Supplier<String> report) throws UncheckedIOException {
+        this.report = report;
+        try {
+            httpServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        } catch(IOException e) {
+            throw new UncheckedIOException("Could not bind metrics port " + port, e);
+        }
+        httpServer.createContext("/metrics", this::handle);
+    }
+
+    public void start() {
+        // With no executor set, requests are handled on the HTTP server's own dispatcher thread, which is plenty here
+        httpServer.start();
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+    }
+
+    public int getPort() {
+        return httpServer.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try(exchange) {
+            if(!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = report.get().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try(OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+}
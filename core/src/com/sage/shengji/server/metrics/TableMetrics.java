@@ -0,0 +1,124 @@
+package com.sage.shengji.server.metrics;
+
+import com.sage.shengji.utils.log.Log;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One LatencyHistogram for each TimedPhase of a single table. Each histogram can be registered with the platform MBean
+// server as com.sage.shengji:type=PhaseLatency,table=<id>,phase=<phase>, which makes it visible in JConsole and
+// VisualVM without attaching a profiler.
+//
+// Alongside the histograms, the table counts the rounds which a dropped connection paused: those which went on to finish
+// once everyone was back, and those which were abandoned because someone didn't make it back in time.
+public class TableMetrics {
+    public final int tableId;
+
+    private final Map<TimedPhase, LatencyHistogram> histograms = new EnumMap<>(TimedPhase.class);
+    private final List<ObjectName> registeredNames = new ArrayList<>();
+    private final AtomicLong roundsSaved = new AtomicLong();
+    private final AtomicLong roundsLostToDisconnects = new AtomicLong();
+
+    public TableMetrics(int tableId) {
+        this.tableId = tableId;
+        for(TimedPhase phase : TimedPhase.values()) {
+            histograms.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public LatencyHistogram get(TimedPhase phase) {
+        return histograms.get(phase);
+    }
+
+    public void record(TimedPhase phase, long nanos) {
+        histograms.get(phase).record(nanos);
+    }
+
+    public void recordSince(TimedPhase phase, long startNanos) {
+        histograms.get(phase).recordSince(startNanos);
+    }
+
+    public void recordRoundSaved() {
+        roundsSaved.incrementAndGet();
+    }
+
+    public void recordRoundLostToDisconnect() {
+        roundsLostToDisconnects.incrementAndGet();
+    }
+
+    public long getRoundsSaved() {
+        return roundsSaved.get();
+    }
+
+    public long getRoundsLostToDisconnects() {
+        return roundsLostToDisconnects.get();
+    }
+
+    public void reset() {
+        histograms.values().forEach(LatencyHistogram::reset);
+        roundsSaved.set(0);
+        roundsLostToDisconnects.set(0);
+    }
+
+    // Registration failures are logged rather than thrown, since metrics should never stop a table from running
+    public synchronized void registerMBeans() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        histograms.forEach((phase, histogram) -> {
+            try {
+                ObjectName name = new ObjectName("com.sage.shengji:type=PhaseLatency,table=" + tableId
+                        + ",phase=" + phase);
+                if(mBeanServer.isRegistered(name)) {
+                    // Left over from an earlier server in this JVM
+                    mBeanServer.unregisterMBean(name);
+                }
+                mBeanServer.registerMBean(histogram, name);
+                registeredNames.add(name);
+            } catch(JMException e) {
+                Log.error("Table " + tableId, "Could not register metrics for " + phase, e);
+            }
+        });
+    }
+
+    public synchronized void unregisterMBeans() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for(ObjectName name : registeredNames) {
+            try {
+                mBeanServer.unregisterMBean(name);
+            } catch(JMException e) {
+                // Already gone
+            }
+        }
+        registeredNames.clear();
+    }
+
+    // Appends one line per phase which has any recordings, with durations in microseconds, and a line of round counts
+    // if any round has been paused
+    public void appendReport(StringBuilder sb) {
+        histograms.forEach((phase, histogram) -> {
+            if(histogram.getCount() == 0) {
+                return;
+            }
+            sb.append("table=").append(tableId)
+                    .append(" phase=").append(phase)
+                    .append(" count=").append(histogram.getCount())
+                    .append(" p50_us=").append(histogram.getP50Micros())
+                    .append(" p99_us=").append(histogram.getP99Micros())
+                    .append(" max_us=").append(histogram.getMaxMicros())
+                    .append(" mean_us=").append(histogram.getMeanMicros())
+                    .append('\n');
+        });
+        if(roundsSaved.get() != 0 || roundsLostToDisconnects.get() != 0) {
+            sb.append("table=").append(tableId)
+                    .append(" rounds_saved=").append(roundsSaved.get())
+                    .append(" rounds_lost_to_disconnects=").append(roundsLostToDisconnects.get())
+                    .append('\n');
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.sage.shengji.server.metrics;
+
+// The stages of a table's work which are timed into a LatencyHistogram
+public enum TimedPhase {
+    // Building the deck, dealing, and sending every player their hand
+    DEAL,
+
+    // From MAKE_CALL until a caller is established, including any kitty calling. A redeal starts the timing over.
+    CALLING,
+
+    // From the caller being sent the kitty until they send back a legal one
+    KITTY,
+
+    // From the caller being asked for friend cards until they send legal ones
+    FRIEND_CARDS,
+
+    // From a player being sent MAKE_PLAY until the table has a legal play from them
+    TURN,
+
+    // Reading and checking a single PLAY packet
+    VALIDATE_PLAY,
+
+    // Building and queueing TURN_OVER for every player
+    BROADCAST_TURN_OVER,
+
+    // From TRICK_START until TRICK_END has been queued for every player
+    TRICK,
+
+    // Encoding a packet for a single player and queueing it on their connection
+    SEND_PACKET,
+
+    // How long a task posted to the table waits before the table gets to it
+    TABLE_QUEUE_WAIT,
+
+    // How long a single task on the table runs
+    TABLE_TASK,
+
+    // From a player's connection dropping mid-round until they're back in their seat on a new one
+    RECONNECT,
+}
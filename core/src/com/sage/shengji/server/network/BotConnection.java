@@ -0,0 +1,143 @@
+package com.sage.shengji.server.network;
+
+import com.badlogic.gdx.utils.SerializationException;
+import com.sage.shengji.client.network.ClientPacket;
+import com.sage.shengji.utils.log.Log;
+import com.sage.shengji.utils.network.PacketCodec;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// The connection of a bot played by the server itself. There's no socket: frames sent to the bot are decoded and handed
+// to its receiver on the sending thread, and packets the bot sends are delivered to the listener just like frames read
+// from a client, so the rest of the server can't tell a bot from a player.
+//
+// A connection which takes packets skips the encoding both ways: packets sent to the bot are handed to it as they are,
+// and packets the bot sends are handed to the listener as they are. Only self-play uses it, since the bot then shares
+// the server's packets, and nothing checks that what it's sent would survive being encoded.
+public class BotConnection implements PlayerConnection {
+    private static final ServerCode[] CODES = ServerCode.values();
+
+    private final Receiver receiver;
+    private final boolean takesPackets;
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile Listener listener;
+    private volatile Receiver observer;
+
+    public BotConnection(Receiver receiver) {
+        this(receiver, false);
+    }
+
+    public BotConnection(Receiver receiver, boolean takesPackets) {
+        this.receiver = receiver;
+        this.takesPackets = takesPackets;
+    }
+
+    @Override
+    public boolean takesPackets() {
+        return takesPackets;
+    }
+
+    @Override
+    public void sendPacket(ServerPacket packet) throws PlayerConnectionClosedException {
+        if(closed.get()) {
+            throw new PlayerConnectionClosedException();
+        }
+        ServerCode code = packet.networkCode;
+        Receiver o = observer;
+        if(o != null && (code == null || o.wants(code))) {
+            o.packetReceived(packet);
+        }
+        if(code == null || receiver.wants(code)) {
+            receiver.packetReceived(packet);
+        }
+    }
+
+    @Override
+    public void sendFrame(OutboundFrame frame) throws PlayerConnectionClosedException {
+        if(closed.get()) {
+            throw new PlayerConnectionClosedException();
+        }
+        ByteBuffer buffer = frame.newBuffer();
+        byte[] payload = new byte[buffer.getInt()];
+        buffer.get(payload);
+        ServerCode code = PacketCodec.peekNetworkCode(payload, CODES);
+        Receiver o = observer;
+        boolean observed = o != null && (code == null || o.wants(code));
+        boolean received = code == null || receiver.wants(code);
+        if(!observed && !received) {
+            return;
+        }
+        try {
+            ServerPacket packet = ServerPacket.fromBytes(payload);
+            if(observed) {
+                o.packetReceived(packet);
+            }
+            if(received) {
+                receiver.packetReceived(packet);
+            }
+        } catch(SerializationException e) {
+            Log.error("BotConnection", "Could not read packet", e);
+        }
+    }
+
+    // Sends packet to the server as if it came from a client
+    public void sendPacket(ClientPacket packet) throws PlayerConnectionClosedException {
+        Listener l = listener;
+        if(closed.get() || l == null) {
+            throw new PlayerConnectionClosedException();
+        }
+        if(takesPackets) {
+            l.packetReceived(packet);
+        } else {
+            l.frameReceived(packet.toBytes());
+        }
+    }
+
+    // Also hands the packets sent to the bot which observer wants to observer, before the bot gets them. The packet is
+    // only decoded once, or not at all, so observer mustn't change it.
+    public void setObserver(Receiver observer) {
+        this.observer = observer;
+    }
+
+    @Override
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed.get();
+    }
+
+    @Override
+    public boolean isBot() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+        if(closed.compareAndSet(false, true)) {
+            Listener l = listener;
+            if(l != null) {
+                l.disconnected();
+            }
+        }
+    }
+
+    public interface Receiver {
+        // Called with every packet sent to the bot which it wants, in order
+        void packetReceived(ServerPacket packet);
+
+        // Packets with codes the receiver doesn't want are dropped without being decoded
+        default boolean wants(ServerCode code) {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.sage.shengji.server.network;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Send statistics for one connection. Send latency is the time from a frame being queued to its last byte being handed
+// to the socket, so it includes time spent waiting behind earlier frames. Sends are only recorded by the connection's
+// event loop, but frames are queued and collapsed from any thread, so the queue gauges are atomic.
+public class ConnectionMetrics {
+    private volatile long framesSent = 0;
+    private volatile long bytesSent = 0;
+    private volatile long writes = 0;
+    private volatile long totalSendLatencyNanos = 0;
+    private volatile long lastSendLatencyNanos = 0;
+    private volatile long maxSendLatencyNanos = 0;
+
+    private final AtomicInteger queueDepth = new AtomicInteger(0);
+    private final AtomicLong bytesInFlight = new AtomicLong(0);
+    private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+    private final AtomicLong framesCollapsed = new AtomicLong(0);
+
+    void recordSend(int numBytes, long latencyNanos) {
+        framesSent++;
+        bytesSent += numBytes;
+        totalSendLatencyNanos += latencyNanos;
+        lastSendLatencyNanos = latencyNanos;
+        if(latencyNanos > maxSendLatencyNanos) {
+            maxSendLatencyNanos = latencyNanos;
+        }
+    }
+
+    void recordWrite() {
+        writes++;
+    }
+
+    void frameQueued(int numBytes) {
+        maxQueueDepth.accumulateAndGet(queueDepth.incrementAndGet(), Math::max);
+        bytesInFlight.addAndGet(numBytes);
+    }
+
+    // Called once a frame has been written or discarded
+    void frameDequeued(int numBytes) {
+        queueDepth.decrementAndGet();
+        bytesInFlight.addAndGet(-numBytes);
+    }
+
+    void frameCollapsed(int numBytes) {
+        frameDequeued(numBytes);
+        framesCollapsed.incrementAndGet();
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    // The number of socket writes, each of which may carry several frames
+    public long getWrites() {
+        return writes;
+    }
+
+    public long getLastSendLatencyNanos() {
+        return lastSendLatencyNanos;
+    }
+
+    public long getMaxSendLatencyNanos() {
+        return maxSendLatencyNanos;
+    }
+
+    public long getMeanSendLatencyNanos() {
+        long framesSent = this.framesSent;
+        return (framesSent == 0) ? 0 : totalSendLatencyNanos / framesSent;
+    }
+
+    // Frames queued but not yet completely written
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    // Bytes in frames which are queued or only partially written
+    public long getBytesInFlight() {
+        return bytesInFlight.get();
+    }
+
+    public long getFramesCollapsed() {
+        return framesCollapsed.get();
+    }
+}
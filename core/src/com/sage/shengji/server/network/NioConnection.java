@@ -0,0 +1,271 @@
+package com.sage.shengji.server.network;
+
+import com.sage.shengji.utils.log.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A non-blocking, length-prefixed connection served by an NioEventLoop. Each frame on the wire is a 4 byte big-endian
+// length followed by that many bytes, which is the same framing DataOutputStream.writeInt() + write() produces.
+//
+// Outbound frames go through a bounded queue. The event loop moves frames from the queue into a small batch and writes
+// the whole batch with one gathering write, so a burst of packets costs one syscall instead of one each. Once a frame is
+// in the batch it is committed to the wire; frames still in the queue may be collapsed if the client falls behind.
+class NioConnection implements PlayerConnection, NioEventLoop.Handler {
+    static final int MAX_FRAME_SIZE = 1 << 20;
+    private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final OutboundQueueConfig config;
+    private SelectionKey key;
+
+    // Additions to outbound are synchronized on it, so that admission checks and collapsing see a consistent queue
+    private final ConcurrentLinkedDeque<PendingFrame> outbound = new ConcurrentLinkedDeque<>();
+    private final ConnectionMetrics metrics = new ConnectionMetrics();
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+    private volatile Listener listener;
+
+    // Read state. Only touched by the loop thread.
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private byte[] partialFrame = null;
+    private int partialFrameFilled = 0;
+
+    // Write state. Only touched by the loop thread.
+    private final ArrayDeque<PendingFrame> writing = new ArrayDeque<>();
+    private final ByteBuffer[] gatherBuffers;
+
+    NioConnection(SocketChannel channel, NioEventLoop loop, OutboundQueueConfig config) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.config = config;
+        gatherBuffers = new ByteBuffer[config.maxFramesPerWrite];
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    // Registers with the event loop. Reading starts only after this is called, so a listener should be set first.
+    void start() {
+        loop.execute(() -> {
+            if(closed.get()) {
+                return;
+            }
+            try {
+                key = channel.register(loop.selector(), SelectionKey.OP_READ, this);
+                flush();
+            } catch(ClosedChannelException e) {
+                close();
+            }
+        });
+    }
+
+    @Override
+    public void sendFrame(OutboundFrame frame) throws PlayerConnectionClosedException {
+        if(closed.get()) {
+            throw new PlayerConnectionClosedException();
+        }
+        synchronized(outbound) {
+            if(isFull(frame.size()) && !(config.slowClientPolicy == SlowClientPolicy.COLLAPSE && collapse(frame))) {
+                close();
+                throw new PlayerConnectionClosedException("Client fell too far behind, outbound queue is full");
+            }
+            outbound.add(new PendingFrame(frame, System.nanoTime()));
+            metrics.frameQueued(frame.size());
+        }
+        loop.execute(this::flush);
+    }
+
+    private boolean isFull(int extraBytes) {
+        return metrics.getQueueDepth() >= config.maxQueuedFrames
+                || metrics.getBytesInFlight() + extraBytes > config.maxQueuedBytes;
+    }
+
+    // Discards every queued frame which is superseded by a newer one, counting newFrame as the newest. Returns whether
+    // that made enough room for newFrame.
+    private boolean collapse(OutboundFrame newFrame) {
+        Set<Object> newerKeys = new HashSet<>();
+        if(newFrame.getSupersedeKey() != null) {
+            newerKeys.add(newFrame.getSupersedeKey());
+        }
+        Iterator<PendingFrame> it = outbound.descendingIterator();
+        while(it.hasNext()) {
+            PendingFrame pending = it.next();
+            Object supersedeKey = pending.frame.getSupersedeKey();
+            // If the loop has already taken the frame for writing, removal fails and the frame is left alone
+            if(supersedeKey != null && !newerKeys.add(supersedeKey) && outbound.removeFirstOccurrence(pending)) {
+                metrics.frameCollapsed(pending.size);
+            }
+        }
+        return !isFull(newFrame.size());
+    }
+
+    @Override
+    public ConnectionMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed.get();
+    }
+
+    @Override
+    public void close() {
+        if(closed.compareAndSet(false, true)) {
+            loop.execute(() -> {
+                // Anything already queued (such as CONNECTION_DENIED) gets one last chance to go out
+                flush();
+                if(key != null) {
+                    key.cancel();
+                }
+                try {
+                    channel.close();
+                } catch(IOException e) {
+                    // The channel is being discarded anyway
+                }
+                discardUnsentFrames();
+                Listener l = listener;
+                if(l != null) {
+                    l.disconnected();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void handle(SelectionKey key) {
+        try {
+            if(key.isReadable()) {
+                read();
+            }
+            if(key.isValid() && key.isWritable()) {
+                flush();
+            }
+        } catch(IOException e) {
+            close();
+        }
+    }
+
+    private void read() throws IOException {
+        int numRead = channel.read(readBuffer);
+        if(numRead < 0) {
+            close();
+            return;
+        }
+
+        readBuffer.flip();
+        while(!closed.get()) {
+            if(partialFrame != null) {
+                int n = Math.min(readBuffer.remaining(), partialFrame.length - partialFrameFilled);
+                readBuffer.get(partialFrame, partialFrameFilled, n);
+                partialFrameFilled += n;
+                if(partialFrameFilled < partialFrame.length) {
+                    break;
+                }
+                byte[] frame = partialFrame;
+                partialFrame = null;
+                deliver(frame);
+            } else if(readBuffer.remaining() >= Integer.BYTES) {
+                int frameSize = readBuffer.getInt();
+                if(frameSize < 0 || frameSize > MAX_FRAME_SIZE) {
+                    // A garbage length means the stream can't be resynchronized
+                    close();
+                    break;
+                }
+                partialFrame = new byte[frameSize];
+                partialFrameFilled = 0;
+            } else {
+                break;
+            }
+        }
+        readBuffer.compact();
+    }
+
+    private void deliver(byte[] frame) {
+        Listener l = listener;
+        if(l != null) {
+            try {
+                l.frameReceived(frame);
+            } catch(RuntimeException e) {
+                Log.error("NioConnection", "Frame listener threw", e);
+            }
+        }
+    }
+
+    private void flush() {
+        if(key == null || !key.isValid() || !channel.isOpen()) {
+            return;
+        }
+        try {
+            while(true) {
+                PendingFrame next;
+                while(writing.size() < gatherBuffers.length && (next = outbound.poll()) != null) {
+                    writing.add(next);
+                }
+                if(writing.isEmpty()) {
+                    break;
+                }
+
+                int numBuffers = 0;
+                for(PendingFrame pending : writing) {
+                    gatherBuffers[numBuffers++] = pending.buffer;
+                }
+                channel.write(gatherBuffers, 0, numBuffers);
+                metrics.recordWrite();
+
+                long now = System.nanoTime();
+                while(!writing.isEmpty() && !writing.peek().buffer.hasRemaining()) {
+                    PendingFrame sent = writing.poll();
+                    metrics.frameDequeued(sent.size);
+                    metrics.recordSend(sent.size, now - sent.enqueuedAt);
+                }
+                if(!writing.isEmpty()) {
+                    // The socket's send buffer is full, so we wait to be told it's writable again
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        } catch(IOException e) {
+            close();
+        }
+    }
+
+    private void discardUnsentFrames() {
+        PendingFrame pending;
+        while((pending = writing.poll()) != null) {
+            metrics.frameDequeued(pending.size);
+        }
+        while((pending = outbound.poll()) != null) {
+            metrics.frameDequeued(pending.size);
+        }
+    }
+
+    private static class PendingFrame {
+        final OutboundFrame frame;
+        final ByteBuffer buffer;
+        final int size;
+        final long enqueuedAt;
+
+        PendingFrame(OutboundFrame frame, long enqueuedAt) {
+            this.frame = frame;
+            this.buffer = frame.newBuffer();
+            this.size = frame.size();
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.sage.shengji.server.network;
+
+import com.sage.shengji.utils.log.Log;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// A single selector thread. Every channel registered with a loop is only ever read from, written to and closed on
+// that loop's thread, so connections need no locking around their channel state.
+class NioEventLoop implements Runnable {
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private volatile Thread thread;
+    private volatile boolean closed = false;
+
+    NioEventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    @Override
+    public void run() {
+        thread = Thread.currentThread();
+        while(!closed) {
+            try {
+                selector.select();
+            } catch(IOException | ClosedSelectorException e) {
+                break;
+            }
+            runTasks();
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while(keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if(key.isValid()) {
+                    ((Handler)key.attachment()).handle(key);
+                }
+            }
+        }
+        runTasks();
+        closeAll();
+    }
+
+    // Runs task on this loop's thread. If called from the loop thread, the task runs immediately.
+    void execute(Runnable task) {
+        if(inLoop()) {
+            task.run();
+        } else {
+            tasks.add(task);
+            selector.wakeup();
+        }
+    }
+
+    boolean inLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    Selector selector() {
+        return selector;
+    }
+
+    void close() {
+        closed = true;
+        selector.wakeup();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch(RuntimeException e) {
+                Log.error("NioEventLoop", "Task threw", e);
+            }
+        }
+    }
+
+    private void closeAll() {
+        try {
+            for(SelectionKey key : selector.keys()) {
+                ((Handler)key.attachment()).close();
+            }
+            selector.close();
+        } catch(IOException | ClosedSelectorException e) {
+            // Nothing more can be done with the selector
+        }
+    }
+
+    interface Handler {
+        void handle(SelectionKey key);
+
+        void close();
+    }
+}
@@ -0,0 +1,114 @@
+package com.sage.shengji.server.network;
+
+import com.sage.shengji.utils.log.Log;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+// Selector based transport for the server. A handful of event loops serve every connection, instead of each player
+// getting its own blocking reader thread. The loop that runs on the thread calling run() also accepts connections.
+public class NioTransport {
+    public static final int DEFAULT_NUM_EVENT_LOOPS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final ServerSocketChannel serverChannel;
+    private final List<NioEventLoop> loops = new ArrayList<>();
+    private final List<Thread> loopThreads = new ArrayList<>();
+    private final ConnectionAcceptor acceptor;
+    private final OutboundQueueConfig outboundQueueConfig;
+    private int nextLoopIdx = 0;
+
+    // Binds immediately, so a port that's already taken is reported to the caller rather than to the transport thread
+    public NioTransport(int port, int numEventLoops, ConnectionAcceptor acceptor) throws UncheckedIOException {
+        this(port, numEventLoops, new OutboundQueueConfig(), acceptor);
+    }
+
+    public NioTransport(int port, int numEventLoops, OutboundQueueConfig outboundQueueConfig,
+                        ConnectionAcceptor acceptor) throws UncheckedIOException {
+        this.acceptor = acceptor;
+        this.outboundQueueConfig = outboundQueueConfig;
+        try {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.bind(new InetSocketAddress(port));
+            for(int i = 0; i < Math.max(1, numEventLoops); i++) {
+                loops.add(new NioEventLoop());
+            }
+        } catch(IOException e) {
+            close();
+            throw new UncheckedIOException("Could not open server socket on port " + port, e);
+        }
+    }
+
+    // Runs the transport until close() is called
+    public void run() {
+        for(int i = 1; i < loops.size(); i++) {
+            Thread t = new Thread(loops.get(i), "Server event loop " + i);
+            t.setDaemon(true);
+            loopThreads.add(t);
+            t.start();
+        }
+
+        NioEventLoop acceptLoop = loops.get(0);
+        acceptLoop.execute(() -> {
+            try {
+                serverChannel.register(acceptLoop.selector(), SelectionKey.OP_ACCEPT, acceptHandler);
+            } catch(IOException e) {
+                close();
+            }
+        });
+        acceptLoop.run();
+    }
+
+    public void close() {
+        try {
+            serverChannel.close();
+        } catch(IOException | NullPointerException e) {
+            // Nothing more can be done with the server channel
+        }
+        loops.forEach(NioEventLoop::close);
+    }
+
+    private final NioEventLoop.Handler acceptHandler = new NioEventLoop.Handler() {
+        @Override
+        public void handle(SelectionKey key) {
+            SocketChannel channel;
+            try {
+                while((channel = serverChannel.accept()) != null) {
+                    NioConnection connection;
+                    try {
+                        connection = new NioConnection(channel, nextLoop(), outboundQueueConfig);
+                    } catch(IOException e) {
+                        channel.close();
+                        continue;
+                    }
+                    acceptor.accepted(connection);
+                    connection.start();
+                }
+            } catch(IOException e) {
+                Log.error("NioTransport", "Could not accept connection", e);
+            }
+        }
+
+        @Override
+        public void close() {
+            NioTransport.this.close();
+        }
+    };
+
+    private NioEventLoop nextLoop() {
+        NioEventLoop loop = loops.get(nextLoopIdx);
+        nextLoopIdx = (nextLoopIdx + 1) % loops.size();
+        return loop;
+    }
+
+    public interface ConnectionAcceptor {
+        // Called on the accepting loop for each new connection, before any frames are read from it
+        void accepted(PlayerConnection connection);
+    }
+}
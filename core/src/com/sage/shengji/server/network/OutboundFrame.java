@@ -0,0 +1,34 @@
+package com.sage.shengji.server.network;
+
+import java.nio.ByteBuffer;
+
+// An encoded packet, already length-prefixed for the wire. A frame is immutable, so one frame can be queued on any
+// number of connections; each connection writes from its own read-only view of the shared bytes.
+public final class OutboundFrame {
+    private final byte[] wireBytes;
+    private final Object supersedeKey;
+
+    public OutboundFrame(byte[] payload) {
+        this(payload, null);
+    }
+
+    // A queued frame may be discarded unsent if a newer frame with an equal, non-null supersedeKey is queued after it
+    public OutboundFrame(byte[] payload, Object supersedeKey) {
+        wireBytes = new byte[Integer.BYTES + payload.length];
+        ByteBuffer.wrap(wireBytes).putInt(payload.length).put(payload);
+        this.supersedeKey = supersedeKey;
+    }
+
+    // The size of the frame on the wire, including its length prefix
+    public int size() {
+        return wireBytes.length;
+    }
+
+    public Object getSupersedeKey() {
+        return supersedeKey;
+    }
+
+    ByteBuffer newBuffer() {
+        return ByteBuffer.wrap(wireBytes).asReadOnlyBuffer();
+    }
+}
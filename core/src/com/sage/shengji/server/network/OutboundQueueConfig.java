@@ -0,0 +1,35 @@
+package com.sage.shengji.server.network;
+
+// Limits for each connection's outbound queue. A queue is full once either limit would be exceeded.
+public class OutboundQueueConfig {
+    public static final int DEFAULT_MAX_QUEUED_FRAMES = 512;
+    public static final int DEFAULT_MAX_QUEUED_BYTES = 1 << 20;
+    public static final int DEFAULT_MAX_FRAMES_PER_WRITE = 64;
+
+    public final int maxQueuedFrames;
+    public final int maxQueuedBytes;
+
+    // How many queued frames may be coalesced into a single gathering write
+    public final int maxFramesPerWrite;
+
+    public final SlowClientPolicy slowClientPolicy;
+
+    public OutboundQueueConfig() {
+        this(DEFAULT_MAX_QUEUED_FRAMES, DEFAULT_MAX_QUEUED_BYTES, DEFAULT_MAX_FRAMES_PER_WRITE, SlowClientPolicy.COLLAPSE);
+    }
+
+    public OutboundQueueConfig(int maxQueuedFrames, int maxQueuedBytes, int maxFramesPerWrite,
+                               SlowClientPolicy slowClientPolicy) {
+        if(maxQueuedFrames < 1 || maxQueuedBytes < 1 || maxFramesPerWrite < 1) {
+            throw new IllegalArgumentException("Outbound queue limits must be positive");
+        }
+        this.maxQueuedFrames = maxQueuedFrames;
+        this.maxQueuedBytes = maxQueuedBytes;
+        this.maxFramesPerWrite = maxFramesPerWrite;
+        this.slowClientPolicy = slowClientPolicy;
+    }
+
+    public OutboundQueueConfig withSlowClientPolicy(SlowClientPolicy slowClientPolicy) {
+        return new OutboundQueueConfig(maxQueuedFrames, maxQueuedBytes, maxFramesPerWrite, slowClientPolicy);
+    }
+}
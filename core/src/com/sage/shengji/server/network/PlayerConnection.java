@@ -0,0 +1,52 @@
+package com.sage.shengji.server.network;
+
+import com.sage.shengji.client.network.ClientPacket;
+
+// The transport a Player talks through. Frames are whole, already length-delimited packets; the connection takes care
+// of framing them on the wire.
+public interface PlayerConnection {
+    // Queues frame to be written to the client. This never blocks on the socket.
+    void sendFrame(OutboundFrame frame) throws PlayerConnectionClosedException;
+
+    default void sendFrame(byte[] frame) throws PlayerConnectionClosedException {
+        sendFrame(new OutboundFrame(frame));
+    }
+
+    // Whether this connection is handed packets themselves rather than frames, so they're never encoded. Only a
+    // connection inside the server, like a bot's, can be.
+    default boolean takesPackets() {
+        return false;
+    }
+
+    // Only called on a connection which takesPackets, instead of sendFrame. The same packet may be sent to several
+    // connections, so it mustn't be changed.
+    default void sendPacket(ServerPacket packet) throws PlayerConnectionClosedException {
+        throw new UnsupportedOperationException("This connection only takes frames");
+    }
+
+    ConnectionMetrics getMetrics();
+
+    void setListener(Listener listener);
+
+    boolean isConnected();
+
+    // Whether this connects to a bot played by the server rather than to a client
+    default boolean isBot() {
+        return false;
+    }
+
+    void close();
+
+    interface Listener {
+        // Called with every complete frame received from the client, in order
+        void frameReceived(byte[] frame);
+
+        // Called instead of frameReceived by a connection which takesPackets, with a packet which is never encoded
+        default void packetReceived(ClientPacket packet) {
+            frameReceived(packet.toBytes());
+        }
+
+        // Called exactly once, when the connection is closed for any reason
+        void disconnected();
+    }
+}
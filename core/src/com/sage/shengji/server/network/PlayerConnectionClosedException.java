@@ -0,0 +1,19 @@
+package com.sage.shengji.server.network;
+
+public class PlayerConnectionClosedException extends Exception {
+    public PlayerConnectionClosedException() {
+        super();
+    }
+
+    public PlayerConnectionClosedException(String message) {
+        super(message);
+    }
+
+    public PlayerConnectionClosedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    public PlayerConnectionClosedException(Throwable cause) {
+        super(cause);
+    }
+}
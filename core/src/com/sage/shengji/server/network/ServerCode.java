@@ -66,4 +66,20 @@ public enum ServerCode implements NetworkCode {
     ROUND_START,
     WAIT_FOR_HAND,
     ROUND_END,
+
+    // Sent to all clients whenever the round starts waiting on a player with a deadline, and again shortly before it
+    // expires, with "player" and the "millis" left. Once it expires the server acts for that player.
+    DEADLINE,
+
+    // Sent to a client which asked for it with REQUEST_SNAPSHOT. Holds everything the client needs to pick up the round
+    // where it is, and replaces whatever the client has made of the round so far. "prompt" names the code the client
+    // would last have been sent about what it's being asked to do.
+    GAME_STATE_SNAPSHOT,
+
+    // Sent to all clients when a player's connection drops mid-round. The round is paused, with every deadline stopped,
+    // until they reconnect or the "millis" of their grace run out. "player" is the player who dropped.
+    ROUND_PAUSED,
+
+    // Sent to all clients once every dropped player is back. Any paused deadline is sent again with DEADLINE.
+    ROUND_RESUMED,
 }
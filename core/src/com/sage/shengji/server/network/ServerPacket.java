@@ -2,8 +2,10 @@ package com.sage.shengji.server.network;
 
 import com.badlogic.gdx.utils.SerializationException;
 import com.sage.shengji.utils.network.Packet;
+import com.sage.shengji.utils.network.PacketCodec;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 public class ServerPacket extends Packet<ServerCode> {
     public ServerPacket() {
@@ -19,7 +21,11 @@ public class ServerPacket extends Packet<ServerCode> {
         return this;
     }
 
+    // Understands both PacketCodec frames and Java serialized packets
     public static ServerPacket fromBytes(byte[] bytes) throws SerializationException {
+        if(PacketCodec.isBinaryFrame(bytes)) {
+            return PacketCodec.decode(bytes, ServerCode.values(), new ServerPacket());
+        }
         try {
             return (ServerPacket)Packet.fromBytes(bytes);
         } catch(ClassCastException e) {
@@ -27,7 +33,38 @@ public class ServerPacket extends Packet<ServerCode> {
         }
     }
 
+    // Packets with equal, non-null supersede keys carry state that makes any earlier such packet obsolete, so a client
+    // which has fallen behind can be sent only the newest one
+    public Object getSupersedeKey() {
+        if(networkCode == null) {
+            return null;
+        }
+        switch(networkCode) {
+        case PING:
+            // Only our own pings: a newer one measures the same thing, but each pong answers a different client ping,
+            // and dropping one would cost the client an RTT sample just when the link is slowest
+            return data.containsKey("t") ? networkCode : null;
+        case WAIT_FOR_PLAYERS:
+        case GAME_STATE_SNAPSHOT:
+            return networkCode;
+        case NEW_PLAYER_RANK:
+            return Arrays.asList(networkCode, data.get("player"));
+        default:
+            return null;
+        }
+    }
+
     public static ServerPacket pingPacket() {
         return new ServerPacket(ServerCode.PING);
     }
+
+    // A ping the client answers by echoing "t" back, so the server can measure the round trip
+    public static ServerPacket pingPacket(long timestampNanos) {
+        return pingPacket().put("t", timestampNanos);
+    }
+
+    // The answer to a client's ping
+    public static ServerPacket pongPacket(long echoedTimestamp) {
+        return pingPacket().put("echo", echoedTimestamp);
+    }
 }
@@ -0,0 +1,11 @@
+package com.sage.shengji.server.network;
+
+// What a connection does when a client has fallen so far behind that its outbound queue is full
+public enum SlowClientPolicy {
+    // Drop the client. It can't keep up, and the rest of the table shouldn't pay for it.
+    DISCONNECT,
+
+    // First discard queued frames which a newer queued frame supersedes (see ServerPacket.getSupersedeKey()), and
+    // only drop the client if the queue is still full after that
+    COLLAPSE,
+}
@@ -0,0 +1,116 @@
+package com.sage.shengji.server.selfplay;
+
+import com.sage.shengji.server.game.ServerGameState;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+// Plays a large number of rounds between bots, with no sockets and no clients, to measure the rules themselves: how
+// often hands are redealt, how much the kitty matters, how teams come out with different numbers of players, and how
+// fast the rules engine is.
+//
+// Rounds are played in batches, each on its own SimulatedTable, and the batches run in parallel on a ForkJoinPool.
+// Whenever a batch finishes, its totals are merged in and a summary line with the running totals is written out.
+//
+// Each batch's table is seeded from the simulator's seed, and its bots search a fixed number of samples per decision
+// rather than for a fixed time, so a run can be repeated exactly. Only the order summary lines are written in depends
+// on timing. By default they take no samples and play every decision by the rollout policy alone, which is what lets
+// each core play thousands of rounds a second at smaller tables, and over a thousand with eight players. Samples make
+// the bots' kitties and friend cards better, but each one plays out every candidate, so even a couple make the rounds
+// many times slower.
+//
+// Bots can be made to always call on the last kitty card. No round is then ever redealt, so the redeal rate isn't
+// measured, but every deal is played out.
+public class SelfPlaySimulator {
+    public static final int DEFAULT_ROUNDS_PER_BATCH = 1000;
+    public static final int DEFAULT_SAMPLES_PER_DECISION = 0;
+
+    private final int numPlayers;
+    private final long numRounds;
+    private final int roundsPerBatch;
+    private final int samplesPerDecision;
+    private final boolean callsLastKittyCard;
+    private final ForkJoinPool pool;
+    private final long seed;
+
+    private final SelfPlayStats totals;
+    private Writer out = null;
+
+    public SelfPlaySimulator(int numPlayers, long numRounds, int roundsPerBatch, int samplesPerDecision,
+                             boolean callsLastKittyCard, ForkJoinPool pool, long seed) {
+        if(numPlayers < 2 || numPlayers > ServerGameState.MAX_PLAYERS) {
+            throw new IllegalArgumentException("A round needs between 2 and " + ServerGameState.MAX_PLAYERS
+                    + " players");
+        }
+        if(numRounds < 0 || roundsPerBatch < 1) {
+            throw new IllegalArgumentException("The number of rounds can't be negative, and a batch needs a round");
+        }
+        this.numPlayers = numPlayers;
+        this.numRounds = numRounds;
+        this.roundsPerBatch = roundsPerBatch;
+        this.samplesPerDecision = samplesPerDecision;
+        this.callsLastKittyCard = callsLastKittyCard;
+        this.pool = pool;
+        this.seed = seed;
+        this.totals = new SelfPlayStats(numPlayers, !callsLastKittyCard);
+    }
+
+    // Plays every round, writing the running totals to out as batches finish. Returns the totals. Throws an
+    // UncheckedIOException if out can't be written to.
+    public SelfPlayStats run(Writer out) throws UncheckedIOException {
+        this.out = out;
+        SplittableRandom tableSeeds = new SplittableRandom(seed);
+        List<Batch> batches = new ArrayList<>();
+        for(long start = 0; start < numRounds; start += roundsPerBatch) {
+            batches.add(new Batch((int)Math.min(roundsPerBatch, numRounds - start), tableSeeds.nextLong()));
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask.invokeAll(batches);
+            }
+        });
+        return totals;
+    }
+
+    private synchronized void batchFinished(SelfPlayStats batchStats) {
+        totals.merge(batchStats);
+        StringBuilder sb = new StringBuilder();
+        totals.appendSummary(sb);
+        try {
+            out.write(sb.toString());
+            out.flush();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private class Batch extends RecursiveAction {
+        private final int numRounds;
+        private final long seed;
+
+        Batch(int numRounds, long seed) {
+            this.numRounds = numRounds;
+            this.seed = seed;
+        }
+
+        @Override
+        protected void compute() {
+            SelfPlayStats stats = new SelfPlayStats(numPlayers, !callsLastKittyCard);
+            SimulatedTable table = new SimulatedTable(numPlayers, seed, samplesPerDecision, callsLastKittyCard);
+            long startedAt = System.nanoTime();
+            for(int i = 0; i < numRounds; i++) {
+                table.playRound(stats);
+            }
+            stats.elapsedNanos = System.nanoTime() - startedAt;
+            batchFinished(stats);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.sage.shengji.server.selfplay;
+
+import com.sage.shengji.server.game.ServerGameState;
+import com.sage.shengji.utils.shengji.Team;
+
+import java.util.Locale;
+
+// Totals over any number of simulated rounds. Each batch of rounds keeps its own, and the simulator merges them as the
+// batches finish.
+public class SelfPlayStats {
+    // Kitty multipliers are one more than the size of the play which won the last trick, so they're bounded by the hand
+    private static final int MAX_TRACKED_MULTIPLIER = 64;
+
+    public final int numPlayers;
+    public final boolean redealsMeasured; // Not if the bots always call on the last kitty card
+
+    long rounds = 0;
+    long errors = 0;
+
+    // Dealing and calling
+    long deals = 0; // Including redeals
+    long redeals = 0; // Every card in the kitty was pulled without anyone calling
+    long kittyRedraws = 0; // A kitty was drawn entirely of jokers, so it was put back and drawn again
+    long calledRounds = 0;
+    long kittyCalledRounds = 0;
+
+    // Outcomes
+    long collectorWins = 0;
+    long wonByKitty = 0; // The collectors won only because of the kitty's points
+    long collectedPoints = 0;
+    long kittyPoints = 0; // After the multiplier
+    long rankIncrease = 0;
+    final long[] roundsByMultiplier = new long[MAX_TRACKED_MULTIPLIER + 1];
+    final long[] roundsByNumKeepers = new long[ServerGameState.MAX_PLAYERS + 1];
+
+    long elapsedNanos = 0; // Summed over every thread that played rounds
+
+    public SelfPlayStats(int numPlayers, boolean redealsMeasured) {
+        this.numPlayers = numPlayers;
+        this.redealsMeasured = redealsMeasured;
+    }
+
+    void recordRoundEnd(Team winningTeam, int pointsNeeded, int collectedPointsBeforeKitty, int totalCollectedPoints,
+                        int kittyPointsMultiplier, int rankIncrease, int numKeepers) {
+        rounds++;
+        if(winningTeam == Team.COLLECTORS) {
+            collectorWins++;
+            if(collectedPointsBeforeKitty < pointsNeeded) {
+                wonByKitty++;
+            }
+        }
+        collectedPoints += totalCollectedPoints;
+        kittyPoints += totalCollectedPoints - collectedPointsBeforeKitty;
+        this.rankIncrease += rankIncrease;
+        roundsByMultiplier[Math.min(Math.max(kittyPointsMultiplier, 0), MAX_TRACKED_MULTIPLIER)]++;
+        roundsByNumKeepers[Math.min(numKeepers, ServerGameState.MAX_PLAYERS)]++;
+    }
+
+    void merge(SelfPlayStats other) {
+        rounds += other.rounds;
+        errors += other.errors;
+        deals += other.deals;
+        redeals += other.redeals;
+        kittyRedraws += other.kittyRedraws;
+        calledRounds += other.calledRounds;
+        kittyCalledRounds += other.kittyCalledRounds;
+        collectorWins += other.collectorWins;
+        wonByKitty += other.wonByKitty;
+        collectedPoints += other.collectedPoints;
+        kittyPoints += other.kittyPoints;
+        rankIncrease += other.rankIncrease;
+        for(int i = 0; i < roundsByMultiplier.length; i++) {
+            roundsByMultiplier[i] += other.roundsByMultiplier[i];
+        }
+        for(int i = 0; i < roundsByNumKeepers.length; i++) {
+            roundsByNumKeepers[i] += other.roundsByNumKeepers[i];
+        }
+        elapsedNanos += other.elapsedNanos;
+    }
+
+    public long getRounds() {
+        return rounds;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    // Rounds per second on each thread, which is the speed of the rules engine itself
+    public double getRoundsPerThreadSecond() {
+        return (elapsedNanos == 0) ? 0 : rounds / (elapsedNanos / 1e9);
+    }
+
+    // A single line of the headline numbers, with rates as fractions of rounds or deals
+    public void appendSummary(StringBuilder sb) {
+        sb.append("players=").append(numPlayers)
+                .append(" rounds=").append(rounds)
+                .append(" errors=").append(errors)
+                .append(" rounds_per_thread_sec=").append(Math.round(getRoundsPerThreadSecond()))
+                .append(" redeal_rate=").append(redealsMeasured ? ratio(redeals, deals) : "not_measured")
+                .append(" kitty_redraw_rate=").append(ratio(kittyRedraws, deals))
+                .append(" kitty_call_rate=").append(ratio(kittyCalledRounds, rounds))
+                .append(" collector_win_rate=").append(ratio(collectorWins, rounds))
+                .append(" won_by_kitty_rate=").append(ratio(wonByKitty, rounds))
+                .append(" avg_collected_points=").append(ratio(collectedPoints, rounds))
+                .append(" avg_kitty_points=").append(ratio(kittyPoints, rounds))
+                .append(" avg_rank_increase=").append(ratio(rankIncrease, rounds))
+                .append('\n');
+    }
+
+    // The summary, followed by one line for each kitty multiplier and each final number of keepers that came up
+    public void appendReport(StringBuilder sb) {
+        appendSummary(sb);
+        for(int i = 0; i < roundsByMultiplier.length; i++) {
+            if(roundsByMultiplier[i] != 0) {
+                sb.append("players=").append(numPlayers)
+                        .append(" kitty_multiplier=").append(i)
+                        .append(" rounds=").append(roundsByMultiplier[i])
+                        .append(" share=").append(ratio(roundsByMultiplier[i], rounds))
+                        .append('\n');
+            }
+        }
+        for(int i = 0; i < roundsByNumKeepers.length; i++) {
+            if(roundsByNumKeepers[i] != 0) {
+                sb.append("players=").append(numPlayers)
+                        .append(" keepers=").append(i)
+                        .append(" rounds=").append(roundsByNumKeepers[i])
+                        .append(" share=").append(ratio(roundsByNumKeepers[i], rounds))
+                        .append('\n');
+            }
+        }
+    }
+
+    private static String ratio(long numerator, long denominator) {
+        return (denominator == 0) ? "0" : String.format(Locale.ROOT, "%.4f", (double)numerator / denominator);
+    }
+}
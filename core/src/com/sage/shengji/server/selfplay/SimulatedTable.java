@@ -0,0 +1,156 @@
+package com.sage.shengji.server.selfplay;
+
+import com.sage.shengji.server.bot.Bot;
+import com.sage.shengji.server.game.*;
+import com.sage.shengji.server.metrics.TableMetrics;
+import com.sage.shengji.server.network.BotConnection;
+import com.sage.shengji.server.network.ServerCode;
+import com.sage.shengji.server.network.ServerPacket;
+import com.sage.shengji.utils.log.Log;
+import com.sage.shengji.utils.shengji.Team;
+
+import java.io.Serializable;
+import java.util.*;
+
+import static com.sage.shengji.server.network.ServerCode.*;
+
+// A table of bots which plays rounds back to back on the calling thread, through the same RoundRunner and packets as a
+// real table. Each seat is a Bot made for self-play, which makes every decision a bot at a real table would while it's
+// being sent the packet asking for it, so the round's deadlines only expire if a bot has nothing to say.
+//
+// Like a real table, call ranks carry over from round to round, and the players are sent to everyone between rounds.
+//
+// A round which fails is counted as an error. The first one on each table is also logged, with the table's seed and the
+// seed of the failed round's deal, so the round can be dealt again with the launcher's redeal key.
+final class SimulatedTable {
+    // Deadlines only decide the order things happen in, since the clock is virtual
+    private static final DeadlineConfig DEADLINES = new DeadlineConfig(1, 1, 1);
+
+    // A round which hasn't ended after this many steps has gone wrong
+    private static final int MAX_STEPS_PER_ROUND = 1_000_000;
+
+    // The packets the round is recorded from
+    private static final Set<ServerCode> RECORDED_CODES = EnumSet.of(WAIT_FOR_HAND, KITTY_EXHAUSTED_REDEAL,
+            WAIT_FOR_CALL_WINNER, WAIT_FOR_KITTY_CALL_WINNER, ROUND_END);
+
+    private final long seed;
+    private final ServerGameState gameState;
+    private final TableMetrics metrics = new TableMetrics(-1);
+    private final VirtualScheduler scheduler = new VirtualScheduler();
+    private final ArrayDeque<Runnable> inbox = new ArrayDeque<>(); // Packets from players, in the order they were sent
+    private final List<Player> players = new ArrayList<>();
+
+    private RoundRunner round = null;
+    private SelfPlayStats stats = null; // Of the round being played
+    private int pointsNeeded = 0;
+    private int numRoundsPlayed = 0;
+    private boolean loggedError = false;
+
+    // Tables with the same settings and seed play exactly the same rounds. If callsLastKittyCard is set, the bots
+    // always call on the last kitty card, so rounds are never redealt.
+    SimulatedTable(int numPlayers, long seed, int samplesPerDecision, boolean callsLastKittyCard) {
+        this.seed = seed;
+        SplittableRandom botSeeds = new SplittableRandom(seed);
+        gameState = new ServerGameState(botSeeds.nextLong());
+        for(int i = 0; i < numPlayers; i++) {
+            BotConnection connection = new Bot(botSeeds.nextLong(), samplesPerDecision, callsLastKittyCard)
+                    .getConnection();
+            Player player = new Player(i, connection);
+            player.setName("Bot " + i);
+            player.setPacketListener(packet -> inbox.add(() -> round.handlePacket(player, packet)));
+            if(i == 0) {
+                connection.setObserver(new Observer());
+            }
+            players.add(player);
+            try {
+                gameState.addPlayer(player);
+            } catch(RoundIsRunningException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    // Plays one round to the end, recording it in stats. A round the rules engine gives up on is recorded as an error.
+    void playRound(SelfPlayStats stats) {
+        this.stats = stats;
+        int kittyRedrawsBefore = gameState.getKittyRedraws();
+        round = new RoundRunner(gameState, metrics, DEADLINES, scheduler);
+        try {
+            gameState.getPlayers().sendPlayersToAll();
+            round.start();
+            int steps = 0;
+            while(!round.isOver()) {
+                Runnable next = inbox.poll();
+                if(next == null) {
+                    next = scheduler.next();
+                }
+                if(next == null || ++steps > MAX_STEPS_PER_ROUND) {
+                    throw new IllegalStateException("Round stalled");
+                }
+                next.run();
+            }
+        } catch(RoundStartFailedException | RuntimeException e) {
+            stats.errors++;
+            if(!loggedError) {
+                loggedError = true;
+                Log.error("SimulatedTable", "Round " + numRoundsPlayed + " of " + players.size()
+                        + " players on the table seeded " + seed + " failed. It was last dealt from seed "
+                        + gameState.getDealSeed() + ". Later failures on this table are only counted.", e);
+            }
+            round.finish();
+        } finally {
+            numRoundsPlayed++;
+            inbox.clear();
+            scheduler.clear();
+            stats.kittyRedraws += gameState.getKittyRedraws() - kittyRedrawsBefore;
+            round = null;
+            this.stats = null;
+        }
+    }
+
+    // Every player sees the same broadcasts, so the round is recorded from what the first player is sent
+    private class Observer implements BotConnection.Receiver {
+        @Override
+        public boolean wants(ServerCode code) {
+            return RECORDED_CODES.contains(code);
+        }
+
+        @Override
+        public void packetReceived(ServerPacket packet) {
+            if(packet.networkCode != null) {
+                observe(packet);
+            }
+        }
+    }
+
+    private void observe(ServerPacket packet) {
+        Map<Serializable, Serializable> data = packet.data;
+        switch(packet.networkCode) {
+        case WAIT_FOR_HAND:
+            stats.deals++;
+            pointsNeeded = (Integer)data.get("numpointsneeded");
+            break;
+        case KITTY_EXHAUSTED_REDEAL:
+            stats.redeals++;
+            break;
+        case WAIT_FOR_CALL_WINNER:
+            stats.calledRounds++;
+            break;
+        case WAIT_FOR_KITTY_CALL_WINNER:
+            stats.kittyCalledRounds++;
+            break;
+        case ROUND_END:
+            int numKeepers = (int)players.stream().filter(p -> p.getTeam() == Team.KEEPERS).count();
+            stats.recordRoundEnd((Team)data.get("winningteam"),
+                    pointsNeeded,
+                    (Integer)data.get("collectedpointsbeforekitty"),
+                    (Integer)data.get("totalcollectedpoints"),
+                    (Integer)data.get("kittypointsmultiplier"),
+                    (Integer)data.get("rankincrease"),
+                    numKeepers);
+            break;
+        default:
+            break;
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.sage.shengji.server.selfplay;
+
+import com.sage.shengji.server.game.RoundScheduler;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// A RoundScheduler on a clock which only moves when the simulator asks it to. Nothing runs by itself: next() moves the
+// clock to the earliest task still scheduled and hands it back, so a deadline "expires" the moment the simulated table
+// has nothing else to do.
+final class VirtualScheduler implements RoundScheduler {
+    private final PriorityQueue<VirtualTask> tasks = new PriorityQueue<>();
+    private long now = 0; // In nanoseconds
+    private long numScheduled = 0;
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        VirtualTask virtualTask = new VirtualTask(task, now + unit.toNanos(Math.max(delay, 0)), numScheduled++);
+        tasks.add(virtualTask);
+        return virtualTask;
+    }
+
+    // The earliest task which hasn't been cancelled, or null if there's none. Tasks due at the same time come back in
+    // the order they were scheduled.
+    Runnable next() {
+        VirtualTask task;
+        do {
+            task = tasks.poll();
+        } while(task != null && task.cancelled);
+        if(task == null) {
+            return null;
+        }
+        now = task.dueAt;
+        task.done = true;
+        return task.task;
+    }
+
+    void clear() {
+        tasks.clear();
+    }
+
+    private class VirtualTask implements ScheduledFuture<Object> {
+        private final Runnable task;
+        private final long dueAt;
+        private final long order;
+        private boolean cancelled = false;
+        private boolean done = false;
+
+        VirtualTask(Runnable task, long dueAt, long order) {
+            this.task = task;
+            this.dueAt = dueAt;
+            this.order = order;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - now, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            if(o instanceof VirtualTask) {
+                VirtualTask other = (VirtualTask)o;
+                return (dueAt != other.dueAt) ? Long.compare(dueAt, other.dueAt) : Long.compare(order, other.order);
+            }
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), o.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if(done || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        // Nothing in a simulation waits on a task, since waiting would never end
+        @Override
+        public Object get() {
+            throw new UnsupportedOperationException("Virtual tasks can't be waited on");
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            throw new UnsupportedOperationException("Virtual tasks can't be waited on");
+        }
+    }
+}
@@ -84,6 +84,9 @@ public class Card implements Comparable<Card> {
     }
 
     public final void setCardNum(int cardNum) throws InvalidCardException {
+        if(isImmutable()) {
+            throw new UnsupportedOperationException("Shared card instances can't be changed");
+        }
         if(isValidCardNum(cardNum)) {
             this.cardNum = cardNum;
             suit = Suit.fromCardNum(cardNum);
@@ -127,6 +130,11 @@ public class Card implements Comparable<Card> {
     protected void cardChangedImpl() {
     }
 
+    // Cards which are shared between lists, such as the ones in a ShengJiCardTable, must never change
+    protected boolean isImmutable() {
+        return false;
+    }
+
     @Override
     public String toString() {
         return (isJoker()) ? rank.stringName.replace("_", " ")
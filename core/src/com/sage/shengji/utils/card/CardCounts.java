@@ -0,0 +1,139 @@
+package com.sage.shengji.utils.card;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+// A multiset of card numbers. Each card number's count is a 4 bit field, sixteen to a long, so the counts for every card
+// fit in four longs and checking whether one multiset contains another is a few word operations instead of a search.
+//
+// Counts are capped at MAX_COUNT, which leaves each field's top bit free. containsAll() relies on that: setting the top
+// bit of every field in one word and subtracting the other word can never borrow across fields, and the top bit of a
+// field survives exactly when this count is at least the other.
+public class CardCounts {
+    public static final int MAX_COUNT = 7;
+
+    private static final int NUM_CARD_NUMS = 54;
+    private static final int FIELDS_PER_WORD = Long.SIZE / 4;
+    private static final long FIELD_TOP_BITS = 0x8888888888888888L;
+    private static final long FIELD_LOW_BITS = 0x1111111111111111L;
+
+    private final long[] words = new long[(NUM_CARD_NUMS + FIELDS_PER_WORD - 1) / FIELDS_PER_WORD];
+    private int size = 0;
+
+    public CardCounts() {
+    }
+
+    public CardCounts(CardCounts other) {
+        System.arraycopy(other.words, 0, words, 0, words.length);
+        size = other.size;
+    }
+
+    public static CardCounts of(Collection<? extends Card> cards) {
+        CardCounts counts = new CardCounts();
+        for(Card c : cards) {
+            counts.add(c.getCardNum());
+        }
+        return counts;
+    }
+
+    public int get(int cardNum) {
+        return (int)(words[cardNum / FIELDS_PER_WORD] >>> shift(cardNum)) & 0xF;
+    }
+
+    public void add(int cardNum) {
+        if(get(cardNum) == MAX_COUNT) {
+            throw new IllegalStateException("More than " + MAX_COUNT + " copies of card " + cardNum);
+        }
+        words[cardNum / FIELDS_PER_WORD] += 1L << shift(cardNum);
+        size++;
+    }
+
+    // Returns false if there was no copy of cardNum to remove
+    public boolean remove(int cardNum) {
+        if(get(cardNum) == 0) {
+            return false;
+        }
+        words[cardNum / FIELDS_PER_WORD] -= 1L << shift(cardNum);
+        size--;
+        return true;
+    }
+
+    // Removes every card in other, which this must contain
+    public void removeAll(CardCounts other) {
+        if(!containsAll(other)) {
+            throw new IllegalStateException("Removing cards which aren't there");
+        }
+        for(int i = 0; i < words.length; i++) {
+            words[i] -= other.words[i];
+        }
+        size -= other.size;
+    }
+
+    public boolean contains(int cardNum) {
+        return get(cardNum) > 0;
+    }
+
+    // Whether this holds at least as many copies of every card as other does
+    public boolean containsAll(CardCounts other) {
+        for(int i = 0; i < words.length; i++) {
+            if((((words[i] | FIELD_TOP_BITS) - other.words[i]) & FIELD_TOP_BITS) != FIELD_TOP_BITS) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The total number of cards
+    public int size() {
+        return size;
+    }
+
+    // The lowest card number from fromCardNum on with at least one copy, or -1 if there isn't one. Empty fields are
+    // skipped a word at a time.
+    public int nextCardNum(int fromCardNum) {
+        int i = fromCardNum / FIELDS_PER_WORD;
+        if(i >= words.length) {
+            return -1;
+        }
+        long word = words[i] & (-1L << shift(fromCardNum));
+        while(word == 0) {
+            if(++i == words.length) {
+                return -1;
+            }
+            word = words[i];
+        }
+        return i * FIELDS_PER_WORD + Long.numberOfTrailingZeros(word) / 4;
+    }
+
+    // The number of different card numbers with at least one copy
+    public int numDistinct() {
+        int numDistinct = 0;
+        for(long word : words) {
+            numDistinct += Long.bitCount((word | (word >>> 1) | (word >>> 2) | (word >>> 3)) & FIELD_LOW_BITS);
+        }
+        return numDistinct;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(words, 0);
+        size = 0;
+    }
+
+    private static int shift(int cardNum) {
+        return (cardNum % FIELDS_PER_WORD) * 4;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CardCounts && Arrays.equals(words, ((CardCounts)o).words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+}
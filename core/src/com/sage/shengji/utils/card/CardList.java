@@ -113,7 +113,11 @@ public class CardList<T extends Card> extends ArrayList<T> {
     }
 
     public ArrayList<Integer> toCardNumList() {
-        return stream().mapToInt(Card::getCardNum).boxed().collect(Collectors.toCollection(ArrayList::new));
+        ArrayList<Integer> cardNums = new ArrayList<>(size());
+        for(T c : this) {
+            cardNums.add(c.getCardNum());
+        }
+        return cardNums;
     }
 
     public static <T extends Card> CardList<T> fromCardNumList(Collection<Integer> cardNumList, CardSupplier<T> supplier) {
@@ -0,0 +1,22 @@
+package com.sage.shengji.utils.log;
+
+import java.io.PrintStream;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+// Writes timestamped lines to stdout, and errors to stderr
+public class ConsoleLogBackend implements LogBackend {
+    private static final DateTimeFormatter timestampFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    @Override
+    public void log(Log.Level level, String tag, String message, Throwable throwable) {
+        PrintStream out = (level == Log.Level.ERROR) ? System.err : System.out;
+        String line = LocalDateTime.now().format(timestampFormat) + " " + level + " [" + tag + "] " + message;
+        synchronized(out) {
+            out.println(line);
+            if(throwable != null) {
+                throwable.printStackTrace(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package com.sage.shengji.utils.log;
+
+import com.badlogic.gdx.Gdx;
+
+// Forwards to Gdx.app, which applies its own log level on top of ours
+public class GdxLogBackend implements LogBackend {
+    @Override
+    public void log(Log.Level level, String tag, String message, Throwable throwable) {
+        if(Gdx.app == null) {
+            return;
+        }
+        switch(level) {
+        case DEBUG:
+            if(throwable == null) Gdx.app.debug(tag, message);
+            else Gdx.app.debug(tag, message, throwable);
+            break;
+        case INFO:
+            if(throwable == null) Gdx.app.log(tag, message);
+            else Gdx.app.log(tag, message, throwable);
+            break;
+        case ERROR:
+            if(throwable == null) Gdx.app.error(tag, message);
+            else Gdx.app.error(tag, message, throwable);
+            break;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.sage.shengji.utils.log;
+
+import com.badlogic.gdx.Gdx;
+
+// Logging for code which may run without a libGDX application, such as the server. Messages go to whichever backend
+// was set with setBackend(). With no backend set, they go to Gdx.app if there is one and to the console otherwise.
+public final class Log {
+    public enum Level {
+        DEBUG,
+        INFO,
+        ERROR,
+    }
+
+    private static final LogBackend gdxBackend = new GdxLogBackend();
+    private static final LogBackend consoleBackend = new ConsoleLogBackend();
+
+    private static volatile LogBackend backend = null;
+    private static volatile Level minLevel = Level.INFO;
+
+    private Log() {
+    }
+
+    public static void setBackend(LogBackend backend) {
+        Log.backend = backend;
+    }
+
+    // Messages below minLevel are discarded before they reach the backend
+    public static void setLevel(Level minLevel) {
+        Log.minLevel = minLevel;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(minLevel) >= 0;
+    }
+
+    public static void debug(String tag, String message) {
+        log(Level.DEBUG, tag, message, null);
+    }
+
+    public static void info(String tag, String message) {
+        log(Level.INFO, tag, message, null);
+    }
+
+    public static void error(String tag, String message) {
+        log(Level.ERROR, tag, message, null);
+    }
+
+    public static void error(String tag, String message, Throwable throwable) {
+        log(Level.ERROR, tag, message, throwable);
+    }
+
+    public static void log(Level level, String tag, String message, Throwable throwable) {
+        if(!isEnabled(level)) {
+            return;
+        }
+        LogBackend b = backend;
+        if(b == null) {
+            b = (Gdx.app != null) ? gdxBackend : consoleBackend;
+        }
+        b.log(level, tag, message, throwable);
+    }
+}
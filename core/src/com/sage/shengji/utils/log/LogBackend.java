@@ -0,0 +1,6 @@
+package com.sage.shengji.utils.log;
+
+public interface LogBackend {
+    // throwable may be null
+    void log(Log.Level level, String tag, String message, Throwable throwable);
+}
@@ -0,0 +1,95 @@
+package com.sage.shengji.utils.network;
+
+// Rolling network statistics for one end of a connection. Round trip times are smoothed the same way TCP smooths them:
+// the RTT is an exponentially weighted moving average with a gain of 1/8, and jitter is the moving average of each
+// sample's deviation from it, with a gain of 1/4.
+//
+// Both the client and the server keep one of these per connection. Byte counts include each frame's 4 byte length.
+public class NetworkStats {
+    private static final double RTT_GAIN = 1 / 8d;
+    private static final double JITTER_GAIN = 1 / 4d;
+
+    private long packetsIn = 0;
+    private long packetsOut = 0;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+
+    private long rttSamples = 0;
+    private long lastRttNanos = 0;
+    private long minRttNanos = Long.MAX_VALUE;
+    private double smoothedRttNanos = 0;
+    private double jitterNanos = 0;
+
+    public synchronized void recordPacketIn(int frameSize) {
+        packetsIn++;
+        bytesIn += frameSize + Integer.BYTES;
+    }
+
+    public synchronized void recordPacketOut(int frameSize) {
+        packetsOut++;
+        bytesOut += frameSize + Integer.BYTES;
+    }
+
+    public synchronized void recordRtt(long rttNanos) {
+        if(rttNanos < 0) {
+            return;
+        }
+        if(rttSamples++ == 0) {
+            smoothedRttNanos = rttNanos;
+            jitterNanos = rttNanos / 2d;
+        } else {
+            jitterNanos += JITTER_GAIN * (Math.abs(rttNanos - smoothedRttNanos) - jitterNanos);
+            smoothedRttNanos += RTT_GAIN * (rttNanos - smoothedRttNanos);
+        }
+        lastRttNanos = rttNanos;
+        minRttNanos = Math.min(minRttNanos, rttNanos);
+    }
+
+    public synchronized long getPacketsIn() {
+        return packetsIn;
+    }
+
+    public synchronized long getPacketsOut() {
+        return packetsOut;
+    }
+
+    public synchronized long getBytesIn() {
+        return bytesIn;
+    }
+
+    public synchronized long getBytesOut() {
+        return bytesOut;
+    }
+
+    public synchronized long getRttSamples() {
+        return rttSamples;
+    }
+
+    public synchronized boolean hasRtt() {
+        return rttSamples > 0;
+    }
+
+    public synchronized long getLastRttNanos() {
+        return lastRttNanos;
+    }
+
+    // 0 until the first sample
+    public synchronized long getMinRttNanos() {
+        return (rttSamples == 0) ? 0 : minRttNanos;
+    }
+
+    public synchronized long getSmoothedRttNanos() {
+        return (long)smoothedRttNanos;
+    }
+
+    public synchronized long getJitterNanos() {
+        return (long)jitterNanos;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("rtt %.1f ms (min %.1f, jitter %.1f), in %d packets/%d bytes, out %d packets/%d bytes",
+                smoothedRttNanos / 1e6, getMinRttNanos() / 1e6, jitterNanos / 1e6,
+                packetsIn, bytesIn, packetsOut, bytesOut);
+    }
+}
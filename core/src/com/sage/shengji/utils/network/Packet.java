@@ -22,14 +22,24 @@ public abstract class Packet<T extends NetworkCode> implements Serializable {
         return data.get(key);
     }
 
+    // Encodes with PacketCodec, falling back to Java serialization if the packet holds something the codec can't represent
     public byte[] toBytes() throws SerializationException {
+        byte[] bytes = PacketCodec.encode(this);
+        return (bytes != null) ? bytes : toLegacyBytes();
+    }
+
+    public byte[] toBytes(WireFormat format) throws SerializationException {
+        return (format == WireFormat.BINARY) ? toBytes() : toLegacyBytes();
+    }
+
+    public byte[] toLegacyBytes() throws SerializationException {
         return SerializationUtils.serialize(this);
     }
 
     public static Packet fromBytes(byte[] bytes) throws SerializationException {
         try {
             return SerializationUtils.deserialize(bytes);
-        } catch(ClassCastException | IllegalArgumentException e) {
+        } catch(ClassCastException | IllegalArgumentException | org.apache.commons.lang3.SerializationException e) {
             throw new SerializationException("Could not deserialize, caused by " + e.getClass().toString());
         }
     }
@@ -0,0 +1,382 @@
+package com.sage.shengji.utils.network;
+
+import com.badlogic.gdx.utils.SerializationException;
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.card.Suit;
+import com.sage.shengji.utils.shengji.Team;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Compact binary encoding for packets. A frame looks like:
+//   MAGIC, VERSION, network code ordinal, varint entry count, then (key, tagged value) for each entry.
+// Keys from KEYS are written as their 1-based index; any other key is written as 0 followed by the string.
+// Card number lists are written one byte per card. Packets containing anything this codec can't represent are
+// encoded with Java serialization instead, which fromBytes() on either end still understands.
+//
+// Network codes are keyed by ordinal, so changing the order of ServerCode/ClientCode or of KEYS requires bumping VERSION.
+public final class PacketCodec {
+    public static final byte MAGIC = 0x53;
+    public static final byte VERSION = 1; // Java serialization streams begin with 0xACED, so they never start with MAGIC
+
+    private static final String[] KEYS = {
+            "player", "playernum", "message", "order", "cardnum", "rank", "table", "play", "kitty", "winner",
+            "rankchange", "name", "you", "winningteam", "winningplayers", "trumpsuit", "trumprank",
+            "totalcollectedpoints", "teamsmap", "rankincrease", "players", "playerorder", "numpointsneeded",
+            "numfriendcards", "leadingplayer", "kittypointsmultiplier", "kittycards", "invalidatedfriendcards", "host",
+            "hand", "friendcards", "collectedpointsbeforekitty", "cardnums", "card", "callorder", "callcardnum",
+            "pointcardsmap", "pointcards", "collectedpointcards", "delta", "teamsdelta", "pointcardsdelta", "t",
+            "echo",
+    };
+    private static final Map<String, Integer> KEY_INDICES = new HashMap<>();
+
+    static {
+        for(int i = 0; i < KEYS.length; i++) {
+            KEY_INDICES.put(KEYS[i], i + 1);
+        }
+    }
+
+    // Value tags
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte FALSE = 3;
+    private static final byte TRUE = 4;
+    private static final byte STRING = 5;
+    private static final byte CARD_LIST = 6;
+    private static final byte INT_LIST = 7;
+    private static final byte INT_ARRAY = 8;
+    private static final byte RANK = 9;
+    private static final byte SUIT = 10;
+    private static final byte TEAM = 11;
+    private static final byte MAP = 12;
+
+    private static final Rank[] RANKS = Rank.values();
+    private static final Suit[] SUITS = Suit.values();
+    private static final Team[] TEAMS = Team.values();
+
+    private static final ThreadLocal<Writer> writers = ThreadLocal.withInitial(Writer::new);
+
+    private PacketCodec() {
+    }
+
+    public static boolean isBinaryFrame(byte[] bytes) {
+        return bytes.length >= 2 && bytes[0] == MAGIC;
+    }
+
+    // Returns null if the packet contains something that can't be represented in the binary format
+    public static byte[] encode(Packet<?> packet) {
+        Writer w = writers.get();
+        w.reset();
+        try {
+            w.writeByte(MAGIC);
+            w.writeByte(VERSION);
+            w.writeByte(packet.networkCode == null ? -1 : ((Enum<?>)packet.networkCode).ordinal());
+            w.writeVarInt(packet.data.size());
+            for(Map.Entry<Serializable, Serializable> entry : packet.data.entrySet()) {
+                if(!(entry.getKey() instanceof String)) {
+                    return null;
+                }
+                writeKey(w, (String)entry.getKey());
+                writeValue(w, entry.getValue());
+            }
+        } catch(UnencodableException | ClassCastException e) {
+            return null;
+        }
+        return w.toByteArray();
+    }
+
+    // The network code of a binary frame, read without decoding the rest of the frame. Returns null if the frame isn't
+    // a binary frame of this version or has no network code.
+    public static <T extends Enum<T> & NetworkCode> T peekNetworkCode(byte[] bytes, T[] codes) {
+        if(!isBinaryFrame(bytes) || bytes.length < 3 || bytes[1] != VERSION) {
+            return null;
+        }
+        int ordinal = bytes[2];
+        return (ordinal >= 0 && ordinal < codes.length) ? codes[ordinal] : null;
+    }
+
+    public static <T extends Enum<T> & NetworkCode, P extends Packet<T>> P decode(byte[] bytes, T[] codes, P packet)
+            throws SerializationException {
+        Reader r = new Reader(bytes);
+        try {
+            if(r.readByte() != MAGIC) {
+                throw new SerializationException("Not a binary packet");
+            }
+            int version = r.readByte();
+            if(version != VERSION) {
+                throw new SerializationException("Unsupported packet codec version " + version);
+            }
+            int ordinal = r.readByte();
+            packet.networkCode = (ordinal == -1) ? null : codes[ordinal];
+            int numEntries = r.readVarInt();
+            for(int i = 0; i < numEntries; i++) {
+                String key = readKey(r);
+                packet.data.put(key, readValue(r));
+            }
+        } catch(ArrayIndexOutOfBoundsException | NegativeArraySizeException | IllegalArgumentException e) {
+            throw new SerializationException("Malformed binary packet: " + e);
+        }
+        return packet;
+    }
+
+    private static void writeKey(Writer w, String key) {
+        Integer idx = KEY_INDICES.get(key);
+        if(idx != null) {
+            w.writeVarInt(idx);
+        } else {
+            w.writeVarInt(0);
+            w.writeString(key);
+        }
+    }
+
+    private static String readKey(Reader r) {
+        int idx = r.readVarInt();
+        return (idx == 0) ? r.readString() : KEYS[idx - 1];
+    }
+
+    private static void writeValue(Writer w, Object value) throws UnencodableException {
+        if(value == null) {
+            w.writeByte(NULL);
+        } else if(value instanceof Integer) {
+            w.writeByte(INT);
+            w.writeVarInt(zigZag((Integer)value));
+        } else if(value instanceof Long) {
+            w.writeByte(LONG);
+            w.writeVarLong(zigZag((Long)value));
+        } else if(value instanceof Boolean) {
+            w.writeByte((Boolean)value ? TRUE : FALSE);
+        } else if(value instanceof String) {
+            w.writeByte(STRING);
+            w.writeString((String)value);
+        } else if(value instanceof Rank) {
+            w.writeByte(RANK);
+            w.writeByte(((Rank)value).ordinal());
+        } else if(value instanceof Suit) {
+            w.writeByte(SUIT);
+            w.writeByte(((Suit)value).ordinal());
+        } else if(value instanceof Team) {
+            w.writeByte(TEAM);
+            w.writeByte(((Team)value).ordinal());
+        } else if(value instanceof int[]) {
+            int[] arr = (int[])value;
+            w.writeByte(INT_ARRAY);
+            w.writeVarInt(arr.length);
+            for(int i : arr) {
+                w.writeVarInt(zigZag(i));
+            }
+        } else if(value instanceof List) {
+            writeIntList(w, (List<?>)value);
+        } else if(value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            w.writeByte(MAP);
+            w.writeVarInt(map.size());
+            for(Map.Entry<?, ?> entry : map.entrySet()) {
+                writeValue(w, entry.getKey());
+                writeValue(w, entry.getValue());
+            }
+        } else {
+            throw new UnencodableException();
+        }
+    }
+
+    private static void writeIntList(Writer w, List<?> list) throws UnencodableException {
+        boolean allCardNums = true;
+        for(Object o : list) {
+            if(!(o instanceof Integer)) {
+                throw new UnencodableException();
+            }
+            allCardNums &= Card.isValidCardNum((Integer)o);
+        }
+
+        w.writeByte(allCardNums ? CARD_LIST : INT_LIST);
+        w.writeVarInt(list.size());
+        for(Object o : list) {
+            if(allCardNums) {
+                w.writeByte((Integer)o);
+            } else {
+                w.writeVarInt(zigZag((Integer)o));
+            }
+        }
+    }
+
+    private static Serializable readValue(Reader r) {
+        byte tag = r.readByte();
+        switch(tag) {
+        case NULL:
+            return null;
+        case INT:
+            return unZigZag(r.readVarInt());
+        case LONG:
+            return unZigZag(r.readVarLong());
+        case FALSE:
+            return Boolean.FALSE;
+        case TRUE:
+            return Boolean.TRUE;
+        case STRING:
+            return r.readString();
+        case RANK:
+            return RANKS[r.readByte()];
+        case SUIT:
+            return SUITS[r.readByte()];
+        case TEAM:
+            return TEAMS[r.readByte()];
+        case INT_ARRAY: {
+            int[] arr = new int[r.readVarInt()];
+            for(int i = 0; i < arr.length; i++) {
+                arr[i] = unZigZag(r.readVarInt());
+            }
+            return arr;
+        }
+        case CARD_LIST: {
+            int size = r.readVarInt();
+            ArrayList<Integer> list = new ArrayList<>(size);
+            for(int i = 0; i < size; i++) {
+                list.add((int)r.readByte()); // Boxed values 0-53 come from the Integer cache
+            }
+            return list;
+        }
+        case INT_LIST: {
+            int size = r.readVarInt();
+            ArrayList<Integer> list = new ArrayList<>(size);
+            for(int i = 0; i < size; i++) {
+                list.add(unZigZag(r.readVarInt()));
+            }
+            return list;
+        }
+        case MAP: {
+            int size = r.readVarInt();
+            HashMap<Serializable, Serializable> map = new HashMap<>();
+            for(int i = 0; i < size; i++) {
+                Serializable key = readValue(r);
+                map.put(key, readValue(r));
+            }
+            return map;
+        }
+        default:
+            throw new IllegalArgumentException("Unknown value tag " + tag);
+        }
+    }
+
+    private static int zigZag(int i) {
+        return (i << 1) ^ (i >> 31);
+    }
+
+    private static long zigZag(long l) {
+        return (l << 1) ^ (l >> 63);
+    }
+
+    private static int unZigZag(int i) {
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    private static long unZigZag(long l) {
+        return (l >>> 1) ^ -(l & 1);
+    }
+
+    private static class UnencodableException extends Exception {
+        UnencodableException() {
+            super(null, null, false, false);
+        }
+    }
+
+    // Growable buffer reused by each thread, so encoding only allocates the returned array
+    private static class Writer {
+        private byte[] buf = new byte[256];
+        private int pos = 0;
+
+        void reset() {
+            pos = 0;
+        }
+
+        void ensureCapacity(int extra) {
+            if(pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+
+        void writeByte(int b) {
+            ensureCapacity(1);
+            buf[pos++] = (byte)b;
+        }
+
+        void writeVarInt(int i) {
+            ensureCapacity(5);
+            while((i & ~0x7F) != 0) {
+                buf[pos++] = (byte)((i & 0x7F) | 0x80);
+                i >>>= 7;
+            }
+            buf[pos++] = (byte)i;
+        }
+
+        void writeVarLong(long l) {
+            ensureCapacity(10);
+            while((l & ~0x7FL) != 0) {
+                buf[pos++] = (byte)((l & 0x7F) | 0x80);
+                l >>>= 7;
+            }
+            buf[pos++] = (byte)l;
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    private static class Reader {
+        private final byte[] buf;
+        private int pos = 0;
+
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+
+        byte readByte() {
+            return buf[pos++];
+        }
+
+        int readVarInt() {
+            int result = 0;
+            for(int shift = 0; shift < 32; shift += 7) {
+                byte b = buf[pos++];
+                result |= (b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for(int shift = 0; shift < 64; shift += 7) {
+                byte b = buf[pos++];
+                result |= (long)(b & 0x7F) << shift;
+                if((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        String readString() {
+            int length = readVarInt();
+            if(length < 0 || pos + length > buf.length) {
+                throw new IllegalArgumentException("Malformed string");
+            }
+            String s = new String(buf, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+    }
+}
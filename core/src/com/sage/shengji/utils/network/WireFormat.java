@@ -0,0 +1,13 @@
+package com.sage.shengji.utils.network;
+
+public enum WireFormat {
+    // PacketCodec's compact binary frames
+    BINARY,
+
+    // Java serialization of the whole packet, spoken by older clients
+    JAVA_SERIALIZATION;
+
+    public static WireFormat of(byte[] frame) {
+        return PacketCodec.isBinaryFrame(frame) ? BINARY : JAVA_SERIALIZATION;
+    }
+}
@@ -43,30 +43,42 @@ public class RenderableHand<T extends Card & RenderableCard> extends RenderableC
         super.render(batch, viewport, renderBase);
     }
 
+    // A hand is always kept sorted, so added cards are inserted in place rather than re-sorting the whole hand. The index
+    // passed to add(int, T) and addAll(int, Collection) is ignored.
     @Override
     public boolean add(T t) {
-        boolean ret = super.add(t);
-        sort(Card::compareTo);
-        return ret;
+        super.add(sortedInsertionIdx(t), t);
+        return true;
     }
 
     @Override
     public void add(int index, T element) {
-        super.add(index, element);
-        sort(Card::compareTo);
+        add(element);
     }
 
     @Override
     public boolean addAll(Collection<? extends T> c) {
-        boolean ret = super.addAll(c);
-        sort(Card::compareTo);
-        return ret;
+        c.forEach(this::add);
+        return !c.isEmpty();
     }
 
     @Override
     public boolean addAll(int index, Collection<? extends T> c) {
-        boolean ret = super.addAll(index, c);
-        sort(Card::compareTo);
-        return ret;
+        return addAll(c);
+    }
+
+    // The index after every card which doesn't sort after t, so equal cards keep the order they were added in
+    private int sortedInsertionIdx(T t) {
+        int low = 0;
+        int high = size();
+        while(low < high) {
+            int mid = (low + high) >>> 1;
+            if(get(mid).compareTo(t) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 }
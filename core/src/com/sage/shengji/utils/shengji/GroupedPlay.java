@@ -0,0 +1,208 @@
+package com.sage.shengji.utils.shengji;
+
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.Suit;
+
+import java.util.Arrays;
+
+// A play as the rules see it: its groups of identical cards in ascending hierarchical value, under one trump. Whether a
+// play is trash, its hierarchical value and whether it follows the base play's structure depend only on this.
+//
+// The cards are tallied by card number. Only the card numbers in the play are visited, and a play has few groups, so
+// they're sorted into hierarchical order as they're found (ties go by card number, as in getCardNumsByHierarchy()), and
+// everything else is worked out from the sorted groups.
+public final class GroupedPlay {
+    private final TrumpContext trump;
+    private final int size;
+    private final int[] groupCardNums;
+    private final int[] structure;
+
+    // A play of more than one group only has a hierarchical value if it's a run: groups of at least two cards, all in
+    // the same effective suit, with consecutive hierarchical values
+    private final boolean isRun;
+
+    private GroupedPlay(CardCounts counts, TrumpContext trump) {
+        this.trump = trump;
+        this.size = counts.size();
+
+        int numGroups = counts.numDistinct();
+        groupCardNums = new int[numGroups];
+        structure = new int[numGroups];
+
+        // Card numbers come out in ascending order, so a card only goes before the groups with a higher value
+        int numSorted = 0;
+        for(int cardNum = counts.nextCardNum(0); cardNum != -1; cardNum = counts.nextCardNum(cardNum + 1)) {
+            int value = trump.getHierarchicalValue(cardNum);
+            int group = numSorted++;
+            for(; group > 0 && value < trump.getHierarchicalValue(groupCardNums[group - 1]); group--) {
+                groupCardNums[group] = groupCardNums[group - 1];
+                structure[group] = structure[group - 1];
+            }
+            groupCardNums[group] = cardNum;
+            structure[group] = counts.get(cardNum);
+        }
+
+        boolean isRun = true;
+        for(int group = 0; group < numGroups; group++) {
+            int cardNum = groupCardNums[group];
+            if(numGroups > 1 && structure[group] == 1) {
+                isRun = false;
+            }
+            if(group > 0) {
+                int prev = groupCardNums[group - 1];
+                if(trump.getHierarchicalValue(cardNum) != trump.getHierarchicalValue(prev) + 1
+                        || trump.getEffectiveSuit(cardNum) != trump.getEffectiveSuit(groupCardNums[0])) {
+                    isRun = false;
+                }
+            }
+        }
+        this.isRun = isRun;
+    }
+
+    public static GroupedPlay of(Iterable<? extends Card> cards, TrumpContext trump) {
+        CardCounts counts = new CardCounts();
+        for(Card c : cards) {
+            counts.add(c.getCardNum());
+        }
+        return new GroupedPlay(counts, trump);
+    }
+
+    public static GroupedPlay of(CardCounts cards, TrumpContext trump) {
+        return new GroupedPlay(cards, trump);
+    }
+
+    public TrumpContext getTrumpContext() {
+        return trump;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getNumGroups() {
+        return structure.length;
+    }
+
+    public int getGroupCardNum(int group) {
+        return groupCardNums[group];
+    }
+
+    public int getGroupSize(int group) {
+        return structure[group];
+    }
+
+    // The size of each group, in ascending hierarchical value
+    public int[] getStructure() {
+        return structure.clone();
+    }
+
+    public boolean hasStructureOf(GroupedPlay other) {
+        return Arrays.equals(structure, other.structure);
+    }
+
+    // Whether hand holds at least as many copies of each card as this play
+    public boolean isHeldBy(CardCounts hand) {
+        for(int group = 0; group < groupCardNums.length; group++) {
+            if(hand.get(groupCardNums[group]) < structure[group]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // The effective suit of the lowest group. Unless the play is trash, this is the effective suit of every card in it.
+    public Suit getEffectiveSuit() {
+        return trump.getEffectiveSuit(groupCardNums[0]);
+    }
+
+    public boolean isTrump() {
+        return trump.isTrump(groupCardNums[0]);
+    }
+
+    // The hierarchical value of this play when following basePlay, or when leading if basePlay is null. This is 0 for a
+    // trash play, -1 for an empty play, and otherwise the hierarchical value of the lowest group.
+    public int getHierarchicalValue(GroupedPlay basePlay) {
+        if(size == 0) {
+            return -1;
+        } else if(isRun && (basePlay == null || compliesWith(basePlay))) {
+            return trump.getHierarchicalValue(groupCardNums[0]);
+        } else {
+            return 0;
+        }
+    }
+
+    // Whether this play has the base play's structure and starts in its suit or in trump
+    private boolean compliesWith(GroupedPlay basePlay) {
+        return hasStructureOf(basePlay)
+                && size == basePlay.size
+                && (isTrump() || getEffectiveSuit() == basePlay.getEffectiveSuit());
+    }
+
+    // A trash play still has to follow the base play as far as the hand it came from can. Going through the base play's
+    // groups from largest to smallest, whenever the hand holds a group of the base suit which fits (or, failing that,
+    // the largest smaller group which does), the play must contain a group of that size in the base suit too. Groups are
+    // only told apart by size here, so the hand's and the play's groups in the base suit are just tallied by size.
+    //
+    // hand must contain this play.
+    public boolean followsStructureOf(GroupedPlay basePlay, CardCounts hand) {
+        Suit basePlayEffectiveSuit = basePlay.getEffectiveSuit();
+        int[] handGroupsBySize = new int[CardCounts.MAX_COUNT + 1];
+        for(int cardNum : trump.getCardNumsInEffectiveSuit(basePlayEffectiveSuit)) {
+            handGroupsBySize[hand.get(cardNum)]++;
+        }
+        int[] playGroupsBySize = new int[CardCounts.MAX_COUNT + 1];
+        for(int group = 0; group < groupCardNums.length; group++) {
+            if(trump.getEffectiveSuit(groupCardNums[group]) == basePlayEffectiveSuit) {
+                playGroupsBySize[structure[group]]++;
+            }
+        }
+        return followsStructure(basePlay.structure, handGroupsBySize, playGroupsBySize);
+    }
+
+    // handGroupsBySize and playGroupsBySize are used up
+    static boolean followsStructure(int[] basePlayStructure, int[] handGroupsBySize, int[] playGroupsBySize) {
+        int[] sortedStructure = basePlayStructure.clone();
+        Arrays.sort(sortedStructure);
+        return followsSortedStructure(sortedStructure, handGroupsBySize, playGroupsBySize);
+    }
+
+    // The same, for a base play structure which is already sorted in ascending order
+    static boolean followsSortedStructure(int[] sortedStructure, int[] handGroupsBySize, int[] playGroupsBySize) {
+        for(int i = sortedStructure.length - 1; i >= 0; i--) {
+            int unmatched = sortedStructure[i];
+            for(int tuple = unmatched; tuple >= 1; tuple--) {
+                if(handGroupsBySize[tuple] == 0) {
+                    continue;
+                }
+                if(playGroupsBySize[tuple] == 0) {
+                    return false;
+                }
+                handGroupsBySize[tuple]--;
+                playGroupsBySize[tuple]--;
+                if(tuple == unmatched) {
+                    break;
+                }
+
+                // The rest of the base group still needs matching. tuple isn't allowed to decrease, since after
+                // matching a group of this size there may be another one in the hand.
+                unmatched -= tuple;
+                tuple = Math.min(tuple, unmatched) + 1;
+            }
+        }
+        return true;
+    }
+
+    // The number of cards in hand whose effective suit is effectiveSuit
+    public static int countEffectiveSuit(CardCounts hand, Suit effectiveSuit, TrumpContext trump) {
+        int count = 0;
+        for(int cardNum : trump.getCardNumsInEffectiveSuit(effectiveSuit)) {
+            count += hand.get(cardNum);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,274 @@
+package com.sage.shengji.utils.shengji;
+
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.Suit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+// Lists the legal plays a hand can make, either to start a trick or in response to the trick's base play, under the
+// same rules as PlayRules. Plays are generated as CardCounts, so plays which differ only in which copy of
+// a card they use come out once.
+//
+// Starting a trick, the legal plays are the single groups of identical cards and the runs, so they're built directly.
+// Responding, a play is the cards it takes from the base play's effective suit plus filler from the rest of the hand.
+// Whether a play follows the base play's structure depends only on the first part, so each way of taking cards from the
+// base suit is checked once, and only the ones which pass are combined with every possible filler.
+//
+// There can be a great many legal responses when the hand is out of the base suit, so they can also be visited one at a
+// time, stopping early.
+public class LegalPlayGenerator {
+    private final TrumpContext trump;
+
+    public LegalPlayGenerator(TrumpContext trump) {
+        this.trump = trump;
+    }
+
+    public TrumpContext getTrumpContext() {
+        return trump;
+    }
+
+    // Every play which could start a trick
+    public List<CardCounts> basePlays(CardCounts hand) {
+        return basePlays(hand, -1);
+    }
+
+    // Every play of numCards cards which could start a trick
+    public List<CardCounts> basePlays(CardCounts hand, int numCards) {
+        List<CardCounts> plays = new ArrayList<>();
+        CardCounts play = new CardCounts();
+        for(int cardNum : trump.getCardNumsByHierarchy()) {
+            int count = hand.get(cardNum);
+            for(int size = 1; size <= count; size++) {
+                play.add(cardNum);
+                if(numCards < 0 || size == numCards) {
+                    plays.add(new CardCounts(play));
+                }
+                if(size >= 2) {
+                    extendRun(hand, numCards, cardNum, play, plays);
+                }
+            }
+            play.clear();
+        }
+        return plays;
+    }
+
+    // Adds every run which continues play from its highest group, lastCardNum
+    private void extendRun(CardCounts hand, int numCards, int lastCardNum, CardCounts play, List<CardCounts> plays) {
+        if(numCards >= 0 && play.size() + 2 > numCards) {
+            return;
+        }
+        int nextHierarchicalValue = trump.getHierarchicalValue(lastCardNum) + 1;
+        for(int cardNum : trump.getCardNumsInEffectiveSuit(trump.getEffectiveSuit(lastCardNum))) {
+            if(trump.getHierarchicalValue(cardNum) != nextHierarchicalValue) {
+                continue;
+            }
+            int count = hand.get(cardNum);
+            for(int size = 1; size <= count; size++) {
+                play.add(cardNum);
+                if(size >= 2) {
+                    if(numCards < 0 || play.size() == numCards) {
+                        plays.add(new CardCounts(play));
+                    }
+                    extendRun(hand, numCards, cardNum, play, plays);
+                }
+            }
+            for(int i = 0; i < count; i++) {
+                play.remove(cardNum);
+            }
+        }
+    }
+
+    // Every legal response to basePlay
+    public List<CardCounts> responses(CardCounts hand, GroupedPlay basePlay) {
+        List<CardCounts> plays = new ArrayList<>();
+        forEachResponse(hand, basePlay, plays::add);
+        return plays;
+    }
+
+    // Visits every legal response to basePlay until visitor returns false. Returns false if it was stopped early. The
+    // visitor may keep the CardCounts it's given.
+    public boolean forEachResponse(CardCounts hand, GroupedPlay basePlay, Predicate<CardCounts> visitor) {
+        return new Responses(hand, basePlay, visitor).run();
+    }
+
+    // Whether any play from hand can respond to basePlay legally
+    public boolean hasResponse(CardCounts hand, GroupedPlay basePlay) {
+        return !forEachResponse(hand, basePlay, play -> false);
+    }
+
+    private class Responses {
+        private final CardCounts hand;
+        private final GroupedPlay basePlay;
+        private final Predicate<CardCounts> visitor;
+
+        private final Suit baseSuit;
+        private final int[] sortedBaseStructure;
+        private final int numCards;
+
+        // The base play's groups tallied by size. A play wholly in the base suit can only match the base play's
+        // structure if its groups tally the same.
+        private final int[] baseGroupsBySize = new int[CardCounts.MAX_COUNT + 1];
+
+        // The card numbers in the hand from the base suit, and from everywhere else. Most responses need no filler, so
+        // those are only found once one does.
+        private final int[] baseSuitCardNums;
+        private int[] fillerCardNums = null;
+        private final int numFillerCards;
+
+        // Whether a trump play which isn't trash is illegal, because the hand still holds some of the base suit
+        private final boolean trumpRestricted;
+
+        // The hand's groups in the base suit, tallied by size
+        private final int[] handGroupsBySize = new int[CardCounts.MAX_COUNT + 1];
+
+        private final CardCounts play = new CardCounts();
+        private int baseSuitPart = 0;
+
+        // The play's groups in the base suit, tallied by size, which are kept up to date as cards are chosen
+        private final int[] playGroupsBySize = new int[CardCounts.MAX_COUNT + 1];
+
+        Responses(CardCounts hand, GroupedPlay basePlay, Predicate<CardCounts> visitor) {
+            this.hand = hand;
+            this.basePlay = basePlay;
+            this.visitor = visitor;
+            baseSuit = basePlay.getEffectiveSuit();
+            sortedBaseStructure = basePlay.getStructure();
+            Arrays.sort(sortedBaseStructure);
+            for(int groupSize : sortedBaseStructure) {
+                baseGroupsBySize[groupSize]++;
+            }
+            numCards = basePlay.size();
+
+            int[] suitCardNums = trump.getCardNumsInEffectiveSuit(baseSuit);
+            int numBaseSuitCards = 0;
+            int numInSuit = 0;
+            for(int cardNum : suitCardNums) {
+                int count = hand.get(cardNum);
+                handGroupsBySize[count]++;
+                if(count > 0) {
+                    numInSuit++;
+                    numBaseSuitCards += count;
+                }
+            }
+            // The suit's card numbers are already in hierarchical order
+            baseSuitCardNums = new int[numInSuit];
+            int inSuitIdx = 0;
+            for(int cardNum : suitCardNums) {
+                if(hand.get(cardNum) > 0) {
+                    baseSuitCardNums[inSuitIdx++] = cardNum;
+                }
+            }
+            numFillerCards = hand.size() - numBaseSuitCards;
+            playGroupsBySize[0] = numInSuit;
+            trumpRestricted = baseSuit != trump.trumpSuit && numBaseSuitCards > 0;
+        }
+
+        boolean run() {
+            return chooseBaseSuitPart(0);
+        }
+
+        // Chooses how many of baseSuitCardNums[idx] and onwards go into the play
+        private boolean chooseBaseSuitPart(int idx) {
+            if(idx == baseSuitCardNums.length || baseSuitPart == numCards) {
+                return baseSuitPartChosen();
+            }
+            int cardNum = baseSuitCardNums[idx];
+            int max = Math.min(hand.get(cardNum), numCards - baseSuitPart);
+            boolean cont = chooseBaseSuitPart(idx + 1);
+            int taken = 0;
+            while(cont && taken < max) {
+                play.add(cardNum);
+                playGroupsBySize[taken]--;
+                playGroupsBySize[taken + 1]++;
+                baseSuitPart++;
+                taken++;
+                cont = chooseBaseSuitPart(idx + 1);
+            }
+            for(int i = 0; i < taken; i++) {
+                play.remove(cardNum);
+            }
+            playGroupsBySize[taken]--;
+            playGroupsBySize[0]++;
+            baseSuitPart -= taken;
+            return cont;
+        }
+
+        private boolean baseSuitPartChosen() {
+            int fillerNeeded = numCards - baseSuitPart;
+            if(fillerNeeded > numFillerCards) {
+                return true;
+            }
+
+            // A play wholly in the base suit which isn't trash is always legal. Anything else is trash, unless it's a
+            // trump play with no base suit cards, so it's checked against the base play's structure. A play whose groups
+            // don't tally like the base play's is trash, and a single group which does isn't, so only runs are checked.
+            if(fillerNeeded == 0 && tallyMatchesBasePlay()
+                    && (sortedBaseStructure.length == 1
+                    || GroupedPlay.of(play, trump).getHierarchicalValue(basePlay) > 0)) {
+                return visitor.test(new CardCounts(play));
+            }
+            if(!GroupedPlay.followsSortedStructure(sortedBaseStructure, handGroupsBySize.clone(),
+                    playGroupsBySize.clone())) {
+                return true;
+            }
+            if(fillerCardNums == null) {
+                fillerCardNums = findFillerCardNums();
+            }
+            return chooseFiller(0, fillerNeeded);
+        }
+
+        private int[] findFillerCardNums() {
+            int[] cardNums = new int[hand.numDistinct() - baseSuitCardNums.length];
+            int idx = 0;
+            for(int cardNum : trump.getCardNumsByHierarchy()) {
+                if(hand.get(cardNum) > 0 && trump.getEffectiveSuit(cardNum) != baseSuit) {
+                    cardNums[idx++] = cardNum;
+                }
+            }
+            return cardNums;
+        }
+
+        private boolean tallyMatchesBasePlay() {
+            for(int groupSize = 1; groupSize < baseGroupsBySize.length; groupSize++) {
+                if(playGroupsBySize[groupSize] != baseGroupsBySize[groupSize]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Chooses how many of fillerCardNums[idx] and onwards go into the play
+        private boolean chooseFiller(int idx, int fillerNeeded) {
+            if(fillerNeeded == 0) {
+                return fillerChosen();
+            } else if(idx == fillerCardNums.length) {
+                return true;
+            }
+            int cardNum = fillerCardNums[idx];
+            int max = Math.min(hand.get(cardNum), fillerNeeded);
+            boolean cont = chooseFiller(idx + 1, fillerNeeded);
+            int taken = 0;
+            while(cont && taken < max) {
+                play.add(cardNum);
+                taken++;
+                cont = chooseFiller(idx + 1, fillerNeeded - taken);
+            }
+            for(int i = 0; i < taken; i++) {
+                play.remove(cardNum);
+            }
+            return cont;
+        }
+
+        private boolean fillerChosen() {
+            // A play with no base suit cards could be a trump play which isn't trash. That's only legal if the hand is
+            // out of the base suit.
+            if(baseSuitPart == 0 && trumpRestricted && GroupedPlay.of(play, trump).getHierarchicalValue(basePlay) > 0) {
+                return true;
+            }
+            return visitor.test(new CardCounts(play));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.sage.shengji.utils.shengji;
+
+public class PlayLegalityResult {
+    public final boolean isValid;
+    public final String message;
+
+    public PlayLegalityResult(boolean isValid, String message) {
+        this.isValid = isValid;
+        this.message = message;
+    }
+}
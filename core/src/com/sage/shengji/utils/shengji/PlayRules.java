@@ -0,0 +1,61 @@
+package com.sage.shengji.utils.shengji;
+
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.Suit;
+
+// Whether a play is legal. The server has the final say, but the client judges a play the same way before sending it,
+// so an illegal play is turned down at once instead of after a round trip. Nothing here has side effects.
+public final class PlayRules {
+    private static final PlayLegalityResult LEGAL = new PlayLegalityResult(true, "");
+    private static final PlayLegalityResult EMPTY = new PlayLegalityResult(false, "Play contained 0 cards");
+    private static final PlayLegalityResult NOT_IN_HAND =
+            new PlayLegalityResult(false, "Hand did not contain all cards in play (THIS IS BAD)");
+    private static final PlayLegalityResult TRASH_BASE_PLAY =
+            new PlayLegalityResult(false, "You cannot start a trick with a trash play");
+    private static final PlayLegalityResult DID_NOT_MATCH =
+            new PlayLegalityResult(false, "You did not match the base play");
+    private static final PlayLegalityResult TRUMPED_WITH_BASE_SUIT = new PlayLegalityResult(false,
+            "You still have some base-play suits in your hand, so you cannot play trump");
+
+    private PlayRules() {
+    }
+
+    // Judges play, made from hand, against the trick's base play. basePlay is null if play would start the trick.
+    public static PlayLegalityResult judge(GroupedPlay play, GroupedPlay basePlay, CardCounts hand) {
+        if(play.isEmpty()) {
+            return EMPTY;
+        } else if(basePlay != null && play.size() != basePlay.size()) {
+            return new PlayLegalityResult(false,
+                    "Play contained " + play.size() + " card" + (play.size() != 1 ? "s" : "") + ", " +
+                            "should contain " + basePlay.size() + " card" + (basePlay.size() != 1 ? "s" : ""));
+        }
+
+        // If the player's hand doesn't contain all the cards in the play, then obviously it's not legal
+        if(!play.isHeldBy(hand)) {
+            return NOT_IN_HAND;
+        }
+
+        boolean isTrashPlay = play.getHierarchicalValue(basePlay) == 0;
+        if(basePlay == null) {
+            return isTrashPlay ? TRASH_BASE_PLAY : LEGAL;
+        }
+
+        TrumpContext trump = play.getTrumpContext();
+        Suit basePlayEffectiveSuit = basePlay.getEffectiveSuit();
+        if(isTrashPlay) {
+            return play.followsStructureOf(basePlay, hand) ? LEGAL : DID_NOT_MATCH;
+        } else if(play.isTrump() && basePlayEffectiveSuit != trump.trumpSuit
+                && GroupedPlay.countEffectiveSuit(hand, basePlayEffectiveSuit, trump) > 0) {
+            // A trump play which isn't trash is only allowed once the hand is out of the base play's suit
+            return TRUMPED_WITH_BASE_SUIT;
+        } else {
+            // If this play was non-trump and base play was trump, it would be considered a trash play
+            // Because of that, either both plays are trump, or neither are trump. In both cases, this play is legal
+            return LEGAL;
+        }
+    }
+
+    public static boolean isLegal(GroupedPlay play, GroupedPlay basePlay, CardCounts hand) {
+        return judge(play, basePlay, hand).isValid;
+    }
+}
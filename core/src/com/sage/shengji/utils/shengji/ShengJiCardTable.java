@@ -0,0 +1,85 @@
+package com.sage.shengji.utils.shengji;
+
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.CardList;
+import com.sage.shengji.utils.card.InvalidCardException;
+
+import java.util.Collection;
+
+// One immutable ShengJiCard for every card number in every deck a game can use, created once per game state. Dealing
+// and reading cards from packets hand out these shared instances instead of allocating, and each copy is dealt once, so
+// the same physical card is always the same object and can be compared by identity. A packet only says which card
+// numbers it means, not which copies, so cards read from one are the lowest copies; they have to be swapped for the
+// instances the player holds (ShengJiHand.heldInstancesOf()) before they're moved out of a hand.
+//
+// A card's points and hierarchy depend on the trump, and come from the game state's TrumpContext, so sharing the
+// instances across rounds is safe.
+public class ShengJiCardTable {
+    private static final int NUM_CARD_NUMS = 54;
+
+    private final ShengJiCard[][] cards; // Indexed by copy, then card number
+
+    public ShengJiCardTable(ShengJiGameState gameState, int numCopies) {
+        cards = new ShengJiCard[numCopies][NUM_CARD_NUMS];
+        for(int copy = 0; copy < numCopies; copy++) {
+            for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+                cards[copy][cardNum] = new InternedCard(cardNum, gameState);
+            }
+        }
+    }
+
+    public int getNumCopies() {
+        return cards.length;
+    }
+
+    public ShengJiCard get(int cardNum) throws InvalidCardException {
+        return get(cardNum, 0);
+    }
+
+    public ShengJiCard get(int cardNum, int copy) throws InvalidCardException {
+        if(!Card.isValidCardNum(cardNum) || copy < 0 || copy >= cards.length) {
+            throw new InvalidCardException();
+        }
+        return cards[copy][cardNum];
+    }
+
+    // Repeats of a card number get successive copies, so the returned list never holds the same instance twice. Throws
+    // an InvalidCardException if a card number is invalid or repeated more times than there are copies.
+    public CardList<ShengJiCard> fromCardNumList(Collection<Integer> cardNums) throws InvalidCardException {
+        CardList<ShengJiCard> list = new CardList<>();
+        list.ensureCapacity(cardNums.size());
+        int[] copiesUsed = new int[NUM_CARD_NUMS];
+        for(int cardNum : cardNums) {
+            if(!Card.isValidCardNum(cardNum)) {
+                throw new InvalidCardException();
+            }
+            list.add(get(cardNum, copiesUsed[cardNum]++));
+        }
+        return list;
+    }
+
+    // The cards counts holds, as successive copies like fromCardNumList(). Throws an InvalidCardException if counts
+    // holds more copies of a card than there are.
+    public CardList<ShengJiCard> fromCounts(CardCounts counts) throws InvalidCardException {
+        CardList<ShengJiCard> list = new CardList<>();
+        list.ensureCapacity(counts.size());
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            for(int copy = 0; copy < counts.get(cardNum); copy++) {
+                list.add(get(cardNum, copy));
+            }
+        }
+        return list;
+    }
+
+    private static class InternedCard extends ShengJiCard {
+        InternedCard(int cardNum, ShengJiGameState gameState) {
+            super(cardNum, gameState);
+        }
+
+        @Override
+        protected boolean isImmutable() {
+            return true;
+        }
+    }
+}
@@ -6,4 +6,21 @@ import com.sage.shengji.utils.card.Suit;
 public abstract class ShengJiGameState {
     public Rank trumpRank;
     public Suit trumpSuit;
+
+    private TrumpContext trumpContext = TrumpContext.of(null, null);
+
+    public void setTrump(Rank trumpRank, Suit trumpSuit) {
+        this.trumpRank = trumpRank;
+        this.trumpSuit = trumpSuit;
+        trumpContext = TrumpContext.of(trumpRank, trumpSuit);
+    }
+
+    // The trump fields are public, so the cached context is checked against them in case they were assigned directly
+    public TrumpContext getTrumpContext() {
+        TrumpContext trumpContext = this.trumpContext;
+        if(trumpContext.trumpRank != trumpRank || trumpContext.trumpSuit != trumpSuit) {
+            trumpContext = this.trumpContext = TrumpContext.of(trumpRank, trumpSuit);
+        }
+        return trumpContext;
+    }
 }
@@ -0,0 +1,308 @@
+package com.sage.shengji.utils.shengji;
+
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.CardList;
+import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.card.Suit;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+// A hand which keeps a CardCounts and a count for each suit up to date as cards are added and removed, so asking how many
+// of a card, suit or effective suit it holds doesn't scan the list. Single card additions and removals update the counts
+// directly; bulk operations just recount.
+//
+// Cards must not be changed with setCardNum() while they are in the hand, or the counts will no longer match.
+//
+// Every change also bumps a version number, so anything derived from the hand can be cached until the hand changes.
+public class ShengJiHand extends CardList<ShengJiCard> {
+    private static final int NUM_CARD_NUMS = 54;
+
+    private final CardCounts counts = new CardCounts();
+    private final int[] suitCounts = new int[Suit.values().length];
+    private int version = 0;
+
+    public ShengJiHand() {
+        super();
+    }
+
+    public ShengJiHand(Collection<? extends ShengJiCard> other) {
+        super(other);
+        recount();
+    }
+
+    // The returned counts are live, and must not be modified
+    public CardCounts getCounts() {
+        return counts;
+    }
+
+    // Changes whenever a card is added to or removed from the hand
+    public int getVersion() {
+        return version;
+    }
+
+    public int count(int cardNum) {
+        return counts.get(cardNum);
+    }
+
+    public boolean containsAllByValue(CardCounts cards) {
+        return counts.containsAll(cards);
+    }
+
+    // Whether this hand holds at least as many copies of each card as cards does. cards usually comes from a client, so
+    // it may hold any number of copies of a card; the tally stops as soon as it needs more copies than this hand has,
+    // which keeps it within CardCounts' limit.
+    public boolean containsAllByValue(Collection<? extends Card> cards) {
+        if(cards.size() > size()) {
+            return false;
+        }
+        CardCounts needed = new CardCounts();
+        for(Card c : cards) {
+            int cardNum = c.getCardNum();
+            if(needed.get(cardNum) >= counts.get(cardNum)) {
+                return false;
+            }
+            needed.add(cardNum);
+        }
+        return true;
+    }
+
+    // The instances this hand holds of cards, matched by value and in the same order (a play is shown to everyone in the
+    // order it was chosen), so cards read from a packet (which are always the lowest copies) can be swapped for the ones
+    // which were actually dealt before they're moved anywhere. Returns null if this hand doesn't hold them all.
+    //
+    // The requested positions are chained together by card number in one pass over cards, and then filled in with one
+    // pass over the hand.
+    public CardList<ShengJiCard> heldInstancesOf(Collection<? extends Card> cards) {
+        if(!containsAllByValue(cards)) {
+            return null;
+        }
+        // nextPosition[] links each position to the next one asking for the same card, and firstPosition[] holds the
+        // first position for each card which hasn't been filled yet
+        int[] firstPosition = new int[NUM_CARD_NUMS];
+        int[] lastPosition = new int[NUM_CARD_NUMS];
+        Arrays.fill(firstPosition, -1);
+        int[] nextPosition = new int[cards.size()];
+        int position = 0;
+        for(Card c : cards) {
+            int cardNum = c.getCardNum();
+            nextPosition[position] = -1;
+            if(firstPosition[cardNum] == -1) {
+                firstPosition[cardNum] = position;
+            } else {
+                nextPosition[lastPosition[cardNum]] = position;
+            }
+            lastPosition[cardNum] = position++;
+        }
+
+        ShengJiCard[] held = new ShengJiCard[cards.size()];
+        int unfilled = held.length;
+        for(int i = 0; i < size() && unfilled > 0; i++) {
+            ShengJiCard c = get(i);
+            int filled = firstPosition[c.getCardNum()];
+            if(filled != -1) {
+                held[filled] = c;
+                firstPosition[c.getCardNum()] = nextPosition[filled];
+                unfilled--;
+            }
+        }
+        return new CardList<>(Arrays.asList(held));
+    }
+
+    // The instances this hand holds which make up counts, or null if it doesn't hold them all
+    public CardList<ShengJiCard> heldInstancesOf(CardCounts cards) {
+        if(!containsAllByValue(cards)) {
+            return null;
+        }
+        CardCounts needed = new CardCounts(cards);
+        CardList<ShengJiCard> held = new CardList<>();
+        held.ensureCapacity(cards.size());
+        for(ShengJiCard c : this) {
+            if(needed.remove(c.getCardNum())) {
+                held.add(c);
+            }
+        }
+        return held;
+    }
+
+    public int countSuit(Suit suit) {
+        return suitCounts[suit.ordinal()];
+    }
+
+    // The number of cards whose ShengJiCard.getEffectiveSuit() would be effectiveSuit under gameState's trump
+    public int countEffectiveSuit(Suit effectiveSuit, ShengJiGameState gameState) {
+        Rank trumpRank = gameState.trumpRank;
+        Suit trumpSuit = gameState.trumpSuit;
+        int trumpRankInSuit = countTrumpRankInSuit(trumpRank, effectiveSuit);
+        if(effectiveSuit == trumpSuit) {
+            // Every joker and every trump rank card is in the trump suit
+            int trumpRankCards = 0;
+            for(Suit s : Suit.values()) {
+                trumpRankCards += countTrumpRankInSuit(trumpRank, s);
+            }
+            int restOfSuit = (effectiveSuit == Suit.JOKER) ? 0 : countSuit(effectiveSuit) - trumpRankInSuit;
+            return countSuit(Suit.JOKER) + trumpRankCards + restOfSuit;
+        } else if(effectiveSuit == Suit.JOKER) {
+            // Jokers take on the trump suit, so nothing is effectively a joker unless jokers are trump
+            return 0;
+        } else {
+            return countSuit(effectiveSuit) - trumpRankInSuit;
+        }
+    }
+
+    private int countTrumpRankInSuit(Rank trumpRank, Suit suit) {
+        return (trumpRank == null || trumpRank == Rank.SMALL_JOKER || trumpRank == Rank.BIG_JOKER || suit == Suit.JOKER)
+                ? 0
+                : counts.get(Card.getCardNumFromRankAndSuit(trumpRank, suit));
+    }
+
+    @Override
+    public boolean contains(Rank rank, Suit suit) {
+        try {
+            return counts.contains(Card.getCardNumFromRankAndSuit(rank, suit));
+        } catch(RuntimeException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean containsValue(ShengJiCard card) {
+        return counts.contains(card.getCardNum());
+    }
+
+    @Override
+    public boolean containsAnySuit(Suit suit) {
+        return countSuit(suit) > 0;
+    }
+
+    @Override
+    public boolean remove(Rank rank, Suit suit) {
+        return contains(rank, suit) && super.remove(rank, suit);
+    }
+
+    private void counted(ShengJiCard card) {
+        counts.add(card.getCardNum());
+        suitCounts[card.getSuit().ordinal()]++;
+        version++;
+    }
+
+    private void uncounted(Object o) {
+        if(o instanceof ShengJiCard) {
+            ShengJiCard card = (ShengJiCard)o;
+            counts.remove(card.getCardNum());
+            suitCounts[card.getSuit().ordinal()]--;
+            version++;
+        }
+    }
+
+    private void recount() {
+        counts.clear();
+        Arrays.fill(suitCounts, 0);
+        version++;
+        for(ShengJiCard c : this) {
+            counted(c);
+        }
+    }
+
+    @Override
+    public boolean add(ShengJiCard card) {
+        super.add(card);
+        counted(card);
+        return true;
+    }
+
+    @Override
+    public void add(int index, ShengJiCard card) {
+        super.add(index, card);
+        counted(card);
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends ShengJiCard> c) {
+        boolean changed = super.addAll(c);
+        c.forEach(this::counted);
+        return changed;
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends ShengJiCard> c) {
+        boolean changed = super.addAll(index, c);
+        c.forEach(this::counted);
+        return changed;
+    }
+
+    @Override
+    public ShengJiCard set(int index, ShengJiCard card) {
+        ShengJiCard old = super.set(index, card);
+        uncounted(old);
+        counted(card);
+        return old;
+    }
+
+    @Override
+    public ShengJiCard remove(int index) {
+        ShengJiCard removed = super.remove(index);
+        uncounted(removed);
+        return removed;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if(super.remove(o)) {
+            uncounted(o);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        super.removeRange(fromIndex, toIndex);
+        recount();
+    }
+
+    // A play is removed from the hand every turn, so only the removed cards are uncounted
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return super.removeIf(card -> {
+            if(c.contains(card)) {
+                uncounted(card);
+                return true;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public boolean retainAll(Collection<?> c) {
+        boolean changed = super.retainAll(c);
+        recount();
+        return changed;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super ShengJiCard> filter) {
+        boolean changed = super.removeIf(filter);
+        recount();
+        return changed;
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<ShengJiCard> operator) {
+        super.replaceAll(operator);
+        recount();
+    }
+
+    @Override
+    public void clear() {
+        super.clear();
+        counts.clear();
+        Arrays.fill(suitCounts, 0);
+        version++;
+    }
+}
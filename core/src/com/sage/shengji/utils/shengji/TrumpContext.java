@@ -0,0 +1,153 @@
+package com.sage.shengji.utils.shengji;
+
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.card.Suit;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+// Everything about a card which depends on the trump, for one (trump rank, trump suit) pair, as tables indexed by card
+// number. There are only a few dozen possible pairs, so every table is built once when the class loads and shared by
+// the server and the client; looking a card up is an array access.
+//
+// The trump rank or suit may be null before trump has been decided, in which case only the jokers are trump.
+public final class TrumpContext {
+    private static final int NUM_CARD_NUMS = 54;
+
+    // Indexed by ordinal + 1, so that index 0 is a null rank or suit
+    private static final TrumpContext[][] contexts = new TrumpContext[Rank.values().length + 1][Suit.values().length + 1];
+
+    static {
+        for(int r = 0; r <= Rank.values().length; r++) {
+            for(int s = 0; s <= Suit.values().length; s++) {
+                contexts[r][s] = new TrumpContext(
+                        (r == 0) ? null : Rank.values()[r - 1],
+                        (s == 0) ? null : Suit.values()[s - 1]);
+            }
+        }
+    }
+
+    public final Rank trumpRank;
+    public final Suit trumpSuit;
+
+    private final int[] hierarchicalValues = new int[NUM_CARD_NUMS];
+    private final Suit[] effectiveSuits = new Suit[NUM_CARD_NUMS];
+    private final int[] points = new int[NUM_CARD_NUMS];
+    private final int[] sortKeys = new int[NUM_CARD_NUMS];
+    private final boolean[] inTrumpSuit = new boolean[NUM_CARD_NUMS];
+    private final boolean[] ofTrumpRank = new boolean[NUM_CARD_NUMS];
+
+    // Every card number, in ascending hierarchical value (ties by card number), and the card numbers in each effective
+    // suit, indexed by ordinal + 1 like contexts
+    private final int[] cardNumsByHierarchy;
+    private final int[][] cardNumsByEffectiveSuit = new int[Suit.values().length + 1][];
+
+    private TrumpContext(Rank trumpRank, Suit trumpSuit) {
+        this.trumpRank = trumpRank;
+        this.trumpSuit = trumpSuit;
+
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            Rank rank = Card.getRankFromCardNum(cardNum);
+            Suit suit = Card.getSuitFromCardNum(cardNum);
+
+            boolean isTrumpSuit = suit == Suit.JOKER || suit == trumpSuit;
+            boolean isTrumpRank = rank == Rank.SMALL_JOKER || rank == Rank.BIG_JOKER || rank == trumpRank;
+            inTrumpSuit[cardNum] = isTrumpSuit;
+            ofTrumpRank[cardNum] = isTrumpRank;
+
+            int hierarchicalValue;
+            if(rank == Rank.BIG_JOKER) {
+                hierarchicalValue = 31;
+            } else if(rank == Rank.SMALL_JOKER) {
+                hierarchicalValue = 30;
+            } else if(isTrumpSuit && isTrumpRank) {
+                hierarchicalValue = 29;
+            } else if(isTrumpRank) {
+                hierarchicalValue = 28;
+            } else if(isTrumpSuit) {
+                hierarchicalValue = 13 + rank.rankNum;
+            } else {
+                hierarchicalValue = rank.rankNum;
+            }
+            hierarchicalValues[cardNum] = hierarchicalValue;
+
+            effectiveSuits[cardNum] = (suit == Suit.JOKER || rank == trumpRank) ? trumpSuit : suit;
+
+            points[cardNum] = (rank == Rank.FIVE) ? 5
+                    : (rank == Rank.KING || rank == Rank.TEN) ? 10
+                    : 0;
+
+            // Trump sorts first, by hierarchy and then suit. Everything else sorts by suit and then rank.
+            sortKeys[cardNum] = (isTrumpSuit || isTrumpRank)
+                    ? (hierarchicalValue * 8) + suit.suitNum
+                    : 256 + (suit.suitNum * 32) + rank.rankNum;
+        }
+
+        cardNumsByHierarchy = new int[NUM_CARD_NUMS];
+        Integer[] order = new Integer[NUM_CARD_NUMS];
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            order[cardNum] = cardNum;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(c -> hierarchicalValues[c]).thenComparingInt(c -> c));
+        for(int i = 0; i < NUM_CARD_NUMS; i++) {
+            cardNumsByHierarchy[i] = order[i];
+        }
+
+        for(int s = 0; s <= Suit.values().length; s++) {
+            Suit effectiveSuit = (s == 0) ? null : Suit.values()[s - 1];
+            cardNumsByEffectiveSuit[s] = Arrays.stream(cardNumsByHierarchy)
+                    .filter(c -> effectiveSuits[c] == effectiveSuit)
+                    .toArray();
+        }
+    }
+
+    public static TrumpContext of(Rank trumpRank, Suit trumpSuit) {
+        return contexts[(trumpRank == null) ? 0 : trumpRank.ordinal() + 1][(trumpSuit == null) ? 0 : trumpSuit.ordinal() + 1];
+    }
+
+    public int getHierarchicalValue(int cardNum) {
+        return hierarchicalValues[cardNum];
+    }
+
+    public Suit getEffectiveSuit(int cardNum) {
+        return effectiveSuits[cardNum];
+    }
+
+    public int getPoints(int cardNum) {
+        return points[cardNum];
+    }
+
+    public boolean isTrumpSuit(int cardNum) {
+        return inTrumpSuit[cardNum];
+    }
+
+    public boolean isTrumpRank(int cardNum) {
+        return ofTrumpRank[cardNum];
+    }
+
+    public boolean isTrump(int cardNum) {
+        return inTrumpSuit[cardNum] || ofTrumpRank[cardNum];
+    }
+
+    // Cards sort in ascending order of this key, which is the order ShengJiCard.compareTo() gives
+    public int getSortKey(int cardNum) {
+        return sortKeys[cardNum];
+    }
+
+    public int compare(int cardNum1, int cardNum2) {
+        return Integer.compare(sortKeys[cardNum1], sortKeys[cardNum2]);
+    }
+
+    // The returned arrays are shared, and must not be modified
+
+    public int[] getCardNumsByHierarchy() {
+        return cardNumsByHierarchy;
+    }
+
+    // In ascending hierarchical value. A null suit gives the cards with no effective suit, which are the jokers and
+    // trump rank cards while the trump suit is undecided.
+    public int[] getCardNumsInEffectiveSuit(Suit effectiveSuit) {
+        return cardNumsByEffectiveSuit[(effectiveSuit == null) ? 0 : effectiveSuit.ordinal() + 1];
+    }
+}
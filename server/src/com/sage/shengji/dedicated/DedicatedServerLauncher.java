@@ -0,0 +1,46 @@
+package com.sage.shengji.dedicated;
+
+import com.sage.shengji.server.Server;
+import com.sage.shengji.utils.log.ConsoleLogBackend;
+import com.sage.shengji.utils.log.Log;
+
+import java.io.UncheckedIOException;
+
+// Runs a server without the game client or any graphics. The server runs on the main thread until the process is
+// stopped, so it can be left to a process supervisor. See ServerConfig for the settings it takes.
+public class DedicatedServerLauncher {
+    private static final String TAG = "DedicatedServer";
+
+    public static void main(String[] args) {
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch(ServerConfig.InvalidConfigException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        Log.setBackend(new ConsoleLogBackend());
+        Log.setLevel(config.logLevel);
+
+        Server server;
+        try {
+            server = new Server(config.port, config.numTables, config.numEventLoops, config.outboundQueueConfig(),
+                    config.deadlineConfig());
+            if(config.metricsPort != 0) {
+                server.startMetricsEndpoint(config.metricsPort);
+                Log.info(TAG, "Serving metrics at http://localhost:" + config.metricsPort + "/metrics");
+            }
+        } catch(UncheckedIOException e) {
+            Log.error(TAG, e.getMessage(), e.getCause());
+            System.exit(1);
+            return;
+        }
+
+        Log.info(TAG, "Listening on port " + config.port
+                + " with " + config.numTables + " table(s) and " + config.numEventLoops + " event loop(s)");
+        server.run();
+        Log.info(TAG, "Server stopped");
+    }
+}
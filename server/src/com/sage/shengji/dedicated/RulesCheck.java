@@ -0,0 +1,399 @@
+package com.sage.shengji.dedicated;
+
+import com.sage.shengji.utils.card.Card;
+import com.sage.shengji.utils.card.CardCounts;
+import com.sage.shengji.utils.card.CardList;
+import com.sage.shengji.utils.card.Rank;
+import com.sage.shengji.utils.card.Suit;
+import com.sage.shengji.utils.shengji.GroupedPlay;
+import com.sage.shengji.utils.shengji.LegalPlayGenerator;
+import com.sage.shengji.utils.shengji.PlayLegalityResult;
+import com.sage.shengji.utils.shengji.PlayRules;
+import com.sage.shengji.utils.shengji.ShengJiCard;
+import com.sage.shengji.utils.shengji.ShengJiCardTable;
+import com.sage.shengji.utils.shengji.ShengJiGameState;
+import com.sage.shengji.utils.shengji.ShengJiHand;
+import com.sage.shengji.utils.shengji.TrumpContext;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+// Checks the rules engine on seeded random deals. Each deal has a random trump, one to four decks, and two hands drawn
+// from a small set of cards so that groups and runs are common. There are two checks:
+//   rules      PlayRules against LegacyPlay, the rules as the server worked them out before. Base plays are tried from
+//              one hand until one is legal, and then responses from the other hand, and every play is judged both ways.
+//   generator  LegalPlayGenerator against every subset of two small hands, judged by PlayRules: all the base plays
+//              from one hand, and all the responses from the other to one of them.
+// The check stops at the first disagreement, with the seed of the deal it came from. Run it with
+// `gradle server:rulesCheck -PrulesCheckArgs="--deals 100000 --seed 1"`.
+//
+// Keys:
+//   deals  number of random deals checked by each check (default 100000)
+//   check  rules, generator or all (default all)
+//   seed   seed the deals are made from, so a run can be repeated (default random)
+public class RulesCheck {
+    private static final int DEFAULT_NUM_DEALS = 100000;
+    private static final int NUM_CARD_NUMS = 54;
+    private static final int MAX_DECKS = 4;
+    private static final int BASE_PLAY_TRIES = 30;
+    private static final int RESPONSE_TRIES = 20;
+    private static final int MAX_RANDOM_PLAY_SIZE = 6;
+
+    private final CheckGameState gameState = new CheckGameState();
+    private final ShengJiCardTable cardTable = new ShengJiCardTable(gameState,
+            Math.max(MAX_DECKS, MAX_RANDOM_PLAY_SIZE));
+    private final ShengJiHand leadHand = new ShengJiHand();
+    private final ShengJiHand followHand = new ShengJiHand();
+
+    private long numPlaysJudged = 0;
+    private long numLegal = 0;
+    private long numTrash = 0;
+
+    private long numSubsetsJudged = 0;
+    private long numBasePlays = 0;
+    private long numResponses = 0;
+
+    public static void main(String[] args) {
+        int numDeals = DEFAULT_NUM_DEALS;
+        boolean checkRules = true;
+        boolean checkGenerator = true;
+        long seed = new SplittableRandom().nextLong();
+        try {
+            Properties properties = ServerConfig.parseArgs(args);
+            for(String key : properties.stringPropertyNames()) {
+                String value = properties.getProperty(key).trim();
+                switch(key.toLowerCase()) {
+                case "deals":
+                    numDeals = ServerConfig.parseInt(key, value, 1, Integer.MAX_VALUE);
+                    break;
+                case "check":
+                    checkRules = value.equalsIgnoreCase("rules") || value.equalsIgnoreCase("all");
+                    checkGenerator = value.equalsIgnoreCase("generator") || value.equalsIgnoreCase("all");
+                    if(!checkRules && !checkGenerator) {
+                        throw new ServerConfig.InvalidConfigException(key + " must be rules, generator or all");
+                    }
+                    break;
+                case "seed":
+                    try {
+                        seed = Long.parseLong(value);
+                    } catch(NumberFormatException e) {
+                        throw new ServerConfig.InvalidConfigException(key + " must be a number");
+                    }
+                    break;
+                default:
+                    throw new ServerConfig.InvalidConfigException("Unknown setting " + key);
+                }
+            }
+        } catch(ServerConfig.InvalidConfigException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        RulesCheck check = new RulesCheck();
+        SplittableRandom dealSeeds = new SplittableRandom(seed);
+        for(int deal = 0; deal < numDeals; deal++) {
+            long dealSeed = dealSeeds.nextLong();
+            try {
+                if(checkRules) {
+                    check.checkRules(new Random(dealSeed));
+                }
+                if(checkGenerator) {
+                    check.checkGenerator(new Random(dealSeed));
+                }
+            } catch(RulesDisagreeException e) {
+                System.out.println("seed=" + seed + " deal=" + deal + " deal_seed=" + dealSeed);
+                System.out.println(e.getMessage());
+                System.exit(1);
+                return;
+            }
+        }
+        System.out.println("seed=" + seed + " deals=" + numDeals + " disagreements=0");
+        if(checkRules) {
+            System.out.println("  rules plays_judged=" + check.numPlaysJudged + " legal_responses=" + check.numLegal
+                    + " trash_responses=" + check.numTrash);
+        }
+        if(checkGenerator) {
+            System.out.println("  generator subsets_judged=" + check.numSubsetsJudged + " base_plays="
+                    + check.numBasePlays + " responses=" + check.numResponses);
+        }
+    }
+
+    private void checkRules(Random random) {
+        int numCardNums = 4 + random.nextInt(20);
+        int handSize = 5 + random.nextInt(20);
+        setRandomTrump(random);
+        dealHands(random, randomCardNums(random, numCardNums), handSize);
+
+        LegacyPlay legacyBasePlay = null;
+        GroupedPlay basePlay = null;
+        for(int i = 0; i < BASE_PLAY_TRIES && basePlay == null; i++) {
+            CardList<ShengJiCard> cards = chooseBasePlay(random);
+            LegacyPlay legacyPlay = new LegacyPlay(cards, null, leadHand, gameState);
+            GroupedPlay play = GroupedPlay.of(cards, gameState.getTrumpContext());
+            compare(legacyPlay, play, null, leadHand);
+            if(legacyPlay.isLegal()) {
+                legacyBasePlay = legacyPlay;
+                basePlay = play;
+            }
+        }
+        if(basePlay == null) {
+            return;
+        }
+
+        for(int i = 0; i < RESPONSE_TRIES; i++) {
+            CardList<ShengJiCard> cards;
+            if(random.nextInt(10) == 0) {
+                // Cards which probably aren't all in the hand
+                List<Integer> cardNums = new ArrayList<>();
+                for(int j = 1 + random.nextInt(MAX_RANDOM_PLAY_SIZE); j > 0; j--) {
+                    cardNums.add(random.nextInt(NUM_CARD_NUMS));
+                }
+                cards = cardTable.fromCardNumList(cardNums);
+            } else {
+                int size = (random.nextInt(8) == 0) ? 1 + random.nextInt(MAX_RANDOM_PLAY_SIZE) : basePlay.size();
+                cards = chooseResponse(random, size, basePlay.getEffectiveSuit());
+            }
+            LegacyPlay legacyPlay = new LegacyPlay(cards, legacyBasePlay, followHand, gameState);
+            compare(legacyPlay, GroupedPlay.of(cards, gameState.getTrumpContext()), basePlay, followHand);
+            if(legacyPlay.isLegal()) {
+                numLegal++;
+            }
+            if(legacyPlay.isTrashPlay()) {
+                numTrash++;
+            }
+        }
+    }
+
+    private void checkGenerator(Random random) {
+        // Hands are kept small, since every subset of them is judged. Half the time some more cards of one suit are
+        // added to the cards dealt from, so runs show up.
+        setRandomTrump(random);
+        List<Integer> cardNums = randomCardNums(random, 3 + random.nextInt(10));
+        if(random.nextBoolean()) {
+            Suit suit = Suit.values()[random.nextInt(Suit.values().length - 1)];
+            for(Rank rank : Rank.values()) {
+                int cardNum = Card.getCardNumFromRankAndSuit(rank, suit);
+                if(rank != Rank.SMALL_JOKER && rank != Rank.BIG_JOKER && random.nextInt(3) == 0
+                        && !cardNums.contains(cardNum)) {
+                    cardNums.add(cardNum);
+                }
+            }
+        }
+        dealHands(random, cardNums, 3 + random.nextInt(9));
+        TrumpContext trump = gameState.getTrumpContext();
+        LegalPlayGenerator generator = new LegalPlayGenerator(trump);
+
+        CardCounts lead = leadHand.getCounts();
+        List<CardCounts> expectedBasePlays = new ArrayList<>();
+        for(CardCounts subset : subsetsOf(lead, -1)) {
+            if(!subset.isEmpty() && PlayRules.isLegal(GroupedPlay.of(subset, trump), null, lead)) {
+                expectedBasePlays.add(subset);
+            }
+        }
+        compareGenerated("basePlays", expectedBasePlays, generator.basePlays(lead), leadHand, null);
+        int numCards = 1 + random.nextInt(4);
+        List<CardCounts> expectedSized = new ArrayList<>();
+        for(CardCounts basePlay : expectedBasePlays) {
+            if(basePlay.size() == numCards) {
+                expectedSized.add(basePlay);
+            }
+        }
+        compareGenerated("basePlays of " + numCards, expectedSized, generator.basePlays(lead, numCards), leadHand,
+                null);
+        numBasePlays += expectedBasePlays.size();
+        if(expectedBasePlays.isEmpty()) {
+            return;
+        }
+
+        CardCounts basePlayCards = expectedBasePlays.get(random.nextInt(expectedBasePlays.size()));
+        GroupedPlay basePlay = GroupedPlay.of(basePlayCards, trump);
+        CardCounts follow = followHand.getCounts();
+        List<CardCounts> expectedResponses = new ArrayList<>();
+        for(CardCounts subset : subsetsOf(follow, basePlay.size())) {
+            if(PlayRules.isLegal(GroupedPlay.of(subset, trump), basePlay, follow)) {
+                expectedResponses.add(subset);
+            }
+        }
+        compareGenerated("responses", expectedResponses, generator.responses(follow, basePlay), followHand,
+                basePlayCards);
+        if(generator.hasResponse(follow, basePlay) == expectedResponses.isEmpty()) {
+            throw new RulesDisagreeException("hasResponse disagrees for hand=" + followHand + " base play="
+                    + cardTable.fromCounts(basePlayCards));
+        }
+        numResponses += expectedResponses.size();
+    }
+
+    // Every subset of hand with numCards cards, or of any size if numCards is -1
+    private List<CardCounts> subsetsOf(CardCounts hand, int numCards) {
+        List<CardCounts> subsets = new ArrayList<>();
+        addSubsets(hand, hand.nextCardNum(0), new CardCounts(), numCards, subsets);
+        numSubsetsJudged += subsets.size();
+        return subsets;
+    }
+
+    private static void addSubsets(CardCounts hand, int cardNum, CardCounts chosen, int numCards,
+                                   List<CardCounts> subsets) {
+        if(numCards != -1 && chosen.size() > numCards) {
+            return;
+        } else if(cardNum == -1) {
+            if(numCards == -1 || chosen.size() == numCards) {
+                subsets.add(new CardCounts(chosen));
+            }
+            return;
+        }
+        int nextCardNum = hand.nextCardNum(cardNum + 1);
+        for(int count = 0; count <= hand.get(cardNum); count++) {
+            addSubsets(hand, nextCardNum, chosen, numCards, subsets);
+            chosen.add(cardNum);
+        }
+        for(int count = 0; count <= hand.get(cardNum); count++) {
+            chosen.remove(cardNum);
+        }
+    }
+
+    // The generator must produce exactly the expected plays, each once
+    private void compareGenerated(String what, List<CardCounts> expected, List<CardCounts> generated, ShengJiHand hand,
+                                  CardCounts basePlay) {
+        Set<CardCounts> generatedSet = new HashSet<>(generated);
+        if(generatedSet.size() != generated.size() || !generatedSet.equals(new HashSet<>(expected))) {
+            throw new RulesDisagreeException("trump=" + gameState.trumpRank + " of " + gameState.trumpSuit
+                    + " " + what + " disagree for hand=" + hand
+                    + (basePlay != null ? " base play=" + cardTable.fromCounts(basePlay) : "")
+                    + "\n  brute force: " + expected.size() + " plays"
+                    + "\n  generator:   " + generated.size() + " plays, " + generatedSet.size() + " different");
+        }
+    }
+
+    // numCardNums different card numbers, at random
+    private static List<Integer> randomCardNums(Random random, int numCardNums) {
+        List<Integer> cardNums = new ArrayList<>();
+        for(int cardNum = 0; cardNum < NUM_CARD_NUMS; cardNum++) {
+            cardNums.add(cardNum);
+        }
+        Collections.shuffle(cardNums, random);
+        return new ArrayList<>(cardNums.subList(0, numCardNums));
+    }
+
+    private void setRandomTrump(Random random) {
+        Rank[] ranks = Rank.values();
+        Suit[] suits = Suit.values();
+        Rank trumpRank;
+        do {
+            trumpRank = ranks[random.nextInt(ranks.length)];
+        } while(trumpRank == Rank.SMALL_JOKER || trumpRank == Rank.BIG_JOKER);
+        gameState.setTrump(trumpRank, suits[random.nextInt(suits.length)]);
+    }
+
+    // Deals both hands handSize cards (or as many as there are) from a shuffled deck made of cardNums, each with one
+    // copy per deck
+    private void dealHands(Random random, List<Integer> cardNums, int handSize) {
+        int numDecks = 1 + random.nextInt(MAX_DECKS);
+        List<Integer> deck = new ArrayList<>();
+        for(int cardNum : cardNums) {
+            for(int i = 0; i < numDecks; i++) {
+                deck.add(cardNum);
+            }
+        }
+        Collections.shuffle(deck, random);
+
+        int dealt = Math.min(deck.size() / 2, handSize);
+        leadHand.clear();
+        followHand.clear();
+        leadHand.addAll(cardTable.fromCardNumList(deck.subList(0, dealt)));
+        followHand.addAll(cardTable.fromCardNumList(deck.subList(dealt, 2 * dealt)));
+    }
+
+    // Either a few random cards from the lead hand, or a group of a random card and up to two groups of the same size
+    // above it in the same effective suit, which is often a run
+    private CardList<ShengJiCard> chooseBasePlay(Random random) {
+        List<ShengJiCard> shuffled = new ArrayList<>(leadHand);
+        Collections.shuffle(shuffled, random);
+        if(shuffled.isEmpty()) {
+            return new CardList<>();
+        } else if(random.nextBoolean()) {
+            return new CardList<>(shuffled.subList(0, 1 + random.nextInt(Math.min(4, shuffled.size()))));
+        }
+
+        ShengJiCard first = shuffled.get(0);
+        int groupSize = 1 + random.nextInt(leadHand.count(first.getCardNum()));
+        CardList<ShengJiCard> play = new CardList<>();
+        for(int i = 0; i < groupSize; i++) {
+            play.add(first);
+        }
+        int hierarchicalValue = first.getHierarchicalValue();
+        for(int numGroups = random.nextInt(3); numGroups > 0; numGroups--) {
+            hierarchicalValue++;
+            ShengJiCard next = null;
+            for(ShengJiCard c : leadHand) {
+                if(c.getHierarchicalValue() == hierarchicalValue && c.getEffectiveSuit() == first.getEffectiveSuit()
+                        && leadHand.count(c.getCardNum()) >= groupSize) {
+                    next = c;
+                    break;
+                }
+            }
+            if(next == null) {
+                break;
+            }
+            for(int i = 0; i < groupSize; i++) {
+                play.add(next);
+            }
+        }
+        return play;
+    }
+
+    // size cards from the follow hand, either preferring the base suit, preferring trump, or at random
+    private CardList<ShengJiCard> chooseResponse(Random random, int size, Suit baseSuit) {
+        List<ShengJiCard> cards = new ArrayList<>(followHand);
+        switch(random.nextInt(3)) {
+        case 0:
+            cards.sort(Comparator.comparingInt((ShengJiCard c) -> c.getEffectiveSuit() == baseSuit ? 0 : 1)
+                    .thenComparingInt(c -> random.nextInt(3))
+                    .thenComparingInt(ShengJiCard::getCardNum));
+            break;
+        case 1:
+            cards.sort(Comparator.comparingInt((ShengJiCard c) -> c.isTrump() ? 0 : 1)
+                    .thenComparingInt(ShengJiCard::getCardNum));
+            if(random.nextBoolean()) {
+                Collections.rotate(cards, random.nextInt(Math.max(1, cards.size())));
+            }
+            break;
+        default:
+            Collections.shuffle(cards, random);
+        }
+        return new CardList<>(cards.subList(0, Math.min(size, cards.size())));
+    }
+
+    private void compare(LegacyPlay legacyPlay, GroupedPlay play, GroupedPlay basePlay, ShengJiHand hand) {
+        numPlaysJudged++;
+        PlayLegalityResult expected = legacyPlay.getPlayLegalityResult();
+        PlayLegalityResult actual = PlayRules.judge(play, basePlay, hand.getCounts());
+        int expectedValue = legacyPlay.getPlayHierarchicalValue();
+        int actualValue = play.getHierarchicalValue(basePlay);
+        if(expected.isValid != actual.isValid || !expected.message.equals(actual.message)
+                || expectedValue != actualValue) {
+            throw new RulesDisagreeException("trump=" + gameState.trumpRank + " of " + gameState.trumpSuit
+                    + " play=" + legacyPlay + " hand=" + hand
+                    + "\n  LegacyPlay: legal=" + expected.isValid + " value=" + expectedValue
+                    + " message=\"" + expected.message + "\""
+                    + "\n  PlayRules:  legal=" + actual.isValid + " value=" + actualValue
+                    + " message=\"" + actual.message + "\"");
+        }
+    }
+
+    private static class CheckGameState extends ShengJiGameState {
+    }
+
+    private static class RulesDisagreeException extends RuntimeException {
+        RulesDisagreeException(String message) {
+            super(message);
+        }
+    }
+}
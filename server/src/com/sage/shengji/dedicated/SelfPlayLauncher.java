@@ -0,0 +1,168 @@
+package com.sage.shengji.dedicated;
+
+import com.sage.shengji.server.game.ServerGameState;
+import com.sage.shengji.server.selfplay.SelfPlaySimulator;
+import com.sage.shengji.server.selfplay.SelfPlayStats;
+import com.sage.shengji.utils.log.ConsoleLogBackend;
+import com.sage.shengji.utils.log.Log;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+// Runs the self-play simulator from the command line, taking settings the same way as ServerConfig.
+//
+// Keys:
+//   players  comma separated numbers of players, each simulated in turn (default 4)
+//   rounds   rounds played for each number of players (default 10000)
+//   threads  number of threads rounds are played on (default the number of processors)
+//   batch    rounds played on a table before its totals are merged in
+//   samples  samples the bots' search takes to choose each kitty and set of friend cards. With 0, the default, they
+//            take their first candidate and only play by the rollout policy.
+//   forcekittycall
+//            true to make the bots always call on the last kitty card, so no round is redealt and redeal_rate is
+//            reported as not_measured (default false)
+//   out      file the running totals are written to as batches finish (default standard output)
+//   seed     seed the rounds are dealt from, so a run can be repeated (default random)
+//   redeal   a deal seed, as logged by a table; instead of simulating, the kitty and the hand of each seat dealt from
+//            it are printed for each number of players
+//
+// The full report for each number of players is printed to standard output at the end.
+public class SelfPlayLauncher {
+    private static final int DEFAULT_NUM_ROUNDS = 10000;
+
+    public static void main(String[] args) {
+        List<Integer> playerCounts = new ArrayList<>();
+        int numRounds = DEFAULT_NUM_ROUNDS;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        int roundsPerBatch = SelfPlaySimulator.DEFAULT_ROUNDS_PER_BATCH;
+        int samplesPerDecision = SelfPlaySimulator.DEFAULT_SAMPLES_PER_DECISION;
+        boolean forceKittyCall = false;
+        String outPath = null;
+        long seed = new SplittableRandom().nextLong();
+        Long redealSeed = null;
+        try {
+            Properties properties = ServerConfig.parseArgs(args);
+            for(String key : properties.stringPropertyNames()) {
+                String value = properties.getProperty(key).trim();
+                switch(key.toLowerCase()) {
+                case "players":
+                    for(String count : value.split(",")) {
+                        playerCounts.add(ServerConfig.parseInt(key, count.trim(), 2, ServerGameState.MAX_PLAYERS));
+                    }
+                    break;
+                case "rounds":
+                    numRounds = ServerConfig.parseInt(key, value, 0, Integer.MAX_VALUE);
+                    break;
+                case "threads":
+                    numThreads = ServerConfig.parseInt(key, value, 1, Short.MAX_VALUE);
+                    break;
+                case "batch":
+                    roundsPerBatch = ServerConfig.parseInt(key, value, 0, Integer.MAX_VALUE);
+                    break;
+                case "samples":
+                    samplesPerDecision = ServerConfig.parseInt(key, value, 0, Integer.MAX_VALUE);
+                    break;
+                case "forcekittycall":
+                    if(!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+                        throw new ServerConfig.InvalidConfigException(key + " must be true or false");
+                    }
+                    forceKittyCall = Boolean.parseBoolean(value);
+                    break;
+                case "seed":
+                    seed = parseSeed(key, value);
+                    break;
+                case "redeal":
+                    redealSeed = parseSeed(key, value);
+                    break;
+                case "out":
+                    outPath = value;
+                    break;
+                default:
+                    throw new ServerConfig.InvalidConfigException("Unknown setting " + key);
+                }
+            }
+        } catch(ServerConfig.InvalidConfigException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        if(playerCounts.isEmpty()) {
+            playerCounts.add(4);
+        }
+
+        if(redealSeed != null) {
+            printDeals(redealSeed, playerCounts);
+            return;
+        }
+
+        // A round the rules engine gives up on is counted, so there's no need to hear about it as well
+        Log.setBackend(new ConsoleLogBackend());
+        Log.setLevel(Log.Level.ERROR);
+
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        List<SelfPlayStats> results = new ArrayList<>();
+        try {
+            // Standard output is only flushed, since the report is printed to it afterwards
+            Writer out = (outPath == null)
+                    ? new OutputStreamWriter(System.out, StandardCharsets.UTF_8)
+                    : Files.newBufferedWriter(Paths.get(outPath));
+            out.write("seed=" + seed + System.lineSeparator());
+            for(int numPlayers : playerCounts) {
+                results.add(new SelfPlaySimulator(numPlayers, numRounds, roundsPerBatch, samplesPerDecision,
+                        forceKittyCall, pool, seed).run(out));
+            }
+            if(outPath == null) {
+                out.flush();
+            } else {
+                out.close();
+            }
+        } catch(IOException | UncheckedIOException e) {
+            System.err.println("Could not write to " + (outPath == null ? "standard output" : outPath) + ": "
+                    + e.getMessage());
+            System.exit(1);
+            return;
+        } finally {
+            pool.shutdown();
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for(SelfPlayStats stats : results) {
+            stats.appendReport(sb);
+        }
+        System.out.print(sb);
+        System.out.flush();
+    }
+
+    private static void printDeals(long seed, List<Integer> playerCounts) {
+        StringBuilder sb = new StringBuilder();
+        for(int numPlayers : playerCounts) {
+            List<List<Integer>> cards = ServerGameState.redeal(seed, numPlayers);
+            sb.append("players=").append(numPlayers).append(" seed=").append(seed).append(System.lineSeparator());
+            sb.append("  kitty ").append(cards.get(0)).append(System.lineSeparator());
+            for(int seat = 0; seat < numPlayers; seat++) {
+                sb.append("  seat ").append(seat).append(' ').append(cards.get(seat + 1))
+                        .append(System.lineSeparator());
+            }
+        }
+        System.out.print(sb);
+        System.out.flush();
+    }
+
+    private static long parseSeed(String key, String value) throws ServerConfig.InvalidConfigException {
+        try {
+            return Long.parseLong(value);
+        } catch(NumberFormatException e) {
+            throw new ServerConfig.InvalidConfigException(key + " must be a number");
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.sage.shengji.dedicated;
+
+import com.sage.shengji.server.game.DeadlineConfig;
+import com.sage.shengji.server.network.NioTransport;
+import com.sage.shengji.server.network.OutboundQueueConfig;
+import com.sage.shengji.server.network.SlowClientPolicy;
+import com.sage.shengji.utils.log.Log;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Properties;
+
+// Settings for a dedicated server. Settings are read from an optional properties file, and then from the command line,
+// which overrides the file. On the command line each setting is written as --key=value or --key value.
+//
+// Keys:
+//   config              path to a properties file using the keys below
+//   port                port to listen on
+//   tables              number of tables hosted
+//   eventloops          number of network threads
+//   maxqueuedframes     outbound frames a client may have queued before it is treated as too slow
+//   maxqueuedbytes      outbound bytes a client may have queued before it is treated as too slow
+//   maxframesperwrite   frames coalesced into a single socket write
+//   slowclientpolicy    DISCONNECT or COLLAPSE
+//   turntimeout         seconds a player has to make a play before one is made for them, or 0 for no limit
+//   kittytimeout        seconds the caller has to choose the kitty, or 0 for no limit
+//   friendcardstimeout  seconds the caller has to choose the friend cards, or 0 for no limit
+//   reconnectgrace      seconds a player who drops mid-round has to reconnect, or 0 to end the round at once
+//   loglevel            DEBUG, INFO or ERROR
+//   metricsport         port for the plain text metrics report on localhost, or 0 (the default) to not serve it
+class ServerConfig {
+    static final int DEFAULT_PORT = 9000;
+    static final int DEFAULT_NUM_TABLES = 1;
+    static final int MAX_TIMEOUT = 24 * 60 * 60; // In seconds
+
+    int port = DEFAULT_PORT;
+    int numTables = DEFAULT_NUM_TABLES;
+    int numEventLoops = NioTransport.DEFAULT_NUM_EVENT_LOOPS;
+    int maxQueuedFrames = OutboundQueueConfig.DEFAULT_MAX_QUEUED_FRAMES;
+    int maxQueuedBytes = OutboundQueueConfig.DEFAULT_MAX_QUEUED_BYTES;
+    int maxFramesPerWrite = OutboundQueueConfig.DEFAULT_MAX_FRAMES_PER_WRITE;
+    SlowClientPolicy slowClientPolicy = SlowClientPolicy.COLLAPSE;
+    int turnTimeout = (int)(DeadlineConfig.DEFAULT_TURN_MILLIS / 1000);
+    int kittyTimeout = (int)(DeadlineConfig.DEFAULT_KITTY_MILLIS / 1000);
+    int friendCardsTimeout = (int)(DeadlineConfig.DEFAULT_FRIEND_CARDS_MILLIS / 1000);
+    int reconnectGrace = (int)(DeadlineConfig.DEFAULT_RECONNECT_MILLIS / 1000);
+    Log.Level logLevel = Log.Level.INFO;
+    int metricsPort = 0;
+
+    static ServerConfig fromArgs(String[] args) throws InvalidConfigException {
+        Properties argProperties = parseArgs(args);
+        Properties properties = new Properties();
+        String configPath = argProperties.getProperty("config");
+        if(configPath != null) {
+            try(Reader reader = Files.newBufferedReader(Paths.get(configPath))) {
+                properties.load(reader);
+            } catch(IOException e) {
+                throw new InvalidConfigException("Could not read config file " + configPath + ": " + e.getMessage());
+            }
+        }
+        properties.putAll(argProperties);
+
+        ServerConfig config = new ServerConfig();
+        config.apply(properties);
+        return config;
+    }
+
+    static Properties parseArgs(String[] args) throws InvalidConfigException {
+        Properties properties = new Properties();
+        for(int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if(!arg.startsWith("--") || arg.length() == 2) {
+                throw new InvalidConfigException("Unexpected argument " + arg);
+            }
+            int equalsIdx = arg.indexOf('=');
+            if(equalsIdx != -1) {
+                properties.setProperty(arg.substring(2, equalsIdx), arg.substring(equalsIdx + 1));
+            } else if(i + 1 < args.length) {
+                properties.setProperty(arg.substring(2), args[++i]);
+            } else {
+                throw new InvalidConfigException("Missing value for " + arg);
+            }
+        }
+        return properties;
+    }
+
+    private void apply(Properties properties) throws InvalidConfigException {
+        for(String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key).trim();
+            switch(key.toLowerCase()) {
+            case "config":
+                break;
+            case "port":
+                port = parseInt(key, value, 1, 65535);
+                break;
+            case "tables":
+                numTables = parseInt(key, value, 1, Integer.MAX_VALUE);
+                break;
+            case "eventloops":
+                numEventLoops = parseInt(key, value, 1, Integer.MAX_VALUE);
+                break;
+            case "maxqueuedframes":
+                maxQueuedFrames = parseInt(key, value, 1, Integer.MAX_VALUE);
+                break;
+            case "maxqueuedbytes":
+                maxQueuedBytes = parseInt(key, value, 1, Integer.MAX_VALUE);
+                break;
+            case "maxframesperwrite":
+                maxFramesPerWrite = parseInt(key, value, 1, Integer.MAX_VALUE);
+                break;
+            case "slowclientpolicy":
+                slowClientPolicy = parseEnum(key, value, SlowClientPolicy.class);
+                break;
+            case "turntimeout":
+                turnTimeout = parseInt(key, value, 0, MAX_TIMEOUT);
+                break;
+            case "kittytimeout":
+                kittyTimeout = parseInt(key, value, 0, MAX_TIMEOUT);
+                break;
+            case "friendcardstimeout":
+                friendCardsTimeout = parseInt(key, value, 0, MAX_TIMEOUT);
+                break;
+            case "reconnectgrace":
+                reconnectGrace = parseInt(key, value, 0, MAX_TIMEOUT);
+                break;
+            case "loglevel":
+                logLevel = parseEnum(key, value, Log.Level.class);
+                break;
+            case "metricsport":
+                metricsPort = parseInt(key, value, 0, 65535);
+                break;
+            default:
+                throw new InvalidConfigException("Unknown setting " + key);
+            }
+        }
+    }
+
+    OutboundQueueConfig outboundQueueConfig() {
+        return new OutboundQueueConfig(maxQueuedFrames, maxQueuedBytes, maxFramesPerWrite, slowClientPolicy);
+    }
+
+    DeadlineConfig deadlineConfig() {
+        return new DeadlineConfig(turnTimeout * 1000L, kittyTimeout * 1000L, friendCardsTimeout * 1000L,
+                reconnectGrace * 1000L);
+    }
+
+    static int parseInt(String key, String value, int min, int max) throws InvalidConfigException {
+        try {
+            int i = Integer.parseInt(value);
+            if(i < min || i > max) {
+                throw new InvalidConfigException(key + " must be between " + min + " and " + max);
+            }
+            return i;
+        } catch(NumberFormatException e) {
+            throw new InvalidConfigException(key + " must be a number");
+        }
+    }
+
+    private static <E extends Enum<E>> E parseEnum(String key, String value, Class<E> enumClass)
+            throws InvalidConfigException {
+        try {
+            return Enum.valueOf(enumClass, value.toUpperCase());
+        } catch(IllegalArgumentException e) {
+            throw new InvalidConfigException(key + " must be one of " + Arrays.toString(enumClass.getEnumConstants()));
+        }
+    }
+
+    static class InvalidConfigException extends Exception {
+        InvalidConfigException(String message) {
+            super(message);
+        }
+    }
+}